@@ -22,6 +22,11 @@ import br.pucrio.inf.learn.util.maxbranching.SimpleWeightedEdge;
  * the artificial deleted node (paper at the index zero) to rank papers within
  * each cluster.
  * 
+ * The graph is sparse: only the paper pairs that have features (as given by
+ * the input sparse edge list) are scored and given to the MST algorithm. The
+ * work arrays are grow-only and reused across calls, thus one object must not
+ * be used by several threads at the same time.
+ * 
  * @author eraldo
  * 
  */
@@ -43,6 +48,16 @@ public class BisectionInference implements Inference {
 	 */
 	private ArrayList<SimpleWeightedEdge> artificialEdges;
 
+	/**
+	 * Weight of the edges from the artificial DELETED paper (index 0) and from
+	 * the artificial CONFIRMED paper (index 1) to each paper, used to rank
+	 * papers within each cluster. Inexistent edges have <code>NaN</code>
+	 * weight.
+	 */
+	private double[] deletedWeights;
+
+	private double[] confirmedWeights;
+
 	/**
 	 * Comparator of WeightedPaper's that ranks confirmed papers before deleted
 	 * ones and within each class ranks according to the inverse order of paper
@@ -68,6 +83,8 @@ public class BisectionInference implements Inference {
 		deletedPaperLossFactor = 1d;
 		mstAlgorithm = new KruskalAlgorithm(0, 2);
 		artificialEdges = new ArrayList<SimpleWeightedEdge>();
+		deletedWeights = new double[0];
+		confirmedWeights = new double[0];
 	}
 
 	public void setOnlyPositiveEdges(boolean val) {
@@ -97,20 +114,17 @@ public class BisectionInference implements Inference {
 		// Structure size.
 		int size = input.size();
 		// Build graph to run MST algorithm.
-		double[][] graph = new double[size][size];
-		fillGraph(graph, model, input, null, 0d);
+		fillGraph(model, input, null, 0d);
 
-		// Guarantee that auxiliary data structures fit this instance.
-		mstAlgorithm.realloc(size);
 		// Find MST.
-		mstAlgorithm.findMaxBranching(size, graph, output.getMst(),
+		mstAlgorithm.findMaxBranching(size, output.getMst(),
 				output.getPartition());
 
 		// Compute confirmed papers from the found MST.
 		output.computeSplitFromMstPartition();
 
 		// Sort edges within clusters.
-		fillWeightsAndConfirmed(output, graph);
+		fillWeightsAndConfirmed(output);
 		Arrays.sort(output.weightedPapers, compPapers);
 	}
 
@@ -133,13 +147,10 @@ public class BisectionInference implements Inference {
 		// Structure size.
 		int size = input.size();
 		// Build graph to run MST algorithm.
-		double[][] graph = new double[size][size];
-		fillGraph(graph, model, input, referenceOutput, lossWeight);
+		fillGraph(model, input, referenceOutput, lossWeight);
 
-		// Guarantee that auxiliary data structures fit this instance.
-		mstAlgorithm.realloc(size);
 		// Find MST.
-		mstAlgorithm.findMaxBranching(size, graph, predictedOutput.getMst(),
+		mstAlgorithm.findMaxBranching(size, predictedOutput.getMst(),
 				predictedOutput.getPartition());
 
 		// TODO I guess the following is not necessary during training.
@@ -172,19 +183,15 @@ public class BisectionInference implements Inference {
 		 * disconnected components: confirmed and deleted. So that the found MST
 		 * will always be split.
 		 */
-		double[][] graph = new double[size][size];
-		fillPartiaGraph(graph, model, input, partiallyLabeledOutput);
-
-		// Guarantee that auxiliary data structures fit this instance.
-		mstAlgorithm.realloc(size);
-
-		// Find MST.
 		boolean val = mstAlgorithm.isOnlyPositiveEdges();
 		mstAlgorithm.setOnlyPositiveEdges(false);
-		mstAlgorithm.findMaxBranching(size, graph, predictedOutput.getMst(),
-				predictedOutput.getPartition());
+		fillPartiaGraph(model, input, partiallyLabeledOutput);
 		mstAlgorithm.setOnlyPositiveEdges(val);
 
+		// Find MST.
+		mstAlgorithm.findMaxBranching(size, predictedOutput.getMst(),
+				predictedOutput.getPartition());
+
 		// Copy confirmed papers structure.
 		predictedOutput.setConfirmedPapersEqualTo(partiallyLabeledOutput);
 
@@ -236,87 +243,112 @@ public class BisectionInference implements Inference {
 	}
 
 	/**
-	 * Fill the given graph with weights derived from the given input edge
-	 * features, using the given model parameters. The graph is used to find the
-	 * MST which will give rise to confirmed-deleted papers clustering.
+	 * Fill the edge list of the MST algorithm with weights derived from the
+	 * given input edge features, using the given model parameters. The graph
+	 * is used to find the MST which will give rise to confirmed-deleted papers
+	 * clustering.
 	 * 
-	 * @param graph
 	 * @param model
 	 * @param input
 	 * @param correct
 	 * @param lossWeight
 	 */
-	private void fillGraph(double[][] graph, BisectionModel model,
-			BisectionInput input, BisectionOutput correct, double lossWeight) {
-		int size = input.size();
-		for (int paper1 = 0; paper1 < size; ++paper1) {
-			for (int paper2 = 0; paper2 < size; ++paper2) {
-				// Compute edge weight.
-				double w = getEdgeWeight(model, input, paper1, paper2);
-
-				if (Double.isNaN(w)) {
-					// Skip inexistent edges.
-					graph[paper1][paper2] = w;
-					continue;
-				}
-
-				// Add margin for incorrect edges.
-				if (correct != null
-						&& lossWeight != 0d
-						&& (correct.isConfirmed(paper1) != correct
-								.isConfirmed(paper2))) {
-					if (paper1 != 0 && paper2 != 0)
-						w += lossWeight;
-					else
-						/*
-						 * Add special margin for incorrect edge to the
-						 * artificial DELETED paper.
-						 */
-						w += lossWeight * deletedPaperLossFactor;
-				}
-
-				graph[paper1][paper2] = w;
+	private void fillGraph(BisectionModel model, BisectionInput input,
+			BisectionOutput correct, double lossWeight) {
+		clearGraph(input.size());
+		int numEdges = input.getNumberOfEdges();
+		for (int edge = 0; edge < numEdges; ++edge) {
+			int paper1 = input.getEdgeFrom(edge);
+			int paper2 = input.getEdgeTo(edge);
+
+			// Compute edge weight.
+			double w = getEdgeWeight(model, input, paper1, paper2);
+
+			// Add margin for incorrect edges.
+			if (correct != null
+					&& lossWeight != 0d
+					&& (correct.isConfirmed(paper1) != correct
+							.isConfirmed(paper2))) {
+				if (paper1 != 0 && paper2 != 0)
+					w += lossWeight;
+				else
+					/*
+					 * Add special margin for incorrect edge to the artificial
+					 * DELETED paper.
+					 */
+					w += lossWeight * deletedPaperLossFactor;
 			}
+
+			addEdge(paper1, paper2, w);
 		}
 	}
 
 	/**
-	 * Fill a graph to run MST algorithm on it. Use the given correct output to
+	 * Fill the edge list of the MST algorithm. Use the given correct output to
 	 * avoid including incorrect edges. That is, include only correct edges.
 	 * Thus, the predicted output is always correct.
 	 * 
-	 * @param graph
 	 * @param model
 	 * @param input
 	 * @param correct
 	 */
-	private void fillPartiaGraph(double[][] graph, BisectionModel model,
-			BisectionInput input, BisectionOutput correct) {
-		int size = input.size();
-		for (int paper1 = 0; paper1 < size; ++paper1) {
-			for (int paper2 = 0; paper2 < size; ++paper2) {
-				// Do not include incorrect edges.
-				if (correct.isConfirmed(paper1) != correct.isConfirmed(paper2)) {
-					graph[paper1][paper2] = Double.NaN;
-					continue;
-				}
-
-				/*
-				 * Do not include artificial edges in order to force the
-				 * selection of ordinary edges.
-				 */
-				// TODO test
-				// if (paper1 == 0 || paper1 == 1 || paper2 == 0 || paper2 == 1)
-				// {
-				// graph[paper1][paper2] = Double.NaN;
-				// continue;
-				// }
-
-				// Compute edge weight.
-				graph[paper1][paper2] = getEdgeWeight(model, input, paper1,
-						paper2);
-			}
+	private void fillPartiaGraph(BisectionModel model, BisectionInput input,
+			BisectionOutput correct) {
+		clearGraph(input.size());
+		int numEdges = input.getNumberOfEdges();
+		for (int edge = 0; edge < numEdges; ++edge) {
+			int paper1 = input.getEdgeFrom(edge);
+			int paper2 = input.getEdgeTo(edge);
+
+			// Do not include incorrect edges.
+			if (correct.isConfirmed(paper1) != correct.isConfirmed(paper2))
+				continue;
+
+			/*
+			 * Do not include artificial edges in order to force the
+			 * selection of ordinary edges.
+			 */
+			// TODO test
+			// if (paper1 == 0 || paper1 == 1 || paper2 == 0 || paper2 == 1)
+			// continue;
+
+			// Compute edge weight.
+			addEdge(paper1, paper2,
+					getEdgeWeight(model, input, paper1, paper2));
+		}
+	}
+
+	/**
+	 * Clear the edge list of the MST algorithm and the weights of the edges
+	 * from the artificial papers, guaranteeing that the work arrays fit the
+	 * given number of papers.
+	 * 
+	 * @param size
+	 */
+	private void clearGraph(int size) {
+		if (deletedWeights.length < size) {
+			deletedWeights = new double[size];
+			confirmedWeights = new double[size];
 		}
+		Arrays.fill(deletedWeights, 0, size, Double.NaN);
+		Arrays.fill(confirmedWeights, 0, size, Double.NaN);
+		mstAlgorithm.clearEdges();
+	}
+
+	/**
+	 * Add the given edge to the edge list of the MST algorithm and store its
+	 * weight, if it comes from an artificial paper.
+	 * 
+	 * @param paper1
+	 * @param paper2
+	 * @param w
+	 */
+	private void addEdge(int paper1, int paper2, double w) {
+		if (paper1 == 0)
+			deletedWeights[paper2] = w;
+		else if (paper1 == 1)
+			confirmedWeights[paper2] = w;
+		mstAlgorithm.addEdge(paper1, paper2, w);
 	}
 
 	private double getEdgeWeight(BisectionModel model, BisectionInput input,
@@ -326,14 +358,9 @@ public class BisectionInference implements Inference {
 		if (ftrCodes == null)
 			return Double.NaN;
 
-		// Numerical features of this edge.
-		double[] ftrValues = input.getFeatureValues(paper1, paper2);
-
 		// Compute edge weight.
-		double w = 0d;
-		for (int idxFtr = 0; idxFtr < ftrCodes.length; ++idxFtr)
-			w += model.getFeatureWeight(ftrCodes[idxFtr]) * ftrValues[idxFtr];
-		return w;
+		return model.getFeatureListScore(ftrCodes,
+				input.getFeatureValues(paper1, paper2));
 	}
 
 	/**
@@ -341,10 +368,8 @@ public class BisectionInference implements Inference {
 	 * paper has a weight and a confirmed flag.
 	 * 
 	 * @param output
-	 * @param graph
 	 */
-	private void fillWeightsAndConfirmed(BisectionOutput output,
-			double[][] graph) {
+	private void fillWeightsAndConfirmed(BisectionOutput output) {
 		/*
 		 * TODO test distance to clusters (confirmed and deleted) instead of
 		 * distance to deleted node.
@@ -355,10 +380,10 @@ public class BisectionInference implements Inference {
 			WeightedPaper wPaper = wPapers[idx];
 			int paper = wPaper.paper;
 			if (output.isConfirmed(paper)) {
-				wPaper.weight = graph[1][paper];
+				wPaper.weight = confirmedWeights[paper];
 				wPaper.confirmed = true;
 			} else {
-				wPaper.weight = -graph[0][paper];
+				wPaper.weight = -deletedWeights[paper];
 				wPaper.confirmed = false;
 			}
 		}
@@ -56,6 +56,15 @@ public class BisectionInput implements ExampleInput {
 	 */
 	private double[][][] featureValues;
 
+	/**
+	 * Sparse list of the edges that have derived features, in increasing order
+	 * of origin and then target paper. It is built on demand and discarded
+	 * whenever derived features change.
+	 */
+	private int[] edgesFrom;
+
+	private int[] edgesTo;
+
 	/**
 	 * Create a new input structure with the given properties.
 	 * 
@@ -219,6 +228,10 @@ public class BisectionInput implements ExampleInput {
 		// Number of derived features.
 		int numFtrs = codes.size();
 
+		// The sparse list of edges must be rebuilt.
+		edgesFrom = null;
+		edgesTo = null;
+
 		// Allocate arrays for feature codes and values.
 		int[] ftrCodes = featureCodes[paper1][paper2] = new int[numFtrs];
 		double[] ftrVals = featureValues[paper1][paper2] = new double[numFtrs];
@@ -255,6 +268,67 @@ public class BisectionInput implements ExampleInput {
 		int numPapers = size();
 		featureCodes = new int[numPapers][numPapers][];
 		featureValues = new double[numPapers][numPapers][];
+		edgesFrom = null;
+		edgesTo = null;
+	}
+
+	/**
+	 * Return the number of edges that have derived features.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfEdges() {
+		if (edgesFrom == null)
+			buildEdgeList();
+		return edgesFrom.length;
+	}
+
+	/**
+	 * Return the origin paper of the given edge (index in the sparse list of
+	 * edges with derived features).
+	 * 
+	 * @param edge
+	 * @return
+	 */
+	public int getEdgeFrom(int edge) {
+		return edgesFrom[edge];
+	}
+
+	/**
+	 * Return the target paper of the given edge (index in the sparse list of
+	 * edges with derived features).
+	 * 
+	 * @param edge
+	 * @return
+	 */
+	public int getEdgeTo(int edge) {
+		return edgesTo[edge];
+	}
+
+	/**
+	 * Build the sparse list of edges that have derived features.
+	 */
+	private void buildEdgeList() {
+		int numPapers = size();
+		int numEdges = 0;
+		for (int paper1 = 0; paper1 < numPapers; ++paper1)
+			for (int paper2 = 0; paper2 < numPapers; ++paper2)
+				if (featureCodes[paper1][paper2] != null)
+					++numEdges;
+		int[] from = new int[numEdges];
+		int[] to = new int[numEdges];
+		int edge = 0;
+		for (int paper1 = 0; paper1 < numPapers; ++paper1) {
+			for (int paper2 = 0; paper2 < numPapers; ++paper2) {
+				if (featureCodes[paper1][paper2] != null) {
+					from[edge] = paper1;
+					to[edge] = paper2;
+					++edge;
+				}
+			}
+		}
+		edgesFrom = from;
+		edgesTo = to;
 	}
 
 	public long getAuthorId() {
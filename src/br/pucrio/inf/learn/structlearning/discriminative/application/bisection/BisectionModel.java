@@ -1,5 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.bisection;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -28,9 +29,24 @@ public class BisectionModel implements Model {
 	private Map<Integer, AveragedParameter> parameters;
 
 	/**
-	 * Store the parameters updated in each training iteration.
+	 * Current weight of each feature code (zero for features without a
+	 * parameter). This primitive index mirrors the parameters map and is used
+	 * by the inference algorithm, so that computing edge weights does not
+	 * require map lookups.
 	 */
-	private Set<AveragedParameter> updatedParameters;
+	private double[] weights;
+
+	/**
+	 * Codes of the parameters updated in each training iteration.
+	 */
+	private int[] updatedCodes;
+
+	private int numUpdatedCodes;
+
+	/**
+	 * Whether each feature code is within <code>updatedCodes</code>.
+	 */
+	private boolean[] updated;
 
 	/**
 	 * Create a new empty model.
@@ -38,7 +54,9 @@ public class BisectionModel implements Model {
 	 */
 	public BisectionModel() {
 		parameters = new HashMap<Integer, AveragedParameter>();
-		updatedParameters = new HashSet<AveragedParameter>();
+		weights = new double[0];
+		updated = new boolean[0];
+		updatedCodes = new int[16];
 	}
 
 	/**
@@ -57,7 +75,9 @@ public class BisectionModel implements Model {
 		for (Entry<Integer, AveragedParameter> entry : parameters.entrySet())
 			entry.setValue(entry.getValue().clone());
 
-		this.updatedParameters = new HashSet<AveragedParameter>();
+		this.weights = other.weights.clone();
+		this.updated = new boolean[weights.length];
+		this.updatedCodes = new int[16];
 	}
 
 	/**
@@ -115,15 +135,24 @@ public class BisectionModel implements Model {
 
 	@Override
 	public void sumUpdates(int iteration) {
-		for (AveragedParameter parm : updatedParameters)
+		for (int idx = 0; idx < numUpdatedCodes; ++idx) {
+			int code = updatedCodes[idx];
+			AveragedParameter parm = parameters.get(code);
 			parm.sum(iteration);
-		updatedParameters.clear();
+			weights[code] = parm.get();
+			updated[code] = false;
+		}
+		numUpdatedCodes = 0;
 	}
 
 	@Override
 	public void average(int numberOfIterations) {
-		for (AveragedParameter parm : updatedParameters)
+		for (int idx = 0; idx < numUpdatedCodes; ++idx) {
+			int code = updatedCodes[idx];
+			AveragedParameter parm = parameters.get(code);
 			parm.average(numberOfIterations);
+			weights[code] = parm.get();
+		}
 	}
 
 	/**
@@ -133,10 +162,29 @@ public class BisectionModel implements Model {
 	 * @return
 	 */
 	public double getFeatureWeight(int code) {
-		AveragedParameter param = parameters.get(code);
-		if (param == null)
-			return 0d;
-		return param.get();
+		if (code < weights.length)
+			return weights[code];
+		return 0d;
+	}
+
+	/**
+	 * Return the weight of an edge with the given features (codes and values),
+	 * i.e., the sum of the feature weights multiplied by the feature values.
+	 * 
+	 * @param codes
+	 * @param values
+	 * @return
+	 */
+	public double getFeatureListScore(int[] codes, double[] values) {
+		double[] weights = this.weights;
+		double score = 0d;
+		int numFtrs = codes.length;
+		for (int idx = 0; idx < numFtrs; ++idx) {
+			int code = codes[idx];
+			if (code < weights.length)
+				score += weights[code] * values[idx];
+		}
+		return score;
 	}
 
 	@Override
@@ -173,7 +221,18 @@ public class BisectionModel implements Model {
 		param.update(value);
 
 		// Keep track of updated parameter within this example.
-		updatedParameters.add(param);
+		if (code >= weights.length) {
+			int length = Math.max(code + 1, 2 * weights.length);
+			weights = Arrays.copyOf(weights, length);
+			updated = Arrays.copyOf(updated, length);
+		}
+		if (!updated[code]) {
+			updated[code] = true;
+			if (numUpdatedCodes == updatedCodes.length)
+				updatedCodes = Arrays.copyOf(updatedCodes,
+						2 * updatedCodes.length);
+			updatedCodes[numUpdatedCodes++] = code;
+		}
 	}
 
 	/**
@@ -0,0 +1,400 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.coreference;
+
+import java.util.Arrays;
+
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
+import br.pucrio.inf.learn.util.maxbranching.DisjointSets;
+
+/**
+ * Candidate antecedent generation for coreference datasets. While a dataset is
+ * loaded, each mention pair (edge) is given to this filter and the features of
+ * the rejected edges are not stored. Thus, the number of scored edges (and the
+ * memory to store their features) is no longer quadratic on the number of
+ * mentions of a document.
+ * 
+ * An edge is kept if it comes from the artificial root mention, if it is
+ * within the mention window (the distance between the indexes of the two
+ * mentions is at most <code>maxMentionDistance</code>) or the sentence window
+ * (the distance between the segments of the two mentions is at most
+ * <code>maxSentenceDistance</code>), or if some keep rule matches it. A keep
+ * rule is a pair (feature label, value) and matches an edge whose value for
+ * this feature is the given one (e.g., an exact string match feature).
+ * Additionally, correct edges can always be kept, which is useful for training
+ * datasets.
+ * 
+ * The sentence window requires the labels of the features that give the
+ * segment of the left and of the right mention of each edge (see
+ * {@link #setSegmentFeatures(String, String)}). Their columns, like the ones
+ * of the keep rules, are resolved by label when the dataset header is read.
+ * 
+ * This filter also computes the candidate recall of the rules, i.e., the
+ * fraction of anaphoric mentions (mentions that are not the first one in their
+ * correct cluster) for which some antecedent in the same cluster is kept by
+ * the rules.
+ * 
+ * @author eraldo
+ * 
+ */
+public class CorefCandidateFilter {
+
+	/**
+	 * Maximum distance between the indexes of the two mentions of a kept edge.
+	 * Zero or a negative value disables the mention window.
+	 */
+	private int maxMentionDistance;
+
+	/**
+	 * Maximum distance between the segments of the two mentions of a kept
+	 * edge. A negative value disables the sentence window.
+	 */
+	private int maxSentenceDistance;
+
+	/**
+	 * Labels of the features that give the segments of the left and of the
+	 * right mentions (required by the sentence window).
+	 */
+	private String leftSegmentLabel;
+
+	private String rightSegmentLabel;
+
+	/**
+	 * Indexes (within the edge values) of the segment features. They are
+	 * resolved by {@link #setFeatureLabels(String[])}.
+	 */
+	private int leftSegmentIndex;
+
+	private int rightSegmentIndex;
+
+	/**
+	 * Feature labels and values of the keep rules.
+	 */
+	private String[] keepLabels;
+
+	private String[] keepValues;
+
+	/**
+	 * Indexes (within the edge values) of the keep rule features. They are
+	 * resolved by {@link #setFeatureLabels(String[])}.
+	 */
+	private int[] keepIndexes;
+
+	/**
+	 * Whether correct edges are always kept.
+	 */
+	private boolean keepCorrectEdges;
+
+	/**
+	 * Index of the artificial root mention.
+	 */
+	private int root;
+
+	/**
+	 * Edges kept by the rules in the current document (pairs of left and right
+	 * mentions).
+	 */
+	private int[] docEdges;
+
+	private int numDocEdges;
+
+	/**
+	 * Statistics.
+	 */
+	private long numEdges;
+
+	private long numKeptEdges;
+
+	private long numAnaphoricMentions;
+
+	private long numCoveredMentions;
+
+	/**
+	 * Create a filter with the given windows and no keep rules.
+	 * 
+	 * @param maxMentionDistance
+	 *            zero or a negative value disables the mention window.
+	 * @param maxSentenceDistance
+	 *            a negative value disables the sentence window.
+	 */
+	public CorefCandidateFilter(int maxMentionDistance, int maxSentenceDistance) {
+		this.maxMentionDistance = maxMentionDistance;
+		this.maxSentenceDistance = maxSentenceDistance;
+		this.keepLabels = new String[0];
+		this.keepValues = new String[0];
+		this.keepIndexes = new int[0];
+		this.leftSegmentIndex = -1;
+		this.rightSegmentIndex = -1;
+		this.root = 0;
+		this.docEdges = new int[256];
+	}
+
+	/**
+	 * Parse keep rules given as a comma-separated list of
+	 * <code>label=value</code> pairs.
+	 * 
+	 * @param rules
+	 */
+	public void setKeepRules(String rules) {
+		String[] vals = rules.split(",");
+		keepLabels = new String[vals.length];
+		keepValues = new String[vals.length];
+		for (int idx = 0; idx < vals.length; ++idx) {
+			int eq = vals[idx].indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException(
+						"Keep rules must be of the form label=value: "
+								+ vals[idx]);
+			keepLabels[idx] = vals[idx].substring(0, eq).trim();
+			keepValues[idx] = vals[idx].substring(eq + 1).trim();
+		}
+		keepIndexes = new int[0];
+	}
+
+	/**
+	 * Set the labels of the features that give the segments of the left and
+	 * of the right mentions of each edge. They are required by the sentence
+	 * window.
+	 * 
+	 * @param leftSegmentLabel
+	 * @param rightSegmentLabel
+	 */
+	public void setSegmentFeatures(String leftSegmentLabel,
+			String rightSegmentLabel) {
+		this.leftSegmentLabel = leftSegmentLabel;
+		this.rightSegmentLabel = rightSegmentLabel;
+		leftSegmentIndex = -1;
+		rightSegmentIndex = -1;
+	}
+
+	/**
+	 * Resolve the segment and the keep rule features within the given feature
+	 * labels (which do not include the edge id and the correct flag).
+	 * 
+	 * @param featureLabels
+	 * @throws IllegalArgumentException
+	 *             if some required feature is missing.
+	 */
+	public void setFeatureLabels(String[] featureLabels) {
+		if (maxSentenceDistance >= 0) {
+			if (leftSegmentLabel == null || rightSegmentLabel == null)
+				throw new IllegalArgumentException(
+						"The sentence window requires the labels of the "
+								+ "segment features");
+			leftSegmentIndex = getValueIndex(featureLabels, leftSegmentLabel);
+			if (leftSegmentIndex < 0)
+				throw new IllegalArgumentException("Unknown segment feature "
+						+ leftSegmentLabel);
+			rightSegmentIndex = getValueIndex(featureLabels, rightSegmentLabel);
+			if (rightSegmentIndex < 0)
+				throw new IllegalArgumentException("Unknown segment feature "
+						+ rightSegmentLabel);
+		}
+
+		keepIndexes = new int[keepLabels.length];
+		for (int idxRule = 0; idxRule < keepLabels.length; ++idxRule) {
+			keepIndexes[idxRule] = getValueIndex(featureLabels,
+					keepLabels[idxRule]);
+			if (keepIndexes[idxRule] < 0)
+				throw new IllegalArgumentException("Unknown feature "
+						+ keepLabels[idxRule] + " in keep rule");
+		}
+	}
+
+	/**
+	 * Return the index, within the edge values, of the feature with the given
+	 * label or -1 if there is no such feature.
+	 * 
+	 * @param featureLabels
+	 * @param label
+	 * @return
+	 */
+	private static int getValueIndex(String[] featureLabels, String label) {
+		for (int idxFtr = 0; idxFtr < featureLabels.length; ++idxFtr)
+			if (featureLabels[idxFtr].equals(label))
+				// The first value of an edge is its id.
+				return idxFtr + 1;
+		return -1;
+	}
+
+	public void setKeepCorrectEdges(boolean keepCorrectEdges) {
+		this.keepCorrectEdges = keepCorrectEdges;
+	}
+
+	public boolean isKeepCorrectEdges() {
+		return keepCorrectEdges;
+	}
+
+	public int getMaxMentionDistance() {
+		return maxMentionDistance;
+	}
+
+	public int getMaxSentenceDistance() {
+		return maxSentenceDistance;
+	}
+
+	/**
+	 * Return whether the given edge must be kept. The given array contains
+	 * the edge values as in the dataset file: the edge id, the features and
+	 * the correct flag.
+	 * 
+	 * @param ftrValues
+	 * @param leftMention
+	 * @param rightMention
+	 * @return
+	 */
+	public boolean accept(String[] ftrValues, int leftMention, int rightMention) {
+		++numEdges;
+		if (keptByRules(ftrValues, leftMention, rightMention)) {
+			if (numDocEdges + 2 > docEdges.length)
+				docEdges = Arrays.copyOf(docEdges, 2 * docEdges.length);
+			docEdges[numDocEdges++] = leftMention;
+			docEdges[numDocEdges++] = rightMention;
+			++numKeptEdges;
+			return true;
+		}
+		if (keepCorrectEdges && ftrValues[ftrValues.length - 1].equals("Y")) {
+			++numKeptEdges;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Return whether the given edge is kept by the windows or the keep rules.
+	 * 
+	 * @param ftrValues
+	 * @param leftMention
+	 * @param rightMention
+	 * @return
+	 */
+	private boolean keptByRules(String[] ftrValues, int leftMention,
+			int rightMention) {
+		if (leftMention == root || rightMention == root)
+			return true;
+		if (maxMentionDistance > 0
+				&& Math.abs(rightMention - leftMention) <= maxMentionDistance)
+			return true;
+		if (maxSentenceDistance >= 0) {
+			int distance = Math.abs(getSegment(ftrValues, rightSegmentIndex)
+					- getSegment(ftrValues, leftSegmentIndex));
+			if (distance <= maxSentenceDistance)
+				return true;
+		}
+		for (int idxRule = 0; idxRule < keepIndexes.length; ++idxRule)
+			if (ftrValues[keepIndexes[idxRule]].equals(keepValues[idxRule]))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Return the segment given by the edge value in the given index.
+	 * 
+	 * @param ftrValues
+	 * @param index
+	 * @return
+	 */
+	private int getSegment(String[] ftrValues, int index) {
+		if (index < 0)
+			throw new IllegalStateException(
+					"Segment features were not resolved (setFeatureLabels)");
+		try {
+			return Integer.parseInt(ftrValues[index]);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Segment feature value "
+					+ ftrValues[index] + " of edge " + ftrValues[0]
+					+ " is not an integer");
+		}
+	}
+
+	/**
+	 * Finish the current document, whose correct output is given, and update
+	 * the candidate recall statistics. The correct clustering is given by the
+	 * cluster ids of <code>CorefOutput</code> objects or, for ordinary
+	 * <code>DPOutput</code> objects, by the connected components of the
+	 * correct tree.
+	 * 
+	 * @param output
+	 */
+	public void endDocument(DPOutput output) {
+		int numMentions = output.size();
+		int[] clusterIds = new int[numMentions];
+		if (output instanceof CorefOutput) {
+			for (int mention = 0; mention < numMentions; ++mention)
+				clusterIds[mention] = ((CorefOutput) output)
+						.getClusterId(mention);
+		} else {
+			DisjointSets clustering = new DisjointSets(numMentions);
+			for (int mention = 0; mention < numMentions; ++mention) {
+				int head = output.getHead(mention);
+				if (mention != root && head != root && head >= 0
+						&& head != mention)
+					clustering.unionElements(head, mention);
+			}
+			for (int mention = 0; mention < numMentions; ++mention)
+				clusterIds[mention] = clustering.find(mention);
+		}
+
+		// Mentions with some kept antecedent in the same cluster.
+		boolean[] covered = new boolean[numMentions];
+		for (int idx = 0; idx < numDocEdges; idx += 2) {
+			int left = docEdges[idx];
+			int right = docEdges[idx + 1];
+			if (left == root || right == root || left >= numMentions
+					|| right >= numMentions)
+				continue;
+			if (clusterIds[left] == clusterIds[right])
+				covered[Math.max(left, right)] = true;
+		}
+
+		// Anaphoric mentions: all but the first mention of each cluster.
+		boolean[] seen = new boolean[numMentions];
+		for (int mention = 0; mention < numMentions; ++mention) {
+			if (mention == root)
+				continue;
+			int clusterId = clusterIds[mention];
+			if (!seen[clusterId]) {
+				seen[clusterId] = true;
+				continue;
+			}
+			++numAnaphoricMentions;
+			if (covered[mention])
+				++numCoveredMentions;
+		}
+
+		numDocEdges = 0;
+	}
+
+	/**
+	 * Return the fraction of anaphoric mentions with some correct antecedent
+	 * kept by the rules (correct edges kept only due to
+	 * <code>keepCorrectEdges</code> are not considered).
+	 * 
+	 * @return
+	 */
+	public double getCandidateRecall() {
+		if (numAnaphoricMentions == 0)
+			return 1d;
+		return ((double) numCoveredMentions) / numAnaphoricMentions;
+	}
+
+	/**
+	 * Return the fraction of kept edges.
+	 * 
+	 * @return
+	 */
+	public double getEdgeRatio() {
+		if (numEdges == 0)
+			return 1d;
+		return ((double) numKeptEdges) / numEdges;
+	}
+
+	/**
+	 * Reset the statistics.
+	 */
+	public void resetStatistics() {
+		numEdges = 0;
+		numKeptEdges = 0;
+		numAnaphoricMentions = 0;
+		numCoveredMentions = 0;
+		numDocEdges = 0;
+	}
+}
@@ -18,6 +18,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPI
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
+import br.pucrio.inf.learn.util.BinaryFileReader;
 
 /**
  * Store a coreference dataset in column format and provide methods related to
@@ -82,6 +83,16 @@ public class CorefColumnDataset extends DPColumnDataset {
 		this.checkMultipleTrueEdges = check;
 	}
 
+	@Override
+	protected DPInput readInput(BinaryFileReader in) throws IOException {
+		return new CorefInput(in);
+	}
+
+	@Override
+	protected DPOutput readOutput(BinaryFileReader in) throws IOException {
+		return new CorefOutput(in);
+	}
+
 	@Override
 	protected boolean parseExample(BufferedReader reader,
 			Set<Integer> multiValuedFeatureIndexes, String valueSeparator,
@@ -157,6 +168,17 @@ public class CorefColumnDataset extends DPColumnDataset {
 			if (idxMentionRight > maxIndex)
 				maxIndex = idxMentionRight;
 
+			// Skip the features of edges rejected by the candidate filter.
+			if (candidateFilter != null
+					&& !candidateFilter.accept(ftrValues, idxMentionLeft,
+							idxMentionRight)) {
+				if (ftrValues[ftrValues.length - 1].equals("Y")) {
+					correctRightMentions.add(idxMentionRight);
+					correctLeftMentions.add(idxMentionLeft);
+				}
+				continue;
+			}
+
 			// List of feature codes.
 			LinkedList<Integer> edgeFeatures = new LinkedList<Integer>();
 			features.add(edgeFeatures);
@@ -237,6 +259,9 @@ public class CorefColumnDataset extends DPColumnDataset {
 			// Using mention 0 as the root (artificial mention).
 			output.computeClusteringFromTree(0);
 
+		if (candidateFilter != null)
+			candidateFilter.endDocument(output);
+
 		/*
 		 * Create a new string to store the input id to avoid memory leaks,
 		 * since the id string keeps a reference to the line string.
@@ -1,9 +1,11 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.coreference;
 
+import java.io.IOException;
 import java.util.Collection;
 
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInputException;
+import br.pucrio.inf.learn.util.BinaryFileReader;
 
 /**
  * Represent a coreference resolution input structure. That is a document
@@ -94,6 +96,16 @@ public class CorefInput extends DPInput {
 				allocFixedWeightsMatrix);
 	}
 
+	/**
+	 * Create an input structure from the binary data in the given reader.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public CorefInput(BinaryFileReader in) throws IOException {
+		super(in);
+	}
+
 	@Override
 	public CorefOutput createOutput() {
 		return new CorefOutput(getNumberOfTokens());
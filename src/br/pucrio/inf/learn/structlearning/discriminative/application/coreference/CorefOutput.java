@@ -1,6 +1,10 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.coreference;
 
+import java.io.IOException;
+
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
+import br.pucrio.inf.learn.util.BinaryFileReader;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
 import br.pucrio.inf.learn.util.maxbranching.DisjointSets;
 
 /**
@@ -36,6 +40,24 @@ public class CorefOutput extends DPOutput {
 		this.clustering = new DisjointSets(numberOfMentions);
 	}
 
+	/**
+	 * Create an output structure from the binary data in the given reader,
+	 * which must have been written by {@link #write(BinaryFileWriter)}.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public CorefOutput(BinaryFileReader in) throws IOException {
+		super(in);
+		int numMentions = size();
+		this.clustering = new DisjointSets(numMentions);
+		int[] clusterIds = new int[numMentions];
+		in.readInts(clusterIds, 0, numMentions);
+		for (int mention = 0; mention < numMentions; ++mention)
+			if (clusterIds[mention] != mention)
+				clustering.unionElements(clusterIds[mention], mention);
+	}
+
 	@Override
 	public DPOutput createNewObject() {
 		return new CorefOutput(size());
@@ -88,4 +110,18 @@ public class CorefOutput extends DPOutput {
 		this.clustering.setEqualTo(copy.clustering);
 	}
 
+	/**
+	 * Write this output structure in binary format, i.e., the latent tree
+	 * followed by the cluster id of each mention.
+	 */
+	@Override
+	public void write(BinaryFileWriter out) throws IOException {
+		super.write(out);
+		int numMentions = size();
+		int[] clusterIds = new int[numMentions];
+		for (int mention = 0; mention < numMentions; ++mention)
+			clusterIds[mention] = getClusterId(mention);
+		out.writeInts(clusterIds, 0, numMentions);
+	}
+
 }
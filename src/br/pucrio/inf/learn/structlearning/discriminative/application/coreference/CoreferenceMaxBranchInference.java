@@ -7,6 +7,7 @@ import java.util.TreeSet;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPModel;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.EdgePruner;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
@@ -14,6 +15,8 @@ import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
 import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
 import br.pucrio.inf.learn.util.maxbranching.MaximumBranchingAlgorithm;
+import br.pucrio.inf.learn.util.maxbranching.SparseGraph;
+import br.pucrio.inf.learn.util.maxbranching.SparseMaxBranchAlgorithm;
 import br.pucrio.inf.learn.util.maxbranching.UndirectedMaxBranchAlgorithm;
 
 /**
@@ -96,6 +99,18 @@ public class CoreferenceMaxBranchInference implements Inference {
 
 	public double treeWeight;
 
+	/**
+	 * Optional edge pruner. If it is not <code>null</code>, only the edges
+	 * that survive the pruning are considered when predicting the coreference
+	 * trees (partial inference is not pruned).
+	 */
+	private EdgePruner pruner;
+
+	/**
+	 * Remaining edges after pruning.
+	 */
+	private SparseGraph prunedGraph;
+
 	/**
 	 * Create an inference implementation to deal with sentences that have the
 	 * given maximum number of tokens.
@@ -146,6 +161,72 @@ public class CoreferenceMaxBranchInference implements Inference {
 		maxBranchingAlgorithm.setOnlyPositiveEdges(!useRoot);
 	}
 
+	/**
+	 * Set an edge pruner to be used before predicting coreference trees. For
+	 * directed strategies, a sparse-aware maximum branching algorithm is used
+	 * when a pruner is given. The undirected algorithm (Kruskal) just ignores
+	 * the pruned (NaN) edges.
+	 * 
+	 * @param pruner
+	 */
+	public void setEdgePruner(EdgePruner pruner) {
+		this.pruner = pruner;
+		if (pruner == null)
+			prunedGraph = null;
+		else
+			prunedGraph = new SparseGraph();
+		if (maxBranchingAlgorithm instanceof UndirectedMaxBranchAlgorithm)
+			return;
+		MaximumBranchingAlgorithm alg;
+		if (pruner == null)
+			alg = new DirectedMaxBranchAlgorithm(graph.length);
+		else
+			alg = new SparseMaxBranchAlgorithm(graph.length);
+		alg.setCheckUniqueRoot(maxBranchingAlgorithm.isCheckUniqueRoot());
+		alg.setOnlyPositiveEdges(maxBranchingAlgorithm.isOnlyPositiveEdges());
+		maxBranchingAlgorithm = alg;
+	}
+
+	/**
+	 * Return the current edge pruner (possibly <code>null</code>).
+	 * 
+	 * @return
+	 */
+	public EdgePruner getEdgePruner() {
+		return pruner;
+	}
+
+	/**
+	 * Return the index of the node whose outgoing edges are never pruned, or
+	 * -1 if there is no such node.
+	 * 
+	 * @return
+	 */
+	public int getUnprunedHead() {
+		if (useRoot)
+			return root;
+		return -1;
+	}
+
+	/**
+	 * Find the maximum branching in the current (possibly pruned) graph and
+	 * fill the given inverted branching array with it.
+	 * 
+	 * @param numMentions
+	 * @param invertedBranching
+	 * @return the weight of the found branching.
+	 */
+	private double findMaxBranchingInPrunedGraph(int numMentions,
+			int[] invertedBranching) {
+		if (pruner != null
+				&& maxBranchingAlgorithm instanceof SparseMaxBranchAlgorithm)
+			return ((SparseMaxBranchAlgorithm) maxBranchingAlgorithm)
+					.findMaxBranching(numMentions, graph, prunedGraph,
+							invertedBranching);
+		return maxBranchingAlgorithm.findMaxBranching(numMentions, graph,
+				invertedBranching);
+	}
+
 	@Override
 	public void inference(Model model, ExampleInput input, ExampleOutput output) {
 		inference((DPModel) model, (DPInput) input, (CorefOutput) output);
@@ -166,8 +247,7 @@ public class CoreferenceMaxBranchInference implements Inference {
 		 * Find the maximum branching rooted at the zero node and fill the
 		 * output inverted branching array with it.
 		 */
-		treeWeight = maxBranchingAlgorithm.findMaxBranching(
-				input.getNumberOfTokens(), graph,
+		treeWeight = findMaxBranchingInPrunedGraph(input.getNumberOfTokens(),
 				output.getInvertedBranchingArray());
 
 		// Compute the clustering from the found rooted tree.
@@ -188,16 +268,24 @@ public class CoreferenceMaxBranchInference implements Inference {
 			graph = new double[numTokens][numTokens];
 			maxBranchingAlgorithm.realloc(numTokens);
 		}
+		// Model used to score the edges (it can be a pruning model).
+		DPModel scoringModel = model;
+		if (pruner != null)
+			scoringModel = pruner.getScoringModel(model);
 		// Fill the weight matrix.
 		for (int leftMention = 0; leftMention < numTokens; ++leftMention) {
 			for (int rightMention = 0; rightMention < numTokens; ++rightMention) {
 				if (!useRoot && (leftMention == root || rightMention == root))
 					graph[leftMention][rightMention] = Double.NaN;
 				else
-					graph[leftMention][rightMention] = model.getEdgeScore(
-							input, leftMention, rightMention);
+					graph[leftMention][rightMention] = scoringModel
+							.getEdgeScore(input, leftMention, rightMention);
 			}
 		}
+		// Remove the low-scored edges (root edges are always kept).
+		if (pruner != null)
+			pruner.prune(model, input, numTokens, graph, getUnprunedHead(),
+					prunedGraph);
 	}
 
 	@Override
@@ -364,8 +452,7 @@ public class CoreferenceMaxBranchInference implements Inference {
 		 * Find the maximum branching rooted at the zero node and fill the
 		 * output inverted branching array with it.
 		 */
-		treeWeight = maxBranchingAlgorithm.findMaxBranching(
-				input.getNumberOfTokens(), graph,
+		treeWeight = findMaxBranchingInPrunedGraph(input.getNumberOfTokens(),
 				predictedOutput.getInvertedBranchingArray());
 
 		// Set the correct clustering for the predicted output structure.
@@ -72,11 +72,23 @@ public class DPTemplateEvolutionModel implements DPModel {
 	 */
 	protected Map<Integer, AveragedParameter> parameters;
 
+	/**
+	 * Fixed weights indexed by feature code. A model loaded from a binary file
+	 * keeps its weights in this array and the parameters map is only filled
+	 * (and this array discarded) when it is requested.
+	 */
+	protected double[] fixedWeights;
+
 	/**
 	 * Set of parameters that have been updated in the current iteration.
 	 */
 	protected Set<AveragedParameter> updatedParameters;
 
+	/**
+	 * Optional cache of edge scores across visits to the same example.
+	 */
+	protected EdgeScoreCache scoreCache;
+
 	/**
 	 * Create a new model with the given template partitions.
 	 * 
@@ -95,6 +107,10 @@ public class DPTemplateEvolutionModel implements DPModel {
 	 * The dataset encodins can be even empty and then they will be filled with
 	 * features from the loaded model.
 	 * 
+	 * The file can be in binary format (see {@link #saveBinary(String,
+	 * DPColumnDataset)}) or in JSON format. For JSON files, the flag
+	 * <code>largeModel</code> selects the streaming parser.
+	 * 
 	 * @param fileName
 	 * @param dataset
 	 * @param largeModel
@@ -108,6 +124,11 @@ public class DPTemplateEvolutionModel implements DPModel {
 		this.updatedParameters = null;
 		this.parameters = new HashMap<Integer, AveragedParameter>();
 
+		if (PackedModel.isBinary(fileName)) {
+			loadBinary(fileName, dataset);
+			return;
+		}
+
 		// Model file input stream.
 		FileInputStream fis = new FileInputStream(fileName);
 
@@ -175,6 +196,71 @@ public class DPTemplateEvolutionModel implements DPModel {
 		}
 	}
 
+	/**
+	 * Load a model in binary format. The string table is encoded at once and
+	 * the weights are stored in the primitive array <code>fixedWeights</code>,
+	 * indexed by the explicit feature codes.
+	 * 
+	 * @param fileName
+	 * @param dataset
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	private void loadBinary(String fileName, CorefColumnDataset dataset)
+			throws IOException, DatasetException {
+		PackedModel packed = PackedModel.read(fileName);
+		root = packed.getRoot();
+
+		// Templates.
+		LOG.info("Loading templates...");
+		String[][][] labelsAllLevels = packed.getTemplates();
+		FeatureTemplate[][] templatesAllLevels = new FeatureTemplate[labelsAllLevels.length][];
+		for (int level = 0; level < labelsAllLevels.length; ++level) {
+			String[][] labels = labelsAllLevels[level];
+			FeatureTemplate[] templates = new FeatureTemplate[labels.length];
+			for (int idxTpl = 0; idxTpl < labels.length; ++idxTpl) {
+				int[] features = new int[labels[idxTpl].length];
+				for (int idxFtr = 0; idxFtr < features.length; ++idxFtr)
+					features[idxFtr] = dataset
+							.getFeatureIndex(labels[idxTpl][idxFtr]);
+				templates[idxTpl] = new SimpleFeatureTemplate(idxTpl, features);
+			}
+			templatesAllLevels[level] = templates;
+		}
+		dataset.setTemplates(templatesAllLevels);
+
+		// Encode the string table.
+		LOG.info("Loading parameters...");
+		FeatureEncoding<String> basicEncoding = dataset.getFeatureEncoding();
+		FeatureEncoding<Feature> explicitEncoding = dataset
+				.getExplicitEncoding();
+		String[] strings = packed.getStrings();
+		int[] stringCodes = new int[strings.length];
+		for (int idx = 0; idx < strings.length; ++idx)
+			stringCodes[idx] = basicEncoding.put(strings[idx]);
+
+		// Encode the parameter features.
+		int numParams = packed.getNumberOfParameters();
+		int[] codes = new int[numParams];
+		int maxCode = -1;
+		for (int param = 0; param < numParams; ++param) {
+			int begin = packed.getValuesBegin(param);
+			int[] values = new int[packed.getValuesEnd(param) - begin];
+			for (int idxVal = 0; idxVal < values.length; ++idxVal)
+				values[idxVal] = stringCodes[packed.getValue(begin + idxVal)];
+			codes[param] = explicitEncoding.put(new Feature(packed
+					.getTemplateIndex(param), values));
+			if (codes[param] > maxCode)
+				maxCode = codes[param];
+		}
+
+		// Weight index.
+		fixedWeights = new double[maxCode + 1];
+		for (int param = 0; param < numParams; ++param)
+			if (codes[param] >= 0)
+				fixedWeights[codes[param]] += packed.getWeight(param);
+	}
+
 	/**
 	 * Load parameters using Jackson JSON library.
 	 * 
@@ -296,14 +382,14 @@ public class DPTemplateEvolutionModel implements DPModel {
 		this.root = other.root;
 
 		// Shallow-copy parameters map.
-		this.parameters = (HashMap<Integer, AveragedParameter>) ((HashMap<Integer, AveragedParameter>) other.parameters)
-				.clone();
+		this.parameters = (HashMap<Integer, AveragedParameter>) ((HashMap<Integer, AveragedParameter>) other
+				.getParameters()).clone();
 
 		// Clone each map value.
 		for (Entry<Integer, AveragedParameter> entry : parameters.entrySet())
 			entry.setValue(entry.getValue().clone());
 
-		// Updated parameters and features are NOT copied.
+		// Updated parameters, features and cached scores are NOT copied.
 		updatedParameters = new TreeSet<AveragedParameter>();
 	}
 
@@ -380,11 +466,19 @@ public class DPTemplateEvolutionModel implements DPModel {
 	}
 
 	/**
-	 * Return the parameters map.
+	 * Return the parameters map. If the model weights are fixed (loaded from a
+	 * binary file), the map is filled with its non-zero weights.
 	 * 
 	 * @return
 	 */
 	public Map<Integer, AveragedParameter> getParameters() {
+		if (fixedWeights != null) {
+			for (int code = 0; code < fixedWeights.length; ++code)
+				if (fixedWeights[code] != 0d)
+					parameters.put(code, new AveragedParameter(
+							fixedWeights[code]));
+			fixedWeights = null;
+		}
 		return parameters;
 	}
 
@@ -407,6 +501,16 @@ public class DPTemplateEvolutionModel implements DPModel {
 			return Double.NaN;
 
 		double score = 0d;
+		double[] weights = fixedWeights;
+		if (weights != null) {
+			for (int idxFtr = 0; idxFtr < features.length; ++idxFtr) {
+				int code = features[idxFtr];
+				if (code >= 0 && code < weights.length)
+					score += weights[code];
+			}
+			return score;
+		}
+
 		for (int idxFtr = 0; idxFtr < features.length; ++idxFtr) {
 			AveragedParameter param = parameters.get(features[idxFtr]);
 			if (param != null)
@@ -418,12 +522,46 @@ public class DPTemplateEvolutionModel implements DPModel {
 
 	@Override
 	public double getEdgeScore(DPInput input, int idxHead, int idxDependent) {
-		// int idxEx = input.getTrainingIndex();
-		double score = getEdgeScoreFromCurrentFeatures(input, idxHead,
-				idxDependent);
+		if (scoreCache == null)
+			return getEdgeScoreFromCurrentFeatures(input, idxHead,
+					idxDependent);
+
+		// Check edge existence.
+		int[] features = input.getFeatures(idxHead, idxDependent);
+		if (features == null)
+			return Double.NaN;
+
+		// Try the cached score before computing it.
+		int numTkns = input.getNumberOfTokens();
+		double score = scoreCache.lookup(input, numTkns * numTkns, idxHead
+				* numTkns + idxDependent, features);
+		if (Double.isNaN(score)) {
+			score = getEdgeScoreFromCurrentFeatures(input, idxHead,
+					idxDependent);
+			scoreCache.store(score);
+		}
 		return score;
 	}
 
+	/**
+	 * Set a cache to keep edge scores across visits to the same example. If
+	 * <code>null</code>, edge scores are always computed from scratch.
+	 * 
+	 * @param cache
+	 */
+	public void setScoreCache(EdgeScoreCache cache) {
+		this.scoreCache = cache;
+	}
+
+	/**
+	 * Return the edge score cache (possibly <code>null</code>).
+	 * 
+	 * @return
+	 */
+	public EdgeScoreCache getScoreCache() {
+		return scoreCache;
+	}
+
 	@Override
 	public double update(ExampleInput input, ExampleOutput outputCorrect,
 			ExampleOutput outputPredicted, double learningRate) {
@@ -512,7 +650,7 @@ public class DPTemplateEvolutionModel implements DPModel {
 	 * @return
 	 */
 	protected void updateFeatureParam(int code, double value) {
-		AveragedParameter param = parameters.get(code);
+		AveragedParameter param = getParameters().get(code);
 		if (param == null) {
 			// Create a new parameter.
 			param = new AveragedParameter();
@@ -524,6 +662,10 @@ public class DPTemplateEvolutionModel implements DPModel {
 
 		// Keep track of updated parameter within this example.
 		updatedParameters.add(param);
+
+		// Invalidate cached scores that depend on this parameter.
+		if (scoreCache != null)
+			scoreCache.featureUpdated(code);
 	}
 
 	@Override
@@ -531,12 +673,16 @@ public class DPTemplateEvolutionModel implements DPModel {
 		for (AveragedParameter parm : updatedParameters)
 			parm.sum(iteration);
 		updatedParameters.clear();
+		if (scoreCache != null)
+			scoreCache.nextVersion();
 	}
 
 	@Override
 	public void average(int numberOfIterations) {
-		for (AveragedParameter parm : parameters.values())
+		for (AveragedParameter parm : getParameters().values())
 			parm.average(numberOfIterations);
+		if (scoreCache != null)
+			scoreCache.clear();
 	}
 
 	@Override
@@ -544,8 +690,20 @@ public class DPTemplateEvolutionModel implements DPModel {
 		return new DPTemplateEvolutionModel(this);
 	}
 
+	/**
+	 * Return the number of updated parameters. If the model weights are fixed
+	 * (loaded from a binary file), only non-zero weights are counted, which
+	 * are the ones that would fill the parameters map.
+	 */
 	@Override
 	public int getNumberOfUpdatedParameters() {
+		if (fixedWeights != null) {
+			int numUpdated = 0;
+			for (int code = 0; code < fixedWeights.length; ++code)
+				if (fixedWeights[code] != 0d)
+					++numUpdated;
+			return numUpdated;
+		}
 		return parameters.size();
 	}
 
@@ -568,6 +726,10 @@ public class DPTemplateEvolutionModel implements DPModel {
 		FeatureEncoding<String> basicEncoding = dataset.getFeatureEncoding();
 		FeatureEncoding<Feature> explicitEncoding = dataset
 				.getExplicitEncoding();
+		if (explicitEncoding instanceof HashedFeatureEncoding
+				&& ((HashedFeatureEncoding) explicitEncoding).isFixedSize())
+			throw new IOException("Features hashed into a fixed code space "
+					+ "cannot be saved");
 		try {
 			// JSON objects writer.
 			JSONWriter jw = new JSONWriter(w);
@@ -602,7 +764,7 @@ public class DPTemplateEvolutionModel implements DPModel {
 			// Parameters array.
 			jw.key("parameters");
 			jw.array();
-			for (Entry<Integer, AveragedParameter> entry : parameters
+			for (Entry<Integer, AveragedParameter> entry : getParameters()
 					.entrySet()) {
 				// Explicit features array:
 				// [template_index, [feature_values_array], weight].
@@ -631,6 +793,19 @@ public class DPTemplateEvolutionModel implements DPModel {
 		}
 	}
 
+	/**
+	 * Save this model in binary format, which is much faster to load than
+	 * JSON. See {@link PackedModel}.
+	 * 
+	 * @param fileName
+	 * @param dataset
+	 * @throws IOException
+	 */
+	public void saveBinary(String fileName, DPColumnDataset dataset)
+			throws IOException {
+		PackedModel.fromModel(this, dataset).write(fileName);
+	}
+
 	/**
 	 * Sum the parameters of the given model in this model. The given model
 	 * parameters are weighted by the given weight.
@@ -639,16 +814,18 @@ public class DPTemplateEvolutionModel implements DPModel {
 	 * @param weight
 	 */
 	public void sumModel(DPTemplateEvolutionModel model, double weight) {
-		for (Entry<Integer, AveragedParameter> entry : model.parameters
+		for (Entry<Integer, AveragedParameter> entry : model.getParameters()
 				.entrySet()) {
 			int code = entry.getKey();
 			double val = entry.getValue().get();
-			AveragedParameter param = parameters.get(code);
+			AveragedParameter param = getParameters().get(code);
 			if (param == null) {
 				param = new AveragedParameter();
 				parameters.put(code, param);
 			}
 			param.increment(val * weight);
 		}
+		if (scoreCache != null)
+			scoreCache.clear();
 	}
 }
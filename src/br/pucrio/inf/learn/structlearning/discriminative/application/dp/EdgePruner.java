@@ -0,0 +1,338 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
+
+import java.util.Arrays;
+
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
+import br.pucrio.inf.learn.util.maxbranching.SparseGraph;
+
+/**
+ * First-order edge pruning. For each dependent node, only the best scored
+ * incoming edges are kept. The edge scores can be given by a dedicated pruning
+ * model or by the model being used in the inference itself.
+ *
+ * An incoming edge of a dependent is kept only if (1) it is among the
+ * <code>maxHeadsPerDependent</code> best scored incoming edges of this
+ * dependent and (2) its score is not much lower than the best score, i.e.,
+ * <code>exp(score - bestScore) >= scoreRatio</code>. The best incoming edge of
+ * each dependent is always kept. Pruned edges get a NaN weight, which
+ * indicates a missing edge to the maximum branching algorithms.
+ *
+ * @author eraldo
+ *
+ */
+public class EdgePruner {
+
+	/**
+	 * Model used to score the edges for pruning. If it is <code>null</code>,
+	 * the inference model is used.
+	 */
+	private DPModel pruningModel;
+
+	/**
+	 * Maximum number of heads (incoming edges) kept for each dependent.
+	 */
+	private int maxHeadsPerDependent;
+
+	/**
+	 * Minimum ratio <code>exp(score - bestScore)</code> for an edge to be kept.
+	 * Zero means no threshold.
+	 */
+	private double scoreRatio;
+
+	/**
+	 * Heap of the best heads of the current dependent (min-heap by score).
+	 */
+	private int[] heapHeads;
+
+	/**
+	 * Scores of the heads in <code>heapHeads</code>.
+	 */
+	private double[] heapScores;
+
+	/**
+	 * Create a pruner that keeps at most <code>maxHeadsPerDependent</code>
+	 * incoming edges per dependent. Further, edges whose score ratio (w.r.t.
+	 * the best incoming edge of the same dependent) is less than
+	 * <code>scoreRatio</code> are also pruned.
+	 *
+	 * @param maxHeadsPerDependent
+	 * @param scoreRatio
+	 */
+	public EdgePruner(int maxHeadsPerDependent, double scoreRatio) {
+		if (maxHeadsPerDependent < 1)
+			throw new IllegalArgumentException(
+					"Number of heads per dependent must be positive");
+		this.maxHeadsPerDependent = maxHeadsPerDependent;
+		this.scoreRatio = scoreRatio;
+		this.heapHeads = new int[maxHeadsPerDependent];
+		this.heapScores = new double[maxHeadsPerDependent];
+	}
+
+	/**
+	 * Set the model used to score edges for pruning. If it is
+	 * <code>null</code>, the inference model is used.
+	 *
+	 * @param pruningModel
+	 */
+	public void setPruningModel(DPModel pruningModel) {
+		this.pruningModel = pruningModel;
+	}
+
+	/**
+	 * Return the model used to score edges for pruning (possibly
+	 * <code>null</code>).
+	 *
+	 * @return
+	 */
+	public DPModel getPruningModel() {
+		return pruningModel;
+	}
+
+	/**
+	 * Return the model that must be used to fill the graph before calling
+	 * {@link #prune(DPModel, DPInput, int, double[][], int, SparseGraph)}.
+	 *
+	 * @param model
+	 *            the inference model.
+	 * @return
+	 */
+	public DPModel getScoringModel(DPModel model) {
+		if (pruningModel != null)
+			return pruningModel;
+		return model;
+	}
+
+	public int getMaxHeadsPerDependent() {
+		return maxHeadsPerDependent;
+	}
+
+	public double getScoreRatio() {
+		return scoreRatio;
+	}
+
+	/**
+	 * Prune the given graph, whose weights must have been computed by the
+	 * model returned by {@link #getScoringModel(DPModel)}. Pruned edges get a
+	 * NaN weight and the remaining edges are included in <code>edges</code>
+	 * (if it is not <code>null</code>). If there is a dedicated pruning model,
+	 * the remaining edges are then rescored by the given inference model.
+	 *
+	 * @param model
+	 *            the inference model.
+	 * @param input
+	 * @param numberOfNodes
+	 * @param graph
+	 * @param keepHead
+	 *            node whose outgoing edges are never pruned (e.g., the
+	 *            artificial root mention in coreference) or -1.
+	 * @param edges
+	 * @return the number of remaining edges.
+	 */
+	public int prune(DPModel model, DPInput input, int numberOfNodes,
+			double[][] graph, int keepHead, SparseGraph edges) {
+		return prune(model, input, numberOfNodes, graph, keepHead, edges,
+				pruningModel != null);
+	}
+
+	/**
+	 * Prune the given graph and, if <code>rescore</code> is <code>true</code>,
+	 * rescore the remaining edges by the given model.
+	 *
+	 * @param model
+	 * @param input
+	 * @param numberOfNodes
+	 * @param graph
+	 * @param keepHead
+	 * @param edges
+	 * @param rescore
+	 * @return the number of remaining edges.
+	 */
+	private int prune(DPModel model, DPInput input, int numberOfNodes,
+			double[][] graph, int keepHead, SparseGraph edges, boolean rescore) {
+		if (edges != null)
+			edges.clear();
+		int numEdges = 0;
+		for (int dep = 0; dep < numberOfNodes; ++dep) {
+			int size = selectHeads(numberOfNodes, graph, dep, keepHead);
+			if (size == 0)
+				continue;
+
+			// Keep the selected heads and prune all the other ones.
+			double bestScore = Double.NEGATIVE_INFINITY;
+			for (int idx = 0; idx < size; ++idx)
+				if (heapScores[idx] > bestScore)
+					bestScore = heapScores[idx];
+			double minScore = Double.NEGATIVE_INFINITY;
+			if (scoreRatio > 0d)
+				minScore = bestScore + Math.log(scoreRatio);
+			for (int idx = 0; idx < size; ++idx)
+				if (heapScores[idx] < minScore)
+					heapHeads[idx] = -1;
+			for (int head = 0; head < numberOfNodes; ++head) {
+				if (head == dep || head == keepHead)
+					continue;
+				graph[head][dep] = Double.NaN;
+			}
+			for (int idx = 0; idx < size; ++idx) {
+				int head = heapHeads[idx];
+				if (head < 0)
+					continue;
+				graph[head][dep] = heapScores[idx];
+			}
+
+			// Include the remaining edges in the sparse graph.
+			for (int head = 0; head < numberOfNodes; ++head) {
+				if (head == dep || Double.isNaN(graph[head][dep]))
+					continue;
+				if (rescore)
+					graph[head][dep] = model.getEdgeScore(input, head, dep);
+				if (edges != null)
+					edges.addEdge(head, dep);
+				++numEdges;
+			}
+		}
+		return numEdges;
+	}
+
+	/**
+	 * Select the best scored heads of the given dependent and store them (and
+	 * their scores) in the heap arrays. The edges from <code>keepHead</code>
+	 * are not included in the heap since they are never pruned.
+	 *
+	 * @param numberOfNodes
+	 * @param graph
+	 * @param dep
+	 * @param keepHead
+	 * @return the number of selected heads.
+	 */
+	private int selectHeads(int numberOfNodes, double[][] graph, int dep,
+			int keepHead) {
+		int size = 0;
+		for (int head = 0; head < numberOfNodes; ++head) {
+			if (head == dep || head == keepHead)
+				continue;
+			double score = graph[head][dep];
+			if (Double.isNaN(score))
+				continue;
+			if (size < maxHeadsPerDependent) {
+				// Sift up.
+				int pos = size++;
+				while (pos > 0) {
+					int parent = (pos - 1) / 2;
+					if (heapScores[parent] <= score)
+						break;
+					heapHeads[pos] = heapHeads[parent];
+					heapScores[pos] = heapScores[parent];
+					pos = parent;
+				}
+				heapHeads[pos] = head;
+				heapScores[pos] = score;
+			} else if (score > heapScores[0]) {
+				// Replace the worst head and sift down.
+				int pos = 0;
+				while (true) {
+					int child = 2 * pos + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size
+							&& heapScores[child + 1] < heapScores[child])
+						++child;
+					if (heapScores[child] >= score)
+						break;
+					heapHeads[pos] = heapHeads[child];
+					heapScores[pos] = heapScores[child];
+					pos = child;
+				}
+				heapHeads[pos] = head;
+				heapScores[pos] = score;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Compute the oracle recall of this pruner on the given examples, i.e., the
+	 * fraction of dependents whose correct incoming edge survives the pruning.
+	 *
+	 * For coreference outputs, a mention is considered covered if some
+	 * remaining incoming edge comes from a mention in the same correct cluster
+	 * or, in the case of the first mention of its cluster, from the artificial
+	 * root mention.
+	 *
+	 * @param model
+	 *            the inference model (used when there is no pruning model).
+	 * @param inputs
+	 * @param outputs
+	 * @param root
+	 *            index of the root node.
+	 * @param keepHead
+	 *            node whose outgoing edges are never pruned or -1.
+	 * @return
+	 */
+	public double computeOracleRecall(DPModel model, DPInput[] inputs,
+			DPOutput[] outputs, int root, int keepHead) {
+		DPModel scoringModel = getScoringModel(model);
+		long numCovered = 0;
+		long numDependents = 0;
+		double[][] oracleGraph = null;
+		for (int idxEx = 0; idxEx < inputs.length; ++idxEx) {
+			DPInput input = inputs[idxEx];
+			DPOutput output = outputs[idxEx];
+			int numNodes = input.getNumberOfTokens();
+			if (oracleGraph == null || oracleGraph.length < numNodes)
+				oracleGraph = new double[numNodes][numNodes];
+			for (int head = 0; head < numNodes; ++head)
+				for (int dep = 0; dep < numNodes; ++dep)
+					oracleGraph[head][dep] = scoringModel.getEdgeScore(input,
+							head, dep);
+			/*
+			 * Only the pruning decisions matter here, thus there is no need to
+			 * rescore the remaining edges.
+			 */
+			prune(scoringModel, input, numNodes, oracleGraph, keepHead, null,
+					false);
+
+			if (output instanceof CorefOutput) {
+				CorefOutput coref = (CorefOutput) output;
+				// First mention of each correct cluster.
+				int[] firstMention = new int[numNodes];
+				Arrays.fill(firstMention, -1);
+				for (int mention = 0; mention < numNodes; ++mention) {
+					int id = coref.getClusterId(mention);
+					if (firstMention[id] == -1)
+						firstMention[id] = mention;
+				}
+				for (int dep = 0; dep < numNodes; ++dep) {
+					if (dep == root)
+						continue;
+					++numDependents;
+					int id = coref.getClusterId(dep);
+					for (int head = 0; head < numNodes; ++head) {
+						if (head == dep || Double.isNaN(oracleGraph[head][dep]))
+							continue;
+						if (head == root ? firstMention[id] == dep : coref
+								.getClusterId(head) == id) {
+							++numCovered;
+							break;
+						}
+					}
+				}
+			} else {
+				for (int dep = 0; dep < numNodes; ++dep) {
+					int head = output.getHead(dep);
+					if (dep == root || head < 0)
+						continue;
+					++numDependents;
+					if (!Double.isNaN(oracleGraph[head][dep]))
+						++numCovered;
+				}
+			}
+		}
+
+		if (numDependents == 0)
+			return 1d;
+		return ((double) numCovered) / numDependents;
+	}
+}
@@ -0,0 +1,276 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of factor (edge) scores across visits to the same example. It avoids
+ * recomputing the score of factors whose features have not been updated since
+ * the last time the factor was scored.
+ *
+ * The cache keeps a version stamp for each feature code. The model must
+ * report every feature update (<code>featureUpdated(code)</code>) and the end
+ * of each update step (<code>nextVersion()</code>), i.e., when the pending
+ * updates are incorporated into the parameter weights. The score of a factor
+ * is valid as long as none of its features has a version stamp greater than
+ * the version at which the score was computed.
+ *
+ * Scores are stored per example (identified by its input object) in a flat
+ * array of factor slots. The whole cache is bounded by a memory budget; the
+ * least recently used examples are evicted when it is exceeded.
+ *
+ * The cache assumes that the feature arrays of each example do not change. If
+ * they are regenerated or if the model weights are changed by other means
+ * (e.g., averaging), <code>clear()</code> must be called.
+ *
+ * @author eraldo
+ *
+ */
+public class EdgeScoreCache {
+
+	/**
+	 * Number of bytes used by each factor slot (score and version).
+	 */
+	private static final int BYTES_PER_SLOT = 12;
+
+	/**
+	 * Version stamp of each feature code, i.e., the version in which its
+	 * weight was last changed.
+	 */
+	private int[] featureVersions;
+
+	/**
+	 * Current version. It is incremented after each update step.
+	 */
+	private int currentVersion;
+
+	/**
+	 * Maximum number of bytes used by the cached scores.
+	 */
+	private long memoryBudget;
+
+	/**
+	 * Number of bytes currently used by the cached scores.
+	 */
+	private long memoryUsage;
+
+	/**
+	 * Cached scores of each example in least-recently-used order.
+	 */
+	private LinkedHashMap<Object, ExampleScores> examples;
+
+	/**
+	 * Last accessed example and its scores. Consecutive lookups usually refer
+	 * to the same example, thus this avoids one hash lookup per factor.
+	 */
+	private Object lastKey;
+
+	private ExampleScores lastScores;
+
+	/**
+	 * Slot of the last lookup.
+	 */
+	private int lastSlot;
+
+	/**
+	 * Statistics: number of lookups and number of cache hits.
+	 */
+	private long numLookups;
+
+	private long numHits;
+
+	/**
+	 * Create an empty cache that uses at most the given number of bytes to
+	 * store scores.
+	 *
+	 * @param memoryBudget
+	 */
+	public EdgeScoreCache(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		this.featureVersions = new int[1024];
+		this.currentVersion = 1;
+		this.examples = new LinkedHashMap<Object, ExampleScores>(16, 0.75f,
+				true);
+	}
+
+	/**
+	 * Register that the weight of the given feature will change in the next
+	 * update step.
+	 *
+	 * @param code
+	 */
+	public void featureUpdated(int code) {
+		if (code >= featureVersions.length)
+			featureVersions = Arrays.copyOf(featureVersions,
+					Math.max(code + 1, 2 * featureVersions.length));
+		featureVersions[code] = currentVersion + 1;
+	}
+
+	/**
+	 * Register the end of an update step, i.e., the pending updates have been
+	 * incorporated into the weights.
+	 */
+	public void nextVersion() {
+		++currentVersion;
+	}
+
+	/**
+	 * Remove all cached scores.
+	 */
+	public void clear() {
+		examples.clear();
+		memoryUsage = 0;
+		lastKey = null;
+		lastScores = null;
+	}
+
+	/**
+	 * Return the cached score of the given factor or NaN if the score is not
+	 * cached or if it is outdated. In the last case, the caller must compute
+	 * the score and call <code>store(score)</code>.
+	 *
+	 * @param key
+	 *            example identification (usually, the input object).
+	 * @param numSlots
+	 *            number of factor slots of the given example.
+	 * @param slot
+	 *            slot of the factor.
+	 * @param features
+	 *            features of the factor (must not be <code>null</code>).
+	 * @return
+	 */
+	public double lookup(Object key, int numSlots, int slot, int[] features) {
+		return lookup(key, numSlots, slot, features, 0, features.length);
+	}
+
+	/**
+	 * Return the cached score of the given factor, whose features are given
+	 * by the segment [<code>from</code>, <code>to</code>) of the array
+	 * <code>features</code>, or NaN if the score is not cached or if it is
+	 * outdated.
+	 *
+	 * @param key
+	 * @param numSlots
+	 * @param slot
+	 * @param features
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public double lookup(Object key, int numSlots, int slot, int[] features,
+			int from, int to) {
+		++numLookups;
+		if (key != lastKey) {
+			lastKey = key;
+			lastScores = getExampleScores(key, numSlots);
+		}
+		lastSlot = slot;
+		ExampleScores scores = lastScores;
+		if (scores == null)
+			return Double.NaN;
+		int version = scores.versions[slot];
+		if (version == 0)
+			return Double.NaN;
+		if (version != currentVersion) {
+			// Check whether some feature has been updated since then.
+			int[] ftrVersions = featureVersions;
+			for (int idxFtr = from; idxFtr < to; ++idxFtr) {
+				int code = features[idxFtr];
+				if (code < ftrVersions.length && ftrVersions[code] > version)
+					return Double.NaN;
+			}
+			scores.versions[slot] = currentVersion;
+		}
+		++numHits;
+		return scores.scores[slot];
+	}
+
+	/**
+	 * Store the given score in the slot of the last lookup.
+	 *
+	 * @param score
+	 */
+	public void store(double score) {
+		if (lastScores == null)
+			return;
+		lastScores.scores[lastSlot] = score;
+		lastScores.versions[lastSlot] = currentVersion;
+	}
+
+	/**
+	 * Return the fraction of lookups that have been answered by the cache.
+	 *
+	 * @return
+	 */
+	public double getHitRate() {
+		if (numLookups == 0)
+			return 0d;
+		return ((double) numHits) / numLookups;
+	}
+
+	/**
+	 * Return the number of bytes currently used by this cache.
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	/**
+	 * Return the scores of the given example, allocating them if necessary.
+	 * Return <code>null</code> if the example does not fit in the memory
+	 * budget.
+	 *
+	 * @param key
+	 * @param numSlots
+	 * @return
+	 */
+	private ExampleScores getExampleScores(Object key, int numSlots) {
+		ExampleScores scores = examples.get(key);
+		if (scores != null && scores.scores.length == numSlots)
+			return scores;
+		if (scores != null) {
+			// Number of slots has changed. Discard old scores.
+			examples.remove(key);
+			memoryUsage -= ((long) scores.scores.length) * BYTES_PER_SLOT;
+		}
+
+		long size = ((long) numSlots) * BYTES_PER_SLOT;
+		if (size > memoryBudget)
+			return null;
+
+		// Evict least recently used examples.
+		Iterator<ExampleScores> it = examples.values().iterator();
+		while (memoryUsage + size > memoryBudget && it.hasNext()) {
+			memoryUsage -= ((long) it.next().scores.length) * BYTES_PER_SLOT;
+			it.remove();
+		}
+
+		scores = new ExampleScores(numSlots);
+		examples.put(key, scores);
+		memoryUsage += size;
+		return scores;
+	}
+
+	/**
+	 * Cached scores of one example.
+	 */
+	private static class ExampleScores {
+		/**
+		 * Score of each factor slot.
+		 */
+		private final double[] scores;
+
+		/**
+		 * Version in which each score was computed (zero means empty slot).
+		 */
+		private final int[] versions;
+
+		public ExampleScores(int numSlots) {
+			scores = new double[numSlots];
+			versions = new int[numSlots];
+		}
+	}
+}
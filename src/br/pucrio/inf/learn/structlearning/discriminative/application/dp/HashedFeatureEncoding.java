@@ -0,0 +1,243 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
+
+import java.util.AbstractList;
+import java.util.Collection;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
+import br.pucrio.inf.learn.util.LongIntHashMap;
+import br.pucrio.inf.learn.util.Murmur3Hash;
+
+/**
+ * Explicit feature encoding that identifies each feature (template index plus
+ * values) by a 64-bit fingerprint computed by a Murmur3-based hash over its
+ * integers.
+ * 
+ * This encoding works in one of two modes:
+ * 
+ * - exact (default): fingerprints are mapped to sequential codes by a
+ * primitive long-to-int map. Looking up an existing feature does not allocate
+ * any object. A new <code>Feature</code> object is only created when a new
+ * feature is inserted, so that <code>getValueByCode</code> keeps working.
+ * Different features with the same 64-bit fingerprint would share the same
+ * code, but this is extremely unlikely.
+ * 
+ * - fixed size: the fingerprint is hashed straight into a fixed code space of
+ * the given size (hashing trick). No feature is stored,
+ * <code>getValueByCode</code> always returns <code>null</code> and collisions
+ * are expected.
+ * 
+ * Features can be encoded directly from the basic features of an example and
+ * the template feature indexes (<code>getCode(int, int[], int[])</code> and
+ * <code>put(int, int[], int[])</code>), so that template instantiation does
+ * not need a temporary <code>Feature</code> object.
+ * 
+ * As <code>MapEncoding</code>, concurrent lookups are safe as long as no
+ * thread inserts new features.
+ * 
+ * @author eraldo
+ * 
+ */
+public class HashedFeatureEncoding extends MapEncoding<Feature> {
+
+	/**
+	 * Seed of the fingerprint function. It is fixed so that fingerprints (and
+	 * fixed-size codes) are the same across executions.
+	 */
+	private static final long SEED = 0x3c6ef372fe94f82bL;
+
+	/**
+	 * Map from fingerprints to codes (exact mode).
+	 */
+	private LongIntHashMap fingerprintToCode;
+
+	/**
+	 * Size of the code space in the fixed-size mode, or zero in the exact mode.
+	 */
+	private final int fixedSize;
+
+	/**
+	 * Create an empty encoding in the exact mode.
+	 */
+	public HashedFeatureEncoding() {
+		this.fixedSize = 0;
+		this.fingerprintToCode = new LongIntHashMap(1024, UNSEEN_VALUE_CODE);
+	}
+
+	/**
+	 * Create an encoding that hashes features into the given number of codes.
+	 * 
+	 * @param size
+	 */
+	public HashedFeatureEncoding(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException(
+					"Size of the code space must be positive");
+		this.fixedSize = size;
+	}
+
+	/**
+	 * Return <code>true</code> if this encoding hashes features into a fixed
+	 * code space, i.e., feature values cannot be recovered from codes.
+	 * 
+	 * @return
+	 */
+	public boolean isFixedSize() {
+		return fixedSize > 0;
+	}
+
+	/**
+	 * Return the fingerprint of a feature given by its template index and
+	 * values.
+	 * 
+	 * @param templateIndex
+	 * @param values
+	 * @return
+	 */
+	public static long fingerprint(int templateIndex, int[] values) {
+		long h = Murmur3Hash.mix64(SEED, templateIndex);
+		int len = values.length;
+		for (int idx = 0; idx < len; ++idx)
+			h = Murmur3Hash.mix64(h, values[idx]);
+		return Murmur3Hash.finish64(h, len + 1);
+	}
+
+	/**
+	 * Return the fingerprint of the feature that is given by the template
+	 * index <code>templateIndex</code> and the values
+	 * <code>basicValues[features[0]], basicValues[features[1]], ...</code>.
+	 * The returned value is equal to the fingerprint of the corresponding
+	 * <code>Feature</code> object, but no object is created.
+	 * 
+	 * @param templateIndex
+	 * @param features
+	 * @param basicValues
+	 * @return
+	 */
+	public static long fingerprint(int templateIndex, int[] features,
+			int[] basicValues) {
+		long h = Murmur3Hash.mix64(SEED, templateIndex);
+		int len = features.length;
+		for (int idx = 0; idx < len; ++idx)
+			h = Murmur3Hash.mix64(h, basicValues[features[idx]]);
+		return Murmur3Hash.finish64(h, len + 1);
+	}
+
+	/**
+	 * Return the code of the feature with the given fingerprint, or
+	 * <code>UNSEEN_VALUE_CODE</code> if it is not present in this encoding.
+	 * 
+	 * @param fingerprint
+	 * @return
+	 */
+	public int getCodeByFingerprint(long fingerprint) {
+		if (fixedSize > 0)
+			return (int) ((fingerprint >>> 1) % fixedSize);
+		return fingerprintToCode.get(fingerprint);
+	}
+
+	/**
+	 * Return the code of the feature given by the template index
+	 * <code>templateIndex</code> and the values
+	 * <code>basicValues[features[0]], basicValues[features[1]], ...</code>,
+	 * or <code>UNSEEN_VALUE_CODE</code> if this feature is not present.
+	 * 
+	 * @param templateIndex
+	 * @param features
+	 * @param basicValues
+	 * @return
+	 */
+	public int getCode(int templateIndex, int[] features, int[] basicValues) {
+		return getCodeByFingerprint(fingerprint(templateIndex, features,
+				basicValues));
+	}
+
+	/**
+	 * Insert the feature given by the template index
+	 * <code>templateIndex</code> and the values
+	 * <code>basicValues[features[0]], basicValues[features[1]], ...</code>,
+	 * and return its code. A <code>Feature</code> object is created only if
+	 * the feature is new.
+	 * 
+	 * @param templateIndex
+	 * @param features
+	 * @param basicValues
+	 * @return
+	 */
+	public int put(int templateIndex, int[] features, int[] basicValues) {
+		long fp = fingerprint(templateIndex, features, basicValues);
+		int code = getCodeByFingerprint(fp);
+		if (code != UNSEEN_VALUE_CODE || readOnly)
+			return code;
+		int[] values = new int[features.length];
+		for (int idx = 0; idx < values.length; ++idx)
+			values[idx] = basicValues[features[idx]];
+		return insert(fp, new Feature(templateIndex, values));
+	}
+
+	/**
+	 * Insert the given feature (whose fingerprint is given) in the exact-mode
+	 * map and return its new code.
+	 * 
+	 * @param fingerprint
+	 * @param ftr
+	 * @return
+	 */
+	private int insert(long fingerprint, Feature ftr) {
+		int code = mapFromCodeToValue.size();
+		mapFromCodeToValue.add(ftr);
+		fingerprintToCode.put(fingerprint, code);
+		return code;
+	}
+
+	/**
+	 * Insert the given feature and return its code. If the feature is new, a
+	 * copy of it is stored. Thus, the given object can be a temporary feature.
+	 */
+	@Override
+	public int put(Feature value) {
+		if (value == null)
+			throw new NullPointerException("You can not insert a null value.");
+		long fp = fingerprint(value.getTemplateIndex(), value.getValues());
+		int code = getCodeByFingerprint(fp);
+		if (code != UNSEEN_VALUE_CODE || readOnly)
+			return code;
+		return insert(fp, new Feature(value.getTemplateIndex(), value
+				.getValues().clone()));
+	}
+
+	@Override
+	public int getCodeByValue(Feature value) {
+		return getCodeByFingerprint(fingerprint(value.getTemplateIndex(),
+				value.getValues()));
+	}
+
+	@Override
+	public Feature getValueByCode(int code) {
+		if (fixedSize > 0)
+			return null;
+		return super.getValueByCode(code);
+	}
+
+	@Override
+	public int size() {
+		if (fixedSize > 0)
+			return fixedSize;
+		return mapFromCodeToValue.size();
+	}
+
+	@Override
+	public Collection<Integer> getCodes() {
+		final int size = size();
+		return new AbstractList<Integer>() {
+			@Override
+			public Integer get(int index) {
+				return index;
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+}
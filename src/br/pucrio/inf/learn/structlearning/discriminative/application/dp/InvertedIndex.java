@@ -1,11 +1,21 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
@@ -13,64 +23,220 @@ import br.pucrio.inf.learn.util.HashCodeUtil;
 
 /**
  * Represent a dependency parsing edge corpus (column format) by an inverted
- * index. That is, for each feature value, store the list of edges where this
- * feature occurs.
+ * index. That is, for each basic feature value, store the list of edges where
+ * this feature occurs.
+ * 
+ * Each edge is packed into a <code>long</code> value (example, head and
+ * dependent, in this order of significance), such that the natural order of
+ * the packed values is the same order of the <code>Edge</code> objects. Each
+ * posting list is a sorted sequence of packed edges compressed by delta and
+ * variable-length byte encoding. Posting lists are divided in blocks and the
+ * first edge of each block is stored in a skip table, which allows galloping
+ * search during intersection.
+ * 
+ * Unknown feature values (negative codes) are not indexed.
  * 
  * @author eraldo
  * 
  */
 public class InvertedIndex {
 
+	/**
+	 * Magic number and version of the binary file format.
+	 */
+	private static final int FILE_MAGIC = 0x494e5658;
+
+	private static final int FILE_VERSION = 1;
+
+	/**
+	 * Number of postings in each block of a posting list.
+	 */
+	private static final int BLOCK_SIZE = 64;
+
+	/**
+	 * Maximum number of tokens that can be packed in an edge.
+	 */
+	private static final int MAX_TOKENS = 1 << 16;
+
 	/**
 	 * Direct index.
 	 */
 	private DPColumnDataset corpus;
 
 	/**
-	 * Inverted index.
+	 * Indexed values of each feature (column), in increasing order.
 	 */
-	private HashMap<BasicFeature, TreeSet<Edge>> index;
+	private int[][] values;
 
 	/**
-	 * Auxiliary basic feature.
+	 * Posting list of each indexed value of each feature. The list
+	 * <code>postings[feature][idx]</code> corresponds to the value
+	 * <code>values[feature][idx]</code>.
 	 */
-	final private BasicFeature auxBasicFeature = new BasicFeature(0, 0);
+	private PostingList[][] postings;
 
 	/**
-	 * Create an inverted index that represents the given corpus.
+	 * Create an inverted index that represents the given corpus using as many
+	 * threads as available processors.
 	 * 
 	 * @param corpus
 	 */
 	public InvertedIndex(DPColumnDataset corpus) {
+		this(corpus, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create an inverted index that represents the given corpus. The posting
+	 * lists of different features are built in parallel by the given number of
+	 * threads.
+	 * 
+	 * @param corpus
+	 * @param numThreads
+	 */
+	public InvertedIndex(DPColumnDataset corpus, int numThreads) {
 		this.corpus = corpus;
-		initIndex();
+		initIndex(numThreads);
 	}
 
 	/**
-	 * Fill the inverted index with the underlying corpus.
+	 * Create an inverted index with the given posting lists.
+	 * 
+	 * @param corpus
+	 * @param values
+	 * @param postings
 	 */
-	private void initIndex() {
-		index = new HashMap<BasicFeature, TreeSet<Edge>>();
-		DPInput[] inputs = corpus.getInputs();
+	private InvertedIndex(DPColumnDataset corpus, int[][] values,
+			PostingList[][] postings) {
+		this.corpus = corpus;
+		this.values = values;
+		this.postings = postings;
+	}
+
+	/**
+	 * Fill the inverted index with the underlying corpus. Each feature
+	 * (column) is an independent shard, thus different features are indexed
+	 * by different threads.
+	 * 
+	 * @param numThreads
+	 */
+	private void initIndex(int numThreads) {
 		int numFtrs = corpus.getNumberOfFeatures();
+		for (DPInput input : corpus.getInputs())
+			if (input.getNumberOfTokens() > MAX_TOKENS)
+				throw new IllegalArgumentException(String.format(
+						"Example %s has more than %d tokens", input.getId(),
+						MAX_TOKENS));
+
+		values = new int[numFtrs][];
+		postings = new PostingList[numFtrs][];
+		if (numThreads < 1)
+			numThreads = 1;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+				numThreads, Math.max(1, numFtrs)));
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>(numFtrs);
+			for (int feature = 0; feature < numFtrs; ++feature) {
+				final int ftr = feature;
+				results.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						indexFeature(ftr);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> result : results)
+				result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Inverted index creation interrupted",
+					e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Creating inverted index", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Build the posting lists of the given feature (column). The corpus is
+	 * scanned twice: first to count the occurrences of each value and then to
+	 * place each edge within the segment of its value. Since the corpus is
+	 * scanned in edge order, each segment is already sorted.
+	 * 
+	 * @param feature
+	 */
+	private void indexFeature(int feature) {
+		DPInput[] inputs = corpus.getInputs();
+
+		// Count the occurrences of each value.
+		int[] counts = new int[1024];
+		int numOccurrences = 0;
 		for (int example = 0; example < inputs.length; ++example) {
 			DPInput input = inputs[example];
 			int len = input.getNumberOfTokens();
 			for (int head = 0; head < len; ++head) {
 				for (int dependent = 0; dependent < len; ++dependent) {
-					int[] vals = input.getFeatures(head, dependent);
-					if (vals == null || vals.length == 0)
+					int[] vals = input.getBasicFeatures(head, dependent);
+					if (vals == null || vals.length <= feature)
+						continue;
+					int val = vals[feature];
+					if (val < 0)
 						continue;
-					for (int feature = 0; feature < numFtrs; ++feature)
-						put(example, head, dependent, feature, vals[feature]);
+					if (val >= counts.length)
+						counts = Arrays.copyOf(counts,
+								Math.max(val + 1, 2 * counts.length));
+					++counts[val];
+					++numOccurrences;
 				}
 			}
-			if ((example + 1) % 100 == 0) {
-				System.out.print(".");
-				System.out.flush();
+		}
+
+		// Segment offsets and number of distinct values.
+		int[] offsets = new int[counts.length];
+		int numValues = 0;
+		int offset = 0;
+		for (int val = 0; val < counts.length; ++val) {
+			offsets[val] = offset;
+			offset += counts[val];
+			if (counts[val] > 0)
+				++numValues;
+		}
+
+		// Place each edge within the segment of its value.
+		long[] edges = new long[numOccurrences];
+		for (int example = 0; example < inputs.length; ++example) {
+			DPInput input = inputs[example];
+			int len = input.getNumberOfTokens();
+			for (int head = 0; head < len; ++head) {
+				for (int dependent = 0; dependent < len; ++dependent) {
+					int[] vals = input.getBasicFeatures(head, dependent);
+					if (vals == null || vals.length <= feature)
+						continue;
+					int val = vals[feature];
+					if (val < 0)
+						continue;
+					edges[offsets[val]++] = packEdge(example, head, dependent);
+				}
 			}
 		}
-		System.out.println();
+
+		// Compress each segment.
+		int[] ftrValues = new int[numValues];
+		PostingList[] ftrPostings = new PostingList[numValues];
+		int idxValue = 0;
+		offset = 0;
+		for (int val = 0; val < counts.length; ++val) {
+			if (counts[val] == 0)
+				continue;
+			ftrValues[idxValue] = val;
+			ftrPostings[idxValue] = new PostingList(edges, offset, counts[val]);
+			offset += counts[val];
+			++idxValue;
+		}
+
+		values[feature] = ftrValues;
+		postings[feature] = ftrPostings;
 	}
 
 	/**
@@ -83,23 +249,77 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Include the given example in the list of the given feature value.
+	 * Return the posting list of the given feature value or <code>null</code>
+	 * if this value does not occur in the corpus.
 	 * 
-	 * @param example
-	 * @param head
-	 * @param dependent
 	 * @param feature
 	 * @param value
+	 * @return
 	 */
-	public void put(int example, int head, int dependent, int feature, int value) {
-		auxBasicFeature.value = value;
-		auxBasicFeature.feature = feature;
-		TreeSet<Edge> set = index.get(auxBasicFeature);
-		if (set == null) {
-			set = new TreeSet<Edge>();
-			index.put(new BasicFeature(feature, value), set);
+	private PostingList getPostingList(int feature, int value) {
+		if (feature < 0 || feature >= values.length)
+			return null;
+		int idx = Arrays.binarySearch(values[feature], value);
+		if (idx < 0)
+			return null;
+		return postings[feature][idx];
+	}
+
+	/**
+	 * Return the number of edges where the given feature value occurs.
+	 * 
+	 * @param feature
+	 * @param value
+	 * @return
+	 */
+	public int getFrequency(int feature, int value) {
+		PostingList list = getPostingList(feature, value);
+		if (list == null)
+			return 0;
+		return list.size;
+	}
+
+	/**
+	 * Return the sorted array of packed edges where the given features occur
+	 * simultaneously, or <code>null</code> if some feature value never occurs
+	 * in the corpus. The posting lists are intersected from the shortest to
+	 * the longest one. Each candidate edge is searched in the next list by
+	 * galloping over its skip table.
+	 * 
+	 * @param features
+	 * @param values
+	 * @return
+	 */
+	public long[] getEdgesWithFeatures(int[] features, int[] values) {
+		int numFtrs = features.length;
+		if (numFtrs == 0)
+			return null;
+
+		// Sort posting lists by size.
+		PostingList[] lists = new PostingList[numFtrs];
+		for (int idx = 0; idx < numFtrs; ++idx) {
+			lists[idx] = getPostingList(features[idx], values[idx]);
+			if (lists[idx] == null)
+				// Some feature never occurs in the corpus.
+				return null;
+		}
+		for (int idx = 1; idx < numFtrs; ++idx) {
+			PostingList list = lists[idx];
+			int pos = idx - 1;
+			while (pos >= 0 && lists[pos].size > list.size) {
+				lists[pos + 1] = lists[pos];
+				--pos;
+			}
+			lists[pos + 1] = list;
 		}
-		set.add(new Edge(example, head, dependent));
+
+		long[] edges = lists[0].decode();
+		int size = edges.length;
+		for (int idx = 1; idx < numFtrs && size > 0; ++idx)
+			size = lists[idx].retain(edges, size);
+		if (size < edges.length)
+			edges = Arrays.copyOf(edges, size);
+		return edges;
 	}
 
 	/**
@@ -110,157 +330,359 @@ public class InvertedIndex {
 	 * @param values
 	 * @return
 	 */
-	@SuppressWarnings({ "rawtypes" })
 	public Collection<Edge> getExamplesWithFeatures(int[] features, int[] values) {
-		// Sort features by example list size.
-		final TreeSet[] exampleSets = new TreeSet[features.length];
-		ArrayList<Integer> sortedFeatures = new ArrayList<Integer>(
-				features.length);
-		for (int idx = 0; idx < features.length; ++idx) {
-			// Index array.
-			sortedFeatures.add(idx);
-			auxBasicFeature.feature = features[idx];
-			auxBasicFeature.value = values[idx];
-			exampleSets[idx] = index.get(auxBasicFeature);
-			if (exampleSets[idx] == null || exampleSets[idx].size() == 0)
-				// Some feature never occurs in the corpus.
-				return null;
-		}
+		long[] packedEdges = getEdgesWithFeatures(features, values);
+		if (packedEdges == null)
+			return null;
+		List<Edge> edges = new ArrayList<Edge>(packedEdges.length);
+		for (long edge : packedEdges)
+			edges.add(new Edge(getExample(edge), getHead(edge),
+					getDependent(edge)));
+		return edges;
+	}
 
-		Collections.sort(sortedFeatures, new Comparator<Integer>() {
-			@Override
-			public int compare(Integer idx1, Integer idx2) {
-				int size1 = exampleSets[idx1].size();
-				int size2 = exampleSets[idx2].size();
-				if (size1 == size2)
-					return 0;
-				if (size1 < size2)
-					return -1;
-				return 1;
-			}
-		});
+	/**
+	 * Pack the given edge into a long value.
+	 * 
+	 * @param example
+	 * @param head
+	 * @param dependent
+	 * @return
+	 */
+	public static long packEdge(int example, int head, int dependent) {
+		return (((long) example) << 32) | (((long) head) << 16) | dependent;
+	}
 
-		return intersection(exampleSets, sortedFeatures);
+	/**
+	 * Return the example index of the given packed edge.
+	 * 
+	 * @param edge
+	 * @return
+	 */
+	public static int getExample(long edge) {
+		return (int) (edge >>> 32);
 	}
 
-	// @SuppressWarnings({ "unchecked", "rawtypes" })
-	// private TreeSet<Edge> intersection(TreeSet[] exampleSets,
-	// ArrayList<Integer> sortedFeatures) {
-	// TreeSet<Edge> examples = (TreeSet<Edge>) exampleSets[sortedFeatures
-	// .get(0)].clone();
-	// for (int idx = 1; idx < sortedFeatures.size(); ++idx) {
-	// Iterator<Edge> it1 = examples.iterator();
-	// Iterator<Edge> it2 = exampleSets[sortedFeatures.get(idx)]
-	// .iterator();
-	//
-	// if (!it1.hasNext() || !it2.hasNext()) {
-	// // Empty intersection.
-	// examples = null;
-	// break;
-	// }
-	//
-	// // First elements.
-	// Edge e1 = it1.next();
-	// Edge e2 = it2.next();
-	//
-	// while (true) {
-	// // Compare the two current elements.
-	// int comp = e1.compareTo(e2);
-	//
-	// if (comp == 0) {
-	// // List 1 current element is within list 2.
-	// if (it1.hasNext())
-	// e1 = it1.next();
-	// else {
-	// e1 = null;
-	// break;
-	// }
-	//
-	// if (it2.hasNext())
-	// e2 = it2.next();
-	// else
-	// break;
-	// } else if (comp < 0) {
-	// // List 1 current element is not list 2.
-	// it1.remove();
-	// if (it1.hasNext())
-	// e1 = it1.next();
-	// else {
-	// e1 = null;
-	// break;
-	// }
-	// } else if (comp > 0) {
-	// // Keep searching for list 1 current element in list 2.
-	// if (it2.hasNext())
-	// e2 = it2.next();
-	// else
-	// break;
-	// }
-	// }
-	//
-	// if (e1 != null)
-	// it1.remove();
-	//
-	// // Remove all remaining elements from list 1.
-	// while (it1.hasNext()) {
-	// it1.next();
-	// it1.remove();
-	// }
-	// }
-	//
-	// return examples;
-	// }
-
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private TreeSet<Edge> intersection(TreeSet[] exampleSets,
-			ArrayList<Integer> sortedFeatures) {
-		TreeSet<Edge> examples = (TreeSet<Edge>) exampleSets[sortedFeatures
-				.get(0)].clone();
-		for (int idx = 1; idx < sortedFeatures.size(); ++idx)
-			examples.retainAll(exampleSets[sortedFeatures.get(idx)]);
-		return examples;
+	/**
+	 * Return the head index of the given packed edge.
+	 * 
+	 * @param edge
+	 * @return
+	 */
+	public static int getHead(long edge) {
+		return (int) ((edge >>> 16) & 0xffff);
 	}
 
 	/**
-	 * Basic (not compound) feature. The inverted index is based on basic
-	 * feature values.
+	 * Return the dependent index of the given packed edge.
+	 * 
+	 * @param edge
+	 * @return
+	 */
+	public static int getDependent(long edge) {
+		return (int) (edge & 0xffff);
+	}
+
+	/**
+	 * Save this index in the given file.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void save(String fileName) throws IOException {
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(fileName)));
+		try {
+			os.writeInt(FILE_MAGIC);
+			os.writeInt(FILE_VERSION);
+			os.writeInt(corpus.getNumberOfExamples());
+			os.writeInt(values.length);
+			for (int feature = 0; feature < values.length; ++feature) {
+				int[] ftrValues = values[feature];
+				PostingList[] ftrPostings = postings[feature];
+				os.writeInt(ftrValues.length);
+				for (int idx = 0; idx < ftrValues.length; ++idx) {
+					os.writeInt(ftrValues[idx]);
+					ftrPostings[idx].write(os);
+				}
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+	/**
+	 * Load an index of the given corpus from the given file, which must have
+	 * been created by {@link #save(String)} from the same corpus.
+	 * 
+	 * @param fileName
+	 * @param corpus
+	 * @return
+	 * @throws IOException
+	 */
+	public static InvertedIndex load(String fileName, DPColumnDataset corpus)
+			throws IOException {
+		DataInputStream is = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName)));
+		try {
+			if (is.readInt() != FILE_MAGIC || is.readInt() != FILE_VERSION)
+				throw new IOException(fileName
+						+ " is not an inverted index file");
+			int numExamples = is.readInt();
+			int numFtrs = is.readInt();
+			if (numExamples != corpus.getNumberOfExamples()
+					|| numFtrs != corpus.getNumberOfFeatures())
+				throw new IOException(String.format(
+						"Inverted index in %s has %d examples and %d features "
+								+ "but the corpus has %d examples and %d "
+								+ "features", fileName, numExamples, numFtrs,
+						corpus.getNumberOfExamples(),
+						corpus.getNumberOfFeatures()));
+			int[][] values = new int[numFtrs][];
+			PostingList[][] postings = new PostingList[numFtrs][];
+			for (int feature = 0; feature < numFtrs; ++feature) {
+				int numValues = is.readInt();
+				int[] ftrValues = new int[numValues];
+				PostingList[] ftrPostings = new PostingList[numValues];
+				for (int idx = 0; idx < numValues; ++idx) {
+					ftrValues[idx] = is.readInt();
+					ftrPostings[idx] = PostingList.read(is);
+				}
+				values[feature] = ftrValues;
+				postings[feature] = ftrPostings;
+			}
+			return new InvertedIndex(corpus, values, postings);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Compressed sorted list of packed edges. Postings are divided in blocks
+	 * of <code>BLOCK_SIZE</code> edges. The first edge of each block is stored
+	 * in the skip table (<code>skipEdges</code>) and the remaining edges are
+	 * stored as variable-length deltas w.r.t. their predecessors.
 	 * 
 	 * @author eraldo
 	 * 
 	 */
-	private static class BasicFeature {
+	private static class PostingList {
+		/**
+		 * Number of edges.
+		 */
+		private final int size;
+
+		/**
+		 * First edge of each block.
+		 */
+		private final long[] skipEdges;
+
 		/**
-		 * Feature code.
+		 * Offset in <code>data</code> of the deltas of each block.
 		 */
-		public int feature;
+		private final int[] skipOffsets;
 
 		/**
-		 * Feature value.
+		 * Compressed deltas.
 		 */
-		public int value;
+		private final byte[] data;
 
 		/**
-		 * Intialize a basic feature object.
+		 * Compress the given segment of sorted edges.
 		 * 
-		 * @param feature
-		 * @param value
+		 * @param edges
+		 * @param offset
+		 * @param size
 		 */
-		public BasicFeature(int feature, int value) {
-			this.feature = feature;
-			this.value = value;
+		public PostingList(long[] edges, int offset, int size) {
+			this.size = size;
+			int numBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			skipEdges = new long[numBlocks];
+			skipOffsets = new int[numBlocks];
+			byte[] buff = new byte[Math.max(16, size * 2)];
+			int len = 0;
+			for (int idx = 0; idx < size; ++idx) {
+				long edge = edges[offset + idx];
+				if (idx % BLOCK_SIZE == 0) {
+					skipEdges[idx / BLOCK_SIZE] = edge;
+					skipOffsets[idx / BLOCK_SIZE] = len;
+					continue;
+				}
+				if (len + 10 > buff.length)
+					buff = Arrays.copyOf(buff, 2 * buff.length);
+				long delta = edge - edges[offset + idx - 1];
+				while ((delta & ~0x7fL) != 0) {
+					buff[len++] = (byte) ((delta & 0x7f) | 0x80);
+					delta >>>= 7;
+				}
+				buff[len++] = (byte) delta;
+			}
+			data = Arrays.copyOf(buff, len);
 		}
 
-		@Override
-		public int hashCode() {
-			return HashCodeUtil.hash(feature, value);
+		/**
+		 * Create a posting list with the given content.
+		 * 
+		 * @param size
+		 * @param skipEdges
+		 * @param skipOffsets
+		 * @param data
+		 */
+		private PostingList(int size, long[] skipEdges, int[] skipOffsets,
+				byte[] data) {
+			this.size = size;
+			this.skipEdges = skipEdges;
+			this.skipOffsets = skipOffsets;
+			this.data = data;
 		}
 
-		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof BasicFeature))
-				return false;
-			BasicFeature other = (BasicFeature) obj;
-			return feature == other.feature && value == other.value;
+		/**
+		 * Decode all the edges of this list.
+		 * 
+		 * @return
+		 */
+		public long[] decode() {
+			long[] edges = new long[size];
+			int pos = 0;
+			long edge = 0;
+			for (int idx = 0; idx < size; ++idx) {
+				if (idx % BLOCK_SIZE == 0) {
+					edge = skipEdges[idx / BLOCK_SIZE];
+				} else {
+					long delta = 0;
+					int shift = 0;
+					byte b;
+					do {
+						b = data[pos++];
+						delta |= ((long) (b & 0x7f)) << shift;
+						shift += 7;
+					} while (b < 0);
+					edge += delta;
+				}
+				edges[idx] = edge;
+			}
+			return edges;
+		}
+
+		/**
+		 * Keep in the given sorted array only the edges that are present in
+		 * this list. The array is compacted in place.
+		 * 
+		 * @param edges
+		 * @param numEdges
+		 *            number of valid edges in <code>edges</code>.
+		 * @return the number of remaining edges.
+		 */
+		public int retain(long[] edges, int numEdges) {
+			int numBlocks = skipEdges.length;
+			// Current block, position within block and data offset.
+			int block = 0;
+			int idxInBlock = 0;
+			int pos = skipOffsets[0];
+			long cur = skipEdges[0];
+			int blockLen = Math.min(BLOCK_SIZE, size);
+
+			int numKept = 0;
+			for (int idxEdge = 0; idxEdge < numEdges; ++idxEdge) {
+				long edge = edges[idxEdge];
+				if (cur < edge) {
+					// Gallop over the skip table when the edge is beyond the
+					// current block.
+					if (block + 1 < numBlocks && skipEdges[block + 1] <= edge) {
+						int lo = block + 1;
+						int step = 1;
+						int hi = lo + step;
+						while (hi < numBlocks && skipEdges[hi] <= edge) {
+							lo = hi;
+							step <<= 1;
+							hi = lo + step;
+						}
+						if (hi > numBlocks)
+							hi = numBlocks;
+						// Last block whose first edge is <= edge in [lo, hi).
+						while (hi - lo > 1) {
+							int mid = (lo + hi) >>> 1;
+							if (skipEdges[mid] <= edge)
+								lo = mid;
+							else
+								hi = mid;
+						}
+						block = lo;
+						idxInBlock = 0;
+						pos = skipOffsets[block];
+						cur = skipEdges[block];
+						blockLen = Math.min(BLOCK_SIZE, size - block
+								* BLOCK_SIZE);
+					}
+
+					// Linear scan within the block.
+					while (cur < edge && idxInBlock + 1 < blockLen) {
+						long delta = 0;
+						int shift = 0;
+						byte b;
+						do {
+							b = data[pos++];
+							delta |= ((long) (b & 0x7f)) << shift;
+							shift += 7;
+						} while (b < 0);
+						cur += delta;
+						++idxInBlock;
+					}
+
+					if (cur < edge) {
+						// End of the current block.
+						if (block + 1 >= numBlocks)
+							// No more edges in this list.
+							break;
+						++block;
+						idxInBlock = 0;
+						pos = skipOffsets[block];
+						cur = skipEdges[block];
+						blockLen = Math.min(BLOCK_SIZE, size - block
+								* BLOCK_SIZE);
+					}
+				}
+				if (cur == edge)
+					edges[numKept++] = edge;
+			}
+			return numKept;
+		}
+
+		/**
+		 * Write this list to the given stream.
+		 * 
+		 * @param os
+		 * @throws IOException
+		 */
+		public void write(DataOutputStream os) throws IOException {
+			os.writeInt(size);
+			for (int idx = 0; idx < skipEdges.length; ++idx) {
+				os.writeLong(skipEdges[idx]);
+				os.writeInt(skipOffsets[idx]);
+			}
+			os.writeInt(data.length);
+			os.write(data);
+		}
+
+		/**
+		 * Read a list from the given stream.
+		 * 
+		 * @param is
+		 * @return
+		 * @throws IOException
+		 */
+		public static PostingList read(DataInputStream is) throws IOException {
+			int size = is.readInt();
+			int numBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			long[] skipEdges = new long[numBlocks];
+			int[] skipOffsets = new int[numBlocks];
+			for (int idx = 0; idx < numBlocks; ++idx) {
+				skipEdges[idx] = is.readLong();
+				skipOffsets[idx] = is.readInt();
+			}
+			byte[] data = new byte[is.readInt()];
+			is.readFully(data);
+			return new PostingList(size, skipEdges, skipOffsets, data);
 		}
 	}
 
@@ -8,6 +8,9 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
 import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
+import br.pucrio.inf.learn.util.maxbranching.MaximumBranchingAlgorithm;
+import br.pucrio.inf.learn.util.maxbranching.SparseGraph;
+import br.pucrio.inf.learn.util.maxbranching.SparseMaxBranchAlgorithm;
 
 /**
  * Inference algorithm for dependency parsing problems. It corresponds to
@@ -23,13 +26,25 @@ public class MaximumBranchingInference implements Inference {
 	/**
 	 * Algorithm and its data structures for finding maximum branching.
 	 */
-	private DirectedMaxBranchAlgorithm maxBranchingAlgorithm;
+	private MaximumBranchingAlgorithm maxBranchingAlgorithm;
 
 	/**
 	 * Input graph used to predict the maximum branching.
 	 */
 	private double[][] graph;
 
+	/**
+	 * Optional edge pruner. If it is not <code>null</code>, only the edges
+	 * that survive the pruning are considered by the maximum branching
+	 * algorithm.
+	 */
+	private EdgePruner pruner;
+
+	/**
+	 * Remaining edges after pruning.
+	 */
+	private SparseGraph prunedGraph;
+
 	/**
 	 * Create an inference implementation to deal with sentences that have the
 	 * given maximum number of tokens.
@@ -55,8 +70,55 @@ public class MaximumBranchingInference implements Inference {
 		 * Find the maximum branching rooted at the zero node and fill the
 		 * output inverted branching array with it.
 		 */
-		maxBranchingAlgorithm.findMaxBranching(input.getNumberOfTokens(),
-				graph, output.getInvertedBranchingArray());
+		findMaxBranching(input.getNumberOfTokens(),
+				output.getInvertedBranchingArray());
+	}
+
+	/**
+	 * Set an edge pruner to be used before finding the maximum branching. When
+	 * a pruner is given, a sparse-aware maximum branching algorithm is used.
+	 * 
+	 * @param pruner
+	 */
+	public void setEdgePruner(EdgePruner pruner) {
+		this.pruner = pruner;
+		MaximumBranchingAlgorithm alg;
+		if (pruner == null) {
+			alg = new DirectedMaxBranchAlgorithm(graph.length);
+			prunedGraph = null;
+		} else {
+			alg = new SparseMaxBranchAlgorithm(graph.length);
+			prunedGraph = new SparseGraph();
+		}
+		alg.setCheckUniqueRoot(maxBranchingAlgorithm.isCheckUniqueRoot());
+		alg.setOnlyPositiveEdges(maxBranchingAlgorithm.isOnlyPositiveEdges());
+		maxBranchingAlgorithm = alg;
+	}
+
+	/**
+	 * Return the current edge pruner (possibly <code>null</code>).
+	 * 
+	 * @return
+	 */
+	public EdgePruner getEdgePruner() {
+		return pruner;
+	}
+
+	/**
+	 * Find the maximum branching rooted at the zero node in the current graph
+	 * and fill the given inverted branching array with it.
+	 * 
+	 * @param numTokens
+	 * @param invertedBranching
+	 */
+	private void findMaxBranching(int numTokens, int[] invertedBranching) {
+		if (pruner != null)
+			((SparseMaxBranchAlgorithm) maxBranchingAlgorithm)
+					.findMaxBranching(numTokens, graph, prunedGraph,
+							invertedBranching);
+		else
+			maxBranchingAlgorithm.findMaxBranching(numTokens, graph,
+					invertedBranching);
 	}
 
 	/**
@@ -73,11 +135,18 @@ public class MaximumBranchingInference implements Inference {
 			graph = new double[numTokens][numTokens];
 			maxBranchingAlgorithm.realloc(numTokens);
 		}
+		// Model used to score the edges (it can be a pruning model).
+		DPModel scoringModel = model;
+		if (pruner != null)
+			scoringModel = pruner.getScoringModel(model);
 		// Fill the weight matrix.
 		for (int head = 0; head < numTokens; ++head)
 			for (int dependent = 0; dependent < numTokens; ++dependent)
-				graph[head][dependent] = model.getEdgeScore(input, head,
-						dependent);
+				graph[head][dependent] = scoringModel.getEdgeScore(input,
+						head, dependent);
+		// Remove the low-scored edges.
+		if (pruner != null)
+			pruner.prune(model, input, numTokens, graph, -1, prunedGraph);
 	}
 
 	@Override
@@ -129,8 +198,8 @@ public class MaximumBranchingInference implements Inference {
 		 * Find the maximum branching rooted at the zero node and fill the
 		 * output inverted branching array with it.
 		 */
-		maxBranchingAlgorithm.findMaxBranching(input.getNumberOfTokens(),
-				graph, predictedOutput.getInvertedBranchingArray());
+		findMaxBranching(input.getNumberOfTokens(),
+				predictedOutput.getInvertedBranchingArray());
 	}
 
 	@Override
@@ -0,0 +1,821 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dp;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.AveragedParameter;
+import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
+import br.pucrio.inf.learn.util.MappedFileReader;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Template-based model (as saved by {@link DPTemplateEvolutionModel}) in a
+ * packed form that does not depend on any feature encoding: a sorted table of
+ * feature value strings, the template feature labels, and the parameters as
+ * primitive arrays. Each parameter is given by its template index, its
+ * feature values (indexes in the string table) and its weight.
+ * 
+ * Parameters are sorted by template index and then by their feature values.
+ * Since the string table is sorted, comparing string indexes is the same as
+ * comparing the strings themselves. Thus, packed models can be merged (e.g., to
+ * build a committee) by a k-way merge of their parameter lists, which is a
+ * linear scan of primitive arrays.
+ * 
+ * Packed models can be read from and written to a binary file and written to
+ * the JSON format of {@link DPTemplateEvolutionModel}. JSON models can also be
+ * read directly, without feature encodings.
+ * 
+ * @author eraldo
+ * 
+ */
+public class PackedModel {
+
+	/**
+	 * Magic number and version of the binary format.
+	 */
+	private static final int MAGIC = 0x4450544d;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Special root node.
+	 */
+	private int root;
+
+	/**
+	 * Feature labels of each template (level, template, feature).
+	 */
+	private String[][][] templates;
+
+	/**
+	 * Sorted table of feature value strings.
+	 */
+	private String[] strings;
+
+	/**
+	 * Number of parameters.
+	 */
+	private int numParameters;
+
+	/**
+	 * Template index of each parameter.
+	 */
+	private int[] templateIndexes;
+
+	/**
+	 * The values of parameter <code>p</code> are
+	 * <code>values[valueOffsets[p]], ..., values[valueOffsets[p+1]-1]</code>.
+	 */
+	private int[] valueOffsets;
+
+	/**
+	 * Feature values (indexes in the string table) of all parameters.
+	 */
+	private int[] values;
+
+	/**
+	 * Weight of each parameter.
+	 */
+	private double[] weights;
+
+	/**
+	 * Create a packed model with the given (already sorted) data.
+	 * 
+	 * @param root
+	 * @param templates
+	 * @param strings
+	 * @param numParameters
+	 * @param templateIndexes
+	 * @param valueOffsets
+	 * @param values
+	 * @param weights
+	 */
+	private PackedModel(int root, String[][][] templates, String[] strings,
+			int numParameters, int[] templateIndexes, int[] valueOffsets,
+			int[] values, double[] weights) {
+		this.root = root;
+		this.templates = templates;
+		this.strings = strings;
+		this.numParameters = numParameters;
+		this.templateIndexes = templateIndexes;
+		this.valueOffsets = valueOffsets;
+		this.values = values;
+		this.weights = weights;
+	}
+
+	public int getRoot() {
+		return root;
+	}
+
+	public String[][][] getTemplates() {
+		return templates;
+	}
+
+	public String[] getStrings() {
+		return strings;
+	}
+
+	public int getNumberOfParameters() {
+		return numParameters;
+	}
+
+	public int getTemplateIndex(int param) {
+		return templateIndexes[param];
+	}
+
+	public int getValuesBegin(int param) {
+		return valueOffsets[param];
+	}
+
+	public int getValuesEnd(int param) {
+		return valueOffsets[param + 1];
+	}
+
+	/**
+	 * Return the string index of the given feature value.
+	 * 
+	 * @param idxValue
+	 *            index within <code>[getValuesBegin(p), getValuesEnd(p))</code>
+	 *            for some parameter <code>p</code>.
+	 * @return
+	 */
+	public int getValue(int idxValue) {
+		return values[idxValue];
+	}
+
+	public double getWeight(int param) {
+		return weights[param];
+	}
+
+	/**
+	 * Return whether the given file starts with the magic number of the
+	 * binary format.
+	 * 
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinary(String fileName) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+		try {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a model in binary or JSON format (detected by the magic number).
+	 * 
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public static PackedModel load(String fileName) throws IOException,
+			DatasetException {
+		if (isBinary(fileName))
+			return read(fileName);
+		return readJSON(fileName);
+	}
+
+	/**
+	 * Read a model in binary format through a memory-mapped file.
+	 * 
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public static PackedModel read(String fileName) throws IOException,
+			DatasetException {
+		MappedFileReader in = new MappedFileReader(fileName);
+		try {
+			if (in.readInt() != MAGIC)
+				throw new DatasetException(String.format(
+						"File %s is not a binary model", fileName));
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new DatasetException(String.format(
+						"Unsupported model version %d in %s", version,
+						fileName));
+			int root = in.readInt();
+
+			// Templates.
+			String[][][] templates = new String[in.readInt()][][];
+			for (int level = 0; level < templates.length; ++level) {
+				templates[level] = new String[in.readInt()][];
+				for (int idxTpl = 0; idxTpl < templates[level].length; ++idxTpl) {
+					String[] labels = new String[in.readInt()];
+					for (int idxFtr = 0; idxFtr < labels.length; ++idxFtr)
+						labels[idxFtr] = in.readString();
+					templates[level][idxTpl] = labels;
+				}
+			}
+
+			// String table.
+			String[] strings = new String[in.readInt()];
+			for (int idx = 0; idx < strings.length; ++idx)
+				strings[idx] = in.readString();
+
+			// Parameters.
+			int numParameters = in.readInt();
+			int[] templateIndexes = new int[numParameters];
+			in.readInts(templateIndexes, 0, numParameters);
+			int[] valueOffsets = new int[numParameters + 1];
+			in.readInts(valueOffsets, 0, numParameters + 1);
+			int[] values = new int[valueOffsets[numParameters]];
+			in.readInts(values, 0, values.length);
+			double[] weights = new double[numParameters];
+			in.readDoubles(weights, 0, numParameters);
+
+			return new PackedModel(root, templates, strings, numParameters,
+					templateIndexes, valueOffsets, values, weights);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Write this model in binary format.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void write(String fileName) throws IOException {
+		BinaryFileWriter out = new BinaryFileWriter(fileName);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(root);
+
+			// Templates.
+			out.writeInt(templates.length);
+			for (String[][] level : templates) {
+				out.writeInt(level.length);
+				for (String[] labels : level) {
+					out.writeInt(labels.length);
+					for (String label : labels)
+						out.writeString(label);
+				}
+			}
+
+			// String table.
+			out.writeInt(strings.length);
+			for (String str : strings)
+				out.writeString(str);
+
+			// Parameters.
+			out.writeInt(numParameters);
+			out.writeInts(templateIndexes, 0, numParameters);
+			out.writeInts(valueOffsets, 0, numParameters + 1);
+			out.writeInts(values, 0, valueOffsets[numParameters]);
+			out.writeDoubles(weights, 0, numParameters);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write this model in the JSON format of {@link DPTemplateEvolutionModel}.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void writeJSON(String fileName) throws IOException {
+		FileWriter w = new FileWriter(fileName);
+		try {
+			JSONWriter jw = new JSONWriter(w);
+			jw.object();
+			jw.key("root").value(root);
+
+			// Templates array.
+			jw.key("templates");
+			jw.array();
+			for (String[][] level : templates) {
+				jw.array();
+				for (String[] labels : level) {
+					jw.array();
+					for (String label : labels)
+						jw.value(label);
+					jw.endArray();
+				}
+				jw.endArray();
+			}
+			jw.endArray();
+
+			// Parameters array: [template_index, [feature_values], weight].
+			jw.key("parameters");
+			jw.array();
+			for (int param = 0; param < numParameters; ++param) {
+				jw.array();
+				jw.value(templateIndexes[param]);
+				jw.array();
+				for (int idx = valueOffsets[param]; idx < valueOffsets[param + 1]; ++idx)
+					jw.value(strings[values[idx]]);
+				jw.endArray();
+				jw.value(weights[param]);
+				jw.endArray();
+			}
+			jw.endArray();
+
+			jw.endObject();
+		} catch (JSONException e) {
+			throw new IOException("JSON error", e);
+		} finally {
+			w.close();
+		}
+	}
+
+	/**
+	 * Read a model in the JSON format of {@link DPTemplateEvolutionModel} using
+	 * the Jackson streaming parser. Feature values are stored in a local
+	 * string table, thus no feature encoding is necessary.
+	 * 
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public static PackedModel readJSON(String fileName) throws IOException,
+			DatasetException {
+		JsonParser jp = new JsonFactory().createJsonParser(new File(fileName));
+		try {
+			if (jp.nextToken() != JsonToken.START_OBJECT)
+				throw new DatasetException(String.format(
+						"Model file (%s) should contain an object", fileName));
+
+			int root = 0;
+			String[][][] templates = new String[0][][];
+			Map<String, Integer> stringIds = new HashMap<String, Integer>();
+			IntArrayBuilder tplIdxs = new IntArrayBuilder();
+			IntArrayBuilder offsets = new IntArrayBuilder();
+			IntArrayBuilder vals = new IntArrayBuilder();
+			double[] ws = new double[1024];
+			offsets.add(0);
+			while (jp.nextToken() != JsonToken.END_OBJECT) {
+				String fName = jp.getCurrentName();
+				if ("root".equals(fName)) {
+					if (jp.nextToken() != JsonToken.VALUE_NUMBER_INT)
+						throw new DatasetException(
+								"Root value should be an integer");
+					root = jp.getValueAsInt();
+				} else if ("templates".equals(fName)) {
+					templates = readTemplates(jp);
+				} else if ("parameters".equals(fName)) {
+					if (jp.nextToken() != JsonToken.START_ARRAY)
+						throw new DatasetException("Error parsing parameters");
+					while (jp.nextToken() != JsonToken.END_ARRAY) {
+						// Each parameter: [ idxTpl, [vals], weight ].
+						if (jp.nextToken() != JsonToken.VALUE_NUMBER_INT)
+							throw new DatasetException(
+									"Error parsing parameters");
+						tplIdxs.add(jp.getIntValue());
+						if (jp.nextToken() != JsonToken.START_ARRAY)
+							throw new DatasetException(
+									"Error parsing parameter feature values");
+						while (jp.nextToken() != JsonToken.END_ARRAY) {
+							String str = jp.getText();
+							Integer id = stringIds.get(str);
+							if (id == null) {
+								id = stringIds.size();
+								stringIds.put(str, id);
+							}
+							vals.add(id);
+						}
+						offsets.add(vals.size());
+						if (jp.nextToken() != JsonToken.VALUE_NUMBER_FLOAT
+								&& jp.getCurrentToken() != JsonToken.VALUE_NUMBER_INT)
+							throw new DatasetException(
+									"Error parsing parameter weight");
+						int param = tplIdxs.size() - 1;
+						if (param == ws.length)
+							ws = Arrays.copyOf(ws, 2 * ws.length);
+						ws[param] = jp.getDoubleValue();
+						if (jp.nextToken() != JsonToken.END_ARRAY)
+							throw new DatasetException(
+									"Error parsing parameters");
+					}
+				} else {
+					jp.nextToken();
+					jp.skipChildren();
+				}
+			}
+
+			// String table in insertion order.
+			String[] strings = new String[stringIds.size()];
+			for (Map.Entry<String, Integer> entry : stringIds.entrySet())
+				strings[entry.getValue()] = entry.getKey();
+
+			return pack(root, templates, strings, tplIdxs.size(),
+					tplIdxs.toArray(), offsets.toArray(), vals.toArray(), ws);
+		} finally {
+			jp.close();
+		}
+	}
+
+	/**
+	 * Create a packed model with the parameters of the given model, whose
+	 * features are decoded by the encodings of the given dataset.
+	 * 
+	 * @param model
+	 * @param dataset
+	 * @return
+	 * @throws IOException
+	 *             if the template features are hashed into a fixed code space
+	 *             and thus cannot be decoded.
+	 */
+	public static PackedModel fromModel(DPTemplateEvolutionModel model,
+			DPColumnDataset dataset) throws IOException {
+		FeatureEncoding<String> basicEncoding = dataset.getFeatureEncoding();
+		FeatureEncoding<Feature> explicitEncoding = dataset
+				.getExplicitEncoding();
+		if (explicitEncoding instanceof HashedFeatureEncoding
+				&& ((HashedFeatureEncoding) explicitEncoding).isFixedSize())
+			throw new IOException("Features hashed into a fixed code space "
+					+ "cannot be saved");
+
+		// Template feature labels.
+		FeatureTemplate[][] templatesAllLevels = dataset.getTemplates();
+		String[][][] templates = new String[templatesAllLevels.length][][];
+		for (int level = 0; level < templates.length; ++level) {
+			templates[level] = new String[templatesAllLevels[level].length][];
+			for (int idxTpl = 0; idxTpl < templates[level].length; ++idxTpl) {
+				int[] ftrs = templatesAllLevels[level][idxTpl].getFeatures();
+				String[] labels = new String[ftrs.length];
+				for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
+					labels[idxFtr] = dataset.getFeatureLabel(ftrs[idxFtr]);
+				templates[level][idxTpl] = labels;
+			}
+		}
+
+		// Parameters with values given by basic feature codes.
+		Map<Integer, AveragedParameter> parameters = model.getParameters();
+		int numParameters = parameters.size();
+		int[] templateIndexes = new int[numParameters];
+		int[] valueOffsets = new int[numParameters + 1];
+		IntArrayBuilder vals = new IntArrayBuilder();
+		double[] weights = new double[numParameters];
+		Map<Integer, Integer> stringIds = new HashMap<Integer, Integer>();
+		LinkedList<String> stringsL = new LinkedList<String>();
+		int param = 0;
+		for (Map.Entry<Integer, AveragedParameter> entry : parameters
+				.entrySet()) {
+			Feature ftr = explicitEncoding.getValueByCode(entry.getKey());
+			templateIndexes[param] = ftr.getTemplateIndex();
+			for (int code : ftr.getValues()) {
+				Integer id = stringIds.get(code);
+				if (id == null) {
+					id = stringIds.size();
+					stringIds.put(code, id);
+					stringsL.add(basicEncoding.getValueByCode(code));
+				}
+				vals.add(id);
+			}
+			weights[param] = entry.getValue().get();
+			++param;
+			valueOffsets[param] = vals.size();
+		}
+
+		return pack(model.root, templates,
+				stringsL.toArray(new String[stringsL.size()]), numParameters,
+				templateIndexes, valueOffsets, vals.toArray(), weights);
+	}
+
+	/**
+	 * Read the templates array (array of levels, each one an array of
+	 * templates, each one an array of feature labels).
+	 * 
+	 * @param jp
+	 * @return
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	private static String[][][] readTemplates(JsonParser jp)
+			throws IOException, DatasetException {
+		if (jp.nextToken() != JsonToken.START_ARRAY)
+			throw new DatasetException("Error parsing templates");
+		LinkedList<String[][]> levels = new LinkedList<String[][]>();
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			LinkedList<String[]> tpls = new LinkedList<String[]>();
+			while (jp.nextToken() != JsonToken.END_ARRAY) {
+				LinkedList<String> labels = new LinkedList<String>();
+				while (jp.nextToken() != JsonToken.END_ARRAY)
+					labels.add(jp.getText());
+				tpls.add(labels.toArray(new String[labels.size()]));
+			}
+			levels.add(tpls.toArray(new String[tpls.size()][]));
+		}
+		return levels.toArray(new String[levels.size()][][]);
+	}
+
+	/**
+	 * Create a packed model from unsorted data: the string table is sorted,
+	 * the string indexes are translated accordingly, the parameters are sorted
+	 * and the weights of duplicated parameters are summed.
+	 * 
+	 * @param root
+	 * @param templates
+	 * @param strings
+	 *            string table (it is sorted in place).
+	 * @param numParameters
+	 * @param templateIndexes
+	 * @param valueOffsets
+	 * @param values
+	 *            string indexes (translated in place).
+	 * @param weights
+	 * @return
+	 */
+	static PackedModel pack(int root, String[][][] templates,
+			String[] strings, int numParameters, int[] templateIndexes,
+			int[] valueOffsets, int[] values, double[] weights) {
+		// Sort the string table and translate the string indexes.
+		int numStrings = strings.length;
+		int[] order = new int[numStrings];
+		for (int idx = 0; idx < numStrings; ++idx)
+			order[idx] = idx;
+		final String[] unsorted = strings.clone();
+		sort(order, new IndexComparator() {
+			@Override
+			public int compare(int idx1, int idx2) {
+				return unsorted[idx1].compareTo(unsorted[idx2]);
+			}
+		});
+		int[] rank = new int[numStrings];
+		for (int idx = 0; idx < numStrings; ++idx) {
+			strings[idx] = unsorted[order[idx]];
+			rank[order[idx]] = idx;
+		}
+		int numValues = valueOffsets[numParameters];
+		for (int idx = 0; idx < numValues; ++idx)
+			values[idx] = rank[values[idx]];
+
+		// Sort the parameters.
+		final PackedModel unsortedModel = new PackedModel(root, templates,
+				strings, numParameters, templateIndexes, valueOffsets, values,
+				weights);
+		int[] params = new int[numParameters];
+		for (int param = 0; param < numParameters; ++param)
+			params[param] = param;
+		sort(params, new IndexComparator() {
+			@Override
+			public int compare(int param1, int param2) {
+				return unsortedModel.compareKeys(param1, null, unsortedModel,
+						param2, null);
+			}
+		});
+
+		// Copy the sorted parameters, summing duplicated ones.
+		int[] sortedTplIdxs = new int[numParameters];
+		int[] sortedOffsets = new int[numParameters + 1];
+		int[] sortedValues = new int[numValues];
+		double[] sortedWeights = new double[numParameters];
+		int numSorted = 0;
+		int numSortedValues = 0;
+		for (int idx = 0; idx < numParameters; ++idx) {
+			int param = params[idx];
+			if (numSorted > 0
+					&& unsortedModel.compareKeys(params[idx - 1], null,
+							unsortedModel, param, null) == 0) {
+				sortedWeights[numSorted - 1] += weights[param];
+				continue;
+			}
+			sortedTplIdxs[numSorted] = templateIndexes[param];
+			for (int idxVal = valueOffsets[param]; idxVal < valueOffsets[param + 1]; ++idxVal)
+				sortedValues[numSortedValues++] = values[idxVal];
+			sortedWeights[numSorted] = weights[param];
+			++numSorted;
+			sortedOffsets[numSorted] = numSortedValues;
+		}
+
+		return new PackedModel(root, templates, strings, numSorted,
+				sortedTplIdxs, sortedOffsets, sortedValues, sortedWeights);
+	}
+
+	/**
+	 * Compare the key (template index and feature values) of parameter
+	 * <code>param1</code> of this model with the key of parameter
+	 * <code>param2</code> of <code>other</code>. String indexes are translated
+	 * by the given maps (if not <code>null</code>) before comparison.
+	 * 
+	 * @param param1
+	 * @param map1
+	 * @param other
+	 * @param param2
+	 * @param map2
+	 * @return
+	 */
+	private int compareKeys(int param1, int[] map1, PackedModel other,
+			int param2, int[] map2) {
+		int tpl1 = templateIndexes[param1];
+		int tpl2 = other.templateIndexes[param2];
+		if (tpl1 != tpl2)
+			return (tpl1 < tpl2 ? -1 : 1);
+		int idx1 = valueOffsets[param1];
+		int end1 = valueOffsets[param1 + 1];
+		int idx2 = other.valueOffsets[param2];
+		int end2 = other.valueOffsets[param2 + 1];
+		while (idx1 < end1 && idx2 < end2) {
+			int val1 = values[idx1++];
+			int val2 = other.values[idx2++];
+			if (map1 != null)
+				val1 = map1[val1];
+			if (map2 != null)
+				val2 = map2[val2];
+			if (val1 != val2)
+				return (val1 < val2 ? -1 : 1);
+		}
+		if (idx1 < end1)
+			return 1;
+		if (idx2 < end2)
+			return -1;
+		return 0;
+	}
+
+	/**
+	 * Merge the given models (which must have the same root and templates)
+	 * into a new model whose weights are the weighted sums of the member
+	 * weights. First, the member string tables are merged into a global one
+	 * and, then, the sorted parameter lists are merged (k-way merge), both in
+	 * one linear scan.
+	 * 
+	 * @param members
+	 * @param memberWeights
+	 * @return
+	 * @throws DatasetException
+	 *             if the members have different roots or templates.
+	 */
+	public static PackedModel merge(PackedModel[] members,
+			double[] memberWeights) throws DatasetException {
+		int numMembers = members.length;
+		for (int m = 1; m < numMembers; ++m) {
+			if (members[m].root != members[0].root
+					|| !Arrays.deepEquals(members[m].templates,
+							members[0].templates))
+				throw new DatasetException(
+						"Committee members must have the same root and templates");
+		}
+
+		// Merge the string tables.
+		int[][] maps = new int[numMembers][];
+		int[] pos = new int[numMembers];
+		int maxStrings = 0;
+		for (int m = 0; m < numMembers; ++m) {
+			maps[m] = new int[members[m].strings.length];
+			maxStrings += members[m].strings.length;
+		}
+		String[] strings = new String[maxStrings];
+		int numStrings = 0;
+		while (true) {
+			String min = null;
+			for (int m = 0; m < numMembers; ++m) {
+				if (pos[m] < members[m].strings.length) {
+					String str = members[m].strings[pos[m]];
+					if (min == null || str.compareTo(min) < 0)
+						min = str;
+				}
+			}
+			if (min == null)
+				break;
+			for (int m = 0; m < numMembers; ++m) {
+				if (pos[m] < members[m].strings.length
+						&& members[m].strings[pos[m]].equals(min))
+					maps[m][pos[m]++] = numStrings;
+			}
+			strings[numStrings++] = min;
+		}
+		strings = Arrays.copyOf(strings, numStrings);
+
+		// Merge the parameter lists.
+		IntArrayBuilder tplIdxs = new IntArrayBuilder();
+		IntArrayBuilder offsets = new IntArrayBuilder();
+		IntArrayBuilder vals = new IntArrayBuilder();
+		double[] ws = new double[1024];
+		offsets.add(0);
+		Arrays.fill(pos, 0);
+		while (true) {
+			// Member with the smallest current key.
+			int minMember = -1;
+			for (int m = 0; m < numMembers; ++m) {
+				if (pos[m] < members[m].numParameters
+						&& (minMember < 0 || members[m].compareKeys(pos[m],
+								maps[m], members[minMember], pos[minMember],
+								maps[minMember]) < 0))
+					minMember = m;
+			}
+			if (minMember < 0)
+				break;
+
+			// Weighted sum of the members with the same key.
+			PackedModel minModel = members[minMember];
+			int minParam = pos[minMember];
+			double weight = 0d;
+			for (int m = 0; m < numMembers; ++m) {
+				if (m == minMember
+						|| (pos[m] < members[m].numParameters && members[m]
+								.compareKeys(pos[m], maps[m], minModel,
+										minParam, maps[minMember]) == 0)) {
+					weight += memberWeights[m] * members[m].weights[pos[m]];
+					++pos[m];
+				}
+			}
+
+			int param = tplIdxs.size();
+			tplIdxs.add(minModel.templateIndexes[minParam]);
+			for (int idx = minModel.valueOffsets[minParam]; idx < minModel.valueOffsets[minParam + 1]; ++idx)
+				vals.add(maps[minMember][minModel.values[idx]]);
+			offsets.add(vals.size());
+			if (param == ws.length)
+				ws = Arrays.copyOf(ws, 2 * ws.length);
+			ws[param] = weight;
+		}
+
+		return new PackedModel(members[0].root, members[0].templates,
+				strings, tplIdxs.size(), tplIdxs.toArray(), offsets.toArray(),
+				vals.toArray(), ws);
+	}
+
+	/**
+	 * Comparator of indexes.
+	 */
+	private static interface IndexComparator {
+		int compare(int idx1, int idx2);
+	}
+
+	/**
+	 * Stable merge sort of an array of indexes using the given comparator.
+	 * 
+	 * @param idxs
+	 * @param comparator
+	 */
+	private static void sort(int[] idxs, IndexComparator comparator) {
+		int n = idxs.length;
+		int[] src = idxs;
+		int[] dst = new int[n];
+		for (int width = 1; width < n; width *= 2) {
+			for (int lo = 0; lo < n; lo += 2 * width) {
+				int mid = Math.min(lo + width, n);
+				int hi = Math.min(lo + 2 * width, n);
+				int i = lo;
+				int j = mid;
+				int k = lo;
+				while (i < mid && j < hi) {
+					if (comparator.compare(src[j], src[i]) < 0)
+						dst[k++] = src[j++];
+					else
+						dst[k++] = src[i++];
+				}
+				while (i < mid)
+					dst[k++] = src[i++];
+				while (j < hi)
+					dst[k++] = src[j++];
+			}
+			int[] tmp = src;
+			src = dst;
+			dst = tmp;
+		}
+		if (src != idxs)
+			System.arraycopy(src, 0, idxs, 0, n);
+	}
+
+	/**
+	 * Growable array of primitive integers.
+	 */
+	private static class IntArrayBuilder {
+		private int[] vals = new int[1024];
+
+		private int size;
+
+		public void add(int val) {
+			if (size == vals.length)
+				vals = Arrays.copyOf(vals, 2 * vals.length);
+			vals[size++] = val;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int[] toArray() {
+			return Arrays.copyOf(vals, size);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package br.pucrio.inf.learn.structlearning.discriminative.application.dp.data;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -10,26 +11,41 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefCandidateFilter;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.FeatureTemplate;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.InvertedIndex;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.SimpleFeatureTemplate;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
+import br.pucrio.inf.learn.util.BinaryFileReader;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
+import br.pucrio.inf.learn.util.LongIntHashMap;
 
 /**
  * Represent a dataset with dependency parsing examples. Each examples consists
@@ -138,6 +154,32 @@ public class DPColumnDataset implements DPDataset {
 	 */
 	protected String fileNamePunc;
 
+	/**
+	 * Number of threads used to generate features.
+	 */
+	protected int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Candidate filter for coreference datasets. If it is not
+	 * <code>null</code>, the features of the edges rejected by this filter are
+	 * not stored while loading the dataset.
+	 */
+	protected CorefCandidateFilter candidateFilter;
+
+	/**
+	 * Temporary codes of new features during feature generation are given by
+	 * <code>TEMPORARY_CODE_BASE - idx</code>, where <code>idx</code> is the
+	 * index of the new feature within its chunk.
+	 */
+	private static final int TEMPORARY_CODE_BASE = -2;
+
+	/**
+	 * Magic number and version of the binary format.
+	 */
+	private static final int SERIAL_MAGIC = 0x44504344;
+
+	private static final int SERIAL_VERSION = 1;
+
 	/**
 	 * Create an empty dataset.
 	 */
@@ -178,6 +220,7 @@ public class DPColumnDataset implements DPDataset {
 		this.basicEncoding = sibling.basicEncoding;
 		this.explicitEncoding = sibling.explicitEncoding;
 		this.templates = sibling.templates;
+		this.numberOfThreads = sibling.numberOfThreads;
 	}
 
 	/**
@@ -244,6 +287,22 @@ public class DPColumnDataset implements DPDataset {
 		this.invertedIndex = new InvertedIndex(this);
 	}
 
+	/**
+	 * Load the inverted index of this corpus from the given file, if it
+	 * exists. Otherwise, create the inverted index and save it in this file.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void createInvertedIndex(String fileName) throws IOException {
+		if (new File(fileName).exists()) {
+			this.invertedIndex = InvertedIndex.load(fileName, this);
+		} else {
+			this.invertedIndex = new InvertedIndex(this);
+			this.invertedIndex.save(fileName);
+		}
+	}
+
 	/**
 	 * Return the punctuation file name.
 	 * 
@@ -321,6 +380,8 @@ public class DPColumnDataset implements DPDataset {
 		featureLabels = new String[labels.length - 2];
 		for (int i = 1; i < labels.length - 1; ++i)
 			featureLabels[i - 1] = labels[i].trim();
+		if (candidateFilter != null)
+			candidateFilter.setFeatureLabels(featureLabels);
 
 		// Multi-valued features indexes.
 		Set<Integer> multiValuedFeaturesIndexes = new TreeSet<Integer>();
@@ -567,6 +628,16 @@ public class DPColumnDataset implements DPDataset {
 			if (idxDep > maxIndex)
 				maxIndex = idxDep;
 
+			// Skip the features of edges rejected by the candidate filter.
+			if (candidateFilter != null
+					&& !candidateFilter.accept(ftrValues, idxHead, idxDep)) {
+				if (ftrValues[ftrValues.length - 1].equals("Y")) {
+					correctDepTokens.add(idxDep);
+					correctHeadTokens.add(idxHead);
+				}
+				continue;
+			}
+
 			// List of feature codes.
 			LinkedList<Integer> edgeFeatures = new LinkedList<Integer>();
 			features.add(edgeFeatures);
@@ -620,6 +691,9 @@ public class DPColumnDataset implements DPDataset {
 			output.setHead(idxDep, idxHead);
 		}
 
+		if (candidateFilter != null)
+			candidateFilter.endDocument(output);
+
 		/*
 		 * Create a new string to store the input id to avoid memory leaks,
 		 * since the id string keeps a reference to the line string.
@@ -640,6 +714,21 @@ public class DPColumnDataset implements DPDataset {
 		return line != null;
 	}
 
+	/**
+	 * Set the candidate filter used while loading coreference datasets. The
+	 * features of the edges rejected by the filter are not stored. If it is
+	 * <code>null</code>, all edges are stored.
+	 * 
+	 * @param candidateFilter
+	 */
+	public void setCandidateFilter(CorefCandidateFilter candidateFilter) {
+		this.candidateFilter = candidateFilter;
+	}
+
+	public CorefCandidateFilter getCandidateFilter() {
+		return candidateFilter;
+	}
+
 	/**
 	 * Skip blank lines and lines starting by the comment character #.
 	 * 
@@ -676,22 +765,268 @@ public class DPColumnDataset implements DPDataset {
 		return explicitEncoding;
 	}
 
+	/**
+	 * Set the explicit features encoding. It must be called before features
+	 * are generated (or deserialized).
+	 * 
+	 * @param explicitEncoding
+	 */
+	public void setExplicitEncoding(MapEncoding<Feature> explicitEncoding) {
+		this.explicitEncoding = explicitEncoding;
+	}
+
+	/**
+	 * Save this dataset in a binary file. The file includes the feature
+	 * labels, the basic encoding (if it is a map-based encoding), the
+	 * templates, the explicit encoding and, for each example, its basic and
+	 * derived (if generated) features and its output structure. Thus, it can
+	 * be used to skip loading and feature generation.
+	 */
 	@Override
 	public void serialize(String filename) throws FileNotFoundException,
 			IOException {
-		throw new NotImplementedException();
+		BinaryFileWriter out = new BinaryFileWriter(filename);
+		try {
+			out.writeInt(SERIAL_MAGIC);
+			out.writeInt(SERIAL_VERSION);
+			out.writeString(getClass().getName());
+			out.writeBoolean(training);
+			out.writeInt(maxNumberOfTokens);
+
+			// Feature labels and multi-valued features.
+			out.writeInt(featureLabels == null ? -1 : featureLabels.length);
+			if (featureLabels != null)
+				for (String label : featureLabels)
+					out.writeString(label);
+			out.writeInt(multiValuedFeatures.size());
+			for (String label : multiValuedFeatures)
+				out.writeString(label);
+
+			// Basic encoding (only map-based encodings have a state).
+			boolean mapEncoding = basicEncoding instanceof MapEncoding;
+			out.writeBoolean(mapEncoding);
+			if (mapEncoding) {
+				int size = basicEncoding.size();
+				out.writeInt(size);
+				for (int code = 0; code < size; ++code)
+					out.writeString(basicEncoding.getValueByCode(code));
+			}
+
+			// Templates.
+			out.writeInt(templates == null ? -1 : templates.length);
+			if (templates != null) {
+				for (FeatureTemplate[] partition : templates) {
+					out.writeInt(partition.length);
+					for (FeatureTemplate tpl : partition) {
+						if (!(tpl instanceof SimpleFeatureTemplate))
+							throw new IOException("Template of type "
+									+ tpl.getClass().getSimpleName()
+									+ " cannot be serialized");
+						out.writeInt(tpl.getIndex());
+						out.writeIntArray(tpl.getFeatures());
+					}
+				}
+			}
+			out.writeInt(numberOfPartitions);
+			out.writeInt(currentPartition);
+
+			// Explicit encoding.
+			if (explicitEncoding instanceof HashedFeatureEncoding
+					&& ((HashedFeatureEncoding) explicitEncoding).isFixedSize()) {
+				// Hashed codes: only the size of the code space is stored.
+				out.writeInt(-1);
+				out.writeInt(explicitEncoding.size());
+			} else {
+				int numFtrs = explicitEncoding.size();
+				out.writeInt(numFtrs);
+				for (int code = 0; code < numFtrs; ++code) {
+					Feature ftr = explicitEncoding.getValueByCode(code);
+					out.writeInt(ftr.getTemplateIndex());
+					out.writeIntArray(ftr.getValues());
+				}
+			}
+
+			// Examples.
+			out.writeInt(inputs.length);
+			for (int idxEx = 0; idxEx < inputs.length; ++idxEx) {
+				inputs[idxEx].write(out);
+				outputs[idxEx].write(out);
+				if ((idxEx + 1) % 100 == 0) {
+					System.out.print(".");
+					System.out.flush();
+				}
+			}
+			System.out.println();
+		} finally {
+			out.close();
+		}
 	}
 
 	@Override
 	public void serialize(String inFilename, String outFilename)
 			throws IOException, DatasetException {
-		throw new NotImplementedException();
+		load(inFilename);
+		serialize(outFilename);
 	}
 
+	/**
+	 * Load a dataset saved by {@link #serialize(String)}. The serialized basic
+	 * and explicit features are included in the encodings of this dataset,
+	 * which can be non-empty (e.g., encodings shared with a training dataset).
+	 * If the resulting codes differ from the serialized ones, the feature
+	 * codes of each example are translated.
+	 */
 	@Override
 	public void deserialize(String filename) throws FileNotFoundException,
 			IOException, ClassNotFoundException {
-		throw new NotImplementedException();
+		BinaryFileReader in = new BinaryFileReader(filename);
+		try {
+			if (in.readInt() != SERIAL_MAGIC)
+				throw new IOException(filename
+						+ " is not a serialized column dataset");
+			int version = in.readInt();
+			if (version != SERIAL_VERSION)
+				throw new IOException("Unsupported version " + version
+						+ " of serialized dataset " + filename);
+			String className = in.readString();
+			if (!className.equals(getClass().getName()))
+				throw new IOException(String.format(
+						"Serialized dataset %s is a %s, not a %s", filename,
+						className, getClass().getName()));
+			training = in.readBoolean();
+			maxNumberOfTokens = in.readInt();
+
+			// Feature labels and multi-valued features.
+			int numLabels = in.readInt();
+			featureLabels = null;
+			if (numLabels >= 0) {
+				featureLabels = new String[numLabels];
+				for (int idx = 0; idx < numLabels; ++idx)
+					featureLabels[idx] = in.readString();
+			}
+			int numMultiValued = in.readInt();
+			for (int idx = 0; idx < numMultiValued; ++idx)
+				multiValuedFeatures.add(in.readString());
+
+			// Basic encoding.
+			int[] basicMap = null;
+			if (in.readBoolean()) {
+				if (!(basicEncoding instanceof MapEncoding))
+					throw new IOException("Serialized dataset " + filename
+							+ " requires a map-based basic encoding");
+				int size = in.readInt();
+				basicMap = new int[size];
+				boolean identity = true;
+				for (int code = 0; code < size; ++code) {
+					basicMap[code] = basicEncoding.put(in.readString());
+					identity &= (basicMap[code] == code);
+				}
+				if (identity)
+					basicMap = null;
+			} else if (basicEncoding instanceof MapEncoding)
+				throw new IOException("Serialized dataset " + filename
+						+ " was encoded by a hash-based basic encoding");
+
+			// Templates (when present, they replace the current ones).
+			int numPartitions = in.readInt();
+			if (numPartitions >= 0) {
+				templates = new FeatureTemplate[numPartitions][];
+				for (int idxPart = 0; idxPart < numPartitions; ++idxPart) {
+					int numTpls = in.readInt();
+					templates[idxPart] = new FeatureTemplate[numTpls];
+					for (int idxTpl = 0; idxTpl < numTpls; ++idxTpl) {
+						int index = in.readInt();
+						templates[idxPart][idxTpl] = new SimpleFeatureTemplate(
+								index, in.readIntArray());
+					}
+				}
+			}
+			int numParts = in.readInt();
+			int curPart = in.readInt();
+			if (numPartitions >= 0) {
+				numberOfPartitions = numParts;
+				currentPartition = curPart;
+			}
+
+			// Explicit encoding.
+			int numFtrs = in.readInt();
+			if (numFtrs < 0) {
+				/*
+				 * Features hashed into a fixed code space. Their codes are
+				 * only valid for the same code space and basic codes.
+				 */
+				int size = in.readInt();
+				if (!(explicitEncoding instanceof HashedFeatureEncoding)
+						|| !((HashedFeatureEncoding) explicitEncoding)
+								.isFixedSize()
+						|| explicitEncoding.size() != size
+						|| basicMap != null)
+					throw new IOException(String.format(
+							"File %s requires a hashed explicit encoding "
+									+ "of size %d and unchanged basic codes",
+							filename, size));
+				numFtrs = 0;
+			}
+			int[] explicitMap = new int[numFtrs];
+			boolean identity = true;
+			for (int code = 0; code < numFtrs; ++code) {
+				int tplIndex = in.readInt();
+				int[] values = in.readIntArray();
+				if (basicMap != null)
+					for (int idx = 0; idx < values.length; ++idx)
+						if (values[idx] >= 0)
+							values[idx] = basicMap[values[idx]];
+				explicitMap[code] = explicitEncoding.put(new Feature(
+						tplIndex, values));
+				identity &= (explicitMap[code] == code);
+			}
+			if (identity)
+				explicitMap = null;
+
+			// Examples.
+			int numExs = in.readInt();
+			inputs = new DPInput[numExs];
+			outputs = new DPOutput[numExs];
+			for (int idxEx = 0; idxEx < numExs; ++idxEx) {
+				inputs[idxEx] = readInput(in);
+				outputs[idxEx] = readOutput(in);
+				if (basicMap != null || explicitMap != null)
+					inputs[idxEx].translateFeatureCodes(basicMap, explicitMap);
+				if ((idxEx + 1) % 100 == 0) {
+					System.out.print(".");
+					System.out.flush();
+				}
+			}
+			System.out.println();
+		} finally {
+			in.close();
+		}
+
+		LOG.info("Read " + inputs.length + " examples.");
+	}
+
+	/**
+	 * Read an input structure from the given binary reader. Subclasses that
+	 * use specialized input structures must override this method.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	protected DPInput readInput(BinaryFileReader in) throws IOException {
+		return new DPInput(in);
+	}
+
+	/**
+	 * Read an output structure from the given binary reader. Subclasses that
+	 * use specialized output structures must override this method.
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	protected DPOutput readOutput(BinaryFileReader in) throws IOException {
+		return new DPOutput(in);
 	}
 
 	// /**
@@ -800,67 +1135,298 @@ public class DPColumnDataset implements DPDataset {
 		this.templates = tpls;
 	}
 
+	/**
+	 * Return the number of threads used to generate features.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	/**
+	 * Set the number of threads used to generate features.
+	 * 
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
+
 	/**
 	 * Generate features for the current template partition.
+	 * 
+	 * Examples are split in contiguous chunks that are processed in parallel.
+	 * Features already present in the explicit encoding are looked up
+	 * concurrently (the encoding is not modified in this phase). Each chunk
+	 * keeps its own map of new features and marks their occurrences with
+	 * temporary (negative) codes. Afterwards, the new features are included
+	 * in the encoding following the chunk order and the temporary codes are
+	 * replaced. Thus, the resulting codes are the same as the ones given by a
+	 * sequential generation.
+	 * 
+	 * If the explicit encoding is a {@link HashedFeatureEncoding}, features
+	 * are looked up by their fingerprints, computed directly from the basic
+	 * features of each edge, and feature objects are only created for new
+	 * features.
 	 */
 	public void generateFeatures() {
-		LinkedList<Integer> ftrs = new LinkedList<Integer>();
 		FeatureTemplate[] tpls = templates[currentPartition];
 		int numExs = inputs.length;
-		for (int idxEx = 0; idxEx < numExs; ++idxEx) {
-			// Current input structure.
-			DPInput input = inputs[idxEx];
+		if (numExs == 0)
+			return;
 
-			// Number of tokens within the current input.
-			int numTkns = input.getNumberOfTokens();
+		/*
+		 * Generic templates return a shared temporary instance, thus they
+		 * cannot be used by more than one thread.
+		 */
+		boolean simpleTemplates = true;
+		for (FeatureTemplate tpl : tpls)
+			if (!(tpl instanceof SimpleFeatureTemplate))
+				simpleTemplates = false;
+		int numThreads = (simpleTemplates ? numberOfThreads : 1);
+
+		// Split examples in chunks.
+		int numChunks = Math.min(numExs, numThreads * 8);
+		FeatureGenerationTask[] tasks = new FeatureGenerationTask[numChunks];
+		AtomicInteger progress = new AtomicInteger();
+		for (int idxChunk = 0; idxChunk < numChunks; ++idxChunk) {
+			int first = (int) (((long) idxChunk) * numExs / numChunks);
+			int end = (int) (((long) idxChunk + 1) * numExs / numChunks);
+			tasks[idxChunk] = new FeatureGenerationTask(tpls, first, end,
+					simpleTemplates, progress);
+		}
 
-			// Allocate explicit features matrix.
-			input.allocFeatureMatrix();
+		if (numThreads == 1) {
+			for (FeatureGenerationTask task : tasks)
+				task.call();
+		} else {
+			ExecutorService executor = Executors
+					.newFixedThreadPool(numThreads);
+			try {
+				List<Future<Object>> results = executor.invokeAll(Arrays
+						.asList(tasks));
+				for (Future<Object> result : results)
+					result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Feature generation interrupted", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Generating features",
+						e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+		}
 
-			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-				for (int idxDep = 0; idxDep < numTkns; ++idxDep) {
-					// Skip non-existent edges.
-					if (input.getBasicFeatures(idxHead, idxDep) == null)
-						continue;
+		// Encode new features and replace temporary codes (in chunk order).
+		for (FeatureGenerationTask task : tasks) {
+			List<Feature> newFeatures = task.newFeatures;
+			int numNewFtrs = newFeatures.size();
+			if (numNewFtrs == 0)
+				continue;
+			int[] codes = new int[numNewFtrs];
+			for (int idxFtr = 0; idxFtr < numNewFtrs; ++idxFtr)
+				codes[idxFtr] = explicitEncoding.put(newFeatures.get(idxFtr));
+			for (int idxEx = task.firstExample; idxEx < task.endExample; ++idxEx) {
+				DPInput input = inputs[idxEx];
+				int numTkns = input.getNumberOfTokens();
+				for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+					for (int idxDep = 0; idxDep < numTkns; ++idxDep) {
+						int[] ftrs = input.getFeatures(idxHead, idxDep);
+						if (ftrs == null)
+							continue;
+						for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
+							if (ftrs[idxFtr] <= TEMPORARY_CODE_BASE)
+								ftrs[idxFtr] = codes[TEMPORARY_CODE_BASE
+										- ftrs[idxFtr]];
+					}
+				}
+			}
+		}
 
-					// Clear previous used list of features.
-					ftrs.clear();
+		System.out.println();
+		System.out.flush();
+	}
+
+	/**
+	 * Generate explicit features for a contiguous chunk of examples.
+	 * 
+	 * @author eraldo
+	 * 
+	 */
+	private class FeatureGenerationTask implements Callable<Object> {
+		/**
+		 * Templates.
+		 */
+		private final FeatureTemplate[] tpls;
+
+		/**
+		 * First example of this chunk.
+		 */
+		private final int firstExample;
+
+		/**
+		 * Example after the last one of this chunk.
+		 */
+		private final int endExample;
+
+		/**
+		 * Whether this task uses its own temporary features, instead of the
+		 * shared temporary instance of each template.
+		 */
+		private final boolean ownTemporaryFeatures;
+
+		/**
+		 * Number of examples processed by all tasks (progress report).
+		 */
+		private final AtomicInteger progress;
+
+		/**
+		 * Features that are not present in the explicit encoding, in order of
+		 * first occurrence within this chunk.
+		 */
+		private final List<Feature> newFeatures;
+
+		public FeatureGenerationTask(FeatureTemplate[] tpls, int firstExample,
+				int endExample, boolean ownTemporaryFeatures,
+				AtomicInteger progress) {
+			this.tpls = tpls;
+			this.firstExample = firstExample;
+			this.endExample = endExample;
+			this.ownTemporaryFeatures = ownTemporaryFeatures;
+			this.progress = progress;
+			this.newFeatures = new ArrayList<Feature>();
+		}
+
+		@Override
+		public Object call() {
+			int numTpls = tpls.length;
+
+			// Temporary features of this task.
+			Feature[] tmpFtrs = new Feature[numTpls];
+			int[][] tplFtrs = new int[numTpls][];
+			for (int idxTpl = 0; idxTpl < numTpls; ++idxTpl) {
+				tplFtrs[idxTpl] = tpls[idxTpl].getFeatures();
+				tmpFtrs[idxTpl] = new Feature(tpls[idxTpl].getIndex(),
+						new int[tplFtrs[idxTpl].length]);
+			}
+
+			// Temporary code of each new feature of this chunk.
+			Map<Feature, Integer> newCodes = new HashMap<Feature, Integer>();
+
+			/*
+			 * A fingerprint-based encoding allows looking up features directly
+			 * from the basic features, with no temporary feature object.
+			 */
+			HashedFeatureEncoding hashedEncoding = null;
+			LongIntHashMap newFingerprints = null;
+			if (ownTemporaryFeatures
+					&& explicitEncoding instanceof HashedFeatureEncoding) {
+				hashedEncoding = (HashedFeatureEncoding) explicitEncoding;
+				newFingerprints = new LongIntHashMap(
+						FeatureEncoding.UNSEEN_VALUE_CODE);
+			}
+
+			for (int idxEx = firstExample; idxEx < endExample; ++idxEx) {
+				// Current input structure.
+				DPInput input = inputs[idxEx];
+
+				// Number of tokens within the current input.
+				int numTkns = input.getNumberOfTokens();
+
+				// Allocate explicit features matrix.
+				input.allocFeatureMatrix();
+
+				for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+					for (int idxDep = 0; idxDep < numTkns; ++idxDep) {
+						// Skip non-existent edges.
+						int[] basicFtrs = input.getBasicFeatures(idxHead,
+								idxDep);
+						if (basicFtrs == null)
+							continue;
 
-					/*
-					 * Instantiate edge features and add them to active features
-					 * list.
-					 */
-					for (int idxTpl = 0; idxTpl < tpls.length; ++idxTpl) {
-						FeatureTemplate tpl = tpls[idxTpl];
-						// Get temporary feature instance.
-						Feature ftr = tpl.getInstance(input, idxHead, idxDep);
-						// Lookup the feature in the encoding.
-						int code = explicitEncoding.getCodeByValue(ftr);
 						/*
-						 * Instantiate a new feature, if it is not present in
-						 * the encoding.
+						 * Instantiate edge features and store their codes
+						 * directly in the feature array of this edge.
 						 */
-						if (code == FeatureEncoding.UNSEEN_VALUE_CODE)
-							code = explicitEncoding.put(tpl.newInstance(input,
-									idxHead, idxDep));
-						// Add feature code to active features list.
-						ftrs.add(code);
+						int[] ftrs = new int[numTpls];
+						for (int idxTpl = 0; idxTpl < numTpls; ++idxTpl) {
+							if (hashedEncoding != null) {
+								long fp = HashedFeatureEncoding.fingerprint(
+										tmpFtrs[idxTpl].getTemplateIndex(),
+										tplFtrs[idxTpl], basicFtrs);
+								int code = hashedEncoding
+										.getCodeByFingerprint(fp);
+								if (code == FeatureEncoding.UNSEEN_VALUE_CODE) {
+									// New feature: use a temporary code.
+									code = newFingerprints.get(fp);
+									if (code == FeatureEncoding.UNSEEN_VALUE_CODE) {
+										code = TEMPORARY_CODE_BASE
+												- newFeatures.size();
+										newFeatures
+												.add(((SimpleFeatureTemplate) tpls[idxTpl])
+														.newInstance(basicFtrs));
+										newFingerprints.put(fp, code);
+									}
+								}
+								ftrs[idxTpl] = code;
+								continue;
+							}
+
+							// Get temporary feature instance.
+							Feature ftr;
+							if (ownTemporaryFeatures) {
+								ftr = tmpFtrs[idxTpl];
+								int[] tplFtrsCur = tplFtrs[idxTpl];
+								int[] vals = ftr.getValues();
+								for (int idx = 0; idx < tplFtrsCur.length; ++idx)
+									vals[idx] = basicFtrs[tplFtrsCur[idx]];
+							} else
+								ftr = tpls[idxTpl].getInstance(input, idxHead,
+										idxDep);
+
+							// Lookup the feature in the encoding.
+							int code = explicitEncoding.getCodeByValue(ftr);
+							if (code == FeatureEncoding.UNSEEN_VALUE_CODE) {
+								/*
+								 * New feature: use a temporary code that is
+								 * replaced after all chunks are processed.
+								 */
+								Integer tmpCode = newCodes.get(ftr);
+								if (tmpCode == null) {
+									tmpCode = TEMPORARY_CODE_BASE
+											- newFeatures.size();
+									Feature newFtr;
+									if (ownTemporaryFeatures)
+										newFtr = new Feature(
+												ftr.getTemplateIndex(), ftr
+														.getValues().clone());
+									else
+										newFtr = tpls[idxTpl].newInstance(
+												input, idxHead, idxDep);
+									newFeatures.add(newFtr);
+									newCodes.put(newFtr, tmpCode);
+								}
+								code = tmpCode;
+							}
+							ftrs[idxTpl] = code;
+						}
+
+						// Set feature vector of this input.
+						input.setFeatures(idxHead, idxDep, ftrs);
 					}
+				}
 
-					// Set feature vector of this input.
-					input.setFeatures(idxHead, idxDep, ftrs, ftrs.size());
+				// Progess report.
+				if (progress.incrementAndGet() % 100 == 0) {
+					System.out.print('.');
+					System.out.flush();
 				}
 			}
 
-			// Progess report.
-			if ((idxEx + 1) % 100 == 0) {
-				System.out.print('.');
-				System.out.flush();
-			}
+			return null;
 		}
-
-		System.out.println();
-		System.out.flush();
 	}
 
 	/**
@@ -1,6 +1,8 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dp.data;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -9,6 +11,8 @@ import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.FeatureTemplate;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
+import br.pucrio.inf.learn.util.BinaryFileReader;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
 
 /**
  * Input structure of a dependency parsing example. Represent a complete
@@ -151,6 +155,17 @@ public class DPInput implements ExampleInput, Serializable {
 				basicFeaturesSparseCollection, allocFixedWeightsMatrix);
 	}
 
+	/**
+	 * Create an input structure from the binary data in the given reader,
+	 * which must have been written by {@link #write(BinaryFileWriter)}.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public DPInput(BinaryFileReader in) throws IOException {
+		read(in);
+	}
+
 	/**
 	 * @return the number of tokens in this example.
 	 */
@@ -270,6 +285,191 @@ public class DPInput implements ExampleInput, Serializable {
 			edgeFeatures[idxFtr++] = ftr;
 	}
 
+	/**
+	 * Set the explicit features of the given edge. The given array is used
+	 * directly (not copied).
+	 * 
+	 * @param idxHead
+	 * @param idxDep
+	 * @param edgeFeatures
+	 */
+	public void setFeatures(int idxHead, int idxDep, int[] edgeFeatures) {
+		features[idxHead][idxDep] = edgeFeatures;
+	}
+
+	/**
+	 * Write this input structure in binary format. The basic and derived
+	 * feature matrices are written as compressed sparse rows: the list of
+	 * existing edges followed by the concatenated feature arrays of each
+	 * matrix.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(BinaryFileWriter out) throws IOException {
+		out.writeString(id);
+		out.writeInt(trainingIndex);
+		out.writeInt(numberOfTokens);
+		out.writeBoolean(punctuation != null);
+		if (punctuation != null)
+			for (int idxTkn = 0; idxTkn < numberOfTokens; ++idxTkn)
+				out.writeBoolean(punctuation[idxTkn]);
+		out.writeBoolean(fixedWeights != null);
+
+		// Existing edges (basic or derived features).
+		int numEdges = 0;
+		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead)
+			for (int idxDep = 0; idxDep < numberOfTokens; ++idxDep)
+				if (hasFeatures(idxHead, idxDep))
+					++numEdges;
+		int[] edges = new int[numEdges];
+		int idxEdge = 0;
+		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead)
+			for (int idxDep = 0; idxDep < numberOfTokens; ++idxDep)
+				if (hasFeatures(idxHead, idxDep))
+					edges[idxEdge++] = idxHead * numberOfTokens + idxDep;
+		out.writeIntArray(edges);
+
+		writeFeatureMatrix(out, basicFeatures, edges);
+		writeFeatureMatrix(out, features, edges);
+	}
+
+	/**
+	 * Return <code>true</code> if the given edge has basic or derived
+	 * features.
+	 * 
+	 * @param idxHead
+	 * @param idxDep
+	 * @return
+	 */
+	private boolean hasFeatures(int idxHead, int idxDep) {
+		return (basicFeatures != null && basicFeatures[idxHead][idxDep] != null)
+				|| (features != null && features[idxHead][idxDep] != null);
+	}
+
+	/**
+	 * Write the feature arrays of the given edges as a list of lengths (-1 for
+	 * missing arrays) followed by the concatenated arrays.
+	 * 
+	 * @param out
+	 * @param matrix
+	 * @param edges
+	 * @throws IOException
+	 */
+	private void writeFeatureMatrix(BinaryFileWriter out, int[][][] matrix,
+			int[] edges) throws IOException {
+		out.writeBoolean(matrix != null);
+		if (matrix == null)
+			return;
+		int[] lengths = new int[edges.length];
+		int numValues = 0;
+		for (int idxEdge = 0; idxEdge < edges.length; ++idxEdge) {
+			int[] ftrs = matrix[edges[idxEdge] / numberOfTokens][edges[idxEdge]
+					% numberOfTokens];
+			lengths[idxEdge] = (ftrs == null ? -1 : ftrs.length);
+			if (ftrs != null)
+				numValues += ftrs.length;
+		}
+		out.writeInts(lengths, 0, lengths.length);
+		int[] values = new int[numValues];
+		int offset = 0;
+		for (int idxEdge = 0; idxEdge < edges.length; ++idxEdge) {
+			int[] ftrs = matrix[edges[idxEdge] / numberOfTokens][edges[idxEdge]
+					% numberOfTokens];
+			if (ftrs == null)
+				continue;
+			System.arraycopy(ftrs, 0, values, offset, ftrs.length);
+			offset += ftrs.length;
+		}
+		out.writeIntArray(values);
+	}
+
+	/**
+	 * Translate the codes of the basic and derived features of this input
+	 * according to the given maps (<code>null</code> means no translation).
+	 * Negative codes (unknown values) are kept.
+	 * 
+	 * @param basicMap
+	 * @param derivedMap
+	 */
+	public void translateFeatureCodes(int[] basicMap, int[] derivedMap) {
+		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead) {
+			for (int idxDep = 0; idxDep < numberOfTokens; ++idxDep) {
+				if (basicMap != null && basicFeatures != null)
+					translateCodes(basicFeatures[idxHead][idxDep], basicMap);
+				if (derivedMap != null && features != null)
+					translateCodes(features[idxHead][idxDep], derivedMap);
+			}
+		}
+	}
+
+	/**
+	 * Translate the given codes according to the given map.
+	 * 
+	 * @param codes
+	 * @param map
+	 */
+	private static void translateCodes(int[] codes, int[] map) {
+		if (codes == null)
+			return;
+		for (int idx = 0; idx < codes.length; ++idx)
+			if (codes[idx] >= 0)
+				codes[idx] = map[codes[idx]];
+	}
+
+	/**
+	 * Read this input structure from the given binary data.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	private void read(BinaryFileReader in) throws IOException {
+		id = in.readString();
+		trainingIndex = in.readInt();
+		numberOfTokens = in.readInt();
+		if (in.readBoolean()) {
+			punctuation = new boolean[numberOfTokens];
+			for (int idxTkn = 0; idxTkn < numberOfTokens; ++idxTkn)
+				punctuation[idxTkn] = in.readBoolean();
+		}
+		if (in.readBoolean())
+			fixedWeights = new double[numberOfTokens][numberOfTokens];
+		int[] edges = in.readIntArray();
+		basicFeatures = readFeatureMatrix(in, edges);
+		features = readFeatureMatrix(in, edges);
+	}
+
+	/**
+	 * Read a feature matrix written by
+	 * {@link #writeFeatureMatrix(BinaryFileWriter, int[][][], int[])}. The
+	 * feature arrays are copied from one bulk array of values.
+	 * 
+	 * @param in
+	 * @param edges
+	 * @return
+	 * @throws IOException
+	 */
+	private int[][][] readFeatureMatrix(BinaryFileReader in, int[] edges)
+			throws IOException {
+		if (!in.readBoolean())
+			return null;
+		int[][][] matrix = new int[numberOfTokens][numberOfTokens][];
+		int[] lengths = new int[edges.length];
+		in.readInts(lengths, 0, lengths.length);
+		int[] values = in.readIntArray();
+		int offset = 0;
+		for (int idxEdge = 0; idxEdge < edges.length; ++idxEdge) {
+			int len = lengths[idxEdge];
+			if (len < 0)
+				continue;
+			matrix[edges[idxEdge] / numberOfTokens][edges[idxEdge]
+					% numberOfTokens] = Arrays.copyOfRange(values, offset,
+					offset + len);
+			offset += len;
+		}
+		return matrix;
+	}
+
 	/**
 	 * Generate derived features from basic features and the given templates.
 	 * 
@@ -1,9 +1,12 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dp.data;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.util.BinaryFileReader;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
 
 /**
  * Represent a branching of a complete graph of a sentence. Since each node in a
@@ -36,6 +39,17 @@ public class DPOutput implements ExampleOutput, Serializable {
 		Arrays.fill(heads, -1);
 	}
 
+	/**
+	 * Create an output structure from the binary data in the given reader,
+	 * which must have been written by {@link #write(BinaryFileWriter)}.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public DPOutput(BinaryFileReader in) throws IOException {
+		heads = in.readIntArray();
+	}
+
 	@Override
 	public DPOutput createNewObject() {
 		return new DPOutput(heads.length);
@@ -77,4 +91,14 @@ public class DPOutput implements ExampleOutput, Serializable {
 	public int size() {
 		return heads.length;
 	}
+
+	/**
+	 * Write this output structure in binary format.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(BinaryFileWriter out) throws IOException {
+		out.writeIntArray(heads);
+	}
 }
@@ -1,9 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
-import java.util.List;
-
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
-import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
 
 public class DPEdgeTemplate extends DPGSTemplate {
 
@@ -21,23 +18,4 @@ public class DPEdgeTemplate extends DPGSTemplate {
 		// Template type is 0 for edge templates.
 		vals[featureIndexes.length] = 0;
 	}
-
-	/**
-	 * Instantiate edge features for the edge factor of the given input.
-	 * 
-	 * @param input
-	 * @param derivedFeatures
-	 * @param encoding
-	 * @param idxHead
-	 * @param idxModifier
-	 * @throws CloneNotSupportedException
-	 */
-	public void instantiateEdgeDerivedFeatures(DPGSInput input,
-			List<Integer> derivedFeatures, MapEncoding<Feature> encoding,
-			int idxHead, int idxModifier) throws CloneNotSupportedException {
-		int[][] basicFeatures = input
-				.getBasicEdgeFeatures(idxHead, idxModifier);
-		instantiateDerivedFeatures(basicFeatures, 0, derivedFeatures, encoding);
-	}
-
 }
@@ -7,11 +7,17 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,6 +28,8 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
+import br.pucrio.inf.learn.util.MappedFileReader;
 
 /**
  * Represent a dataset with dependency parsing examples. Each example consists
@@ -41,6 +49,13 @@ public class DPGSDataset {
 	 */
 	private static Log LOG = LogFactory.getLog(DPGSDataset.class);
 
+	/**
+	 * Identification and version of the binary cache format.
+	 */
+	private static final int CACHE_MAGIC = 0x44504753;
+
+	private static final int CACHE_VERSION = 1;
+
 	/**
 	 * Regular expression pattern to parse spaces.
 	 */
@@ -347,9 +362,7 @@ public class DPGSDataset {
 	 */
 	public void loadEdgeFactors(String fileName) throws IOException,
 			DatasetException, DPGSException {
-		BufferedReader reader = new BufferedReader(new FileReader(fileName));
-		loadEdgeFactors(reader);
-		reader.close();
+		loadFactors(fileName, null, null);
 	}
 
 	/**
@@ -397,9 +410,7 @@ public class DPGSDataset {
 	 */
 	public void loadGrandparentFactors(String fileName) throws IOException,
 			DatasetException, DPGSException {
-		BufferedReader reader = new BufferedReader(new FileReader(fileName));
-		loadGrandparentFactors(reader);
-		reader.close();
+		loadFactors(null, null, fileName);
 	}
 
 	/**
@@ -449,9 +460,7 @@ public class DPGSDataset {
 	 */
 	public void loadSiblingsFactors(String fileName) throws IOException,
 			DatasetException, DPGSException {
-		BufferedReader reader = new BufferedReader(new FileReader(fileName));
-		loadSiblingsFactors(reader);
-		reader.close();
+		loadFactors(null, new String[] { fileName }, null);
 	}
 
 	/**
@@ -499,6 +508,21 @@ public class DPGSDataset {
 	 * @return
 	 */
 	protected String[] parseFeatureLabels(String line) {
+		return parseFeatureLabelsLine(line);
+	}
+
+	/**
+	 * Parse line with feature labels that must be of the form:
+	 * 
+	 * [features = label1, label2, ..., labelM]
+	 * 
+	 * The first label (factor ID) and the last one (correct flag) are not
+	 * included in the returned array.
+	 * 
+	 * @param line
+	 * @return
+	 */
+	static String[] parseFeatureLabelsLine(String line) {
 		int eq = line.indexOf('=');
 		int end = line.indexOf(']');
 		String[] labels = line.substring(eq + 1, end).split(",");
@@ -564,6 +588,521 @@ public class DPGSDataset {
 		LOG.info("Read " + inputs.length + " examples.");
 	}
 
+	/**
+	 * Load edge, siblings and grandparent factors from the given files. Any
+	 * argument can be <code>null</code>. The files are parsed in parallel (one
+	 * thread per file) by byte-level parsers and, then, they are included in
+	 * this dataset in the following order: edge factors, siblings factors (in
+	 * the given order) and grandparent factors. Basic feature codes are the
+	 * same as if the files had been loaded one by one in this order.
+	 * 
+	 * Grandparent factors are included at last to avoid problems with short
+	 * sentences (1 ordinary token), since grandparent factors do not exist for
+	 * such short sentences.
+	 * 
+	 * @param edgeFileName
+	 * @param siblingsFileNames
+	 * @param grandparentFileName
+	 * @throws IOException
+	 * @throws DatasetException
+	 * @throws DPGSException
+	 */
+	public void loadFactors(String edgeFileName, String[] siblingsFileNames,
+			String grandparentFileName) throws IOException, DatasetException,
+			DPGSException {
+		// One parser and the corresponding factor type for each file.
+		List<DPGSFactorFileParser> parsers = new ArrayList<DPGSFactorFileParser>();
+		List<Integer> types = new ArrayList<Integer>();
+		if (edgeFileName != null) {
+			parsers.add(new DPGSFactorFileParser(edgeFileName,
+					multiValuedEdgeFeatures, separatorFeatureValues));
+			types.add(DPGSFactorFileParser.TYPE_EDGE);
+		}
+		if (siblingsFileNames != null) {
+			for (String fileName : siblingsFileNames) {
+				parsers.add(new DPGSFactorFileParser(fileName,
+						multiValuedSiblingsFeatures, separatorFeatureValues));
+				types.add(DPGSFactorFileParser.TYPE_SIBLINGS);
+			}
+		}
+		if (grandparentFileName != null) {
+			parsers.add(new DPGSFactorFileParser(grandparentFileName,
+					multiValuedGrandparentFeatures, separatorFeatureValues));
+			types.add(DPGSFactorFileParser.TYPE_GRANDPARENT);
+		}
+
+		// Parse all files in parallel.
+		parseFactorFiles(parsers);
+
+		// Include the parsed factors in the order of the files.
+		for (int idxFile = 0; idxFile < parsers.size(); ++idxFile) {
+			DPGSFactorFileParser parser = parsers.get(idxFile);
+			checkFeatureLabels(types.get(idxFile), parser.getFeatureLabels());
+			addParsedExamples(parser);
+			// Release parsed data as soon as possible.
+			parsers.set(idxFile, null);
+		}
+	}
+
+	/**
+	 * Run the given parsers in parallel and wait for all of them.
+	 * 
+	 * @param parsers
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	private void parseFactorFiles(List<DPGSFactorFileParser> parsers)
+			throws IOException, DatasetException {
+		if (parsers.size() == 1) {
+			parsers.get(0).parse();
+			return;
+		}
+
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for (final DPGSFactorFileParser parser : parsers) {
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					long time = System.currentTimeMillis();
+					parser.parse();
+					LOG.info(String.format(
+							"Parsed %d examples of %s in %d ms", parser
+									.getExamples().size(), parser
+									.getFileName(), System
+									.currentTimeMillis() - time));
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(parsers
+				.size());
+		try {
+			for (Future<Object> result : executor.invokeAll(tasks))
+				result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while parsing factors", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof DatasetException)
+				throw (DatasetException) cause;
+			throw new RuntimeException("Parsing factor files", cause);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Check whether the given feature labels are equal to the labels of
+	 * previously loaded files of the same factor type. If this is the first
+	 * file of this type, just store its labels.
+	 * 
+	 * @param type
+	 * @param labels
+	 * @throws DPGSException
+	 */
+	private void checkFeatureLabels(int type, String[] labels)
+			throws DPGSException {
+		switch (type) {
+		case DPGSFactorFileParser.TYPE_EDGE:
+			if (featureLabelsEdge == null)
+				featureLabelsEdge = labels;
+			else if (!Arrays.equals(labels, featureLabelsEdge))
+				throw new DPGSException("Given edge dataset has a "
+						+ "different feature set from previous one(s)");
+			break;
+		case DPGSFactorFileParser.TYPE_GRANDPARENT:
+			if (featureLabelsGrandparent == null)
+				featureLabelsGrandparent = labels;
+			else if (!Arrays.equals(labels, featureLabelsGrandparent))
+				throw new DPGSException("Given grandparent dataset has a "
+						+ "different feature set from previous one(s)");
+			break;
+		case DPGSFactorFileParser.TYPE_SIBLINGS:
+			if (featureLabelsSiblings == null)
+				featureLabelsSiblings = labels;
+			else if (!Arrays.equals(labels, featureLabelsSiblings))
+				throw new DPGSException("Given siblings dataset has a "
+						+ "different feature set from previous one(s)");
+			break;
+		}
+	}
+
+	/**
+	 * Include the examples of the given parser in this dataset. If this
+	 * dataset is empty, create new input and output structures. Otherwise,
+	 * fill the existing ones in order.
+	 * 
+	 * @param parser
+	 * @throws DatasetException
+	 * @throws DPGSException
+	 */
+	private void addParsedExamples(DPGSFactorFileParser parser)
+			throws DatasetException, DPGSException {
+		// Translate local codes to the basic encoding (in order of occurrence).
+		List<String> values = parser.getValues();
+		int[] codes = new int[values.size()];
+		boolean identity = true;
+		int idxVal = 0;
+		for (String value : values) {
+			codes[idxVal] = basicEncoding.put(value);
+			identity &= (codes[idxVal] == idxVal);
+			++idxVal;
+		}
+
+		List<DPGSFactorFileParser.Example> examples = parser.getExamples();
+		int numExs = examples.size();
+		if (inputs != null && numExs != inputs.length)
+			throw new DPGSException(String.format(
+					"File %s has %d examples but previous file(s) have %d",
+					parser.getFileName(), numExs, inputs.length));
+
+		boolean create = (inputs == null);
+		if (create) {
+			inputs = new DPGSInput[numExs];
+			outputs = new DPGSOutput[numExs];
+		}
+
+		for (int idxEx = 0; idxEx < numExs; ++idxEx) {
+			DPGSFactorFileParser.Example ex = examples.get(idxEx);
+			examples.set(idxEx, null);
+			int numTokens = ex.numberOfTokens;
+
+			// Translate basic feature codes (in place).
+			if (!identity) {
+				for (int idxFactor = 0; idxFactor < ex.numberOfFactors; ++idxFactor) {
+					int[][] columns = ex.columns[idxFactor];
+					for (int idxFtr = 0; idxFtr < columns.length; ++idxFtr) {
+						int[] vals = columns[idxFtr];
+						for (int idx = 0; idx < vals.length; ++idx)
+							vals[idx] = codes[vals[idx]];
+					}
+				}
+			}
+
+			DPGSInput input;
+			DPGSOutput output;
+			if (create) {
+				// Id is just the example index.
+				input = new DPGSInput("" + idxEx, numTokens);
+				output = input.createOutput();
+				Arrays.fill(output.getHeads(), -1);
+				Arrays.fill(output.getGrandparents(), -1);
+				inputs[idxEx] = input;
+				outputs[idxEx] = output;
+			} else {
+				input = inputs[idxEx];
+				output = outputs[idxEx];
+				if (numTokens != input.size())
+					throw new DPGSException(String.format(
+							"Incorrect number of token in example %s",
+							input.getId()));
+			}
+
+			// Fill the basic features of the given factors.
+			input.addBasicFeaturesOfFactors(ex.numberOfFactors, ex.params,
+					ex.columns);
+
+			// Keep the length of the longest example.
+			if (numTokens > maxNumberOfTokens)
+				maxNumberOfTokens = numTokens;
+
+			// Fill and check the output structure.
+			for (int idx = 0; idx < ex.numberOfCorrectFactors; ++idx)
+				setCorrectFactor(output, input.getId(), numTokens, ex.params,
+						4 * ex.correctFactors[idx]);
+		}
+
+		LOG.info("Read " + inputs.length + " examples.");
+	}
+
+	/**
+	 * Save the parsed factors of this dataset (basic features), its output
+	 * structures and the basic feature encoding to the given binary file. The
+	 * saved file can be loaded by <code>loadCache(String)</code>, which is
+	 * much faster than parsing the original factor files. Derived features
+	 * are not saved, since they depend on the model templates.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void saveCache(String fileName) throws IOException {
+		BinaryFileWriter writer = new BinaryFileWriter(fileName);
+		writer.writeInt(CACHE_MAGIC);
+		writer.writeInt(CACHE_VERSION);
+
+		// Feature labels.
+		writeStrings(writer, featureLabelsEdge);
+		writeStrings(writer, featureLabelsGrandparent);
+		writeStrings(writer, featureLabelsSiblings);
+
+		// Basic feature values in the order of their codes.
+		int numVals = basicEncoding.size();
+		writer.writeInt(numVals);
+		for (int code = 0; code < numVals; ++code)
+			writer.writeString(basicEncoding.getValueByCode(code));
+
+		writer.writeInt(maxNumberOfTokens);
+		int numExs = inputs.length;
+		writer.writeInt(numExs);
+		for (int idxEx = 0; idxEx < numExs; ++idxEx) {
+			DPGSInput input = inputs[idxEx];
+			DPGSOutput output = outputs[idxEx];
+			int numTokens = input.size();
+			writer.writeString(input.getId());
+			writer.writeInt(numTokens);
+
+			// Edge factors.
+			int numEdges = 0;
+			for (int idxHead = 0; idxHead < numTokens; ++idxHead)
+				for (int idxMod = 0; idxMod < numTokens; ++idxMod)
+					if (input.getBasicEdgeFeatures(idxHead, idxMod) != null)
+						++numEdges;
+			writer.writeInt(numEdges);
+			for (int idxHead = 0; idxHead < numTokens; ++idxHead) {
+				for (int idxMod = 0; idxMod < numTokens; ++idxMod) {
+					int[][] columns = input.getBasicEdgeFeatures(idxHead,
+							idxMod);
+					if (columns == null)
+						continue;
+					writer.writeInt(idxHead);
+					writer.writeInt(idxMod);
+					writeColumns(writer, columns);
+				}
+			}
+
+			// Grandparent and siblings factors.
+			writeFactorTable(writer, input.getGrandparentFactors());
+			writeFactorTable(writer, input.getSiblingsFactors());
+
+			// Output structure.
+			writer.writeIntArray(output.getHeads());
+			writer.writeIntArray(output.getGrandparents());
+			for (int idxHead = 0; idxHead < numTokens; ++idxHead) {
+				int numMods = 0;
+				for (int idxMod = 0; idxMod < numTokens; ++idxMod)
+					if (output.isModifier(idxHead, idxMod))
+						++numMods;
+				writer.writeInt(numMods);
+				for (int idxMod = 0; idxMod < numTokens; ++idxMod)
+					if (output.isModifier(idxHead, idxMod))
+						writer.writeInt(idxMod);
+			}
+		}
+
+		writer.close();
+	}
+
+	/**
+	 * Write an array of strings (possibly <code>null</code>).
+	 * 
+	 * @param writer
+	 * @param strs
+	 * @throws IOException
+	 */
+	private static void writeStrings(BinaryFileWriter writer, String[] strs)
+			throws IOException {
+		if (strs == null) {
+			writer.writeInt(-1);
+			return;
+		}
+		writer.writeInt(strs.length);
+		for (String str : strs)
+			writer.writeString(str);
+	}
+
+	/**
+	 * Write the basic features of one factor.
+	 * 
+	 * @param writer
+	 * @param columns
+	 * @throws IOException
+	 */
+	private static void writeColumns(BinaryFileWriter writer, int[][] columns)
+			throws IOException {
+		writer.writeInt(columns.length);
+		for (int[] vals : columns)
+			writer.writeIntArray(vals);
+	}
+
+	/**
+	 * Write the parameters and basic features of the factors in the given
+	 * table.
+	 * 
+	 * @param writer
+	 * @param factors
+	 * @throws IOException
+	 */
+	private static void writeFactorTable(BinaryFileWriter writer,
+			DPGSFactorTable factors) throws IOException {
+		int numFactors = factors.size();
+		writer.writeInt(numFactors);
+		for (int idx = 0; idx < numFactors; ++idx) {
+			writer.writeInt(factors.getHead(idx));
+			writer.writeInt(factors.getModifier(idx));
+			writer.writeInt(factors.getThird(idx));
+			writeColumns(writer, factors.getBasicFeatures(idx));
+		}
+	}
+
+	/**
+	 * Load this dataset from a binary file saved by
+	 * <code>saveCache(String)</code>. The file is memory-mapped. Basic feature
+	 * values are included in the basic encoding of this dataset, which can be
+	 * shared with other datasets and thus be different from the encoding used
+	 * when the cache was saved. In this case, basic feature codes are
+	 * translated.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 * @throws DatasetException
+	 * @throws DPGSException
+	 */
+	public void loadCache(String fileName) throws IOException,
+			DatasetException, DPGSException {
+		if (inputs != null)
+			throw new DPGSException("Cache must be loaded in an empty dataset");
+
+		MappedFileReader reader = new MappedFileReader(fileName);
+		if (reader.readInt() != CACHE_MAGIC
+				|| reader.readInt() != CACHE_VERSION) {
+			reader.close();
+			throw new DatasetException(String.format(
+					"File %s is not a DPGS dataset cache (version %d)",
+					fileName, CACHE_VERSION));
+		}
+
+		// Feature labels.
+		featureLabelsEdge = readStrings(reader);
+		featureLabelsGrandparent = readStrings(reader);
+		featureLabelsSiblings = readStrings(reader);
+
+		// Translation of saved codes to the basic encoding.
+		int numVals = reader.readInt();
+		int[] codes = new int[numVals];
+		boolean identity = true;
+		for (int code = 0; code < numVals; ++code) {
+			codes[code] = basicEncoding.put(reader.readString());
+			identity &= (codes[code] == code);
+		}
+		if (identity)
+			codes = null;
+
+		maxNumberOfTokens = reader.readInt();
+		int numExs = reader.readInt();
+		inputs = new DPGSInput[numExs];
+		outputs = new DPGSOutput[numExs];
+		for (int idxEx = 0; idxEx < numExs; ++idxEx) {
+			String id = reader.readString();
+			int numTokens = reader.readInt();
+			DPGSInput input = new DPGSInput(id, numTokens);
+
+			// All factors (edge, grandparent and siblings).
+			int numEdges = reader.readInt();
+			int[] params = new int[4 * numEdges];
+			int[][][] columns = new int[numEdges][][];
+			for (int idx = 0; idx < numEdges; ++idx) {
+				params[4 * idx] = DPGSFactorFileParser.TYPE_EDGE;
+				params[4 * idx + 1] = reader.readInt();
+				params[4 * idx + 2] = reader.readInt();
+				columns[idx] = readColumns(reader, codes);
+			}
+			input.addBasicFeaturesOfFactors(numEdges, params, columns);
+			readFactorTable(reader, input,
+					DPGSFactorFileParser.TYPE_GRANDPARENT, codes);
+			readFactorTable(reader, input, DPGSFactorFileParser.TYPE_SIBLINGS,
+					codes);
+
+			// Output structure.
+			DPGSOutput output = input.createOutput();
+			System.arraycopy(reader.readIntArray(), 0, output.getHeads(), 0,
+					numTokens);
+			System.arraycopy(reader.readIntArray(), 0,
+					output.getGrandparents(), 0, numTokens);
+			for (int idxHead = 0; idxHead < numTokens; ++idxHead) {
+				int numMods = reader.readInt();
+				for (int idx = 0; idx < numMods; ++idx)
+					output.setModifier(idxHead, reader.readInt(), true);
+			}
+
+			inputs[idxEx] = input;
+			outputs[idxEx] = output;
+		}
+
+		reader.close();
+		LOG.info("Read " + inputs.length + " examples from cache.");
+	}
+
+	/**
+	 * Read an array of strings written by <code>writeStrings</code>.
+	 * 
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	private static String[] readStrings(MappedFileReader reader)
+			throws IOException {
+		int len = reader.readInt();
+		if (len < 0)
+			return null;
+		String[] strs = new String[len];
+		for (int idx = 0; idx < len; ++idx)
+			strs[idx] = reader.readString();
+		return strs;
+	}
+
+	/**
+	 * Read the basic features of one factor and translate its codes, if
+	 * <code>codes</code> is not <code>null</code>.
+	 * 
+	 * @param reader
+	 * @param codes
+	 * @return
+	 * @throws IOException
+	 */
+	private static int[][] readColumns(MappedFileReader reader, int[] codes)
+			throws IOException {
+		int[][] columns = new int[reader.readInt()][];
+		for (int idxFtr = 0; idxFtr < columns.length; ++idxFtr) {
+			int[] vals = reader.readIntArray();
+			if (codes != null)
+				for (int idx = 0; idx < vals.length; ++idx)
+					vals[idx] = codes[vals[idx]];
+			columns[idxFtr] = vals;
+		}
+		return columns;
+	}
+
+	/**
+	 * Read the factors written by <code>writeFactorTable</code> and include
+	 * them in the given input structure.
+	 * 
+	 * @param reader
+	 * @param input
+	 * @param type
+	 * @param codes
+	 * @throws IOException
+	 * @throws DPGSException
+	 */
+	private static void readFactorTable(MappedFileReader reader,
+			DPGSInput input, int type, int[] codes) throws IOException,
+			DPGSException {
+		int numFactors = reader.readInt();
+		int[] params = new int[4 * numFactors];
+		int[][][] columns = new int[numFactors][][];
+		for (int idx = 0; idx < numFactors; ++idx) {
+			params[4 * idx] = type;
+			params[4 * idx + 1] = reader.readInt();
+			params[4 * idx + 2] = reader.readInt();
+			params[4 * idx + 3] = reader.readInt();
+			columns[idx] = readColumns(reader, codes);
+		}
+		input.addBasicFeaturesOfFactors(numFactors, params, columns);
+	}
+
 	/**
 	 * Save dataset to the given file.
 	 * 
@@ -952,44 +1491,8 @@ public class DPGSDataset {
 		}
 
 		// Fill and check the output structure.
-		for (int[] params : correctFactors) {
-			int type = params[0];
-			int idxHead = params[1];
-			int idxMod = params[2];
-			if (type == 0) {
-				// EDGE factor.
-				setAndCheckEdgeVariable(output, input.getId(), params, idxHead,
-						idxMod);
-			} else if (type == 1) {
-				// GRANDPARENT factor.
-				int idxGrandparent = params[3];
-				if (idxGrandparent == idxHead || idxMod == idxHead)
-					continue;
-				// Parse tree variable.
-				setAndCheckEdgeVariable(output, input.getId(), params, idxHead,
-						idxMod);
-				// Grandparent and modifier variables.
-				setAndCheckEdgeVariable(output, input.getId(), params,
-						idxGrandparent, idxHead);
-			} else if (type == 2) {
-				// SIBLINGS factor.
-				int idxPrevMod = params[3];
-				if (idxMod != idxHead && idxMod != numTokens) {
-					// Set modifier.
-					output.setModifier(idxHead, idxMod, true);
-					// Check dependency (idxHead, idxMod).
-					setAndCheckEdgeVariable(output, input.getId(), params,
-							idxHead, idxMod);
-				}
-				if (idxPrevMod != idxHead && idxPrevMod != numTokens) {
-					// Set previous modifier.
-					output.setModifier(idxHead, idxPrevMod, true);
-					// Check dependency (idxHead, idxMod).
-					setAndCheckEdgeVariable(output, input.getId(), params,
-							idxHead, idxPrevMod);
-				}
-			}
-		}
+		for (int[] params : correctFactors)
+			setCorrectFactor(output, input.getId(), numTokens, params, 0);
 
 		if (inputList != null) {
 			inputList.add(input);
@@ -1000,6 +1503,57 @@ public class DPGSDataset {
 		return line != null;
 	}
 
+	/**
+	 * Set the output variables that correspond to the given correct factor,
+	 * whose parameters are <code>params[offset], ..., params[offset+3]</code>
+	 * (type, idxHead, idxModifier, idxThird), and check their consistency.
+	 * 
+	 * @param output
+	 * @param id
+	 * @param numTokens
+	 * @param params
+	 * @param offset
+	 * @throws DatasetException
+	 */
+	protected void setCorrectFactor(DPGSOutput output, String id,
+			int numTokens, int[] params, int offset) throws DatasetException {
+		int type = params[offset];
+		int idxHead = params[offset + 1];
+		int idxMod = params[offset + 2];
+		if (offset != 0)
+			params = Arrays.copyOfRange(params, offset, offset + 4);
+		if (type == 0) {
+			// EDGE factor.
+			setAndCheckEdgeVariable(output, id, params, idxHead, idxMod);
+		} else if (type == 1) {
+			// GRANDPARENT factor.
+			int idxGrandparent = params[3];
+			if (idxGrandparent == idxHead || idxMod == idxHead)
+				return;
+			// Parse tree variable.
+			setAndCheckEdgeVariable(output, id, params, idxHead, idxMod);
+			// Grandparent and modifier variables.
+			setAndCheckEdgeVariable(output, id, params, idxGrandparent,
+					idxHead);
+		} else if (type == 2) {
+			// SIBLINGS factor.
+			int idxPrevMod = params[3];
+			if (idxMod != idxHead && idxMod != numTokens) {
+				// Set modifier.
+				output.setModifier(idxHead, idxMod, true);
+				// Check dependency (idxHead, idxMod).
+				setAndCheckEdgeVariable(output, id, params, idxHead, idxMod);
+			}
+			if (idxPrevMod != idxHead && idxPrevMod != numTokens) {
+				// Set previous modifier.
+				output.setModifier(idxHead, idxPrevMod, true);
+				// Check dependency (idxHead, idxMod).
+				setAndCheckEdgeVariable(output, id, params, idxHead,
+						idxPrevMod);
+			}
+		}
+	}
+
 	/**
 	 * Set grandparent and head properties and check their consistency for the
 	 * given dependency.
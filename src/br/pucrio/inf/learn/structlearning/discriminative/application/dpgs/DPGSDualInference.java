@@ -1,6 +1,9 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -11,6 +14,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.util.ParallelLoop;
 import br.pucrio.inf.learn.util.gsmaxbranching.MaximumGrandparentSiblingsAlgorithm;
 import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
 
@@ -46,6 +50,18 @@ public class DPGSDualInference implements Inference {
 	 */
 	private MaximumGrandparentSiblingsAlgorithm maxGSAlgorithm;
 
+	/**
+	 * Executor used to fill factor weights and to solve the per-head
+	 * subproblems in parallel. It is <code>null</code> when there is only one
+	 * thread.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Number of threads used by the inference.
+	 */
+	private int numberOfThreads = 1;
+
 	/**
 	 * Parameter between 0 and 1 that indicates the fraction of edge factor
 	 * weights that are passed to the maximum branching problem. The remaining
@@ -118,10 +134,90 @@ public class DPGSDualInference implements Inference {
 	 */
 	private int maxNumberOfSubgradientSteps;
 
+	/**
+	 * Step size rules for the subgradient method.
+	 */
+	public static enum StepSizeRule {
+		/**
+		 * Initial step size divided by one plus the number of times that the
+		 * dual objective has increased.
+		 */
+		DECREASING,
+
+		/**
+		 * Polyak step: the distance between the dual objective and the best
+		 * primal weight divided by the squared norm of the subgradient, scaled
+		 * by the same decreasing factor.
+		 */
+		POLYAK
+	}
+
+	/**
+	 * Step size rule used by the subgradient method.
+	 */
+	private StepSizeRule stepSizeRule;
+
+	/**
+	 * Relative primal-dual gap below which the subgradient method stops. When
+	 * it is zero, the method stops only when the gap is closed.
+	 */
+	private double gapTolerance;
+
+	/**
+	 * Whether to start the dual variables of each example from the values
+	 * reached in the previous decoding of the same example.
+	 */
+	private boolean warmStart;
+
+	/**
+	 * Dual variables reached in the last decoding of each example (only when
+	 * <code>warmStart</code> is true).
+	 */
+	private Map<DPGSInput, DualState> dualStates;
+
 	private int numPredictions;
 
 	private int numSubGradSteps;
 
+	/**
+	 * Number of decodings that reached an optimality certificate (agreement
+	 * of all subproblems or a closed primal-dual gap).
+	 */
+	private int numCertificates;
+
+	/**
+	 * Sum of the primal-dual gaps of all decodings.
+	 */
+	private double sumGaps;
+
+	/**
+	 * Number of subgradient steps of the last decoding.
+	 */
+	private int lastNumberOfSteps;
+
+	/**
+	 * Primal-dual gap of the last decoding.
+	 */
+	private double lastGap;
+
+	/**
+	 * Whether the last decoding reached an optimality certificate.
+	 */
+	private boolean lastCertificate;
+
+	/**
+	 * Coarse-to-fine pruner. If it is not <code>null</code>, only grandparent
+	 * and siblings factors whose edges survive the first-order pruning are
+	 * scored and considered by the dual decomposition.
+	 */
+	private DPGSPruner pruner;
+
+	/**
+	 * Edges kept by the pruner for the current input. The index for this array
+	 * is (idxHead, idxModifier).
+	 */
+	private boolean[][] edgeMask;
+
 	/**
 	 * Create a grandparent/sibling inference object that allocates the internal
 	 * data structures to support the given maximum number of tokens.
@@ -149,6 +245,52 @@ public class DPGSDualInference implements Inference {
 
 		maxNumberOfSubgradientSteps = 2;
 		maxBranchAlgorithm.setOnlyPositiveEdges(false);
+
+		stepSizeRule = StepSizeRule.DECREASING;
+		dualStates = new HashMap<DPGSInput, DualState>();
+	}
+
+	/**
+	 * Set the coarse-to-fine pruner used to discard unlikely edges before
+	 * filling the grandparent and siblings factor weights. If it is
+	 * <code>null</code>, no pruning is performed.
+	 * 
+	 * @param pruner
+	 */
+	public void setPruner(DPGSPruner pruner) {
+		this.pruner = pruner;
+		if (pruner != null)
+			edgeMask = new boolean[edgeFactorWeights.length][edgeFactorWeights.length];
+		else
+			edgeMask = null;
+	}
+
+	/**
+	 * Return the coarse-to-fine pruner used by this inference (possibly
+	 * <code>null</code>).
+	 * 
+	 * @return
+	 */
+	public DPGSPruner getPruner() {
+		return pruner;
+	}
+
+	/**
+	 * Set the number of threads used to fill factor weights and to solve the
+	 * independent per-head subproblems of the grandparent/siblings algorithm.
+	 * The result does not depend on the number of threads.
+	 * 
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		if (executor != null)
+			executor.shutdown();
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+		if (this.numberOfThreads > 1)
+			executor = ParallelLoop.newDaemonExecutor(this.numberOfThreads);
+		else
+			executor = null;
+		maxGSAlgorithm.setExecutor(executor, this.numberOfThreads);
 	}
 
 	/**
@@ -171,6 +313,8 @@ public class DPGSDualInference implements Inference {
 		// Dual variables.
 		dualGrandparentVariables = new double[maxNumberOfTokens][maxNumberOfTokens];
 		dualModifierVariables = new double[maxNumberOfTokens][maxNumberOfTokens];
+		if (pruner != null)
+			edgeMask = new boolean[maxNumberOfTokens][maxNumberOfTokens];
 	}
 
 	/**
@@ -186,14 +330,12 @@ public class DPGSDualInference implements Inference {
 	 *            structure.
 	 */
 	public void inference(DPGSModel model, DPGSInput input, DPGSOutput output) {
-		// Clear dual variables.
-		clearDualVars(input.size());
+		// Initialize dual variables (possibly from the last decoding).
+		initDualVars(input);
 
 		// Generate inference problem for the given input.
-		fillEdgeFactorWeights(model, input);
+		fillFactorWeights(model, input, null, 0d);
 		fillGraph(input.size());
-		fillGrandparentFactorWeights(model, input, null, 0d);
-		fillSiblingsFactorWeights(model, input);
 
 		// Solve the inference problem.
 		subgradientMethod(input, output);
@@ -213,14 +355,12 @@ public class DPGSDualInference implements Inference {
 	public void lossAugmentedInference(DPGSModel model, DPGSInput input,
 			DPGSOutput referenceOutput, DPGSOutput predictedOutput,
 			double lossWeight) {
-		// Clear dual variables.
-		clearDualVars(input.size());
+		// Initialize dual variables (possibly from the last decoding).
+		initDualVars(input);
 
 		// Generate loss-augmented inference problem for the given input.
-		fillEdgeFactorWeights(model, input);
+		fillFactorWeights(model, input, referenceOutput, lossWeight);
 		fillGraph(input.size());
-		fillGrandparentFactorWeights(model, input, referenceOutput, lossWeight);
-		fillSiblingsFactorWeights(model, input);
 
 		// Solve the inference problem.
 		subgradientMethod(input, predictedOutput);
@@ -249,37 +389,41 @@ public class DPGSDualInference implements Inference {
 		// Initial step size.
 		double lambda = Double.NaN;
 
-		// Fill the maximum branching for a zero-weight graph.
+		// Fill the maximum branching for the initial dual values.
 		double dualObjectiveValue = maxBranchAlgorithm.findMaxBranching(
 				numTkns, graph, output.getHeads());
 
 		// Fill the complete maximum grandparent/siblings structure.
-		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-			dualObjectiveValues[idxHead] = maxGSAlgorithm
-					.findMaximumGrandparentSiblingsForHead(numTkns, idxHead,
-							edgeFactorWeights,
-							grandparentFactorWeights[idxHead],
-							siblingsFactorWeights[idxHead],
-							dualGrandparentVariables, dualModifierVariables,
-							output.getGrandparents(), output.getModifiers());
+		maxGSAlgorithm.findMaximumGrandparentSiblingsForHeads(numTkns, null,
+				edgeFactorWeights, grandparentFactorWeights,
+				siblingsFactorWeights, dualGrandparentVariables,
+				dualModifierVariables, output.getGrandparents(),
+				output.getModifiers(), dualObjectiveValues);
+		for (int idxHead = 0; idxHead < numTkns; ++idxHead)
 			dualObjectiveValue += dualObjectiveValues[idxHead];
-		}
 
 		// Current best solution.
-		double bestOutputWeight = maxGSAlgorithm.calcObjectiveValueOfParse(
-				output.getHeads(), output.size(), edgeFactorWeights,
-				grandparentFactorWeights, siblingsFactorWeights, null, null);
+		double bestOutputWeight = calcPrimalWeight(output.getHeads(), numTkns);
 		int[] bestOutput = output.getHeads().clone();
+		// Best (smallest) dual objective value, i.e., the tightest bound.
+		double bestDualObjectiveValue = dualObjectiveValue;
+
+		DualState state = (warmStart ? dualStates.get(input) : null);
+		if (state != null && state.stepSize > 0d) {
+			// Continue from the step size of the last decoding.
+			lambda = state.stepSize;
+		} else {
+			/*
+			 * The first step size is equal to the difference between the
+			 * weights of the grandparent/siblings structure and the parse
+			 * structure under the grandparent/siblings objective function.
+			 */
+			lambda = dualObjectiveValue - bestOutputWeight;
 
-		/*
-		 * The first step size is equal to the difference between the weights of
-		 * the grandparent/siblings structure and the parse structure under the
-		 * grandparent/siblings objective function.
-		 */
-		lambda = dualObjectiveValue - bestOutputWeight;
-
-		if (lambda == 0d)
-			lambda = 1d;
+			if (lambda == 0d)
+				lambda = 1d;
+		}
+		double stepSize = lambda;
 
 		/*
 		 * Set of heads whose dual vars were updated in the previous iteration.
@@ -287,16 +431,45 @@ public class DPGSDualInference implements Inference {
 		 */
 		boolean[] updatedHeads = new boolean[numTkns];
 
-		for (int step = 0; step < maxNumberOfSubgradientSteps; ++step) {
+		boolean certificate = false;
+		int step;
+		for (step = 0; step < maxNumberOfSubgradientSteps; ++step) {
+			// Stop when the primal-dual gap is small enough.
+			if (bestDualObjectiveValue - bestOutputWeight <= gapTolerance
+					* Math.max(1d, Math.abs(bestDualObjectiveValue))) {
+				certificate = (bestDualObjectiveValue <= bestOutputWeight);
+				break;
+			}
 
 			// Number of subgradient steps performed.
 			++numSubGradSteps;
 
+			/*
+			 * Number of disagreements between the parse and the
+			 * grandparent/modifier variables, which is the squared norm of the
+			 * subgradient.
+			 */
+			int numDisagreements = countDisagreements(output, numTkns);
+			if (numDisagreements == 0) {
+				LOG.debug(String
+						.format("Optimum found at step %d after %d dual objective increments. Dual objective: %f. Weight: %f",
+								step, numDualObjectiveIncrements,
+								dualObjectiveValue, calcPrimalWeight(
+										output.getHeads(), numTkns)));
+
+				// Stop if the optimality condition is reached.
+				certificate = true;
+				break;
+			}
+
 			// Step size.
-			double stepSize = lambda / (1 + numDualObjectiveIncrements);
+			if (stepSizeRule == StepSizeRule.POLYAK)
+				stepSize = (dualObjectiveValue - bestOutputWeight)
+						/ numDisagreements / (1 + numDualObjectiveIncrements);
+			else
+				stepSize = lambda / (1 + numDualObjectiveIncrements);
 
 			// Update dual variables.
-			boolean updated = false;
 			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
 				for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
 					/*
@@ -312,7 +485,6 @@ public class DPGSDualInference implements Inference {
 					if (isGrandparent != isBranching) {
 						// The subproblem for idxModifier head token changed.
 						updatedHeads[idxModifier] = true;
-						updated = true;
 
 						if (isBranching)
 							dualGrandparentVariables[idxHead][idxModifier] -= stepSize;
@@ -324,7 +496,6 @@ public class DPGSDualInference implements Inference {
 					if (isModifier != isBranching) {
 						// The subproblem for idxHead head token changed.
 						updatedHeads[idxHead] = true;
-						updated = true;
 
 						if (isBranching)
 							dualModifierVariables[idxHead][idxModifier] -= stepSize;
@@ -334,36 +505,6 @@ public class DPGSDualInference implements Inference {
 				}
 			}
 
-			if (!updated) {
-				LOG.info(String
-						.format("Optimum found at step %d after %d dual objective increments. Dual objective: %f. Weight: %f",
-								step, numDualObjectiveIncrements,
-								dualObjectiveValue, maxGSAlgorithm
-										.calcObjectiveValueOfParse(
-												output.getHeads(),
-												output.size(),
-												edgeFactorWeights,
-												grandparentFactorWeights,
-												siblingsFactorWeights, null,
-												null)));
-				// LOG.info("\n" + output.toString());
-
-				// Stop if the optimality condition is reached.
-				break;
-			} else {
-				// LOG.info(String
-				// .format("Solution at step %d after %d dual objective increments. Dual objective: %f. Weight: %f",
-				// step, numDualObjectiveIncrements,
-				// dualObjectiveValue, maxGSAlgorithm
-				// .calcObjectiveValueOfParse(
-				// output.getHeads(),
-				// output.size(),
-				// grandparentFactorWeights,
-				// siblingsFactorWeights, null,
-				// null)));
-				// LOG.info("\n" + output.toString());
-			}
-
 			// Value of the dual objective function in this step.
 			dualObjectiveValue = 0d;
 
@@ -375,10 +516,7 @@ public class DPGSDualInference implements Inference {
 					graph, output.getHeads());
 
 			// Update the best output up to this iteration.
-			double outputWeight = maxGSAlgorithm
-					.calcObjectiveValueOfParse(output.getHeads(), numTkns,
-							edgeFactorWeights, grandparentFactorWeights,
-							siblingsFactorWeights, null, null);
+			double outputWeight = calcPrimalWeight(output.getHeads(), numTkns);
 			if (outputWeight > bestOutputWeight) {
 				bestOutputWeight = outputWeight;
 				for (int tkn = 0; tkn < numTkns; ++tkn)
@@ -389,20 +527,13 @@ public class DPGSDualInference implements Inference {
 			 * Compute the best GS structure for heads whose dual variables have
 			 * been updated.
 			 */
-			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-				if (updatedHeads[idxHead])
-					dualObjectiveValues[idxHead] = maxGSAlgorithm
-							.findMaximumGrandparentSiblingsForHead(numTkns,
-									idxHead, edgeFactorWeights,
-									grandparentFactorWeights[idxHead],
-									siblingsFactorWeights[idxHead],
-									dualGrandparentVariables,
-									dualModifierVariables,
-									output.getGrandparents(),
-									output.getModifiers());
-
+			maxGSAlgorithm.findMaximumGrandparentSiblingsForHeads(numTkns,
+					updatedHeads, edgeFactorWeights, grandparentFactorWeights,
+					siblingsFactorWeights, dualGrandparentVariables,
+					dualModifierVariables, output.getGrandparents(),
+					output.getModifiers(), dualObjectiveValues);
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead)
 				dualObjectiveValue += dualObjectiveValues[idxHead];
-			}
 
 			if (dualObjectiveValue > prevDualObjectiveValue)
 				/*
@@ -414,16 +545,78 @@ public class DPGSDualInference implements Inference {
 
 			// Store the dual objective value for the previous solution.
 			prevDualObjectiveValue = dualObjectiveValue;
+			if (dualObjectiveValue < bestDualObjectiveValue)
+				bestDualObjectiveValue = dualObjectiveValue;
 
 			// Clear flag array of updated heads for the next iteration.
 			Arrays.fill(updatedHeads, false);
 		}
 
+		// Decoding metrics.
+		lastNumberOfSteps = step;
+		lastGap = Math.max(0d, bestDualObjectiveValue - bestOutputWeight);
+		lastCertificate = certificate;
+		sumGaps += lastGap;
+		if (certificate)
+			++numCertificates;
+
+		// Keep the dual variables for the next decoding of this example.
+		if (warmStart)
+			dualStates.put(input, new DualState(dualGrandparentVariables,
+					dualModifierVariables, numTkns, stepSize));
+
 		// Copy the best parse tree to the output structure.
 		for (int tkn = 0; tkn < numTkns; ++tkn)
 			output.setHead(tkn, bestOutput[tkn]);
 	}
 
+	/**
+	 * Return the number of disagreements between the parse variables and the
+	 * grandparent and modifier variables of the given output.
+	 * 
+	 * @param output
+	 * @param numTkns
+	 * @return
+	 */
+	private int countDisagreements(DPGSOutput output, int numTkns) {
+		int count = 0;
+		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+				boolean isBranching = (output.getHead(idxModifier) == idxHead);
+				if ((output.getGrandparent(idxModifier) == idxHead) != isBranching)
+					++count;
+				if (output.isModifier(idxHead, idxModifier) != isBranching)
+					++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the weight of the given parse under the complete objective
+	 * function: grandparent/siblings factors plus the whole edge factor
+	 * weights (including the fraction <code>beta</code> that is given to the
+	 * maximum branching algorithm).
+	 * 
+	 * @param heads
+	 * @param numTkns
+	 * @return
+	 */
+	private double calcPrimalWeight(int[] heads, int numTkns) {
+		double weight = maxGSAlgorithm.calcObjectiveValueOfParse(heads,
+				numTkns, edgeFactorWeights, grandparentFactorWeights,
+				siblingsFactorWeights, null, null);
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+			int idxHead = heads[idxModifier];
+			if (idxHead < 0)
+				continue;
+			double w = beta * edgeFactorWeights[idxHead][idxModifier];
+			if (!Double.isNaN(w))
+				weight += w;
+		}
+		return weight;
+	}
+
 	public static void printDualVars(int numTkns, double[][] vars) {
 		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
 			System.out.print("Head " + idxHead + ":");
@@ -436,144 +629,203 @@ public class DPGSDualInference implements Inference {
 	}
 
 	/**
-	 * Fill the underlying weights of the edge factors that are used by the
-	 * optimization algorithms.
+	 * Fill the underlying factor weights that are used by the dynamic
+	 * programming algorithm. Optionally, if <code>correct</code> and
+	 * <code>lossWeight</code> are given, augment the grandparent factor
+	 * weights with loss values.
+	 * 
+	 * The weights of each head are independent of the other heads. Thus, if
+	 * there are parallel threads, heads are filled in parallel. A model with
+	 * a score cache is always filled sequentially, since the cache is not
+	 * thread safe.
+	 * 
+	 * If there is a pruner, the edge weights are filled first (by the pruning
+	 * model, if any), then the pruner discards unlikely edges (NaN weights)
+	 * and, finally, only grandparent and siblings factors whose edges are kept
+	 * are scored.
 	 * 
 	 * @param model
 	 * @param input
+	 * @param correct
+	 * @param lossWeight
 	 */
-	private void fillEdgeFactorWeights(DPGSModel model, DPGSInput input) {
-		int numTkns = input.size();
-		for (int idxHead = 0; idxHead < numTkns; ++idxHead)
-			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
-				edgeFactorWeights[idxHead][idxModifier] = model
-						.getFeatureListScore(input.getEdgeFeatures(idxHead,
-								idxModifier));
+	private void fillFactorWeights(final DPGSModel model,
+			final DPGSInput input, final DPGSOutput correct,
+			final double lossWeight) {
+		ExecutorService exec = executor;
+		if (model.getScoreCache() != null)
+			exec = null;
+		if (pruner != null) {
+			final DPGSModel scoringModel = pruner.getScoringModel(model);
+			if (scoringModel.getScoreCache() != null)
+				exec = null;
+			new ParallelLoop() {
+				@Override
+				protected void iterate(int idxTask, int idxHead) {
+					fillEdgeFactorWeights(scoringModel, input, idxHead);
+				}
+			}.run(exec, numberOfThreads, input.size());
+			pruner.prune(model, input, edgeFactorWeights, edgeMask);
+			new ParallelLoop() {
+				@Override
+				protected void iterate(int idxTask, int idxHead) {
+					fillGrandparentFactorWeights(model, input, correct,
+							lossWeight, idxHead);
+					fillSiblingsFactorWeights(model, input, idxHead);
+				}
+			}.run(exec, numberOfThreads, input.size());
+			return;
+		}
+		new ParallelLoop() {
+			@Override
+			protected void iterate(int idxTask, int idxHead) {
+				fillEdgeFactorWeights(model, input, idxHead);
+				fillGrandparentFactorWeights(model, input, correct,
+						lossWeight, idxHead);
+				fillSiblingsFactorWeights(model, input, idxHead);
+			}
+		}.run(exec, numberOfThreads, input.size());
 	}
 
 	/**
-	 * Fill the underlying graph with the values of the underlying dual
-	 * variables and, possibly, a fraction (<code>beta</code>) of the edge
-	 * factor weights.
+	 * Fill the underlying weight of the edge factors of the given head that
+	 * are used by the dynamic programming algorithm.
 	 * 
-	 * @param numberOfTokens
+	 * @param model
+	 * @param input
+	 * @param idxHead
 	 */
-	private void fillGraph(int numberOfTokens) {
-		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead) {
-			for (int idxModifier = 0; idxModifier < numberOfTokens; ++idxModifier) {
-				double edgeFactorWeight = edgeFactorWeights[idxHead][idxModifier];
-				if (Double.isNaN(edgeFactorWeight)) {
-					// Skip invalid edges.
-					graph[idxHead][idxModifier] = Double.NaN;
-					continue;
-				}
-				// Dual variables.
-				graph[idxHead][idxModifier] = dualGrandparentVariables[idxHead][idxModifier]
-						+ dualModifierVariables[idxHead][idxModifier];
-				// A fraction of the edge factor weight.
-				graph[idxHead][idxModifier] += beta * edgeFactorWeight;
-			}
-		}
+	private void fillEdgeFactorWeights(DPGSModel model, DPGSInput input,
+			int idxHead) {
+		int numTkns = input.size();
+		double[] edgeFactorWeightsHead = edgeFactorWeights[idxHead];
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
+			edgeFactorWeightsHead[idxModifier] = model.getEdgeFactorScore(
+					input, idxHead, idxModifier);
 	}
 
 	/**
-	 * Fill the underlying weights of the grandparent factors that are used by
-	 * the dynamic programming algorithm. Optionally, if <code>correct</code>
-	 * and <code>lossWeight</code> are given, augment the factor weights with
-	 * loss values.
+	 * Fill the underlying weights of the grandparent factors of the given head
+	 * that are used by the dynamic programming algorithm. Optionally, if
+	 * <code>correct</code> and <code>lossWeight</code> are given, augment the
+	 * factor weights with loss values.
 	 * 
 	 * @param model
 	 * @param input
 	 * @param correct
 	 * @param lossWeight
+	 * @param idxHead
 	 */
 	private void fillGrandparentFactorWeights(DPGSModel model, DPGSInput input,
-			DPGSOutput correct, double lossWeight) {
+			DPGSOutput correct, double lossWeight, int idxHead) {
 		// Loss augmented?
 		boolean loss = (correct != null && lossWeight != 0d);
 
+		// Inexistent factors have NaN weights.
 		int numTkns = input.size();
-		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-			double[][] grandparentFactorWeightsHead = grandparentFactorWeights[idxHead];
-			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
-				double[] grandparentFactorWeightsHeadModifier = grandparentFactorWeightsHead[idxModifier];
-				// Loss weight for the current edge (idxHead, idxModifier).
-				double lossWeightEdge = 0d;
-				if (loss && correct.getHead(idxModifier) != idxHead)
-					lossWeightEdge = lossWeight;
-				// Fill factor weights for each grandparent.
-				for (int idxGrandparent = 0; idxGrandparent < numTkns; ++idxGrandparent) {
-					// Get list of features for the current siblings factor.
-					int[] ftrs = input.getGrandparentFeatures(idxHead,
-							idxModifier, idxGrandparent);
-					if (ftrs != null) {
-						// Sum feature weights to achieve the factor weight.
-						grandparentFactorWeightsHeadModifier[idxGrandparent] = model
-								.getFeatureListScore(ftrs);
-						// Loss value for the current edge.
-						grandparentFactorWeightsHeadModifier[idxGrandparent] += lossWeightEdge;
-					} else
-						grandparentFactorWeightsHeadModifier[idxGrandparent] = Double.NaN;
-				}
-			}
+		double[][] grandparentFactorWeightsHead = grandparentFactorWeights[idxHead];
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
+			Arrays.fill(grandparentFactorWeightsHead[idxModifier], 0, numTkns,
+					Double.NaN);
+
+		// Sum feature weights to achieve the weight of each existing factor.
+		DPGSFactorTable factors = input.getGrandparentFactors();
+		int end = factors.getEnd(idxHead);
+		for (int idxFactor = factors.getBegin(idxHead); idxFactor < end; ++idxFactor) {
+			if (!factors.hasFeatures(idxFactor))
+				continue;
+			int idxModifier = factors.getModifier(idxFactor);
+			if (pruner != null
+					&& !DPGSPruner.isGrandparentFactorKept(edgeMask, idxHead,
+							idxModifier, factors.getThird(idxFactor)))
+				// Pruned factor: keep NaN weight.
+				continue;
+			double weight = model.getGrandparentFactorScore(input, idxFactor);
+			// Loss value for the current edge (idxHead, idxModifier).
+			if (loss && correct.getHead(idxModifier) != idxHead)
+				weight += lossWeight;
+			grandparentFactorWeightsHead[idxModifier][factors
+					.getThird(idxFactor)] = weight;
 		}
 	}
 
 	/**
-	 * Fill the underlying weight of the siblings factors that are use by the
-	 * dynamic programming algorithm.
+	 * Fill the underlying weight of the siblings factors of the given head
+	 * that are use by the dynamic programming algorithm.
 	 * 
 	 * @param model
 	 * @param input
+	 * @param idxHead
 	 */
-	private void fillSiblingsFactorWeights(DPGSModel model, DPGSInput input) {
+	private void fillSiblingsFactorWeights(DPGSModel model, DPGSInput input,
+			int idxHead) {
 		int numTkns = input.size();
-		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-			double[][] siblingsFactorWeightsHead = siblingsFactorWeights[idxHead];
+		double[][] siblingsFactorWeightsHead = siblingsFactorWeights[idxHead];
 
-			/*
-			 * Consider here the proper modifier pairs (that is both modifiers
-			 * are real tokens/nodes) and pairs of the form <*, END>. Thus, do
-			 * not consider <START, *> at this point. We deal with such pairs in
-			 * the next block.
-			 */
-			for (int idxModifier = 0; idxModifier <= numTkns; ++idxModifier) {
-				double[] siblingsFactorWeightsHeadModifier = siblingsFactorWeightsHead[idxModifier];
-				/*
-				 * First modifier index depends whether the current modifier
-				 * lies on the LEFT (then the first modifier index is '0') or on
-				 * the RIGHT (then it is 'idxHead + 1') of the current head
-				 * (idxHead).
-				 */
-				int firstModifier = (idxModifier <= idxHead ? 0 : idxHead + 1);
-				for (int idxPreviousModifier = firstModifier; idxPreviousModifier < idxModifier; ++idxPreviousModifier) {
-					int[] ftrs = input.getSiblingsFeatures(idxHead,
-							idxModifier, idxPreviousModifier);
-					if (ftrs != null)
-						siblingsFactorWeightsHeadModifier[idxPreviousModifier] = model
-								.getFeatureListScore(ftrs);
-					else
-						siblingsFactorWeightsHeadModifier[idxPreviousModifier] = Double.NaN;
-				}
+		/*
+		 * Inexistent factors have NaN weights. For modifiers on the LEFT side
+		 * of the head, previous modifiers range from '0' to the head index
+		 * (START). For modifiers on the RIGHT side, they range from 'idxHead +
+		 * 1' to 'numTkns' (START).
+		 */
+		for (int idxModifier = 0; idxModifier <= numTkns; ++idxModifier) {
+			if (idxModifier <= idxHead)
+				Arrays.fill(siblingsFactorWeightsHead[idxModifier], 0,
+						idxHead + 1, Double.NaN);
+			else
+				Arrays.fill(siblingsFactorWeightsHead[idxModifier],
+						idxHead + 1, numTkns + 1, Double.NaN);
+		}
 
-				/*
-				 * Modifier pairs of the form <START, *>. For modifiers on the
-				 * left side of the current head, START is equal to 'idxHead'.
-				 * While for modifiers on the right side of the current head, it
-				 * is equal to 'numTkns'.
-				 * 
-				 * START index depends whether the current modifier lies on the
-				 * LEFT side (then it is equal to 0) or on the RIGHT side (then
-				 * it is numTkns) of the current head (idxHead).
-				 */
-				int idxSTART = (idxModifier <= idxHead ? idxHead : numTkns);
-				int[] ftrs = input.getSiblingsFeatures(idxHead, idxModifier,
-						idxSTART);
-				if (ftrs != null)
-					siblingsFactorWeightsHeadModifier[idxSTART] = model
-							.getFeatureListScore(ftrs);
-				else
-					siblingsFactorWeightsHeadModifier[idxSTART] = Double.NaN;
+		/*
+		 * Sum feature weights of each existing factor. Only modifier pairs
+		 * that are considered by the dynamic programming algorithm are filled:
+		 * proper modifier pairs (both modifiers are real tokens/nodes), pairs
+		 * of the form <*, END> and pairs of the form <START, *>.
+		 */
+		DPGSFactorTable factors = input.getSiblingsFactors();
+		int end = factors.getEnd(idxHead);
+		for (int idxFactor = factors.getBegin(idxHead); idxFactor < end; ++idxFactor) {
+			if (!factors.hasFeatures(idxFactor))
+				continue;
+			int idxModifier = factors.getModifier(idxFactor);
+			int idxPreviousModifier = factors.getThird(idxFactor);
+			int firstModifier = (idxModifier <= idxHead ? 0 : idxHead + 1);
+			int idxSTART = (idxModifier <= idxHead ? idxHead : numTkns);
+			if (idxPreviousModifier != idxSTART
+					&& (idxPreviousModifier < firstModifier || idxPreviousModifier >= idxModifier))
+				continue;
+			if (pruner != null
+					&& !DPGSPruner.isSiblingsFactorKept(edgeMask, numTkns,
+							idxHead, idxModifier, idxPreviousModifier))
+				// Pruned factor: keep NaN weight.
+				continue;
+			siblingsFactorWeightsHead[idxModifier][idxPreviousModifier] = model
+					.getSiblingsFactorScore(input, idxFactor);
+		}
+	}
+
+	/**
+	 * Fill the underlying graph with the values of the underlying dual
+	 * variables and, possibly, a fraction (<code>beta</code>) of the edge
+	 * factor weights.
+	 * 
+	 * @param numberOfTokens
+	 */
+	private void fillGraph(int numberOfTokens) {
+		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead) {
+			for (int idxModifier = 0; idxModifier < numberOfTokens; ++idxModifier) {
+				double edgeFactorWeight = edgeFactorWeights[idxHead][idxModifier];
+				if (Double.isNaN(edgeFactorWeight)) {
+					// Skip invalid edges.
+					graph[idxHead][idxModifier] = Double.NaN;
+					continue;
+				}
+				// Dual variables.
+				graph[idxHead][idxModifier] = dualGrandparentVariables[idxHead][idxModifier]
+						+ dualModifierVariables[idxHead][idxModifier];
+				// A fraction of the edge factor weight.
+				graph[idxHead][idxModifier] += beta * edgeFactorWeight;
 			}
 		}
 	}
@@ -591,6 +843,22 @@ public class DPGSDualInference implements Inference {
 		}
 	}
 
+	/**
+	 * Clear the dual variables and, if warm start is enabled, restore the
+	 * values reached in the last decoding of the given input.
+	 * 
+	 * @param input
+	 */
+	private void initDualVars(DPGSInput input) {
+		clearDualVars(input.size());
+		if (!warmStart)
+			return;
+		DualState state = dualStates.get(input);
+		if (state != null)
+			state.restore(dualGrandparentVariables, dualModifierVariables,
+					input.size());
+	}
+
 	/**
 	 * Return the maximum number of steps that the subgradient method can
 	 * perform before returning. That method can still return sooner whenever it
@@ -661,6 +929,195 @@ public class DPGSDualInference implements Inference {
 		return ((double) numSubGradSteps) / ((double) numPredictions);
 	}
 
+	/**
+	 * Set the step size rule of the subgradient method.
+	 * 
+	 * @param rule
+	 */
+	public void setStepSizeRule(StepSizeRule rule) {
+		this.stepSizeRule = rule;
+	}
+
+	public StepSizeRule getStepSizeRule() {
+		return stepSizeRule;
+	}
+
+	/**
+	 * Set the relative primal-dual gap below which the subgradient method
+	 * stops before reaching the maximum number of steps. The gap is relative
+	 * to the absolute value of the dual objective (or to one, if this value is
+	 * smaller than one).
+	 * 
+	 * @param gapTolerance
+	 */
+	public void setGapTolerance(double gapTolerance) {
+		this.gapTolerance = gapTolerance;
+	}
+
+	public double getGapTolerance() {
+		return gapTolerance;
+	}
+
+	/**
+	 * Set whether the dual variables of each example start from the values
+	 * reached in the previous decoding of the same example (for instance, in
+	 * the previous training epoch). The dual objective is an upper bound for
+	 * any dual values, thus warm-starting does not affect correctness.
+	 * 
+	 * @param warmStart
+	 */
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
+		if (!warmStart)
+			dualStates.clear();
+	}
+
+	public boolean isWarmStart() {
+		return warmStart;
+	}
+
+	/**
+	 * Return the number of subgradient steps performed in the last decoding.
+	 * 
+	 * @return
+	 */
+	public int getLastNumberOfSteps() {
+		return lastNumberOfSteps;
+	}
+
+	/**
+	 * Return the primal-dual gap (best dual objective minus best primal
+	 * weight) of the last decoding.
+	 * 
+	 * @return
+	 */
+	public double getLastGap() {
+		return lastGap;
+	}
+
+	/**
+	 * Return whether the last decoding reached an optimality certificate,
+	 * i.e., the returned parse is an exact solution.
+	 * 
+	 * @return
+	 */
+	public boolean isLastCertificate() {
+		return lastCertificate;
+	}
+
+	/**
+	 * Return the fraction of decodings that reached an optimality
+	 * certificate.
+	 * 
+	 * @return
+	 */
+	public double getCertificateRate() {
+		return ((double) numCertificates) / ((double) numPredictions);
+	}
+
+	/**
+	 * Return the average primal-dual gap of all decodings.
+	 * 
+	 * @return
+	 */
+	public double getAverageGap() {
+		return sumGaps / numPredictions;
+	}
+
+	/**
+	 * Dual variables of one example, stored sparsely since most of them are
+	 * usually zero.
+	 * 
+	 * @author eraldo
+	 * 
+	 */
+	private static class DualState {
+
+		/**
+		 * Indexes (idxHead * numTkns + idxModifier) and values of the non-zero
+		 * grandparent dual variables.
+		 */
+		private int[] grandparentIndexes;
+
+		private double[] grandparentValues;
+
+		/**
+		 * Indexes and values of the non-zero modifier dual variables.
+		 */
+		private int[] modifierIndexes;
+
+		private double[] modifierValues;
+
+		/**
+		 * Last step size.
+		 */
+		private double stepSize;
+
+		/**
+		 * Store the non-zero values of the given dual variables.
+		 * 
+		 * @param grandparentVars
+		 * @param modifierVars
+		 * @param numTkns
+		 * @param stepSize
+		 */
+		public DualState(double[][] grandparentVars, double[][] modifierVars,
+				int numTkns, double stepSize) {
+			this.stepSize = stepSize;
+			int numGrandparent = 0;
+			int numModifier = 0;
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+				for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+					if (grandparentVars[idxHead][idxModifier] != 0d)
+						++numGrandparent;
+					if (modifierVars[idxHead][idxModifier] != 0d)
+						++numModifier;
+				}
+			}
+			grandparentIndexes = new int[numGrandparent];
+			grandparentValues = new double[numGrandparent];
+			modifierIndexes = new int[numModifier];
+			modifierValues = new double[numModifier];
+			numGrandparent = 0;
+			numModifier = 0;
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+				for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+					double val = grandparentVars[idxHead][idxModifier];
+					if (val != 0d) {
+						grandparentIndexes[numGrandparent] = idxHead * numTkns
+								+ idxModifier;
+						grandparentValues[numGrandparent++] = val;
+					}
+					val = modifierVars[idxHead][idxModifier];
+					if (val != 0d) {
+						modifierIndexes[numModifier] = idxHead * numTkns
+								+ idxModifier;
+						modifierValues[numModifier++] = val;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Copy the stored values to the given (cleared) dual variables.
+		 * 
+		 * @param grandparentVars
+		 * @param modifierVars
+		 * @param numTkns
+		 */
+		public void restore(double[][] grandparentVars,
+				double[][] modifierVars, int numTkns) {
+			for (int idx = 0; idx < grandparentIndexes.length; ++idx) {
+				int code = grandparentIndexes[idx];
+				grandparentVars[code / numTkns][code % numTkns] = grandparentValues[idx];
+			}
+			for (int idx = 0; idx < modifierIndexes.length; ++idx) {
+				int code = modifierIndexes[idx];
+				modifierVars[code / numTkns][code % numTkns] = modifierValues[idx];
+			}
+		}
+	}
+
 	/**
 	 * Test code.
 	 * 
@@ -0,0 +1,146 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
+import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.util.maxbranching.DirectedMaxBranchAlgorithm;
+
+/**
+ * First-order inference for grandparent/siblings inputs. It finds a maximum
+ * branching considering only the edge factors of the given model. It is used
+ * to train a first-order pruning model ({@link DPGSEdgeModel}) on the same
+ * dataset of the grandparent/siblings model.
+ * 
+ * @author eraldo
+ * 
+ */
+public class DPGSEdgeInference implements Inference {
+
+	/**
+	 * Maximum branching algorithm.
+	 */
+	private DirectedMaxBranchAlgorithm maxBranchAlgorithm;
+
+	/**
+	 * Edge weights. The index for this array is (idxHead, idxModifier).
+	 */
+	private double[][] graph;
+
+	/**
+	 * Create an inference object that allocates the internal data structures
+	 * to support the given maximum number of tokens.
+	 * 
+	 * @param maxNumberOfTokens
+	 */
+	public DPGSEdgeInference(int maxNumberOfTokens) {
+		maxBranchAlgorithm = new DirectedMaxBranchAlgorithm(maxNumberOfTokens);
+		maxBranchAlgorithm.setCheckUniqueRoot(false);
+		maxBranchAlgorithm.setOnlyPositiveEdges(false);
+		graph = new double[maxNumberOfTokens][maxNumberOfTokens];
+	}
+
+	/**
+	 * Realloc the internal data structures to support the given maximum number
+	 * of tokens.
+	 * 
+	 * @param maxNumberOfTokens
+	 */
+	public void realloc(int maxNumberOfTokens) {
+		maxBranchAlgorithm.realloc(maxNumberOfTokens);
+		graph = new double[maxNumberOfTokens][maxNumberOfTokens];
+	}
+
+	/**
+	 * Fill <code>output</code> with the maximum branching according to the
+	 * edge factors of the given model.
+	 * 
+	 * @param model
+	 * @param input
+	 * @param output
+	 */
+	public void inference(DPGSModel model, DPGSInput input, DPGSOutput output) {
+		fillGraph(model, input);
+		maxBranchAlgorithm.findMaxBranching(input.size(), graph,
+				output.getHeads());
+		output.fillGSStructuresFromParse();
+	}
+
+	/**
+	 * Fill <code>predictedOutput</code> with the maximum branching according to
+	 * the edge factors of the given model. Additionally, add
+	 * <code>lossWeight</code> to every edge that is not in
+	 * <code>referenceOutput</code>.
+	 * 
+	 * @param model
+	 * @param input
+	 * @param referenceOutput
+	 * @param predictedOutput
+	 * @param lossWeight
+	 */
+	public void lossAugmentedInference(DPGSModel model, DPGSInput input,
+			DPGSOutput referenceOutput, DPGSOutput predictedOutput,
+			double lossWeight) {
+		fillGraph(model, input);
+		int numTkns = input.size();
+		if (lossWeight != 0d) {
+			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+				int correctHead = referenceOutput.getHead(idxModifier);
+				if (correctHead == -1)
+					continue;
+				for (int idxHead = 0; idxHead < numTkns; ++idxHead)
+					if (idxHead != idxModifier && idxHead != correctHead)
+						graph[idxHead][idxModifier] += lossWeight;
+			}
+		}
+		maxBranchAlgorithm.findMaxBranching(numTkns, graph,
+				predictedOutput.getHeads());
+		predictedOutput.fillGSStructuresFromParse();
+	}
+
+	/**
+	 * Fill the edge weights with the edge factor scores of the given model.
+	 * Inexistent edges have NaN weights.
+	 * 
+	 * @param model
+	 * @param input
+	 */
+	private void fillGraph(DPGSModel model, DPGSInput input) {
+		int numTkns = input.size();
+		if (graph.length < numTkns)
+			realloc(numTkns);
+		for (int idxHead = 0; idxHead < numTkns; ++idxHead)
+			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
+				graph[idxHead][idxModifier] = model.getEdgeFactorScore(input,
+						idxHead, idxModifier);
+	}
+
+	@Override
+	public void inference(Model model, ExampleInput input, ExampleOutput output) {
+		inference((DPGSModel) model, (DPGSInput) input, (DPGSOutput) output);
+	}
+
+	@Override
+	public void lossAugmentedInference(Model model, ExampleInput input,
+			ExampleOutput referenceOutput, ExampleOutput predictedOutput,
+			double lossWeight) {
+		lossAugmentedInference((DPGSModel) model, (DPGSInput) input,
+				(DPGSOutput) referenceOutput, (DPGSOutput) predictedOutput,
+				lossWeight);
+	}
+
+	@Override
+	public void partialInference(Model model, ExampleInput input,
+			ExampleOutput partiallyLabeledOutput, ExampleOutput predictedOutput) {
+		throw new NotImplementedException();
+	}
+
+	@Override
+	public void lossAugmentedInferenceWithNonAnnotatedWeight(Model model,
+			ExampleInput input, ExampleOutput partiallyLabeledOutput,
+			ExampleOutput referenceOutput, ExampleOutput predictedOutput,
+			double lossAnnotatedWeight, double lossNonAnnotatedWeight) {
+		throw new NotImplementedException();
+	}
+}
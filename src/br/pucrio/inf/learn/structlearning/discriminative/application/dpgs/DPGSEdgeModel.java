@@ -0,0 +1,68 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+/**
+ * First-order (edge factored) model over the same input structures used by the
+ * grandparent/siblings model. Only the edge factors are scored and updated,
+ * thus it is a cheap model that can be trained before the full model and
+ * used as a coarse pruning model (see {@link DPGSPruner}).
+ * 
+ * The feature codes of the edge factors are the ones generated in the inputs by
+ * the full model, thus both models share the same feature encoding.
+ * 
+ * @author eraldo
+ * 
+ */
+public class DPGSEdgeModel extends DPGSModel {
+
+	/**
+	 * Create a new edge model with the given root node.
+	 * 
+	 * @param root
+	 */
+	public DPGSEdgeModel(int root) {
+		super(root);
+	}
+
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param other
+	 * @throws CloneNotSupportedException
+	 */
+	protected DPGSEdgeModel(DPGSEdgeModel other)
+			throws CloneNotSupportedException {
+		super(other);
+	}
+
+	/**
+	 * Update this model using the difference between the edges present in the
+	 * correct and in the predicted parse trees (
+	 * <code>getHead(...)</code>). Grandparent and siblings factors are
+	 * ignored.
+	 */
+	@Override
+	protected double update(DPGSInput input, DPGSOutput outputCorrect,
+			DPGSOutput outputPredicted, double learningRate) {
+		double loss = 0d;
+		int numTkns = input.size();
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+			int correctHead = outputCorrect.getHead(idxModifier);
+			int predictedHead = outputPredicted.getHead(idxModifier);
+			if (correctHead == predictedHead)
+				continue;
+			loss += 1d;
+			if (predictedHead != -1)
+				updateEdgeFactorParams(input, predictedHead, idxModifier,
+						-learningRate);
+			if (correctHead != -1)
+				updateEdgeFactorParams(input, correctHead, idxModifier,
+						learningRate);
+		}
+		return loss;
+	}
+
+	@Override
+	public DPGSEdgeModel clone() throws CloneNotSupportedException {
+		return new DPGSEdgeModel(this);
+	}
+}
@@ -0,0 +1,616 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+
+/**
+ * Byte-level parser of one DPGS factor file (edge, grandparent or siblings
+ * factors). The file format is described in
+ * <code>DPGSDataset.parseExample(...)</code>.
+ * 
+ * This parser does not use regular expressions and does not create a string
+ * for each feature value. Lines are tokenized directly in a byte buffer and
+ * feature values are encoded by a local dictionary of byte sequences. A string
+ * is created only when a value is seen for the first time. Thus, local codes
+ * are given in the order of first occurrence, and the dataset can translate
+ * them to the codes of its own basic encoding with one lookup per distinct
+ * value, which gives exactly the same codes as parsing the files
+ * sequentially.
+ * 
+ * Since a parser is independent of any dataset, several files can be parsed
+ * in parallel.
+ * 
+ * @author eraldo
+ * 
+ */
+public class DPGSFactorFileParser {
+
+	/**
+	 * Size of the read buffer (in bytes).
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Factor types (as in the first parameter of factors in
+	 * <code>DPGSInput</code>).
+	 */
+	public static final int TYPE_LEN = -1;
+
+	public static final int TYPE_EDGE = 0;
+
+	public static final int TYPE_GRANDPARENT = 1;
+
+	public static final int TYPE_SIBLINGS = 2;
+
+	/**
+	 * One parsed example.
+	 */
+	public static class Example {
+
+		/**
+		 * Number of tokens in the sentence.
+		 */
+		public int numberOfTokens;
+
+		/**
+		 * Number of factors.
+		 */
+		public int numberOfFactors;
+
+		/**
+		 * Factor parameters: four values (type, idx1, idx2, idx3) per factor.
+		 */
+		public int[] params;
+
+		/**
+		 * Basic features of each factor (local codes until the dataset
+		 * translates them).
+		 */
+		public int[][][] columns;
+
+		/**
+		 * Indexes of the factors that are part of the correct structure.
+		 */
+		public int[] correctFactors;
+
+		/**
+		 * Number of correct factors.
+		 */
+		public int numberOfCorrectFactors;
+	}
+
+	/**
+	 * File name (used in error messages).
+	 */
+	private final String fileName;
+
+	/**
+	 * Labels of the multi-valued features.
+	 */
+	private final Set<String> multiValuedFeatures;
+
+	/**
+	 * Separator of values within a multi-valued feature (regular expression,
+	 * as in <code>DPGSDataset</code>).
+	 */
+	private final String separatorFeatureValues;
+
+	/**
+	 * Feature labels given in the file header.
+	 */
+	private String[] featureLabels;
+
+	/**
+	 * Parsed examples.
+	 */
+	private List<Example> examples;
+
+	/**
+	 * Input stream and read buffer. Valid bytes are in [bufBegin, bufEnd).
+	 */
+	private InputStream in;
+
+	private byte[] buf;
+
+	private int bufBegin;
+
+	private int bufEnd;
+
+	private boolean eof;
+
+	/**
+	 * Current line: [lineBegin, lineEnd) in the read buffer.
+	 */
+	private int lineBegin;
+
+	private int lineEnd;
+
+	/**
+	 * Number of the current line (for error messages).
+	 */
+	private int lineNumber;
+
+	/**
+	 * Local dictionary of values: open addressing table of local codes (-1 for
+	 * free slots) over the values stored in a byte pool.
+	 */
+	private int[] dictTable;
+
+	private byte[] dictPool;
+
+	private int dictPoolSize;
+
+	private int[] dictBegin;
+
+	private int[] dictEnd;
+
+	private int[] dictHash;
+
+	private List<String> dictValues;
+
+	/**
+	 * Create a parser for the given file.
+	 * 
+	 * @param fileName
+	 * @param multiValuedFeatures
+	 *            labels of the multi-valued features.
+	 * @param separatorFeatureValues
+	 *            separator of values within multi-valued features.
+	 */
+	public DPGSFactorFileParser(String fileName,
+			Set<String> multiValuedFeatures, String separatorFeatureValues) {
+		this.fileName = fileName;
+		this.multiValuedFeatures = multiValuedFeatures;
+		this.separatorFeatureValues = separatorFeatureValues;
+	}
+
+	/**
+	 * Parse the whole file.
+	 * 
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public void parse() throws IOException, DatasetException {
+		in = new FileInputStream(fileName);
+		try {
+			buf = new byte[BUFFER_SIZE];
+			bufBegin = 0;
+			bufEnd = 0;
+			eof = false;
+			lineNumber = 0;
+			dictTable = new int[1 << 12];
+			Arrays.fill(dictTable, -1);
+			dictPool = new byte[1 << 16];
+			dictPoolSize = 0;
+			dictBegin = new int[1 << 10];
+			dictEnd = new int[1 << 10];
+			dictHash = new int[1 << 10];
+			dictValues = new ArrayList<String>();
+			examples = new ArrayList<Example>();
+
+			// Header with feature labels and blank line after it.
+			if (!nextLine())
+				throw new DatasetException(String.format(
+						"File %s is empty", fileName));
+			featureLabels = DPGSDataset.parseFeatureLabelsLine(new String(buf,
+					lineBegin, lineEnd - lineBegin));
+			nextLine();
+
+			// Multi-valued features (same indexes as DPGSDataset).
+			Set<Integer> multiValuedFeatureIndexes = new TreeSet<Integer>();
+			for (String label : multiValuedFeatures)
+				multiValuedFeatureIndexes.add(Arrays.asList(featureLabels)
+						.indexOf(label));
+
+			while (parseExample(multiValuedFeatureIndexes))
+				;
+		} finally {
+			in.close();
+			in = null;
+			buf = null;
+			dictTable = null;
+			dictPool = null;
+			dictBegin = null;
+			dictEnd = null;
+			dictHash = null;
+		}
+	}
+
+	/**
+	 * Return the feature labels in the file header (without the ID and the
+	 * correct flag).
+	 * 
+	 * @return
+	 */
+	public String[] getFeatureLabels() {
+		return featureLabels;
+	}
+
+	/**
+	 * Return the parsed examples.
+	 * 
+	 * @return
+	 */
+	public List<Example> getExamples() {
+		return examples;
+	}
+
+	/**
+	 * Return the values of the local dictionary in the order of their local
+	 * codes.
+	 * 
+	 * @return
+	 */
+	public List<String> getValues() {
+		return dictValues;
+	}
+
+	/**
+	 * Return the file name.
+	 * 
+	 * @return
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Move to the next line of the file, skipping leading and trailing
+	 * whitespace. Return <code>false</code> at the end of the file.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean nextLine() throws IOException {
+		int idx = bufBegin;
+		while (true) {
+			while (idx < bufEnd && buf[idx] != '\n')
+				++idx;
+			if (idx < bufEnd) {
+				setLine(bufBegin, idx);
+				bufBegin = idx + 1;
+				return true;
+			}
+			if (eof) {
+				if (bufBegin == bufEnd)
+					return false;
+				setLine(bufBegin, bufEnd);
+				bufBegin = bufEnd;
+				return true;
+			}
+
+			// Keep the incomplete line and read more bytes.
+			int len = bufEnd - bufBegin;
+			if (len == buf.length)
+				buf = Arrays.copyOf(buf, 2 * buf.length);
+			else
+				System.arraycopy(buf, bufBegin, buf, 0, len);
+			idx -= bufBegin;
+			bufBegin = 0;
+			bufEnd = len;
+			int read = in.read(buf, bufEnd, buf.length - bufEnd);
+			if (read < 0)
+				eof = true;
+			else
+				bufEnd += read;
+		}
+	}
+
+	/**
+	 * Set the current line to the given segment without surrounding
+	 * whitespace (as <code>String.trim()</code>).
+	 * 
+	 * @param begin
+	 * @param end
+	 */
+	private void setLine(int begin, int end) {
+		while (begin < end && (buf[begin] & 0xff) <= ' ')
+			++begin;
+		while (end > begin && (buf[end - 1] & 0xff) <= ' ')
+			--end;
+		lineBegin = begin;
+		lineEnd = end;
+		++lineNumber;
+	}
+
+	/**
+	 * Parse the next example, i.e., the lines up to a blank line. Return
+	 * <code>false</code> at the end of the file.
+	 * 
+	 * @param multiValuedFeatureIndexes
+	 * @return
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	private boolean parseExample(Set<Integer> multiValuedFeatureIndexes)
+			throws IOException, DatasetException {
+		int numFactors = 0;
+		int[] params = new int[64];
+		int[][][] columns = new int[16][][];
+		int numCorrect = 0;
+		int[] correct = new int[16];
+
+		// Maximum token index.
+		int maxTokenIndex = -1;
+
+		// Number of features.
+		int numFeatures = -1;
+
+		// Token boundaries of the current line.
+		int[] tokenBegin = new int[16];
+		int[] tokenEnd = new int[16];
+
+		boolean more;
+		while ((more = nextLine()) && lineEnd > lineBegin) {
+			// Split factor in feature values.
+			int numTokens = 0;
+			int begin = lineBegin;
+			for (int idx = lineBegin; idx <= lineEnd; ++idx) {
+				if (idx < lineEnd && buf[idx] != ' ')
+					continue;
+				if (numTokens == tokenBegin.length) {
+					tokenBegin = Arrays.copyOf(tokenBegin, 2 * numTokens);
+					tokenEnd = Arrays.copyOf(tokenEnd, 2 * numTokens);
+				}
+				tokenBegin[numTokens] = begin;
+				tokenEnd[numTokens] = idx;
+				++numTokens;
+				begin = idx + 1;
+			}
+
+			// Check (or set) number of features.
+			if (numFeatures == -1)
+				numFeatures = numTokens;
+			else if (numFeatures != numTokens)
+				throw new DatasetException(String.format(
+						"Number of features in line %d of %s is equal "
+								+ "to %d but should be %d", lineNumber,
+						fileName, numTokens, numFeatures));
+
+			// Factor ID: type and parameters (index).
+			if (numFactors == columns.length) {
+				columns = Arrays.copyOf(columns, 2 * numFactors);
+				params = Arrays.copyOf(params, 8 * numFactors);
+			}
+			int offset = 4 * numFactors;
+			parseId(tokenBegin[0], tokenEnd[0], params, offset);
+			int type = params[offset];
+			int idx1 = params[offset + 1];
+			int idx2 = params[offset + 2];
+			int idx3 = params[offset + 3];
+
+			// Maximum token index (see DPGSDataset.parseExample).
+			if (type == TYPE_LEN) {
+				if (idx1 - 1 > maxTokenIndex)
+					maxTokenIndex = idx1 - 1;
+				// LEN factor is useful only to indicate the sentence length.
+				continue;
+			} else if (type == TYPE_EDGE) {
+				if (idx3 - 1 > maxTokenIndex)
+					maxTokenIndex = idx3 - 1;
+			} else if (type == TYPE_GRANDPARENT) {
+				maxTokenIndex = Math.max(maxTokenIndex,
+						Math.max(idx1, Math.max(idx2, idx3)));
+			} else {
+				maxTokenIndex = Math.max(maxTokenIndex,
+						Math.max(idx1, Math.max(idx2 - 1, idx3 - 1)));
+			}
+
+			// Encode the factor basic features.
+			int[][] factor = new int[numFeatures - 2][];
+			for (int idxFtr = 1; idxFtr < numFeatures - 1; ++idxFtr) {
+				if (multiValuedFeatureIndexes.contains(idxFtr)) {
+					// Split multi-valued feature (as DPGSDataset does).
+					String[] valsStr = new String(buf, tokenBegin[idxFtr],
+							tokenEnd[idxFtr] - tokenBegin[idxFtr])
+							.split(separatorFeatureValues);
+					int[] vals = new int[valsStr.length];
+					for (int idxVal = 0; idxVal < vals.length; ++idxVal) {
+						byte[] bytes = valsStr[idxVal].getBytes();
+						vals[idxVal] = encode(bytes, 0, bytes.length);
+					}
+					factor[idxFtr - 1] = vals;
+				} else {
+					// Single-valued feature.
+					factor[idxFtr - 1] = new int[] { encode(buf,
+							tokenBegin[idxFtr], tokenEnd[idxFtr]) };
+				}
+			}
+
+			// The last value is the correct factor flag: Y or N.
+			int flagBegin = tokenBegin[numFeatures - 1];
+			int flagEnd = tokenEnd[numFeatures - 1];
+			boolean isCorrect = flagEnd - flagBegin == 1
+					&& buf[flagBegin] == 'Y';
+			if (!isCorrect
+					&& (flagEnd - flagBegin != 1 || buf[flagBegin] != 'N'))
+				throw new DatasetException(String.format(
+						"Last feature value must be Y or N to indicate "
+								+ "the correct edge. However, in line %d of "
+								+ "%s this feature value is %s", lineNumber,
+						fileName, new String(buf, flagBegin, flagEnd
+								- flagBegin)));
+			if (isCorrect) {
+				if (numCorrect == correct.length)
+					correct = Arrays.copyOf(correct, 2 * numCorrect);
+				correct[numCorrect++] = numFactors;
+			}
+
+			columns[numFactors++] = factor;
+		}
+
+		if (maxTokenIndex == -1)
+			// Extra empty line or end of file.
+			return more;
+
+		Example ex = new Example();
+		ex.numberOfTokens = maxTokenIndex + 1;
+		ex.numberOfFactors = numFactors;
+		ex.params = params;
+		ex.columns = columns;
+		ex.correctFactors = correct;
+		ex.numberOfCorrectFactors = numCorrect;
+		examples.add(ex);
+
+		return more;
+	}
+
+	/**
+	 * Parse a factor ID in the given segment of the buffer, which must obey
+	 * the format <code>TYPE(IDX1,IDX2,IDX3)</code>, and store its type and
+	 * parameters in the given array.
+	 * 
+	 * @param begin
+	 * @param end
+	 * @param params
+	 * @param offset
+	 * @throws DatasetException
+	 */
+	private void parseId(int begin, int end, int[] params, int offset)
+			throws DatasetException {
+		int idx = begin;
+		while (idx < end && buf[idx] != '(')
+			++idx;
+		int typeLen = idx - begin;
+		if (typeLen == 1 && buf[begin] == 'E')
+			params[offset] = TYPE_EDGE;
+		else if (typeLen == 1 && buf[begin] == 'G')
+			params[offset] = TYPE_GRANDPARENT;
+		else if (typeLen == 1 && buf[begin] == 'S')
+			params[offset] = TYPE_SIBLINGS;
+		else if (typeLen == 3 && buf[begin] == 'L' && buf[begin + 1] == 'E'
+				&& buf[begin + 2] == 'N')
+			params[offset] = TYPE_LEN;
+		else
+			throw invalidId(begin, end);
+
+		// Three non-negative integers separated by commas.
+		for (int idxParam = 1; idxParam <= 3; ++idxParam) {
+			// Skip the opening parenthesis or the comma.
+			++idx;
+			int val = 0;
+			int numDigits = 0;
+			while (idx < end && buf[idx] >= '0' && buf[idx] <= '9') {
+				val = 10 * val + (buf[idx] - '0');
+				++idx;
+				++numDigits;
+			}
+			if (numDigits == 0 || idx >= end
+					|| buf[idx] != (idxParam < 3 ? ',' : ')'))
+				throw invalidId(begin, end);
+			params[offset + idxParam] = val;
+		}
+		if (idx != end - 1)
+			throw invalidId(begin, end);
+	}
+
+	/**
+	 * Return an exception for an invalid factor ID.
+	 * 
+	 * @param begin
+	 * @param end
+	 * @return
+	 */
+	private DatasetException invalidId(int begin, int end) {
+		return new DatasetException(String.format("ID (%s) of the factor in "
+				+ "line %d of %s does not match expected format which is "
+				+ "TYPE(IDX1,IDX2,IDX3)", new String(buf, begin, end - begin),
+				lineNumber, fileName));
+	}
+
+	/**
+	 * Return the local code of the value given by the segment [begin, end) of
+	 * the given byte array. If the value is new, it is included in the local
+	 * dictionary.
+	 * 
+	 * @param bytes
+	 * @param begin
+	 * @param end
+	 * @return
+	 */
+	private int encode(byte[] bytes, int begin, int end) {
+		// FNV-1a hash of the value.
+		int hash = 0x811c9dc5;
+		for (int idx = begin; idx < end; ++idx)
+			hash = (hash ^ (bytes[idx] & 0xff)) * 0x01000193;
+
+		int mask = dictTable.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		int len = end - begin;
+		while (true) {
+			int code = dictTable[slot];
+			if (code == -1)
+				break;
+			if (dictHash[code] == hash
+					&& dictEnd[code] - dictBegin[code] == len
+					&& equals(bytes, begin, dictBegin[code], len))
+				return code;
+			slot = (slot + 1) & mask;
+		}
+
+		// New value.
+		int code = dictValues.size();
+		if (code == dictBegin.length) {
+			dictBegin = Arrays.copyOf(dictBegin, 2 * code);
+			dictEnd = Arrays.copyOf(dictEnd, 2 * code);
+			dictHash = Arrays.copyOf(dictHash, 2 * code);
+		}
+		if (dictPoolSize + len > dictPool.length)
+			dictPool = Arrays.copyOf(dictPool,
+					Math.max(dictPoolSize + len, 2 * dictPool.length));
+		System.arraycopy(bytes, begin, dictPool, dictPoolSize, len);
+		dictBegin[code] = dictPoolSize;
+		dictPoolSize += len;
+		dictEnd[code] = dictPoolSize;
+		dictHash[code] = hash;
+		dictValues.add(new String(bytes, begin, len));
+		dictTable[slot] = code;
+
+		// Keep the load factor under one half.
+		if (2 * (code + 1) > dictTable.length)
+			rehash();
+
+		return code;
+	}
+
+	/**
+	 * Compare the given segment with the given position of the byte pool.
+	 * 
+	 * @param bytes
+	 * @param begin
+	 * @param poolBegin
+	 * @param len
+	 * @return
+	 */
+	private boolean equals(byte[] bytes, int begin, int poolBegin, int len) {
+		for (int idx = 0; idx < len; ++idx)
+			if (bytes[begin + idx] != dictPool[poolBegin + idx])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Double the dictionary table.
+	 */
+	private void rehash() {
+		dictTable = new int[2 * dictTable.length];
+		Arrays.fill(dictTable, -1);
+		int mask = dictTable.length - 1;
+		int numValues = dictValues.size();
+		for (int code = 0; code < numValues; ++code) {
+			int hash = dictHash[code];
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (dictTable[slot] != -1)
+				slot = (slot + 1) & mask;
+			dictTable[slot] = code;
+		}
+	}
+}
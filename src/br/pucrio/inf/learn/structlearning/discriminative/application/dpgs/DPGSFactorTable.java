@@ -0,0 +1,456 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Sparse set of third-order factors (grandparent or siblings) of one sentence.
+ * 
+ * Each factor is identified by three token indexes: (idxHead, idxModifier,
+ * idxThird), where idxThird is the grandparent or the previous modifier. Only
+ * existing factors are stored. After <code>build()</code>, factors are sorted
+ * by (idxHead, idxModifier, idxThird) and the factors of each head are
+ * contiguous (CSR layout), so that one can iterate over the factors of a head
+ * or find a specific factor by binary search.
+ * 
+ * The derived features of all factors are stored in a shared pool of feature
+ * codes. Each factor refers to a segment of this pool.
+ * 
+ * @author eraldo
+ * 
+ */
+public class DPGSFactorTable implements Serializable {
+
+	/**
+	 * Auto-generated serial version ID.
+	 */
+	private static final long serialVersionUID = -1720658421873512744L;
+
+	/**
+	 * Number of tokens in the sentence.
+	 */
+	private final int numberOfTokens;
+
+	/**
+	 * Range of the modifier and third indexes (number of tokens plus one, in
+	 * order to accommodate special START/END indexes).
+	 */
+	private final int indexRange;
+
+	/**
+	 * Number of factors.
+	 */
+	private int size;
+
+	/**
+	 * Token indexes of each factor.
+	 */
+	private int[] heads;
+
+	private int[] modifiers;
+
+	private int[] thirds;
+
+	/**
+	 * Basic (column-based) features of each factor.
+	 */
+	private int[][][] basicFeatures;
+
+	/**
+	 * Index of the first factor of each head (plus one extra position with the
+	 * number of factors). Valid only after <code>build()</code>.
+	 */
+	private int[] headBegin;
+
+	/**
+	 * Whether the factors are sorted and <code>headBegin</code> is valid.
+	 */
+	private boolean built;
+
+	/**
+	 * Shared pool of derived feature codes.
+	 */
+	private int[] featurePool;
+
+	/**
+	 * Number of used positions in the feature pool.
+	 */
+	private int featurePoolSize;
+
+	/**
+	 * Segment of the feature pool of each factor: [featureBegin,
+	 * featureEnd). Factors with no derived features have featureBegin equal
+	 * to -1.
+	 */
+	private int[] featureBegin;
+
+	private int[] featureEnd;
+
+	/**
+	 * Create an empty factor table for a sentence with the given number of
+	 * tokens.
+	 * 
+	 * @param numberOfTokens
+	 */
+	public DPGSFactorTable(int numberOfTokens) {
+		this.numberOfTokens = numberOfTokens;
+		this.indexRange = numberOfTokens + 1;
+		int capacity = Math.max(4, numberOfTokens);
+		this.heads = new int[capacity];
+		this.modifiers = new int[capacity];
+		this.thirds = new int[capacity];
+		this.basicFeatures = new int[capacity][][];
+		this.featureBegin = new int[capacity];
+		this.featureEnd = new int[capacity];
+		this.featurePool = new int[0];
+		this.headBegin = new int[numberOfTokens + 1];
+		this.built = true;
+	}
+
+	/**
+	 * Append a factor. The table must be (re)built by calling
+	 * <code>build()</code> before any lookup.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @param basicFeatures
+	 * @return the index of the new factor (valid until the next build).
+	 */
+	public int add(int idxHead, int idxModifier, int idxThird,
+			int[][] basicFeatures) {
+		if (size == heads.length) {
+			int capacity = Math.max(4, 2 * size);
+			heads = Arrays.copyOf(heads, capacity);
+			modifiers = Arrays.copyOf(modifiers, capacity);
+			thirds = Arrays.copyOf(thirds, capacity);
+			this.basicFeatures = Arrays.copyOf(this.basicFeatures, capacity);
+			featureBegin = Arrays.copyOf(featureBegin, capacity);
+			featureEnd = Arrays.copyOf(featureEnd, capacity);
+		}
+		heads[size] = idxHead;
+		modifiers[size] = idxModifier;
+		thirds[size] = idxThird;
+		this.basicFeatures[size] = basicFeatures;
+		featureBegin[size] = -1;
+		featureEnd[size] = -1;
+		built = false;
+		return size++;
+	}
+
+	/**
+	 * Sort the factors and build the per-head index. Return the index of a
+	 * duplicated factor, if there is one, or -1 otherwise. Derived features
+	 * follow their factors.
+	 * 
+	 * @return
+	 */
+	public int build() {
+		// Sort factors by the composed key (head, modifier, third).
+		final long[] keys = new long[size];
+		for (int idx = 0; idx < size; ++idx)
+			keys[idx] = getKey(heads[idx], modifiers[idx], thirds[idx]);
+		int[] order = new int[size];
+		if ((long) numberOfTokens * indexRange * indexRange <= Integer.MAX_VALUE) {
+			/*
+			 * Keys fit in 31 bits: pack each key with its index in a long and
+			 * sort them as primitives.
+			 */
+			long[] packed = new long[size];
+			for (int idx = 0; idx < size; ++idx)
+				packed[idx] = (keys[idx] << 32) | idx;
+			Arrays.sort(packed);
+			for (int idx = 0; idx < size; ++idx)
+				order[idx] = (int) packed[idx];
+		} else {
+			// Long sentences: stable sort of the indexes by the full key.
+			Integer[] boxed = new Integer[size];
+			for (int idx = 0; idx < size; ++idx)
+				boxed[idx] = idx;
+			Arrays.sort(boxed, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer idx1, Integer idx2) {
+					long key1 = keys[idx1];
+					long key2 = keys[idx2];
+					return (key1 < key2 ? -1 : (key1 > key2 ? 1 : 0));
+				}
+			});
+			for (int idx = 0; idx < size; ++idx)
+				order[idx] = boxed[idx];
+		}
+
+		// Apply the sorting permutation.
+		int[] newHeads = new int[size];
+		int[] newModifiers = new int[size];
+		int[] newThirds = new int[size];
+		int[][][] newBasicFeatures = new int[size][][];
+		int[] newFeatureBegin = new int[size];
+		int[] newFeatureEnd = new int[size];
+		int duplicated = -1;
+		for (int idx = 0; idx < size; ++idx) {
+			int old = order[idx];
+			newHeads[idx] = heads[old];
+			newModifiers[idx] = modifiers[old];
+			newThirds[idx] = thirds[old];
+			newBasicFeatures[idx] = basicFeatures[old];
+			newFeatureBegin[idx] = featureBegin[old];
+			newFeatureEnd[idx] = featureEnd[old];
+			if (idx > 0 && duplicated == -1
+					&& keys[old] == keys[order[idx - 1]])
+				duplicated = idx;
+		}
+		heads = newHeads;
+		modifiers = newModifiers;
+		thirds = newThirds;
+		basicFeatures = newBasicFeatures;
+		featureBegin = newFeatureBegin;
+		featureEnd = newFeatureEnd;
+
+		// Index of the first factor of each head.
+		Arrays.fill(headBegin, 0);
+		for (int idx = 0; idx < size; ++idx)
+			++headBegin[heads[idx] + 1];
+		for (int idxHead = 0; idxHead < numberOfTokens; ++idxHead)
+			headBegin[idxHead + 1] += headBegin[idxHead];
+
+		built = true;
+		return duplicated;
+	}
+
+	/**
+	 * Return the sorting key of the given factor.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @return
+	 */
+	private long getKey(int idxHead, int idxModifier, int idxThird) {
+		return (((long) idxHead) * indexRange + idxModifier) * indexRange
+				+ idxThird;
+	}
+
+	/**
+	 * Return the index of the given factor or -1 if it does not exist.
+	 * 
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @return
+	 */
+	public int find(int idxHead, int idxModifier, int idxThird) {
+		if (idxHead < 0 || idxHead >= numberOfTokens)
+			return -1;
+		int low = headBegin[idxHead];
+		int high = headBegin[idxHead + 1] - 1;
+		long key = ((long) idxModifier) * indexRange + idxThird;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midKey = ((long) modifiers[mid]) * indexRange + thirds[mid];
+			if (midKey < key)
+				low = mid + 1;
+			else if (midKey > key)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the number of factors in this table.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return whether the table has been built after the last inclusion.
+	 * 
+	 * @return
+	 */
+	public boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * Return the index of the first factor of the given head.
+	 * 
+	 * @param idxHead
+	 * @return
+	 */
+	public int getBegin(int idxHead) {
+		return headBegin[idxHead];
+	}
+
+	/**
+	 * Return the index after the last factor of the given head.
+	 * 
+	 * @param idxHead
+	 * @return
+	 */
+	public int getEnd(int idxHead) {
+		return headBegin[idxHead + 1];
+	}
+
+	public int getHead(int idxFactor) {
+		return heads[idxFactor];
+	}
+
+	public int getModifier(int idxFactor) {
+		return modifiers[idxFactor];
+	}
+
+	/**
+	 * Return the third index (grandparent or previous modifier) of the given
+	 * factor.
+	 * 
+	 * @param idxFactor
+	 * @return
+	 */
+	public int getThird(int idxFactor) {
+		return thirds[idxFactor];
+	}
+
+	/**
+	 * Return the basic features of the given factor.
+	 * 
+	 * @param idxFactor
+	 * @return
+	 */
+	public int[][] getBasicFeatures(int idxFactor) {
+		return basicFeatures[idxFactor];
+	}
+
+	/**
+	 * Return whether the given factor has derived features.
+	 * 
+	 * @param idxFactor
+	 * @return
+	 */
+	public boolean hasFeatures(int idxFactor) {
+		return featureBegin[idxFactor] >= 0;
+	}
+
+	/**
+	 * Return the shared pool of derived features. The features of a factor
+	 * are in the segment [<code>getFeaturesBegin(idx)</code>,
+	 * <code>getFeaturesEnd(idx)</code>). The returned array can be replaced
+	 * when new features are included.
+	 * 
+	 * @return
+	 */
+	public int[] getFeaturePool() {
+		return featurePool;
+	}
+
+	public int getFeaturesBegin(int idxFactor) {
+		return featureBegin[idxFactor];
+	}
+
+	public int getFeaturesEnd(int idxFactor) {
+		return featureEnd[idxFactor];
+	}
+
+	/**
+	 * Return a copy of the derived features of the given factor, or
+	 * <code>null</code> if it has no derived features.
+	 * 
+	 * @param idxFactor
+	 * @return
+	 */
+	public int[] getFeatures(int idxFactor) {
+		int begin = featureBegin[idxFactor];
+		if (begin < 0)
+			return null;
+		return Arrays.copyOfRange(featurePool, begin, featureEnd[idxFactor]);
+	}
+
+	/**
+	 * Set the derived features of the given factor by copying the given codes
+	 * to the end of the feature pool. If <code>codes</code> is
+	 * <code>null</code>, the factor has no derived features.
+	 * 
+	 * @param idxFactor
+	 * @param codes
+	 */
+	public void setFeatures(int idxFactor, int[] codes) {
+		if (codes == null) {
+			featureBegin[idxFactor] = -1;
+			featureEnd[idxFactor] = -1;
+			return;
+		}
+		ensurePoolCapacity(codes.length);
+		System.arraycopy(codes, 0, featurePool, featurePoolSize, codes.length);
+		featureBegin[idxFactor] = featurePoolSize;
+		featurePoolSize += codes.length;
+		featureEnd[idxFactor] = featurePoolSize;
+	}
+
+	/**
+	 * Set the derived features of the given factor by copying the first
+	 * <code>numCodes</code> codes of the given array to the end of the feature
+	 * pool.
+	 * 
+	 * @param idxFactor
+	 * @param codes
+	 * @param numCodes
+	 */
+	public void setFeatures(int idxFactor, int[] codes, int numCodes) {
+		ensurePoolCapacity(numCodes);
+		System.arraycopy(codes, 0, featurePool, featurePoolSize, numCodes);
+		featureBegin[idxFactor] = featurePoolSize;
+		featurePoolSize += numCodes;
+		featureEnd[idxFactor] = featurePoolSize;
+	}
+
+	/**
+	 * Set the derived features of the given factor by copying the given codes
+	 * to the end of the feature pool.
+	 * 
+	 * @param idxFactor
+	 * @param codes
+	 */
+	public void setFeatures(int idxFactor, Collection<Integer> codes) {
+		ensurePoolCapacity(codes.size());
+		featureBegin[idxFactor] = featurePoolSize;
+		Iterator<Integer> it = codes.iterator();
+		while (it.hasNext())
+			featurePool[featurePoolSize++] = it.next();
+		featureEnd[idxFactor] = featurePoolSize;
+	}
+
+	/**
+	 * Guarantee that the feature pool has room for the given number of new
+	 * codes.
+	 * 
+	 * @param numCodes
+	 */
+	private void ensurePoolCapacity(int numCodes) {
+		if (featurePoolSize + numCodes > featurePool.length)
+			featurePool = Arrays.copyOf(featurePool, Math.max(featurePoolSize
+					+ numCodes, 2 * featurePool.length));
+	}
+
+	/**
+	 * Release the unused capacity of the underlying arrays. It should be
+	 * called after all factors and features have been included.
+	 */
+	public void trim() {
+		if (featurePool.length > featurePoolSize)
+			featurePool = Arrays.copyOf(featurePool, featurePoolSize);
+		if (heads.length > size) {
+			heads = Arrays.copyOf(heads, size);
+			modifiers = Arrays.copyOf(modifiers, size);
+			thirds = Arrays.copyOf(thirds, size);
+			basicFeatures = Arrays.copyOf(basicFeatures, size);
+			featureBegin = Arrays.copyOf(featureBegin, size);
+			featureEnd = Arrays.copyOf(featureEnd, size);
+		}
+	}
+}
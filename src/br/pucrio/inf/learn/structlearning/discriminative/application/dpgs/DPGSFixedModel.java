@@ -0,0 +1,241 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+import java.io.IOException;
+import java.util.LinkedList;
+
+import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.util.MappedFileReader;
+
+/**
+ * Grandparent/siblings model with fixed weights loaded from a binary file
+ * saved by {@link DPGSModel#save(String, DPGSDataset)}. It is meant for
+ * inference only: the weights are stored in a dense array indexed by feature
+ * code, which is filled directly from the saved parallel arrays (no parameter
+ * objects are created) and can be read concurrently by any number of threads.
+ * 
+ * Since the templates depend on the feature labels of the dataset, they are
+ * only instantiated by <code>loadTemplates(DPGSDataset)</code>, after the
+ * dataset has been loaded with the basic feature encoding given by
+ * <code>getBasicFeatureEncoding()</code>.
+ * 
+ * @author eraldo
+ * 
+ */
+public class DPGSFixedModel extends DPGSModel {
+
+	/**
+	 * Weight of each feature code.
+	 */
+	private double[] weights;
+
+	/**
+	 * Number of non-zero weights.
+	 */
+	private int numberOfNonZeroWeights;
+
+	/**
+	 * Basic feature encoding used to train this model.
+	 */
+	private StringMapEncoding basicEncoding;
+
+	/**
+	 * Feature labels of each template, for each template array (edge,
+	 * grandparent, left siblings and right siblings).
+	 */
+	private String[][][] templateLabels;
+
+	/**
+	 * Load a model from the given binary file.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 * @throws DPGSException
+	 */
+	public DPGSFixedModel(String fileName) throws IOException, DPGSException {
+		super(0);
+		MappedFileReader reader = new MappedFileReader(fileName);
+		try {
+			if (reader.readInt() != MODEL_MAGIC)
+				throw new DPGSException(String.format(
+						"%s is not a grandparent/siblings model file", fileName));
+			int version = reader.readInt();
+			if (version != MODEL_VERSION)
+				throw new DPGSException(String.format(
+						"Unsupported model version %d in %s", version,
+						fileName));
+			root = reader.readInt();
+
+			// Templates.
+			templateLabels = new String[4][][];
+			for (int idxType = 0; idxType < templateLabels.length; ++idxType) {
+				int numTpls = reader.readInt();
+				templateLabels[idxType] = new String[numTpls][];
+				for (int idxTpl = 0; idxTpl < numTpls; ++idxTpl) {
+					String[] labels = new String[reader.readInt()];
+					for (int idx = 0; idx < labels.length; ++idx)
+						labels[idx] = reader.readString();
+					templateLabels[idxType][idxTpl] = labels;
+				}
+			}
+
+			// Basic feature encoding (extensible by new datasets).
+			String[] basicValues = new String[reader.readInt()];
+			for (int code = 0; code < basicValues.length; ++code)
+				basicValues[code] = reader.readString();
+			basicEncoding = new StringMapEncoding(basicValues);
+			basicEncoding.setReadOnly(false);
+
+			// Explicit feature encoding (read-only).
+			int numCodes;
+			byte encodingType = reader.readByte();
+			if (encodingType == ENCODING_HASHED_FIXED) {
+				numCodes = reader.readInt();
+				explicitEncoding = new HashedFeatureEncoding(numCodes);
+			} else {
+				if (encodingType == ENCODING_HASHED)
+					explicitEncoding = new HashedFeatureEncoding();
+				else
+					explicitEncoding = new MapEncoding<Feature>();
+				numCodes = reader.readInt();
+				for (int code = 0; code < numCodes; ++code) {
+					int tplIdx = reader.readInt();
+					int[] ftrVals = reader.readIntArray();
+					if (explicitEncoding.put(new Feature(tplIdx, ftrVals)) != code)
+						throw new DPGSException(String.format(
+								"Duplicated feature %d in %s", code, fileName));
+				}
+			}
+			explicitEncoding.setReadOnly(true);
+
+			// Non-zero weights.
+			numberOfNonZeroWeights = reader.readInt();
+			int[] codes = new int[numberOfNonZeroWeights];
+			double[] values = new double[numberOfNonZeroWeights];
+			reader.readInts(codes, 0, numberOfNonZeroWeights);
+			reader.readDoubles(values, 0, numberOfNonZeroWeights);
+			weights = new double[numCodes];
+			for (int idx = 0; idx < numberOfNonZeroWeights; ++idx)
+				weights[codes[idx]] = values[idx];
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Return the basic feature encoding used to train this model. Datasets to
+	 * be parsed by this model must be loaded with this encoding.
+	 * 
+	 * @return
+	 */
+	public StringMapEncoding getBasicFeatureEncoding() {
+		return basicEncoding;
+	}
+
+	/**
+	 * Instantiate the templates of this model using the feature labels of the
+	 * given dataset.
+	 * 
+	 * @param dataset
+	 * @throws DPGSException
+	 *             if some feature label does not exist in the dataset.
+	 */
+	public void loadTemplates(DPGSDataset dataset) throws DPGSException {
+		edgeTemplates = createTemplates(dataset, 0);
+		grandparentTemplates = createTemplates(dataset, 1);
+		leftSiblingsTemplates = createTemplates(dataset, 2);
+		rightSiblingsTemplates = createTemplates(dataset, 3);
+	}
+
+	/**
+	 * Create the templates of the given array (0: edge, 1: grandparent, 2:
+	 * left siblings and 3: right siblings).
+	 * 
+	 * @param dataset
+	 * @param idxType
+	 * @return
+	 * @throws DPGSException
+	 */
+	private DPGSTemplate[] createTemplates(DPGSDataset dataset, int idxType)
+			throws DPGSException {
+		LinkedList<DPGSTemplate> templatesList = new LinkedList<DPGSTemplate>();
+		for (String[] labels : templateLabels[idxType]) {
+			int[] ftrs = new int[labels.length];
+			for (int idx = 0; idx < ftrs.length; ++idx) {
+				if (idxType == 0)
+					ftrs[idx] = dataset.getEdgeFeatureIndex(labels[idx]);
+				else if (idxType == 1)
+					ftrs[idx] = dataset.getGrandparentFeatureIndex(labels[idx]);
+				else
+					ftrs[idx] = dataset.getSiblingsFeatureIndex(labels[idx]);
+				if (ftrs[idx] == -1)
+					throw new DPGSException(String.format(
+							"Feature label %s does not exist", labels[idx]));
+			}
+			int index = templatesList.size();
+			if (idxType == 0)
+				templatesList.add(new DPEdgeTemplate(index, ftrs));
+			else if (idxType == 1)
+				templatesList.add(new DPGrandparentTemplate(index, ftrs));
+			else
+				templatesList.add(new DPSiblingsTemplate(idxType, index, ftrs));
+		}
+		return templatesList.toArray(new DPGSTemplate[0]);
+	}
+
+	@Override
+	public double getFeatureListScore(int[] features) {
+		if (features == null)
+			return Double.NaN;
+		return getFeatureListScore(features, 0, features.length);
+	}
+
+	@Override
+	public double getFeatureListScore(int[] features, int from, int to) {
+		double score = 0d;
+		for (int idxCode = from; idxCode < to; ++idxCode) {
+			int code = features[idxCode];
+			// Unseen features have negative codes.
+			if (code >= 0 && code < weights.length)
+				score += weights[code];
+		}
+		return score;
+	}
+
+	@Override
+	public double update(ExampleInput input, ExampleOutput outputCorrect,
+			ExampleOutput outputPredicted, double learningRate) {
+		throw new NotImplementedException();
+	}
+
+	@Override
+	public void sumUpdates(int iteration) {
+		// Fixed weights.
+	}
+
+	@Override
+	public void average(int numberOfIterations) {
+		// Fixed weights.
+	}
+
+	@Override
+	public DPGSFixedModel clone() throws CloneNotSupportedException {
+		// Fixed weights can be shared.
+		return this;
+	}
+
+	@Override
+	public int getNumberOfNonZeroParameters() {
+		return numberOfNonZeroWeights;
+	}
+
+	@Override
+	public int getNumberOfUpdatedParameters() {
+		return numberOfNonZeroWeights;
+	}
+}
@@ -1,5 +1,8 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -9,6 +12,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.util.ParallelLoop;
 import br.pucrio.inf.learn.util.gsmaxbranching.MaximumGrandparentSiblingsAlgorithm;
 
 /**
@@ -33,6 +37,18 @@ public class DPGSInference implements Inference {
 	 */
 	private MaximumGrandparentSiblingsAlgorithm maxGSAlgorithm;
 
+	/**
+	 * Executor used to fill factor weights and to solve the per-head
+	 * subproblems in parallel. It is <code>null</code> when there is only one
+	 * thread.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Number of threads used by the inference.
+	 */
+	private int numberOfThreads = 1;
+
 	/**
 	 * Edge factor weights for grandparent/siblings algorithm. The index for
 	 * this array is (idxHead, idxModifier).
@@ -68,6 +84,19 @@ public class DPGSInference implements Inference {
 	 */
 	private boolean copyPredictionToParse;
 
+	/**
+	 * Coarse-to-fine pruner. If it is not <code>null</code>, only grandparent
+	 * and siblings factors whose edges survive the first-order pruning are
+	 * scored and considered by the dynamic programming algorithm.
+	 */
+	private DPGSPruner pruner;
+
+	/**
+	 * Edges kept by the pruner for the current input. The index for this array
+	 * is (idxHead, idxModifier).
+	 */
+	private boolean[][] edgeMask;
+
 	/**
 	 * Create a grandparent/sibling inference object that allocates the internal
 	 * data structures to support the given maximum number of tokens.
@@ -92,6 +121,49 @@ public class DPGSInference implements Inference {
 		copyPredictionToParse = val;
 	}
 
+	/**
+	 * Set the coarse-to-fine pruner used to discard unlikely edges before
+	 * filling the grandparent and siblings factor weights. If it is
+	 * <code>null</code>, no pruning is performed.
+	 * 
+	 * @param pruner
+	 */
+	public void setPruner(DPGSPruner pruner) {
+		this.pruner = pruner;
+		if (pruner != null)
+			edgeMask = new boolean[edgeFactorWeights.length][edgeFactorWeights.length];
+		else
+			edgeMask = null;
+	}
+
+	/**
+	 * Return the coarse-to-fine pruner used by this inference (possibly
+	 * <code>null</code>).
+	 * 
+	 * @return
+	 */
+	public DPGSPruner getPruner() {
+		return pruner;
+	}
+
+	/**
+	 * Set the number of threads used to fill factor weights and to solve the
+	 * independent per-head subproblems of the grandparent/siblings algorithm.
+	 * The result does not depend on the number of threads.
+	 * 
+	 * @param numberOfThreads
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		if (executor != null)
+			executor.shutdown();
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+		if (this.numberOfThreads > 1)
+			executor = ParallelLoop.newDaemonExecutor(this.numberOfThreads);
+		else
+			executor = null;
+		maxGSAlgorithm.setExecutor(executor, this.numberOfThreads);
+	}
+
 	/**
 	 * Realloc the internal data structures to support the given maximum number
 	 * of tokens.
@@ -103,6 +175,8 @@ public class DPGSInference implements Inference {
 		edgeFactorWeights = new double[maxNumberOfTokens][maxNumberOfTokens];
 		grandparentFactorWeights = new double[maxNumberOfTokens][maxNumberOfTokens][maxNumberOfTokens];
 		siblingsFactorWeights = new double[maxNumberOfTokens][maxNumberOfTokens + 1][maxNumberOfTokens + 1];
+		if (pruner != null)
+			edgeMask = new boolean[maxNumberOfTokens][maxNumberOfTokens];
 	}
 
 	/**
@@ -119,9 +193,7 @@ public class DPGSInference implements Inference {
 	 */
 	public void inference(DPGSModel model, DPGSInput input, DPGSOutput output) {
 		// Generate inference problem for the given input.
-		fillEdgeFactorWeights(model, input);
-		fillGrandparentFactorWeights(model, input, null, 0d);
-		fillSiblingsFactorWeights(model, input);
+		fillFactorWeights(model, input, null, 0d);
 
 		// Solve the inference problem.
 		double score = maxGSAlgorithm.findMaximumGrandparentSiblings(
@@ -150,9 +222,7 @@ public class DPGSInference implements Inference {
 			DPGSOutput referenceOutput, DPGSOutput predictedOutput,
 			double lossWeight) {
 		// Generate loss-augmented inference problem for the given input.
-		fillEdgeFactorWeights(model, input);
-		fillGrandparentFactorWeights(model, input, referenceOutput, lossWeight);
-		fillSiblingsFactorWeights(model, input);
+		fillFactorWeights(model, input, referenceOutput, lossWeight);
 
 		// Solve the inference problem.
 		maxGSAlgorithm.findMaximumGrandparentSiblings(input.size(),
@@ -163,124 +233,183 @@ public class DPGSInference implements Inference {
 	}
 
 	/**
-	 * Fill the underlying weight of the edge factors that are use by the
-	 * dynamic programming algorithm.
+	 * Fill the underlying factor weights that are used by the dynamic
+	 * programming algorithm. Optionally, if <code>correct</code> and
+	 * <code>lossWeight</code> are given, augment the grandparent factor
+	 * weights with loss values.
+	 * 
+	 * The weights of each head are independent of the other heads. Thus, if
+	 * there are parallel threads, heads are filled in parallel. A model with
+	 * a score cache is always filled sequentially, since the cache is not
+	 * thread safe.
+	 * 
+	 * If there is a pruner, the edge weights are filled first (by the pruning
+	 * model, if any), then the pruner discards unlikely edges and, finally,
+	 * only grandparent and siblings factors whose edges are kept are scored.
+	 * 
+	 * @param model
+	 * @param input
+	 * @param correct
+	 * @param lossWeight
+	 */
+	private void fillFactorWeights(final DPGSModel model,
+			final DPGSInput input, final DPGSOutput correct,
+			final double lossWeight) {
+		ExecutorService exec = executor;
+		if (model.getScoreCache() != null)
+			exec = null;
+		if (pruner != null) {
+			final DPGSModel scoringModel = pruner.getScoringModel(model);
+			if (scoringModel.getScoreCache() != null)
+				exec = null;
+			new ParallelLoop() {
+				@Override
+				protected void iterate(int idxTask, int idxHead) {
+					fillEdgeFactorWeights(scoringModel, input, idxHead);
+				}
+			}.run(exec, numberOfThreads, input.size());
+			pruner.prune(model, input, edgeFactorWeights, edgeMask);
+			new ParallelLoop() {
+				@Override
+				protected void iterate(int idxTask, int idxHead) {
+					fillGrandparentFactorWeights(model, input, correct,
+							lossWeight, idxHead);
+					fillSiblingsFactorWeights(model, input, idxHead);
+				}
+			}.run(exec, numberOfThreads, input.size());
+			siblingsFactorWeights[0][0][0] = 0d;
+			return;
+		}
+		new ParallelLoop() {
+			@Override
+			protected void iterate(int idxTask, int idxHead) {
+				fillEdgeFactorWeights(model, input, idxHead);
+				fillGrandparentFactorWeights(model, input, correct,
+						lossWeight, idxHead);
+				fillSiblingsFactorWeights(model, input, idxHead);
+			}
+		}.run(exec, numberOfThreads, input.size());
+
+		// TODO test (this factor should be generated).
+		siblingsFactorWeights[0][0][0] = 0d;
+	}
+
+	/**
+	 * Fill the underlying weight of the edge factors of the given head that
+	 * are used by the dynamic programming algorithm.
 	 * 
 	 * @param model
 	 * @param input
+	 * @param idxHead
 	 */
-	private void fillEdgeFactorWeights(DPGSModel model, DPGSInput input) {
+	private void fillEdgeFactorWeights(DPGSModel model, DPGSInput input,
+			int idxHead) {
 		int numTkns = input.size();
-		for (int idxHead = 0; idxHead < numTkns; ++idxHead)
-			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
-				edgeFactorWeights[idxHead][idxModifier] = model
-						.getFeatureListScore(input.getEdgeFeatures(idxHead,
-								idxModifier));
+		double[] edgeFactorWeightsHead = edgeFactorWeights[idxHead];
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
+			edgeFactorWeightsHead[idxModifier] = model.getEdgeFactorScore(
+					input, idxHead, idxModifier);
 	}
 
 	/**
-	 * Fill the underlying weights of the grandparent factors that are used by
-	 * the dynamic programming algorithm. Optionally, if <code>correct</code>
-	 * and <code>lossWeight</code> are given, augment the factor weights with
-	 * loss values.
+	 * Fill the underlying weights of the grandparent factors of the given head
+	 * that are used by the dynamic programming algorithm. Optionally, if
+	 * <code>correct</code> and <code>lossWeight</code> are given, augment the
+	 * factor weights with loss values.
 	 * 
 	 * @param model
 	 * @param input
 	 * @param correct
 	 * @param lossWeight
+	 * @param idxHead
 	 */
 	private void fillGrandparentFactorWeights(DPGSModel model, DPGSInput input,
-			DPGSOutput correct, double lossWeight) {
+			DPGSOutput correct, double lossWeight, int idxHead) {
 		// Loss augmented?
 		boolean loss = (correct != null && lossWeight != 0d);
 
+		// Inexistent factors have NaN weights.
 		int numTkns = input.size();
-		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-			double[][] grandparentFactorWeightsHead = grandparentFactorWeights[idxHead];
-			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
-				double[] grandparentFactorWeightsHeadModifier = grandparentFactorWeightsHead[idxModifier];
-				// Loss weight for the current edge (idxHead, idxModifier).
-				double lossWeightEdge = 0d;
-				if (loss && correct.getHead(idxModifier) != idxHead)
-					lossWeightEdge = lossWeight;
-				// Fill factor weights for each grandparent.
-				for (int idxGrandparent = 0; idxGrandparent < numTkns; ++idxGrandparent) {
-					// Get list of features for the current siblings factor.
-					int[] ftrs = input.getGrandparentFeatures(idxHead,
-							idxModifier, idxGrandparent);
-					if (ftrs != null) {
-						// Sum feature weights to achieve the factor weight.
-						grandparentFactorWeightsHeadModifier[idxGrandparent] = model
-								.getFeatureListScore(ftrs);
-						// Loss value for the current edge.
-						grandparentFactorWeightsHeadModifier[idxGrandparent] += lossWeightEdge;
-					} else
-						grandparentFactorWeightsHeadModifier[idxGrandparent] = Double.NaN;
-				}
-			}
+		double[][] grandparentFactorWeightsHead = grandparentFactorWeights[idxHead];
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier)
+			Arrays.fill(grandparentFactorWeightsHead[idxModifier], 0, numTkns,
+					Double.NaN);
+
+		// Sum feature weights to achieve the weight of each existing factor.
+		DPGSFactorTable factors = input.getGrandparentFactors();
+		int end = factors.getEnd(idxHead);
+		for (int idxFactor = factors.getBegin(idxHead); idxFactor < end; ++idxFactor) {
+			if (!factors.hasFeatures(idxFactor))
+				continue;
+			int idxModifier = factors.getModifier(idxFactor);
+			if (pruner != null
+					&& !DPGSPruner.isGrandparentFactorKept(edgeMask, idxHead,
+							idxModifier, factors.getThird(idxFactor)))
+				// Pruned factor: keep NaN weight.
+				continue;
+			double weight = model.getGrandparentFactorScore(input, idxFactor);
+			// Loss value for the current edge (idxHead, idxModifier).
+			if (loss && correct.getHead(idxModifier) != idxHead)
+				weight += lossWeight;
+			grandparentFactorWeightsHead[idxModifier][factors
+					.getThird(idxFactor)] = weight;
 		}
 	}
 
 	/**
-	 * Fill the underlying weight of the siblings factors that are use by the
-	 * dynamic programming algorithm.
+	 * Fill the underlying weight of the siblings factors of the given head
+	 * that are use by the dynamic programming algorithm.
 	 * 
 	 * @param model
 	 * @param input
+	 * @param idxHead
 	 */
-	private void fillSiblingsFactorWeights(DPGSModel model, DPGSInput input) {
+	private void fillSiblingsFactorWeights(DPGSModel model, DPGSInput input,
+			int idxHead) {
 		int numTkns = input.size();
-		for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-			double[][] siblingsFactorWeightsHead = siblingsFactorWeights[idxHead];
-
-			/*
-			 * Consider here the proper modifier pairs (that is both modifiers
-			 * are real tokens/nodes) and pairs of the form <*, END>. Thus, do
-			 * not consider <START, *> at this point. We deal with such pairs in
-			 * the next block.
-			 */
-			for (int idxModifier = 0; idxModifier <= numTkns; ++idxModifier) {
-				double[] siblingsFactorWeightsHeadModifier = siblingsFactorWeightsHead[idxModifier];
-				/*
-				 * First modifier index depends whether the current modifier
-				 * lies on the LEFT (then the first modifier index is '0') or on
-				 * the RIGHT (then it is 'idxHead + 1') of the current head
-				 * (idxHead).
-				 */
-				int firstModifier = (idxModifier <= idxHead ? 0 : idxHead + 1);
-				for (int idxPreviousModifier = firstModifier; idxPreviousModifier < idxModifier; ++idxPreviousModifier) {
-					int[] ftrs = input.getSiblingsFeatures(idxHead,
-							idxModifier, idxPreviousModifier);
-					if (ftrs != null)
-						siblingsFactorWeightsHeadModifier[idxPreviousModifier] = model
-								.getFeatureListScore(ftrs);
-					else
-						siblingsFactorWeightsHeadModifier[idxPreviousModifier] = Double.NaN;
-				}
+		double[][] siblingsFactorWeightsHead = siblingsFactorWeights[idxHead];
 
-				/*
-				 * Modifier pairs of the form <START, *>. For modifiers on the
-				 * left side of the current head, START is equal to 'idxHead'.
-				 * While for modifiers on the right side of the current head, it
-				 * is equal to 'numTkns'.
-				 * 
-				 * START index depends whether the current modifier lies on the
-				 * LEFT side (then it is equal to 0) or on the RIGHT side (then
-				 * it is numTkns) of the current head (idxHead).
-				 */
-				int idxSTART = (idxModifier <= idxHead ? idxHead : numTkns);
-				int[] ftrs = input.getSiblingsFeatures(idxHead, idxModifier,
-						idxSTART);
-				if (ftrs != null)
-					siblingsFactorWeightsHeadModifier[idxSTART] = model
-							.getFeatureListScore(ftrs);
-				else
-					siblingsFactorWeightsHeadModifier[idxSTART] = Double.NaN;
-			}
+		/*
+		 * Inexistent factors have NaN weights. For modifiers on the LEFT side
+		 * of the head, previous modifiers range from '0' to the head index
+		 * (START). For modifiers on the RIGHT side, they range from 'idxHead +
+		 * 1' to 'numTkns' (START).
+		 */
+		for (int idxModifier = 0; idxModifier <= numTkns; ++idxModifier) {
+			if (idxModifier <= idxHead)
+				Arrays.fill(siblingsFactorWeightsHead[idxModifier], 0,
+						idxHead + 1, Double.NaN);
+			else
+				Arrays.fill(siblingsFactorWeightsHead[idxModifier],
+						idxHead + 1, numTkns + 1, Double.NaN);
 		}
 
-		// TODO test (this factor should be generated).
-		siblingsFactorWeights[0][0][0] = 0d;
+		/*
+		 * Sum feature weights of each existing factor. Only modifier pairs
+		 * that are considered by the dynamic programming algorithm are filled:
+		 * proper modifier pairs (both modifiers are real tokens/nodes), pairs
+		 * of the form <*, END> and pairs of the form <START, *>.
+		 */
+		DPGSFactorTable factors = input.getSiblingsFactors();
+		int end = factors.getEnd(idxHead);
+		for (int idxFactor = factors.getBegin(idxHead); idxFactor < end; ++idxFactor) {
+			if (!factors.hasFeatures(idxFactor))
+				continue;
+			int idxModifier = factors.getModifier(idxFactor);
+			int idxPreviousModifier = factors.getThird(idxFactor);
+			int firstModifier = (idxModifier <= idxHead ? 0 : idxHead + 1);
+			int idxSTART = (idxModifier <= idxHead ? idxHead : numTkns);
+			if (idxPreviousModifier != idxSTART
+					&& (idxPreviousModifier < firstModifier || idxPreviousModifier >= idxModifier))
+				continue;
+			if (pruner != null
+					&& !DPGSPruner.isSiblingsFactorKept(edgeMask, numTkns,
+							idxHead, idxModifier, idxPreviousModifier))
+				// Pruned factor: keep NaN weight.
+				continue;
+			siblingsFactorWeightsHead[idxModifier][idxPreviousModifier] = model
+					.getSiblingsFactorScore(input, idxFactor);
+		}
 	}
 
 	/**
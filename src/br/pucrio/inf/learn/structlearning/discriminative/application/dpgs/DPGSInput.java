@@ -51,26 +51,6 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	private int[][][][] basicEdgeFeatures;
 
-	/**
-	 * Basic (column-based) features for grandparent factors. Each factor is
-	 * identified by an index of the form (idxHead, idxModifier,
-	 * idxGrandparent). Each factor has a list (columns) of features and each
-	 * feature value can comprise one or more values. Most features have only
-	 * one value, but there can be some multi-valued features that comprise a
-	 * list of values.
-	 */
-	private int[][][][][] basicGrandparentFeatures;
-
-	/**
-	 * Basic (column-based) features for grandparent factors. Each factor is
-	 * identified by an index of the form (idxHead, idxModifier,
-	 * idxPreviousModifier). Each factor has a list (columns) of features and
-	 * each feature value can comprise one or more values. Most features have
-	 * only one value, but there can be some multi-valued features that comprise
-	 * a list of values.
-	 */
-	private int[][][][][] basicSiblingsFeatures;
-
 	/**
 	 * Derived features from edge templates. These templates involve two
 	 * parameters: head and modifier.
@@ -78,19 +58,28 @@ public class DPGSInput implements ExampleInput, Serializable {
 	private int[][][] edgeFeatures;
 
 	/**
-	 * Derived features from grandparent templates. These templates involve
-	 * three parameters: head, modifier and granparent (head of the head).
+	 * Grandparent factors. Each factor is identified by an index of the form
+	 * (idxHead, idxModifier, idxGrandparent). Each factor has a list (columns)
+	 * of basic features and each feature value can comprise one or more
+	 * values. Most features have only one value, but there can be some
+	 * multi-valued features that comprise a list of values. The derived
+	 * features of these factors come from grandparent templates.
+	 * 
+	 * Only existing factors are stored, since most of the n^3 possible
+	 * factors are usually absent.
 	 */
-	private int[][][][] grandparentFeatures;
+	private DPGSFactorTable grandparentFactors;
 
 	/**
-	 * Derived features from sibling templates. These templates involve three
-	 * parameters: head, modifier and closest sibling before the modifier. These
-	 * features comprise left and right sibling features. During feature
-	 * generation, features are differentiated according to the relative
-	 * position of modifiers in relation to the head token.
+	 * Siblings factors. Each factor is identified by an index of the form
+	 * (idxHead, idxModifier, idxPreviousModifier). Basic features follow the
+	 * same format of grandparent factors. The derived features of these
+	 * factors come from sibling templates and comprise left and right sibling
+	 * features. During feature generation, features are differentiated
+	 * according to the relative position of modifiers in relation to the head
+	 * token.
 	 */
-	private int[][][][] siblingsFeatures;
+	private DPGSFactorTable siblingsFactors;
 
 	/**
 	 * Create an empty input structure with the given length.
@@ -104,15 +93,13 @@ public class DPGSInput implements ExampleInput, Serializable {
 		this.id = id;
 		this.numberOfTokens = numberOfTokens;
 
-		// Arrays for basic features.
+		// Edge factors (dense).
 		this.basicEdgeFeatures = new int[numberOfTokens][numberOfTokens][][];
-		this.basicGrandparentFeatures = new int[numberOfTokens][numberOfTokens][numberOfTokens][][];
-		this.basicSiblingsFeatures = new int[numberOfTokens][numberOfTokens + 1][numberOfTokens + 1][][];
-
-		// Arrays for derived features.
 		this.edgeFeatures = new int[numberOfTokens][numberOfTokens][];
-		this.grandparentFeatures = new int[numberOfTokens][numberOfTokens][numberOfTokens][];
-		this.siblingsFeatures = new int[numberOfTokens][numberOfTokens + 1][numberOfTokens + 1][];
+
+		// Grandparent and siblings factors (sparse).
+		this.grandparentFactors = new DPGSFactorTable(numberOfTokens);
+		this.siblingsFactors = new DPGSFactorTable(numberOfTokens);
 	}
 
 	/**
@@ -134,8 +121,29 @@ public class DPGSInput implements ExampleInput, Serializable {
 
 		this.numberOfTokens = grandparentFeatures.length;
 		this.edgeFeatures = edgeFeatures;
-		this.grandparentFeatures = grandparentFeatures;
-		this.siblingsFeatures = siblingsFeatures;
+		this.grandparentFactors = createFactorTable(grandparentFeatures);
+		this.siblingsFactors = createFactorTable(siblingsFeatures);
+	}
+
+	/**
+	 * Create a factor table with the non-null entries of the given dense
+	 * array of derived features.
+	 * 
+	 * @param features
+	 * @return
+	 */
+	private DPGSFactorTable createFactorTable(int[][][][] features) {
+		DPGSFactorTable factors = new DPGSFactorTable(numberOfTokens);
+		for (int idxHead = 0; idxHead < features.length; ++idxHead)
+			for (int idxModifier = 0; idxModifier < features[idxHead].length; ++idxModifier)
+				for (int idxThird = 0; idxThird < features[idxHead][idxModifier].length; ++idxThird)
+					if (features[idxHead][idxModifier][idxThird] != null)
+						factors.setFeatures(factors.add(idxHead, idxModifier,
+								idxThird, null),
+								features[idxHead][idxModifier][idxThird]);
+		factors.build();
+		factors.trim();
+		return factors;
 	}
 
 	/**
@@ -162,6 +170,8 @@ public class DPGSInput implements ExampleInput, Serializable {
 	public void addBasicFeaturesOfFactors(
 			Collection<? extends Collection<int[]>> factors)
 			throws DPGSException {
+		boolean newGrandparentFactors = false;
+		boolean newSiblingsFactors = false;
 		for (Collection<int[]> factor : factors) {
 			// Iterator of factor list items.
 			Iterator<int[]> it = factor.iterator();
@@ -172,76 +182,122 @@ public class DPGSInput implements ExampleInput, Serializable {
 			 */
 			int[] params = it.next();
 
-			/*
-			 * For both types of factor, the second and third parameter are the
-			 * head index and the modifier index.
-			 */
-			int idxHead = params[1];
-			int idxModifier = params[2];
-
 			// Columns for the current factor.
-			int[][] columns;
-
-			// Number of basic features in this factor.
-			int numberOfColumns = factor.size() - 1;
-
-			/*
-			 * Alloc memory for the factor columns and store in the correct
-			 * place with the underlying GS structures.
-			 */
-			switch (params[0]) {
-			case 0:
-				// EDGE factor.
-				columns = new int[numberOfColumns][];
-				if (basicEdgeFeatures[idxHead][idxModifier] != null)
-					throw new DPGSException(
-							String.format(
-									"Factor E(%d,%d,%d) in example %s is already filled",
-									idxHead, idxModifier, params[3], id));
-				basicEdgeFeatures[idxHead][idxModifier] = columns;
-				break;
-			case 1:
-				// GRANDPARENT factor.
-				int idxGrandparent = params[3];
-				columns = new int[numberOfColumns][];
-				if (basicGrandparentFeatures[idxHead][idxModifier][idxGrandparent] != null)
-					throw new DPGSException(
-							String.format(
-									"Factor G(%d,%d,%d) in example %s is already filled",
-									idxHead, idxModifier, idxGrandparent, id));
-				basicGrandparentFeatures[idxHead][idxModifier][idxGrandparent] = columns;
-				break;
-			case 2:
-				// SIBLINGS factor.
-				int idxPrevModifier = params[3];
-				columns = new int[numberOfColumns][];
-				if (basicSiblingsFeatures[idxHead][idxModifier][idxPrevModifier] != null)
-					throw new DPGSException(
-							String.format(
-									"Factor S(%d,%d,%d) in example %s is already filled",
-									idxHead, idxModifier, idxPrevModifier, id));
-				basicSiblingsFeatures[idxHead][idxModifier][idxPrevModifier] = columns;
-				break;
-			default:
-				throw new DPGSException(
-						String.format(
-								"Incorrect factor type %d in example %s with params (%d,%d,%d)",
-								params[0], id, params[1], params[2], params[3]));
-			}
-
-			// Just fill the columns array.
+			int[][] columns = new int[factor.size() - 1][];
 			int idx = 0;
 			while (it.hasNext())
 				columns[idx++] = it.next();
 
-			if (idx != columns.length)
-				throw new DPGSException(
-						String.format(
-								"Incorrect number of features in the factor (%d,%d,%d) of type %d from example %s",
-								params[1], params[2], params[3], params[0], id));
+			if (addBasicFeaturesOfFactor(params, 0, columns))
+				newGrandparentFactors = true;
+			else if (params[0] == 2)
+				newSiblingsFactors = true;
+		}
+
+		// Sort new factors and check for duplicates.
+		if (newGrandparentFactors)
+			buildFactorTable(grandparentFactors, 'G');
+		if (newSiblingsFactors)
+			buildFactorTable(siblingsFactors, 'S');
+	}
+
+	/**
+	 * Add basic features of the given factors. The parameters of factor
+	 * <code>idx</code> are given by
+	 * <code>params[4*idx], ..., params[4*idx+3]</code> (with the same meaning
+	 * as in <code>addBasicFeaturesOfFactors(Collection)</code>) and its basic
+	 * features by <code>columns[idx]</code>. The column arrays are not copied.
+	 * 
+	 * @param numberOfFactors
+	 * @param params
+	 * @param columns
+	 * @throws DPGSException
+	 */
+	public void addBasicFeaturesOfFactors(int numberOfFactors, int[] params,
+			int[][][] columns) throws DPGSException {
+		boolean newGrandparentFactors = false;
+		boolean newSiblingsFactors = false;
+		for (int idxFactor = 0; idxFactor < numberOfFactors; ++idxFactor) {
+			if (addBasicFeaturesOfFactor(params, 4 * idxFactor,
+					columns[idxFactor]))
+				newGrandparentFactors = true;
+			else if (params[4 * idxFactor] == 2)
+				newSiblingsFactors = true;
+		}
+
+		// Sort new factors and check for duplicates.
+		if (newGrandparentFactors)
+			buildFactorTable(grandparentFactors, 'G');
+		if (newSiblingsFactors)
+			buildFactorTable(siblingsFactors, 'S');
+	}
+
+	/**
+	 * Store the basic features of one factor, whose parameters are in
+	 * <code>params[offset], ..., params[offset+3]</code>. Return
+	 * <code>true</code> if it is a grandparent factor. Grandparent and
+	 * siblings tables must be built afterwards.
+	 * 
+	 * @param params
+	 * @param offset
+	 * @param columns
+	 * @return
+	 * @throws DPGSException
+	 */
+	private boolean addBasicFeaturesOfFactor(int[] params, int offset,
+			int[][] columns) throws DPGSException {
+		/*
+		 * For all types of factor, the second and third parameter are the head
+		 * index and the modifier index.
+		 */
+		int idxHead = params[offset + 1];
+		int idxModifier = params[offset + 2];
+		switch (params[offset]) {
+		case 0:
+			// EDGE factor.
+			if (basicEdgeFeatures[idxHead][idxModifier] != null)
+				throw new DPGSException(String.format(
+						"Factor E(%d,%d,%d) in example %s is already filled",
+						idxHead, idxModifier, params[offset + 3], id));
+			basicEdgeFeatures[idxHead][idxModifier] = columns;
+			return false;
+		case 1:
+			// GRANDPARENT factor (duplicates are checked when building).
+			grandparentFactors.add(idxHead, idxModifier, params[offset + 3],
+					columns);
+			return true;
+		case 2:
+			// SIBLINGS factor (duplicates are checked when building).
+			siblingsFactors.add(idxHead, idxModifier, params[offset + 3],
+					columns);
+			return false;
+		default:
+			throw new DPGSException(String.format(
+					"Incorrect factor type %d in example %s with params "
+							+ "(%d,%d,%d)", params[offset], id,
+					params[offset + 1], params[offset + 2],
+					params[offset + 3]));
 		}
 	}
 
+	/**
+	 * Build the given factor table and check it for duplicated factors.
+	 * 
+	 * @param factors
+	 * @param type
+	 * @throws DPGSException
+	 */
+	private void buildFactorTable(DPGSFactorTable factors, char type)
+			throws DPGSException {
+		int duplicated = factors.build();
+		if (duplicated >= 0)
+			throw new DPGSException(String.format(
+					"Factor %c(%d,%d,%d) in example %s is already filled",
+					type, factors.getHead(duplicated),
+					factors.getModifier(duplicated),
+					factors.getThird(duplicated), id));
+	}
+
 	@Override
 	public String getId() {
 		return id;
@@ -265,7 +321,10 @@ public class DPGSInput implements ExampleInput, Serializable {
 	}
 
 	/**
-	 * Return the list of feature codes in the given grandparent factor.
+	 * Return a copy of the list of feature codes in the given grandparent
+	 * factor, or <code>null</code> if this factor does not exist. Frequent
+	 * callers should iterate over <code>getGrandparentFactors()</code>
+	 * instead, which avoids the lookup and the copy.
 	 * 
 	 * @param idxHead
 	 * @param idxModifier
@@ -274,11 +333,18 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[] getGrandparentFeatures(int idxHead, int idxModifier,
 			int idxGrandparent) {
-		return grandparentFeatures[idxHead][idxModifier][idxGrandparent];
+		int idxFactor = grandparentFactors.find(idxHead, idxModifier,
+				idxGrandparent);
+		if (idxFactor < 0)
+			return null;
+		return grandparentFactors.getFeatures(idxFactor);
 	}
 
 	/**
-	 * Return the list of feature codes in the given modifiers factor.
+	 * Return a copy of the list of feature codes in the given modifiers
+	 * factor, or <code>null</code> if this factor does not exist. Frequent
+	 * callers should iterate over <code>getSiblingsFactors()</code> instead,
+	 * which avoids the lookup and the copy.
 	 * 
 	 * @param idxHead
 	 * @param idxModifier
@@ -287,7 +353,28 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[] getSiblingsFeatures(int idxHead, int idxModifier,
 			int idxSibling) {
-		return siblingsFeatures[idxHead][idxModifier][idxSibling];
+		int idxFactor = siblingsFactors.find(idxHead, idxModifier, idxSibling);
+		if (idxFactor < 0)
+			return null;
+		return siblingsFactors.getFeatures(idxFactor);
+	}
+
+	/**
+	 * Return the grandparent factors of this input.
+	 * 
+	 * @return
+	 */
+	public DPGSFactorTable getGrandparentFactors() {
+		return grandparentFactors;
+	}
+
+	/**
+	 * Return the siblings factors of this input.
+	 * 
+	 * @return
+	 */
+	public DPGSFactorTable getSiblingsFactors() {
+		return siblingsFactors;
 	}
 
 	public void setEdgeFeatures(int idxHead, int idxModifier, int[] vals) {
@@ -296,12 +383,37 @@ public class DPGSInput implements ExampleInput, Serializable {
 
 	public void setGrandparentFeatures(int idxHead, int idxModifier,
 			int idxGrandparent, int[] vals) {
-		grandparentFeatures[idxHead][idxModifier][idxGrandparent] = vals;
+		setFactorFeatures(grandparentFactors, idxHead, idxModifier,
+				idxGrandparent, vals);
 	}
 
 	public void setSiblingsFeatures(int idxHead, int idxModifier,
 			int idxPrevModifier, int[] vals) {
-		siblingsFeatures[idxHead][idxModifier][idxPrevModifier] = vals;
+		setFactorFeatures(siblingsFactors, idxHead, idxModifier,
+				idxPrevModifier, vals);
+	}
+
+	/**
+	 * Set the derived features of the given factor. If the factor does not
+	 * exist, it is included (with no basic features).
+	 * 
+	 * @param factors
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @param vals
+	 */
+	private void setFactorFeatures(DPGSFactorTable factors, int idxHead,
+			int idxModifier, int idxThird, int[] vals) {
+		int idxFactor = factors.find(idxHead, idxModifier, idxThird);
+		if (idxFactor < 0) {
+			if (vals == null)
+				return;
+			factors.add(idxHead, idxModifier, idxThird, null);
+			factors.build();
+			idxFactor = factors.find(idxHead, idxModifier, idxThird);
+		}
+		factors.setFeatures(idxFactor, vals);
 	}
 
 	@Override
@@ -351,7 +463,11 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[][] getBasicGrandparentFeatures(int idxHead, int idxModifier,
 			int idxGrandparent) {
-		return basicGrandparentFeatures[idxHead][idxModifier][idxGrandparent];
+		int idxFactor = grandparentFactors.find(idxHead, idxModifier,
+				idxGrandparent);
+		if (idxFactor < 0)
+			return null;
+		return grandparentFactors.getBasicFeatures(idxFactor);
 	}
 
 	/**
@@ -365,6 +481,10 @@ public class DPGSInput implements ExampleInput, Serializable {
 	 */
 	public int[][] getBasicSiblingsFeatures(int idxHead, int idxModifier,
 			int idxPrevModifier) {
-		return basicSiblingsFeatures[idxHead][idxModifier][idxPrevModifier];
+		int idxFactor = siblingsFactors.find(idxHead, idxModifier,
+				idxPrevModifier);
+		if (idxFactor < 0)
+			return null;
+		return siblingsFactors.getBasicFeatures(idxFactor);
 	}
 }
@@ -4,26 +4,38 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.EdgeScoreCache;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.application.sequence.AveragedParameter;
 import br.pucrio.inf.learn.structlearning.discriminative.data.Dataset;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
+import br.pucrio.inf.learn.util.LongIntHashMap;
 
 /**
  * Represent a dependecy parsing model with gradparent and modifiers paramenters
@@ -95,6 +107,43 @@ public class DPGSModel implements Model {
 	 */
 	protected DPGSTemplate[] rightSiblingsTemplates;
 
+	/**
+	 * Optional cache of factor scores across visits to the same example.
+	 */
+	protected EdgeScoreCache scoreCache;
+
+	/**
+	 * Temporary codes of new features during feature generation are given by
+	 * <code>TEMPORARY_CODE_BASE - idx</code>, where <code>idx</code> is the
+	 * index of the new feature within its chunk.
+	 */
+	private static final int TEMPORARY_CODE_BASE = -2;
+
+	/**
+	 * Identification and version of the binary model format.
+	 */
+	static final int MODEL_MAGIC = 0x4450474d;
+
+	static final int MODEL_VERSION = 1;
+
+	/**
+	 * Template types within the binary model format.
+	 */
+	static final int TEMPLATES_EDGE = 0;
+
+	static final int TEMPLATES_GRANDPARENT = 1;
+
+	static final int TEMPLATES_SIBLINGS = 2;
+
+	/**
+	 * Explicit encoding types within the binary model format.
+	 */
+	static final byte ENCODING_MAP = 0;
+
+	static final byte ENCODING_HASHED = 1;
+
+	static final byte ENCODING_HASHED_FIXED = 2;
+
 	/**
 	 * Create a new model with the given root node.
 	 * 
@@ -129,13 +178,14 @@ public class DPGSModel implements Model {
 		for (Entry<Integer, AveragedParameter> entry : parameters.entrySet())
 			entry.setValue(entry.getValue().clone());
 
-		// Updated parameters and features are NOT copied.
+		// Updated parameters, features and cached scores are NOT copied.
 		updatedParameters = new TreeSet<AveragedParameter>();
 
 		// Explicit encoding just references the other one.
 		this.explicitEncoding = other.explicitEncoding;
 
 		// Templates.
+		this.edgeTemplates = other.edgeTemplates;
 		this.grandparentTemplates = other.grandparentTemplates;
 		this.leftSiblingsTemplates = other.leftSiblingsTemplates;
 		this.rightSiblingsTemplates = other.rightSiblingsTemplates;
@@ -169,6 +219,105 @@ public class DPGSModel implements Model {
 		return score;
 	}
 
+	/**
+	 * Return the sum of the scores of the features in the segment [
+	 * <code>from</code>, <code>to</code>) of the given array.
+	 * 
+	 * @param features
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public double getFeatureListScore(int[] features, int from, int to) {
+		double score = 0d;
+		for (int idxCode = from; idxCode < to; ++idxCode) {
+			AveragedParameter param = parameters.get(features[idxCode]);
+			if (param != null)
+				score += param.get();
+		}
+		return score;
+	}
+
+	/**
+	 * Return the number of factor slots of the given input in the score
+	 * cache: dense edge factors followed by the existing grandparent and
+	 * siblings factors.
+	 * 
+	 * @param input
+	 * @return
+	 */
+	private int getNumberOfSlots(DPGSInput input) {
+		int numTkns = input.size();
+		return numTkns * numTkns + input.getGrandparentFactors().size()
+				+ input.getSiblingsFactors().size();
+	}
+
+	/**
+	 * Return the score of the given list of features, which corresponds to the
+	 * given factor slot of the input structure. If there is a score cache, the
+	 * cached score is used when it is still valid.
+	 * 
+	 * @param input
+	 * @param slot
+	 * @param features
+	 * @return
+	 */
+	protected double getFactorScore(DPGSInput input, int slot, int[] features) {
+		if (scoreCache == null || features == null)
+			return getFeatureListScore(features);
+		double score = scoreCache.lookup(input, getNumberOfSlots(input), slot,
+				features);
+		if (Double.isNaN(score)) {
+			score = getFeatureListScore(features);
+			scoreCache.store(score);
+		}
+		return score;
+	}
+
+	/**
+	 * Return the score of the given third-order factor, which corresponds to
+	 * the given factor slot of the input structure. Return NaN if the factor
+	 * has no features.
+	 * 
+	 * @param input
+	 * @param slot
+	 * @param factors
+	 * @param idxFactor
+	 * @return
+	 */
+	private double getFactorScore(DPGSInput input, int slot,
+			DPGSFactorTable factors, int idxFactor) {
+		int from = factors.getFeaturesBegin(idxFactor);
+		if (from < 0)
+			return Double.NaN;
+		int to = factors.getFeaturesEnd(idxFactor);
+		int[] pool = factors.getFeaturePool();
+		if (scoreCache == null)
+			return getFeatureListScore(pool, from, to);
+		double score = scoreCache.lookup(input, getNumberOfSlots(input), slot,
+				pool, from, to);
+		if (Double.isNaN(score)) {
+			score = getFeatureListScore(pool, from, to);
+			scoreCache.store(score);
+		}
+		return score;
+	}
+
+	/**
+	 * Return the score of the edge factor specified by the given parameters.
+	 * 
+	 * @param input
+	 * @param idxHead
+	 * @param idxModifier
+	 * @return
+	 */
+	public double getEdgeFactorScore(DPGSInput input, int idxHead,
+			int idxModifier) {
+		int numTkns = input.size();
+		return getFactorScore(input, idxHead * numTkns + idxModifier,
+				input.getEdgeFeatures(idxHead, idxModifier));
+	}
+
 	/**
 	 * Return the score of the grandparent factor specified by the given
 	 * parameters.
@@ -181,8 +330,26 @@ public class DPGSModel implements Model {
 	 */
 	public double getGrandparentFactorScore(DPGSInput input, int idxHead,
 			int idxModifier, int idxGrandparent) {
-		return getFeatureListScore(input.getGrandparentFeatures(idxHead,
-				idxModifier, idxGrandparent));
+		int idxFactor = input.getGrandparentFactors().find(idxHead,
+				idxModifier, idxGrandparent);
+		if (idxFactor < 0)
+			return Double.NaN;
+		return getGrandparentFactorScore(input, idxFactor);
+	}
+
+	/**
+	 * Return the score of the grandparent factor with the given index in the
+	 * grandparent factor table of the input, or NaN if this factor has no
+	 * features.
+	 * 
+	 * @param input
+	 * @param idxFactor
+	 * @return
+	 */
+	public double getGrandparentFactorScore(DPGSInput input, int idxFactor) {
+		int numTkns = input.size();
+		return getFactorScore(input, numTkns * numTkns + idxFactor,
+				input.getGrandparentFactors(), idxFactor);
 	}
 
 	/**
@@ -197,8 +364,46 @@ public class DPGSModel implements Model {
 	 */
 	public double getSiblingsFactorScore(DPGSInput input, int idxHead,
 			int idxModifier, int idxSibling) {
-		return getFeatureListScore(input.getSiblingsFeatures(idxHead,
-				idxModifier, idxSibling));
+		int idxFactor = input.getSiblingsFactors().find(idxHead, idxModifier,
+				idxSibling);
+		if (idxFactor < 0)
+			return Double.NaN;
+		return getSiblingsFactorScore(input, idxFactor);
+	}
+
+	/**
+	 * Return the score of the siblings factor with the given index in the
+	 * siblings factor table of the input, or NaN if this factor has no
+	 * features.
+	 * 
+	 * @param input
+	 * @param idxFactor
+	 * @return
+	 */
+	public double getSiblingsFactorScore(DPGSInput input, int idxFactor) {
+		int numTkns = input.size();
+		return getFactorScore(input, numTkns * numTkns
+				+ input.getGrandparentFactors().size() + idxFactor,
+				input.getSiblingsFactors(), idxFactor);
+	}
+
+	/**
+	 * Set a cache to keep factor scores across visits to the same example. If
+	 * <code>null</code>, factor scores are always computed from scratch.
+	 * 
+	 * @param cache
+	 */
+	public void setScoreCache(EdgeScoreCache cache) {
+		this.scoreCache = cache;
+	}
+
+	/**
+	 * Return the factor score cache (possibly <code>null</code>).
+	 * 
+	 * @return
+	 */
+	public EdgeScoreCache getScoreCache() {
+		return scoreCache;
 	}
 
 	@Override
@@ -426,13 +631,8 @@ public class DPGSModel implements Model {
 	 */
 	protected void updateGrandparentFactorParams(DPGSInput input, int idxHead,
 			int idxModifier, int idxGrandparent, double learnRate) {
-		int[] ftrs = input.getGrandparentFeatures(idxHead, idxModifier,
-				idxGrandparent);
-		if (ftrs == null)
-			// Inexistent factor. Do nothing.
-			return;
-		for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
-			updateFeatureParam(ftrs[idxFtr], learnRate);
+		updateFactorParams(input.getGrandparentFactors(), idxHead,
+				idxModifier, idxGrandparent, learnRate);
 	}
 
 	/**
@@ -446,13 +646,29 @@ public class DPGSModel implements Model {
 	 */
 	protected void updateSiblingsFactorParams(DPGSInput input, int idxHead,
 			int idxModifier, int idxSibling, double learnRate) {
-		int[] ftrs = input
-				.getSiblingsFeatures(idxHead, idxModifier, idxSibling);
-		if (ftrs == null)
-			// Inexistent factor.
+		updateFactorParams(input.getSiblingsFactors(), idxHead, idxModifier,
+				idxSibling, learnRate);
+	}
+
+	/**
+	 * Update all feature parameters in the given third-order factor.
+	 * 
+	 * @param factors
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxThird
+	 * @param learnRate
+	 */
+	private void updateFactorParams(DPGSFactorTable factors, int idxHead,
+			int idxModifier, int idxThird, double learnRate) {
+		int idxFactor = factors.find(idxHead, idxModifier, idxThird);
+		if (idxFactor < 0 || !factors.hasFeatures(idxFactor))
+			// Inexistent factor. Do nothing.
 			return;
-		for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
-			updateFeatureParam(ftrs[idxFtr], learnRate);
+		int[] pool = factors.getFeaturePool();
+		int to = factors.getFeaturesEnd(idxFactor);
+		for (int idxFtr = factors.getFeaturesBegin(idxFactor); idxFtr < to; ++idxFtr)
+			updateFeatureParam(pool[idxFtr], learnRate);
 	}
 
 	/**
@@ -479,6 +695,10 @@ public class DPGSModel implements Model {
 
 		// Keep track of updated parameter within this example.
 		updatedParameters.add(param);
+
+		// Invalidate cached scores that depend on this parameter.
+		if (scoreCache != null)
+			scoreCache.featureUpdated(code);
 	}
 
 	@Override
@@ -486,12 +706,16 @@ public class DPGSModel implements Model {
 		for (AveragedParameter parm : updatedParameters)
 			parm.sum(iteration);
 		updatedParameters.clear();
+		if (scoreCache != null)
+			scoreCache.nextVersion();
 	}
 
 	@Override
 	public void average(int numberOfIterations) {
 		for (AveragedParameter param : parameters.values())
 			param.average(numberOfIterations);
+		if (scoreCache != null)
+			scoreCache.clear();
 	}
 
 	@Override
@@ -527,6 +751,8 @@ public class DPGSModel implements Model {
 			}
 			param.increment(val * weight);
 		}
+		if (scoreCache != null)
+			scoreCache.clear();
 	}
 
 	/**
@@ -538,6 +764,16 @@ public class DPGSModel implements Model {
 		return explicitEncoding;
 	}
 
+	/**
+	 * Set the encoding of derived features. It must be called before features
+	 * are generated.
+	 * 
+	 * @param explicitEncoding
+	 */
+	public void setExplicitFeatureEncoding(MapEncoding<Feature> explicitEncoding) {
+		this.explicitEncoding = explicitEncoding;
+	}
+
 	public DPGSTemplate[] loadEdgeTemplates(BufferedReader reader,
 			DPGSDataset dataset) throws IOException, DPGSException {
 		LinkedList<DPGSTemplate> templatesList = new LinkedList<DPGSTemplate>();
@@ -647,251 +883,520 @@ public class DPGSModel implements Model {
 		reader.close();
 	}
 
-	protected void instantiateSiblingsFeatures(DPGSInput input, int idxHead,
-			int idxModifier, int idxPrevModifier) {
-		// Skip non-existent edges.
-		if (input.getBasicSiblingsFeatures(idxHead, idxModifier,
-				idxPrevModifier) == null)
-			return;
+	/**
+	 * Generate derived features for the input structures in the given dataset (
+	 * <code>dataset</code>) using one thread per available processor. The
+	 * derived features are specified by this model templates.
+	 * 
+	 * @param dataset
+	 */
+	public void generateFeatures(DPGSDataset dataset) {
+		generateFeatures(dataset, Runtime.getRuntime().availableProcessors());
+	}
 
-		// List of generated features for the current factor.
-		LinkedList<Integer> ftrs = new LinkedList<Integer>();
+	/**
+	 * Generate derived features for the input structures in the given dataset (
+	 * <code>dataset</code>) using the given number of threads. The derived
+	 * features are specified by this model templates.
+	 * 
+	 * Examples are split in contiguous chunks that are processed in parallel.
+	 * Features already present in the explicit encoding are looked up
+	 * concurrently (the encoding is not modified in this phase). Each chunk
+	 * keeps its own map of new features and marks their occurrences with
+	 * temporary (negative) codes. Afterwards, the new features are included in
+	 * the encoding following the chunk order and the temporary codes are
+	 * replaced. Thus, the resulting codes are the same as the ones given by a
+	 * sequential generation.
+	 * 
+	 * If the explicit encoding is a {@link HashedFeatureEncoding}, features are
+	 * looked up by their fingerprints and feature objects are only created for
+	 * new features.
+	 * 
+	 * @param dataset
+	 * @param numberOfThreads
+	 */
+	public void generateFeatures(DPGSDataset dataset, int numberOfThreads) {
+		int numExs = dataset.getNumberOfExamples();
+		if (numExs == 0)
+			return;
+		int numThreads = Math.max(1, numberOfThreads);
+
+		// Split examples in chunks.
+		int numChunks = Math.min(numExs, numThreads * 8);
+		FeatureGenerationTask[] tasks = new FeatureGenerationTask[numChunks];
+		AtomicInteger progress = new AtomicInteger();
+		for (int idxChunk = 0; idxChunk < numChunks; ++idxChunk) {
+			int first = (int) (((long) idxChunk) * numExs / numChunks);
+			int end = (int) (((long) idxChunk + 1) * numExs / numChunks);
+			tasks[idxChunk] = new FeatureGenerationTask(dataset, first, end,
+					progress);
+		}
 
-		/*
-		 * Instantiate edge features and add them to active features list.
-		 */
-		for (int idxTpl = 0; idxTpl < grandparentTemplates.length; ++idxTpl) {
-			DPSiblingsTemplate tpl = (DPSiblingsTemplate) leftSiblingsTemplates[idxTpl];
+		if (numThreads == 1) {
+			for (FeatureGenerationTask task : tasks)
+				task.call();
+		} else {
+			ExecutorService executor = Executors
+					.newFixedThreadPool(numThreads);
 			try {
-				tpl.instantiateSiblingsDerivedFeatures(input, ftrs,
-						explicitEncoding, idxHead, idxModifier, idxPrevModifier);
-			} catch (CloneNotSupportedException e) {
-				LOG.error("Instantiating feature", e);
+				List<Future<Object>> results = executor.invokeAll(Arrays
+						.asList(tasks));
+				for (Future<Object> result : results)
+					result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Feature generation interrupted", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Generating features",
+						e.getCause());
+			} finally {
+				executor.shutdown();
 			}
 		}
 
-		// Set feature vector of this input.
-		int numFtrs = ftrs.size();
-		int[] ftrVals = new int[numFtrs];
-		Iterator<Integer> itFtrVals = ftrs.iterator();
-		for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr)
-			ftrVals[idxFtr] = itFtrVals.next();
-		input.setSiblingsFeatures(idxHead, idxModifier, idxPrevModifier,
-				ftrVals);
+		// Encode new features and replace temporary codes (in chunk order).
+		for (FeatureGenerationTask task : tasks) {
+			List<Feature> newFeatures = task.newFeatures;
+			int numNewFtrs = newFeatures.size();
+			if (numNewFtrs == 0)
+				continue;
+			int[] codes = new int[numNewFtrs];
+			for (int idxFtr = 0; idxFtr < numNewFtrs; ++idxFtr)
+				codes[idxFtr] = explicitEncoding.put(newFeatures.get(idxFtr));
+			for (int idxEx = task.firstExample; idxEx < task.endExample; ++idxEx) {
+				DPGSInput input = dataset.getInput(idxEx);
+				int numTkns = input.size();
+				for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+					for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+						int[] ftrs = input.getEdgeFeatures(idxHead,
+								idxModifier);
+						if (ftrs != null)
+							replaceTemporaryCodes(ftrs, 0, ftrs.length, codes);
+					}
+				}
+				replaceTemporaryCodes(input.getGrandparentFactors(), codes);
+				replaceTemporaryCodes(input.getSiblingsFactors(), codes);
+			}
+		}
+
+		System.out.println();
+		System.out.flush();
 	}
 
 	/**
-	 * Generate derived features for the input structures in the given dataset (
-	 * <code>dataset</code>). The derived features are specified by this model
-	 * templates.
+	 * Replace the temporary codes in the derived features of the given factor
+	 * table.
 	 * 
-	 * @param dataset
+	 * @param factors
+	 * @param codes
+	 *            final code of each temporary code.
 	 */
-	public void generateFeatures(DPGSDataset dataset) {
-		// // TODO test
-		// int[] ftrs0 = new int[] { 0 };
-		// int[] ftrs1 = new int[] { 1 };
+	private static void replaceTemporaryCodes(DPGSFactorTable factors,
+			int[] codes) {
+		int[] pool = factors.getFeaturePool();
+		int numFactors = factors.size();
+		for (int idxFactor = 0; idxFactor < numFactors; ++idxFactor)
+			if (factors.hasFeatures(idxFactor))
+				replaceTemporaryCodes(pool, factors.getFeaturesBegin(idxFactor),
+						factors.getFeaturesEnd(idxFactor), codes);
+	}
 
-		// Number of examples in the given dataset.
-		int numExs = dataset.getNumberOfExamples();
+	/**
+	 * Replace the temporary codes in the segment [<code>from</code>,
+	 * <code>to</code>) of the given array.
+	 * 
+	 * @param ftrs
+	 * @param from
+	 * @param to
+	 * @param codes
+	 *            final code of each temporary code.
+	 */
+	private static void replaceTemporaryCodes(int[] ftrs, int from, int to,
+			int[] codes) {
+		for (int idxFtr = from; idxFtr < to; ++idxFtr)
+			if (ftrs[idxFtr] <= TEMPORARY_CODE_BASE)
+				ftrs[idxFtr] = codes[TEMPORARY_CODE_BASE - ftrs[idxFtr]];
+	}
 
-		for (int idxEx = 0; idxEx < numExs; ++idxEx) {
-			// Current input structure.
-			DPGSInput input = dataset.getInput(idxEx);
+	/**
+	 * Generate derived features for a contiguous chunk of examples. Each task
+	 * uses its own temporary features and code buffer, so tasks can run in
+	 * parallel as long as the explicit encoding is not modified.
+	 * 
+	 * @author eraldo
+	 * 
+	 */
+	private class FeatureGenerationTask implements Callable<Object> {
+		/**
+		 * Dataset whose examples are processed.
+		 */
+		private final DPGSDataset dataset;
 
-			// // TODO test
-			// DPGSOutput output = dataset.getOutput(idxEx);
+		/**
+		 * First example of this chunk.
+		 */
+		private final int firstExample;
 
-			// Number of tokens within the current input.
-			int numTkns = input.size();
+		/**
+		 * Example after the last one of this chunk.
+		 */
+		private final int endExample;
 
-			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
-				for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
-					//
-					// Edge features.
-					//
-					if (input.getBasicEdgeFeatures(idxHead, idxModifier) != null) {
-						// List of generated features for the current factor.
-						LinkedList<Integer> ftrs = new LinkedList<Integer>();
+		/**
+		 * Number of examples processed by all tasks (progress report).
+		 */
+		private final AtomicInteger progress;
 
-						/*
-						 * Instantiate edge features and add them to active
-						 * features list.
-						 */
-						for (int idxTpl = 0; idxTpl < edgeTemplates.length; ++idxTpl) {
-							DPEdgeTemplate tpl = (DPEdgeTemplate) edgeTemplates[idxTpl];
-							try {
-								tpl.instantiateEdgeDerivedFeatures(input, ftrs,
-										explicitEncoding, idxHead, idxModifier);
-							} catch (CloneNotSupportedException e) {
-								LOG.error("Instantiating feature", e);
-							}
-						}
-
-						// Convert the list of feature codes to an array.
-						int numFtrs = ftrs.size();
-						int[] ftrVals = new int[numFtrs];
-						Iterator<Integer> itFtrVals = ftrs.iterator();
-						for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr)
-							ftrVals[idxFtr] = itFtrVals.next();
-
-						// Set feature vector of this input.
-						input.setEdgeFeatures(idxHead, idxModifier, ftrVals);
-
-						// // TODO test
-						// if (output.getHead(idxModifier) == idxHead)
-						// input.setEdgeFeatures(idxHead, idxModifier, ftrs1);
-						// else
-						// input.setEdgeFeatures(idxHead, idxModifier, ftrs0);
-					}
+		/**
+		 * Features that are not present in the explicit encoding, in order of
+		 * first occurrence within this chunk.
+		 */
+		private final List<Feature> newFeatures;
 
-					//
-					// Grandparent features.
-					//
-					for (int idxGrandparent = 0; idxGrandparent < numTkns; ++idxGrandparent) {
-						// Skip non-existent edges.
-						if (input.getBasicGrandparentFeatures(idxHead,
-								idxModifier, idxGrandparent) == null)
-							continue;
+		/**
+		 * Temporary code of each new feature of this chunk.
+		 */
+		private Map<Feature, Integer> newCodes;
 
-						// List of generated features for the current factor.
-						LinkedList<Integer> ftrs = new LinkedList<Integer>();
+		/**
+		 * Fingerprint-based encoding (<code>null</code> if the explicit
+		 * encoding is not fingerprint based).
+		 */
+		private HashedFeatureEncoding hashedEncoding;
 
-						/*
-						 * Instantiate edge features and add them to active
-						 * features list.
-						 */
-						for (int idxTpl = 0; idxTpl < grandparentTemplates.length; ++idxTpl) {
-							DPGrandparentTemplate tpl = (DPGrandparentTemplate) grandparentTemplates[idxTpl];
-							try {
-								tpl.instantiateGrandparentDerivedFeatures(
-										input, ftrs, explicitEncoding, idxHead,
-										idxModifier, idxGrandparent);
-							} catch (CloneNotSupportedException e) {
-								LOG.error("Instantiating feature", e);
-							}
-						}
-
-						// Set feature vector of this input.
-						int numFtrs = ftrs.size();
-						int[] ftrVals = new int[numFtrs];
-						Iterator<Integer> itFtrVals = ftrs.iterator();
-						for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr)
-							ftrVals[idxFtr] = itFtrVals.next();
-						input.setGrandparentFeatures(idxHead, idxModifier,
-								idxGrandparent, ftrVals);
-
-						// // TODO test
-						// if (output.getHead(idxModifier) == idxHead
-						// && output.getHead(idxHead) == idxGrandparent)
-						// input.setGrandparentFeatures(idxHead, idxModifier,
-						// idxGrandparent, ftrs1);
-						// else
-						// input.setGrandparentFeatures(idxHead, idxModifier,
-						// idxGrandparent, ftrs0);
-					}
-				}
+		/**
+		 * Temporary code of each new fingerprint of this chunk.
+		 */
+		private LongIntHashMap newFingerprints;
+
+		/**
+		 * Codes of the current factor.
+		 */
+		private int[] codes;
+
+		/**
+		 * Number of codes of the current factor.
+		 */
+		private int numCodes;
+
+		public FeatureGenerationTask(DPGSDataset dataset, int firstExample,
+				int endExample, AtomicInteger progress) {
+			this.dataset = dataset;
+			this.firstExample = firstExample;
+			this.endExample = endExample;
+			this.progress = progress;
+			this.newFeatures = new ArrayList<Feature>();
+		}
+
+		@Override
+		public Object call() {
+			// Temporary features of this task.
+			Feature[] edgeFtrs = createTemporaryFeatures(edgeTemplates);
+			Feature[] gpFtrs = createTemporaryFeatures(grandparentTemplates);
+			Feature[] lsFtrs = createTemporaryFeatures(leftSiblingsTemplates);
+			Feature[] rsFtrs = createTemporaryFeatures(rightSiblingsTemplates);
+
+			newCodes = new HashMap<Feature, Integer>();
+			if (explicitEncoding instanceof HashedFeatureEncoding) {
+				hashedEncoding = (HashedFeatureEncoding) explicitEncoding;
+				newFingerprints = new LongIntHashMap(
+						FeatureEncoding.UNSEEN_VALUE_CODE);
+			}
+			codes = new int[64];
+
+			for (int idxEx = firstExample; idxEx < endExample; ++idxEx) {
+				// Current input structure.
+				DPGSInput input = dataset.getInput(idxEx);
+
+				// Number of tokens within the current input.
+				int numTkns = input.size();
 
 				//
-				// Left siblings features.
+				// Edge features.
 				//
-
-				// // TODO test
-				// int previousCorrectModifier = idxHead;
-
-				for (int idxModifier = 0; idxModifier <= idxHead; ++idxModifier) {
-					// Special factors: (idxHead, idxModifier, START).
-					instantiateSiblingsFeatures(input, idxHead, idxModifier,
-							idxHead);
-
-					// // TODO test
-					// boolean isModifier = (idxModifier == idxHead || output
-					// .getHead(idxModifier) == idxHead);
-					// if (isModifier && previousCorrectModifier == idxHead)
-					// input.setSiblingsFeatures(idxHead, idxModifier,
-					// idxHead, ftrs1);
-					// else
-					// input.setSiblingsFeatures(idxHead, idxModifier,
-					// idxHead, ftrs0);
-
-					// Remaining factors.
-					for (int idxPrevModifier = 0; idxPrevModifier < idxModifier; ++idxPrevModifier) {
-						instantiateSiblingsFeatures(input, idxHead,
-								idxModifier, idxPrevModifier);
-
-						// // TODO test
-						// if (isModifier
-						// && previousCorrectModifier == idxPrevModifier)
-						// input.setSiblingsFeatures(idxHead, idxModifier,
-						// idxPrevModifier, ftrs1);
-						// else
-						// input.setSiblingsFeatures(idxHead, idxModifier,
-						// idxPrevModifier, ftrs0);
+				for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+					for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+						int[][] basicFeatures = input.getBasicEdgeFeatures(
+								idxHead, idxModifier);
+						if (basicFeatures == null)
+							continue;
+						numCodes = 0;
+						instantiate(edgeTemplates, edgeFtrs, basicFeatures);
+						input.setEdgeFeatures(idxHead, idxModifier,
+								Arrays.copyOf(codes, numCodes));
 					}
-
-					// // TODO test
-					// if (isModifier)
-					// previousCorrectModifier = idxModifier;
 				}
 
 				//
-				// Right siblings features.
+				// Grandparent and siblings features (only existing factors).
 				//
+				DPGSFactorTable factors = input.getGrandparentFactors();
+				int numFactors = factors.size();
+				for (int idxFactor = 0; idxFactor < numFactors; ++idxFactor) {
+					int[][] basicFeatures = factors.getBasicFeatures(idxFactor);
+					if (basicFeatures == null)
+						continue;
+					numCodes = 0;
+					instantiate(grandparentTemplates, gpFtrs, basicFeatures);
+					factors.setFeatures(idxFactor, codes, numCodes);
+				}
+				factors.trim();
+
+				factors = input.getSiblingsFactors();
+				numFactors = factors.size();
+				for (int idxFactor = 0; idxFactor < numFactors; ++idxFactor) {
+					int[][] basicFeatures = factors.getBasicFeatures(idxFactor);
+					if (basicFeatures == null)
+						continue;
+					numCodes = 0;
+					if (factors.getModifier(idxFactor) <= factors
+							.getHead(idxFactor))
+						instantiate(leftSiblingsTemplates, lsFtrs,
+								basicFeatures);
+					else
+						instantiate(rightSiblingsTemplates, rsFtrs,
+								basicFeatures);
+					factors.setFeatures(idxFactor, codes, numCodes);
+				}
+				factors.trim();
 
-				// // TODO teste
-				// previousCorrectModifier = numTkns;
-
-				for (int idxModifier = idxHead + 1; idxModifier <= numTkns; ++idxModifier) {
-					// Special factors: (idxHead, idxModifier, START).
-					instantiateSiblingsFeatures(input, idxHead, idxModifier,
-							numTkns);
-
-					// // TODO test
-					// boolean isModifier = (idxModifier == numTkns || output
-					// .getHead(idxModifier) == idxHead);
-					// if (isModifier && previousCorrectModifier == numTkns)
-					// input.setSiblingsFeatures(idxHead, idxModifier,
-					// numTkns, ftrs1);
-					// else
-					// input.setSiblingsFeatures(idxHead, idxModifier,
-					// numTkns, ftrs0);
-
-					// Remaining factors.
-					for (int idxPrevModifier = idxHead + 1; idxPrevModifier < idxModifier; ++idxPrevModifier) {
-						instantiateSiblingsFeatures(input, idxHead,
-								idxModifier, idxPrevModifier);
-
-						// // TODO test
-						// if (isModifier
-						// && idxPrevModifier == previousCorrectModifier)
-						// input.setSiblingsFeatures(idxHead, idxModifier,
-						// idxPrevModifier, ftrs1);
-						// else
-						// input.setSiblingsFeatures(idxHead, idxModifier,
-						// idxPrevModifier, ftrs0);
-					}
+				// Progess report.
+				if (progress.incrementAndGet() % 100 == 0) {
+					System.out.print('.');
+					System.out.flush();
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Create one temporary feature for each given template. The last
+		 * value of each feature is the template type.
+		 * 
+		 * @param templates
+		 * @return
+		 */
+		private Feature[] createTemporaryFeatures(DPGSTemplate[] templates) {
+			if (templates == null)
+				return null;
+			Feature[] ftrs = new Feature[templates.length];
+			for (int idxTpl = 0; idxTpl < templates.length; ++idxTpl)
+				ftrs[idxTpl] = new Feature(templates[idxTpl].getIndex(),
+						templates[idxTpl].tempFeature.getValues().clone());
+			return ftrs;
+		}
 
-					// // TODO test
-					// if (isModifier)
-					// previousCorrectModifier = idxModifier;
+		/**
+		 * Instantiate the derived features of all given templates for a factor
+		 * with the given basic features and append their codes to the code
+		 * buffer.
+		 * 
+		 * @param templates
+		 * @param tmpFtrs
+		 * @param basicFeatures
+		 */
+		private void instantiate(DPGSTemplate[] templates, Feature[] tmpFtrs,
+				int[][] basicFeatures) {
+			for (int idxTpl = 0; idxTpl < templates.length; ++idxTpl)
+				instantiate(templates[idxTpl].getFeatures(), tmpFtrs[idxTpl],
+						basicFeatures, 0);
+		}
+
+		/**
+		 * Instantiate the conjunction of the values of the basic features
+		 * given by <code>featureIndexes</code>, starting at position
+		 * <code>idxFtrInTemplate</code>, and append their codes to the code
+		 * buffer.
+		 * 
+		 * @param featureIndexes
+		 * @param tmpFtr
+		 * @param basicFeatures
+		 * @param idxFtrInTemplate
+		 */
+		private void instantiate(int[] featureIndexes, Feature tmpFtr,
+				int[][] basicFeatures, int idxFtrInTemplate) {
+			int[] ftrs = basicFeatures[featureIndexes[idxFtrInTemplate]];
+			int numFtrs = ftrs.length;
+			int[] vals = tmpFtr.getValues();
+			boolean last = (idxFtrInTemplate == featureIndexes.length - 1);
+			for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr) {
+				vals[idxFtrInTemplate] = ftrs[idxFtr];
+				if (last)
+					addCode(lookup(tmpFtr));
+				else
+					instantiate(featureIndexes, tmpFtr, basicFeatures,
+							idxFtrInTemplate + 1);
+			}
+		}
+
+		/**
+		 * Return the code of the given (temporary) feature. New features get a
+		 * temporary code that is replaced after all chunks are processed.
+		 * 
+		 * @param ftr
+		 * @return
+		 */
+		private int lookup(Feature ftr) {
+			if (hashedEncoding != null) {
+				long fp = HashedFeatureEncoding.fingerprint(
+						ftr.getTemplateIndex(), ftr.getValues());
+				int code = hashedEncoding.getCodeByFingerprint(fp);
+				if (code != FeatureEncoding.UNSEEN_VALUE_CODE)
+					return code;
+				code = newFingerprints.get(fp);
+				if (code == FeatureEncoding.UNSEEN_VALUE_CODE) {
+					code = TEMPORARY_CODE_BASE - newFeatures.size();
+					newFeatures.add(new Feature(ftr.getTemplateIndex(), ftr
+							.getValues().clone()));
+					newFingerprints.put(fp, code);
 				}
+				return code;
 			}
 
-			// Progess report.
-			if ((idxEx + 1) % 100 == 0) {
-				System.out.print('.');
-				System.out.flush();
+			int code = explicitEncoding.getCodeByValue(ftr);
+			if (code != FeatureEncoding.UNSEEN_VALUE_CODE)
+				return code;
+			Integer tmpCode = newCodes.get(ftr);
+			if (tmpCode == null) {
+				tmpCode = TEMPORARY_CODE_BASE - newFeatures.size();
+				Feature newFtr = new Feature(ftr.getTemplateIndex(), ftr
+						.getValues().clone());
+				newFeatures.add(newFtr);
+				newCodes.put(newFtr, tmpCode);
 			}
+			return tmpCode;
 		}
 
-		System.out.println();
-		System.out.flush();
+		/**
+		 * Append the given code to the code buffer of the current factor.
+		 * 
+		 * @param code
+		 */
+		private void addCode(int code) {
+			if (numCodes == codes.length)
+				codes = Arrays.copyOf(codes, 2 * codes.length);
+			codes[numCodes++] = code;
+		}
 	}
 
+	/**
+	 * Save this model to the given binary file. See
+	 * {@link #save(String, DPGSDataset)}.
+	 */
 	@Override
 	public void save(String fileName, Dataset dataset) throws IOException,
 			FileNotFoundException {
-		throw new NotImplementedException();
+		save(fileName, (DPGSDataset) dataset);
+	}
+
+	/**
+	 * Save this model to the given binary file, which can be loaded by
+	 * {@link DPGSFixedModel}. The file comprises the templates (as lists of
+	 * feature labels of the given dataset), the basic feature encoding of the
+	 * dataset, the explicit feature encoding (or its hashing parameters) and
+	 * the non-zero weights as two parallel arrays (codes and values).
+	 * 
+	 * The current weights are saved. Thus, an averaged model must be averaged
+	 * before being saved.
+	 * 
+	 * @param fileName
+	 * @param dataset
+	 *            dataset used to train this model.
+	 * @throws IOException
+	 */
+	public void save(String fileName, DPGSDataset dataset) throws IOException {
+		BinaryFileWriter writer = new BinaryFileWriter(fileName);
+		writer.writeInt(MODEL_MAGIC);
+		writer.writeInt(MODEL_VERSION);
+		writer.writeInt(root);
+
+		// Templates.
+		writeTemplates(writer, edgeTemplates, dataset, TEMPLATES_EDGE);
+		writeTemplates(writer, grandparentTemplates, dataset,
+				TEMPLATES_GRANDPARENT);
+		writeTemplates(writer, leftSiblingsTemplates, dataset,
+				TEMPLATES_SIBLINGS);
+		writeTemplates(writer, rightSiblingsTemplates, dataset,
+				TEMPLATES_SIBLINGS);
+
+		// Basic feature values in the order of their codes.
+		FeatureEncoding<String> basicEncoding = dataset.getFeatureEncoding();
+		int numVals = basicEncoding.size();
+		writer.writeInt(numVals);
+		for (int code = 0; code < numVals; ++code)
+			writer.writeString(basicEncoding.getValueByCode(code));
+
+		// Explicit features in the order of their codes.
+		if (explicitEncoding instanceof HashedFeatureEncoding
+				&& ((HashedFeatureEncoding) explicitEncoding).isFixedSize()) {
+			writer.writeByte(ENCODING_HASHED_FIXED);
+			writer.writeInt(explicitEncoding.size());
+		} else {
+			if (explicitEncoding instanceof HashedFeatureEncoding)
+				writer.writeByte(ENCODING_HASHED);
+			else
+				writer.writeByte(ENCODING_MAP);
+			int numFtrs = explicitEncoding.size();
+			writer.writeInt(numFtrs);
+			for (int code = 0; code < numFtrs; ++code) {
+				Feature ftr = explicitEncoding.getValueByCode(code);
+				writer.writeInt(ftr.getTemplateIndex());
+				writer.writeIntArray(ftr.getValues());
+			}
+		}
+
+		// Non-zero weights (parallel arrays).
+		int[] codes = new int[parameters.size()];
+		double[] weights = new double[codes.length];
+		int numWeights = 0;
+		for (Entry<Integer, AveragedParameter> entry : parameters.entrySet()) {
+			double weight = entry.getValue().get();
+			if (weight == 0d)
+				continue;
+			codes[numWeights] = entry.getKey();
+			weights[numWeights] = weight;
+			++numWeights;
+		}
+		writer.writeInt(numWeights);
+		writer.writeInts(codes, 0, numWeights);
+		writer.writeDoubles(weights, 0, numWeights);
+
+		writer.close();
+	}
+
+	/**
+	 * Write the given templates as lists of feature labels.
+	 * 
+	 * @param writer
+	 * @param templates
+	 * @param dataset
+	 * @param type
+	 *            type of the templates, which defines the feature labels.
+	 * @throws IOException
+	 */
+	private static void writeTemplates(BinaryFileWriter writer,
+			DPGSTemplate[] templates, DPGSDataset dataset, int type)
+			throws IOException {
+		if (templates == null) {
+			writer.writeInt(0);
+			return;
+		}
+		writer.writeInt(templates.length);
+		for (DPGSTemplate tpl : templates) {
+			int[] ftrs = tpl.getFeatures();
+			writer.writeInt(ftrs.length);
+			for (int idxFtr : ftrs) {
+				String label;
+				if (type == TEMPLATES_EDGE)
+					label = dataset.getEdgeFeatureLabel(idxFtr);
+				else if (type == TEMPLATES_GRANDPARENT)
+					label = dataset.getGrandparentFeatureLabel(idxFtr);
+				else
+					label = dataset.getSiblingsFeatureLabel(idxFtr);
+				writer.writeString(label);
+			}
+		}
 	}
 
 	/**
@@ -0,0 +1,343 @@
+package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
+
+/**
+ * Coarse-to-fine pruning for the grandparent/siblings parser. A first-order
+ * model (the edge factors of a dedicated pruning model or of the model being
+ * used in the inference itself) scores all edges of a sentence and, for each
+ * modifier, only the best scored heads are kept. Grandparent and siblings
+ * factors that include a pruned edge are neither scored nor considered by the
+ * inference algorithms (their weights are NaN).
+ * 
+ * Under the first-order head-selection relaxation (each modifier chooses its
+ * head independently), the max-marginal of an edge (h, m) is its own score
+ * plus a constant that depends only on m. Thus, ranking the heads of each
+ * modifier by their max-marginals is the same as ranking them by their edge
+ * scores, which is what this pruner does.
+ * 
+ * An edge (h, m) is kept only if (1) it is among the
+ * <code>maxHeadsPerModifier</code> best scored heads of m and (2) its score is
+ * not much lower than the best score of m, i.e.,
+ * <code>exp(score - bestScore) >= scoreRatio</code>. The best head of each
+ * modifier is always kept.
+ * 
+ * A pruner does not keep any state during pruning, thus it can be shared by
+ * the training and the test inference objects.
+ * 
+ * @author eraldo
+ * 
+ */
+public class DPGSPruner {
+
+	/**
+	 * Model used to score the edges for pruning. If it is <code>null</code>,
+	 * the edge factors of the inference model are used.
+	 */
+	private DPGSModel pruningModel;
+
+	/**
+	 * Maximum number of heads kept for each modifier.
+	 */
+	private int maxHeadsPerModifier;
+
+	/**
+	 * Minimum ratio <code>exp(score - bestScore)</code> for an edge to be kept.
+	 * Zero means no threshold.
+	 */
+	private double scoreRatio;
+
+	/**
+	 * Fraction of edges kept in the last call to
+	 * <code>computeOracleAccuracy</code>.
+	 */
+	private double lastEdgeRatio;
+
+	/**
+	 * Fraction of grandparent and siblings factors kept in the last call to
+	 * <code>computeOracleAccuracy</code>.
+	 */
+	private double lastFactorRatio;
+
+	/**
+	 * Create a pruner that keeps at most <code>maxHeadsPerModifier</code> heads
+	 * per modifier. Further, edges whose score ratio (w.r.t. the best head of
+	 * the same modifier) is less than <code>scoreRatio</code> are also pruned.
+	 * 
+	 * @param maxHeadsPerModifier
+	 * @param scoreRatio
+	 */
+	public DPGSPruner(int maxHeadsPerModifier, double scoreRatio) {
+		if (maxHeadsPerModifier < 1)
+			throw new IllegalArgumentException(
+					"Number of heads per modifier must be positive");
+		this.maxHeadsPerModifier = maxHeadsPerModifier;
+		this.scoreRatio = scoreRatio;
+	}
+
+	/**
+	 * Set the model used to score edges for pruning. If it is
+	 * <code>null</code>, the edge factors of the inference model are used.
+	 * 
+	 * @param pruningModel
+	 */
+	public void setPruningModel(DPGSModel pruningModel) {
+		this.pruningModel = pruningModel;
+	}
+
+	/**
+	 * Return the model used to score edges for pruning (possibly
+	 * <code>null</code>).
+	 * 
+	 * @return
+	 */
+	public DPGSModel getPruningModel() {
+		return pruningModel;
+	}
+
+	/**
+	 * Return the model that must be used to fill the edge weights before
+	 * calling {@link #prune(DPGSModel, DPGSInput, double[][], boolean[][])}.
+	 * 
+	 * @param model
+	 *            the inference model.
+	 * @return
+	 */
+	public DPGSModel getScoringModel(DPGSModel model) {
+		if (pruningModel != null)
+			return pruningModel;
+		return model;
+	}
+
+	public int getMaxHeadsPerModifier() {
+		return maxHeadsPerModifier;
+	}
+
+	public double getScoreRatio() {
+		return scoreRatio;
+	}
+
+	/**
+	 * Prune the edges of the given input. The edge weights must have been
+	 * computed by the model returned by {@link #getScoringModel(DPGSModel)}.
+	 * Pruned edges get a NaN weight and <code>keep[h][m]</code> is set to
+	 * <code>true</code> only for the remaining edges. If there is a dedicated
+	 * pruning model, the remaining edges are then rescored by the given
+	 * inference model.
+	 * 
+	 * @param model
+	 *            the inference model.
+	 * @param input
+	 * @param edgeWeights
+	 * @param keep
+	 * @return the number of remaining edges.
+	 */
+	public int prune(DPGSModel model, DPGSInput input, double[][] edgeWeights,
+			boolean[][] keep) {
+		return prune(model, input, edgeWeights, keep, pruningModel != null);
+	}
+
+	/**
+	 * Prune the edges of the given input and, if <code>rescore</code> is
+	 * <code>true</code>, rescore the remaining edges by the given model.
+	 * 
+	 * @param model
+	 * @param input
+	 * @param edgeWeights
+	 * @param keep
+	 * @param rescore
+	 * @return the number of remaining edges.
+	 */
+	private int prune(DPGSModel model, DPGSInput input,
+			double[][] edgeWeights, boolean[][] keep, boolean rescore) {
+		int numTkns = input.size();
+		int[] bestHeads = new int[maxHeadsPerModifier];
+		double[] bestScores = new double[maxHeadsPerModifier];
+		int numEdges = 0;
+		for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+			// Best heads sorted by decreasing score (insertion sort).
+			int size = 0;
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+				keep[idxHead][idxModifier] = false;
+				double score = edgeWeights[idxHead][idxModifier];
+				if (Double.isNaN(score))
+					continue;
+				if (size == maxHeadsPerModifier
+						&& score <= bestScores[size - 1])
+					continue;
+				int pos = (size < maxHeadsPerModifier ? size++ : size - 1);
+				while (pos > 0 && bestScores[pos - 1] < score) {
+					bestHeads[pos] = bestHeads[pos - 1];
+					bestScores[pos] = bestScores[pos - 1];
+					--pos;
+				}
+				bestHeads[pos] = idxHead;
+				bestScores[pos] = score;
+			}
+
+			// Minimum score of a kept head.
+			double minScore = Double.NEGATIVE_INFINITY;
+			if (size > 0 && scoreRatio > 0d)
+				minScore = bestScores[0] + Math.log(scoreRatio);
+			for (int idx = 0; idx < size && bestScores[idx] >= minScore; ++idx) {
+				keep[bestHeads[idx]][idxModifier] = true;
+				++numEdges;
+			}
+
+			// Prune the remaining heads and rescore the kept ones.
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+				if (!keep[idxHead][idxModifier])
+					edgeWeights[idxHead][idxModifier] = Double.NaN;
+				else if (rescore)
+					edgeWeights[idxHead][idxModifier] = model
+							.getEdgeFactorScore(input, idxHead, idxModifier);
+			}
+		}
+		return numEdges;
+	}
+
+	/**
+	 * Return whether the grandparent factor (idxHead, idxModifier,
+	 * idxGrandparent) survives the pruning given by <code>keep</code>, i.e.,
+	 * both of its edges are kept.
+	 * 
+	 * @param keep
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxGrandparent
+	 * @return
+	 */
+	public static boolean isGrandparentFactorKept(boolean[][] keep,
+			int idxHead, int idxModifier, int idxGrandparent) {
+		return keep[idxHead][idxModifier]
+				&& (idxGrandparent == idxHead || keep[idxGrandparent][idxHead]);
+	}
+
+	/**
+	 * Return whether the siblings factor (idxHead, idxModifier,
+	 * idxPreviousModifier) survives the pruning given by <code>keep</code>,
+	 * i.e., the edges to both modifiers are kept. The special START/END
+	 * indexes (<code>idxHead</code> and <code>numTkns</code>) do not
+	 * correspond to edges.
+	 * 
+	 * @param keep
+	 * @param numTkns
+	 * @param idxHead
+	 * @param idxModifier
+	 * @param idxPreviousModifier
+	 * @return
+	 */
+	public static boolean isSiblingsFactorKept(boolean[][] keep, int numTkns,
+			int idxHead, int idxModifier, int idxPreviousModifier) {
+		if (idxModifier != idxHead && idxModifier != numTkns
+				&& !keep[idxHead][idxModifier])
+			return false;
+		if (idxPreviousModifier != idxHead && idxPreviousModifier != numTkns
+				&& !keep[idxHead][idxPreviousModifier])
+			return false;
+		return true;
+	}
+
+	/**
+	 * Compute the oracle accuracy of this pruner on the given examples, i.e.,
+	 * the fraction of modifiers whose correct head survives the pruning. This
+	 * is an upper bound on the attachment accuracy of the pruned parser.
+	 * Additionally, compute the fraction of kept edges and the fraction of
+	 * kept grandparent and siblings factors (see
+	 * <code>getLastEdgeRatio()</code> and <code>getLastFactorRatio()</code>).
+	 * 
+	 * @param model
+	 *            the inference model (used when there is no pruning model).
+	 * @param inputs
+	 * @param outputs
+	 * @return
+	 */
+	public double computeOracleAccuracy(DPGSModel model, DPGSInput[] inputs,
+			DPGSOutput[] outputs) {
+		DPGSModel scoringModel = getScoringModel(model);
+		long numCovered = 0;
+		long numModifiers = 0;
+		long numEdges = 0;
+		long numKeptEdges = 0;
+		long numFactors = 0;
+		long numKeptFactors = 0;
+		for (int idxEx = 0; idxEx < inputs.length; ++idxEx) {
+			DPGSInput input = inputs[idxEx];
+			DPGSOutput output = outputs[idxEx];
+			int numTkns = input.size();
+			double[][] weights = new double[numTkns][numTkns];
+			boolean[][] keep = new boolean[numTkns][numTkns];
+			for (int idxHead = 0; idxHead < numTkns; ++idxHead) {
+				for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+					weights[idxHead][idxModifier] = scoringModel
+							.getEdgeFactorScore(input, idxHead, idxModifier);
+					if (!Double.isNaN(weights[idxHead][idxModifier]))
+						++numEdges;
+				}
+			}
+
+			/*
+			 * Only the pruning decisions matter here, thus there is no need to
+			 * rescore the remaining edges.
+			 */
+			numKeptEdges += prune(scoringModel, input, weights, keep, false);
+
+			for (int idxModifier = 0; idxModifier < numTkns; ++idxModifier) {
+				int idxHead = output.getHead(idxModifier);
+				if (idxHead < 0 || idxHead == idxModifier)
+					continue;
+				++numModifiers;
+				if (keep[idxHead][idxModifier])
+					++numCovered;
+			}
+
+			DPGSFactorTable factors = input.getGrandparentFactors();
+			for (int idxFactor = 0; idxFactor < factors.size(); ++idxFactor) {
+				if (!factors.hasFeatures(idxFactor))
+					continue;
+				++numFactors;
+				if (isGrandparentFactorKept(keep, factors.getHead(idxFactor),
+						factors.getModifier(idxFactor),
+						factors.getThird(idxFactor)))
+					++numKeptFactors;
+			}
+			factors = input.getSiblingsFactors();
+			for (int idxFactor = 0; idxFactor < factors.size(); ++idxFactor) {
+				if (!factors.hasFeatures(idxFactor))
+					continue;
+				++numFactors;
+				if (isSiblingsFactorKept(keep, numTkns,
+						factors.getHead(idxFactor),
+						factors.getModifier(idxFactor),
+						factors.getThird(idxFactor)))
+					++numKeptFactors;
+			}
+		}
+
+		lastEdgeRatio = (numEdges == 0 ? 1d : ((double) numKeptEdges)
+				/ numEdges);
+		lastFactorRatio = (numFactors == 0 ? 1d : ((double) numKeptFactors)
+				/ numFactors);
+		if (numModifiers == 0)
+			return 1d;
+		return ((double) numCovered) / numModifiers;
+	}
+
+	/**
+	 * Return the fraction of edges kept in the last call to
+	 * <code>computeOracleAccuracy</code>.
+	 * 
+	 * @return
+	 */
+	public double getLastEdgeRatio() {
+		return lastEdgeRatio;
+	}
+
+	/**
+	 * Return the fraction of grandparent and siblings factors kept in the last
+	 * call to <code>computeOracleAccuracy</code>.
+	 * 
+	 * @return
+	 */
+	public double getLastFactorRatio() {
+		return lastFactorRatio;
+	}
+}
@@ -1,10 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
-import java.util.List;
-
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
-import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
-import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
 
 /**
  * Feature template that conjoins a given set of basic features.
@@ -25,7 +21,9 @@ public class DPGSTemplate {
 	protected int[] featureIndexes;
 
 	/**
-	 * Temporary feature to avoid unecessary instantiation of existent features.
+	 * Prototype of the derived features of this template. Its last value is
+	 * the template type. Derived features are instantiated by
+	 * <code>DPGSModel</code>, which copies this prototype for each thread.
 	 */
 	protected Feature tempFeature;
 
@@ -36,38 +34,4 @@ public class DPGSTemplate {
 	public int[] getFeatures() {
 		return featureIndexes;
 	}
-
-	/**
-	 * Instantiate derived features based on this template and the given array
-	 * of basic features. New derived features are encoded by the given encoding
-	 * and the resulting code is inserted in the <code>derivedFeatures</code>
-	 * list.
-	 * 
-	 * @param basicFeatures
-	 * @param idxFtrInTemplate
-	 * @param derivedFeatures
-	 * @param encoding
-	 * @param currentValues
-	 * @throws CloneNotSupportedException
-	 */
-	protected void instantiateDerivedFeatures(int[][] basicFeatures,
-			int idxFtrInTemplate, List<Integer> derivedFeatures,
-			MapEncoding<Feature> encoding) throws CloneNotSupportedException {
-		int[] ftrs = basicFeatures[featureIndexes[idxFtrInTemplate]];
-		int numFtrs = ftrs.length;
-		for (int idxFtr = 0; idxFtr < numFtrs; ++idxFtr) {
-			int ftrVal = ftrs[idxFtr];
-			tempFeature.setValue(idxFtrInTemplate, ftrVal);
-			if (idxFtrInTemplate == featureIndexes.length - 1) {
-				int code = encoding.getCodeByValue(tempFeature);
-				if (code == FeatureEncoding.UNSEEN_VALUE_CODE)
-					// Unseen feature. Create a new instance.
-					code = encoding.put(tempFeature.clone());
-				derivedFeatures.add(code);
-			} else {
-				instantiateDerivedFeatures(basicFeatures, idxFtrInTemplate + 1,
-						derivedFeatures, encoding);
-			}
-		}
-	}
 }
@@ -1,9 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.dpgs;
 
-import java.util.List;
-
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
-import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.MapEncoding;
 
 public class DPSiblingsTemplate extends DPGSTemplate {
 
@@ -24,26 +21,4 @@ public class DPSiblingsTemplate extends DPGSTemplate {
 		// Template type is 2 for LEFT siblings and 3 for RIGHT siblings.
 		vals[featureIndexes.length] = type;
 	}
-
-	/**
-	 * Instantiate siblings features for the grandparent factor of the given
-	 * input.
-	 * 
-	 * @param input
-	 * @param derivedFeatures
-	 * @param encoding
-	 * @param idxHead
-	 * @param idxModifier
-	 * @param idxGrandparent
-	 * @throws CloneNotSupportedException
-	 */
-	public void instantiateSiblingsDerivedFeatures(DPGSInput input,
-			List<Integer> derivedFeatures, MapEncoding<Feature> encoding,
-			int idxHead, int idxModifier, int idxGrandparent)
-			throws CloneNotSupportedException {
-		int[][] basicFeatures = input.getBasicSiblingsFeatures(idxHead,
-				idxModifier, idxGrandparent);
-		instantiateDerivedFeatures(basicFeatures, 0, derivedFeatures, encoding);
-	}
-
 }
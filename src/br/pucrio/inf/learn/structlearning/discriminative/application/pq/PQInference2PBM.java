@@ -1,8 +1,7 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.pq;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.Arrays;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.application.pq.data.PQInput2;
@@ -12,6 +11,7 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.util.HungarianAlgorithm;
 
 /**
  * Prediction algorithm based on the perfect bipartite graph matching problem.
@@ -21,6 +21,16 @@ import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
  */
 public class PQInference2PBM implements Inference {
 
+	/**
+	 * Assignment solver (its buffers are reused across examples).
+	 */
+	private HungarianAlgorithm matching = new HungarianAlgorithm(0);
+
+	/**
+	 * Column assigned to each line of the cost matrix.
+	 */
+	private int[] assignment = new int[0];
+
 	@Override
 	public void inference(Model model, ExampleInput input, ExampleOutput output) {
 		inference((PQModel2) model, (PQInput2) input, (PQOutput2) output);
@@ -36,33 +46,7 @@ public class PQInference2PBM implements Inference {
 	}
 
 	public void inference(PQModel2 model, PQInput2 input, PQOutput2 output) {
-		// Generate cost matrix
-		double[][] costMatrix = generateCostMatrix(model, input, output, 0d);
-
-		// Eliminate zeros and create artificial nodes from cost matrix
-		double[][] hungarianCostMatrix = preProcessCostMatrix(costMatrix);
-
-		// Run Hungarian Method in order to find Perfect Bipartite Matching
-		ArrayList<int[]> P = PerfectBipartiteMatching
-				.perfectBipartiteMatching(hungarianCostMatrix);
-
-		// Eliminate negative cost arcs and arcs linked to artificial nodes
-		postProcessPerfectMatching(costMatrix, hungarianCostMatrix, P, input);
-
-		/*
-		 * Initialize the output vector with zero, indicating the quotations are
-		 * invalid. Then we assign Perfect Bipartite Matching solution to the
-		 * output
-		 */
-		int[] edge;
-		int pSize = P.size();
-		int outputSize = output.size();
-		for (int i = 0; i < outputSize; ++i)
-			output.setAuthor(i, 0);
-		for (int i = 0; i < pSize; ++i) {
-			edge = P.get(i);
-			output.setAuthor(edge[0], edge[1]);
-		}
+		lossAugmentedInference(model, input, null, output, 0d);
 	}
 
 	public void lossAugmentedInference(PQModel2 model, PQInput2 input,
@@ -76,8 +60,7 @@ public class PQInference2PBM implements Inference {
 		double[][] hungarianCostMatrix = preProcessCostMatrix(costMatrix);
 
 		// Run Hungarian Method in order to find Perfect Bipartite Matching
-		ArrayList<int[]> P = PerfectBipartiteMatching
-				.perfectBipartiteMatching(hungarianCostMatrix);
+		ArrayList<int[]> P = perfectBipartiteMatching(hungarianCostMatrix);
 
 		// Eliminate negative cost arcs and arcs linked to artificial nodes
 		postProcessPerfectMatching(costMatrix, hungarianCostMatrix, P, input);
@@ -96,46 +79,54 @@ public class PQInference2PBM implements Inference {
 		}
 	}
 
+	/**
+	 * Find a maximum weight perfect matching in the given square matrix with
+	 * non-negative weights, using a dense O(n^3) assignment solver.
+	 * 
+	 * @param hungarianCostMatrix
+	 * @return the list of arcs (line, column) in the matching.
+	 */
+	public ArrayList<int[]> perfectBipartiteMatching(
+			double[][] hungarianCostMatrix) {
+		int hcmSize = hungarianCostMatrix.length;
+		if (assignment.length < hcmSize)
+			assignment = new int[hcmSize];
+		matching.maxWeightAssignment(hungarianCostMatrix, hcmSize, hcmSize,
+				assignment);
+		ArrayList<int[]> P = new ArrayList<int[]>(hcmSize);
+		for (int i = 0; i < hcmSize; ++i)
+			P.add(new int[] { i, assignment[i] });
+		return P;
+	}
+
 	public double[][] generateCostMatrix(PQModel2 model, PQInput2 input,
 			PQOutput2 correctOutput, double lossWeight) {
-		ArrayList<Integer> coreferences = new ArrayList<Integer>();
 		Quotation[] quotationIndexes = input.getQuotationIndexes();
 
-		// Create an ordered list of all the document coreferences. As there is
-		// no nested
-		// coreference, keep only the coreference start token.
+		// Create an ordered array of all the document coreferences. As there
+		// is no nested coreference, keep only the coreference start token.
+		int numberOfCandidates = 0;
+		for (int i = 0; i < quotationIndexes.length; ++i)
+			numberOfCandidates += quotationIndexes[i].getNumberOfCoreferences();
+		int[] coreferences = new int[numberOfCandidates];
+		int idxCoref = 0;
 		for (int i = 0; i < quotationIndexes.length; ++i) {
 			int numberOfCoreferences = quotationIndexes[i]
 					.getNumberOfCoreferences();
-
-			for (int j = 0; j < numberOfCoreferences; ++j) {
-				int[] coreferenceIndex = quotationIndexes[i]
-						.getCoreferenceIndex(j);
-				int coreferenceStart = coreferenceIndex[0];
-
-				if (!coreferences.contains(coreferenceStart)) {
-					// We search for a position to insert the new coreference in
-					// the coreference list (O(n)). Then we insert the
-					// coreference in
-					// specified position.
-					int insertionIndex = Collections.binarySearch(coreferences,
-							coreferenceStart);
-					if (insertionIndex < 0)
-						coreferences.add(-insertionIndex - 1, coreferenceStart);
-					else
-						coreferences.add(insertionIndex + 1, coreferenceStart);
-				}
-			}
+			for (int j = 0; j < numberOfCoreferences; ++j)
+				coreferences[idxCoref++] = quotationIndexes[i]
+						.getCoreferenceIndex(j)[0];
 		}
-
-		int totalOfCoreferences = coreferences.size();
+		Arrays.sort(coreferences);
+		int totalOfCoreferences = 0;
+		for (int idx = 0; idx < numberOfCandidates; ++idx)
+			if (totalOfCoreferences == 0
+					|| coreferences[idx] != coreferences[totalOfCoreferences - 1])
+				coreferences[totalOfCoreferences++] = coreferences[idx];
+
+		// Cost matrix filled with zero.
 		double[][] costMatrix = new double[quotationIndexes.length][totalOfCoreferences];
 
-		// Fill the cost matrix with zero.
-		for (int i = 0; i < quotationIndexes.length; ++i)
-			for (int j = 0; j < totalOfCoreferences; ++j)
-				costMatrix[i][j] = 0d;
-
 		// Generate all costs for the cost matrix. Lines correspond to
 		// quotations and columns correspond to coreferences.
 		for (int i = 0; i < quotationIndexes.length; ++i) {
@@ -149,20 +140,17 @@ public class PQInference2PBM implements Inference {
 			for (int j = 0; j < numberOfCoreferences; ++j) {
 				int[] coreferenceIndex = quotationIndexes[i]
 						.getCoreferenceIndex(j);
-				int coreferencePosition = coreferences
-						.indexOf(coreferenceIndex[0]);
+				int coreferencePosition = Arrays.binarySearch(coreferences, 0,
+						totalOfCoreferences, coreferenceIndex[0]);
 
 				double currentLoss = 0d;
 				if (correctOutput != null)
 					currentLoss = (j != correctAuthor ? lossWeight : 0d);
 
 				double cost = 0d;
-				int featureIndex;
-				Iterator<Integer> it = input.getFeatureCodes(i, j).iterator();
-				while (it.hasNext()) {
-					featureIndex = it.next();
-					cost += currentLoss + model.getFeatureWeight(featureIndex);
-				}
+				int[] ftrs = input.getFeatures(i, j);
+				for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
+					cost += currentLoss + model.getFeatureWeight(ftrs[idxFtr]);
 
 				costMatrix[i][coreferencePosition] = cost;
 			}
@@ -1,9 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.pq;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -18,6 +15,46 @@ import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
 // Weighted Interval Scheduling
 public class PQInference2WIS implements Inference {
 
+	/**
+	 * Reusable task buffers: each task is a (quotation, coreference) candidate
+	 * given by its interval, its prize and the indexes of the quotation and
+	 * the coreference.
+	 */
+	private int[] starts = new int[0];
+
+	private int[] ends = new int[0];
+
+	private double[] prizes = new double[0];
+
+	private int[] quotations = new int[0];
+
+	private int[] coreferences = new int[0];
+
+	/**
+	 * Sort keys: task end in the high bits and task index in the low bits.
+	 */
+	private long[] sortKeys = new long[0];
+
+	/**
+	 * Tasks sorted by end (the arrays above are copied in this order).
+	 */
+	private int[] sortedStarts = new int[0];
+
+	private int[] sortedEnds = new int[0];
+
+	private double[] sortedPrizes = new double[0];
+
+	private int[] sortedTasks = new int[0];
+
+	/**
+	 * Weighted interval scheduling work buffers.
+	 */
+	private int[] predecessors = new int[0];
+
+	private double[] optimal = new double[0];
+
+	private int[] solution = new int[0];
+
 	@Override
 	public void inference(Model model, ExampleInput input, ExampleOutput output) {
 		inference((PQModel2) model, (PQInput2) input, (PQOutput2) output);
@@ -33,67 +70,64 @@ public class PQInference2WIS implements Inference {
 	}
 
 	public void inference(PQModel2 model, PQInput2 input, PQOutput2 output) {
-		// Generate candidates.
-		Task[] tasks = generateWISCandidates(model, input, null, 0d);
-
-		// Run WIS, which returns the indexes of the selected tasks.
-		int[] solutionIndexes = WeightedIntervalScheduling
-				.weightedIntervalScheduling(tasks);
-
-		// Initialize the output vector with zero, indicating the quotations
-		// are invalid. Then we assign the solution of WIS to the output.
-		int outputSize = output.size();
-		for (int i = 0; i < outputSize; ++i)
-			output.setAuthor(i, 0);
-		for (int i = 0; i < solutionIndexes.length; ++i)
-			output.setAuthor(tasks[solutionIndexes[i]].getQuotationPosition(),
-					tasks[solutionIndexes[i]].getCoreferencePosition());
+		lossAugmentedInference(model, input, null, output, 0d);
 	}
 
 	public void lossAugmentedInference(PQModel2 model, PQInput2 input,
 			PQOutput2 referenceOutput, PQOutput2 predictedOutput,
 			double lossWeight) {
-		// Generate candidates.
-		Task[] tasks = generateWISCandidates(model, input, referenceOutput,
+		// Generate candidates sorted by end.
+		int numTasks = generateWISCandidates(model, input, referenceOutput,
 				lossWeight);
 
-		// Run WIS, which returns the indexes of the selected tasks.
-		int[] solutionIndexes = WeightedIntervalScheduling
-				.weightedIntervalScheduling(tasks);
+		// Run WIS, which returns the number of selected tasks.
+		int solutionSize = WeightedIntervalScheduling
+				.weightedIntervalScheduling(numTasks, sortedStarts,
+						sortedEnds, sortedPrizes, predecessors, optimal,
+						solution);
 
 		// Initialize the output vector with zero, indicating the quotations
 		// are invalid. Then we assign the WIS solution to the output.
 		int predictedOutputSize = predictedOutput.size();
 		for (int i = 0; i < predictedOutputSize; ++i)
 			predictedOutput.setAuthor(i, 0);
-		for (int i = 0; i < solutionIndexes.length; ++i)
-			predictedOutput.setAuthor(
-					tasks[solutionIndexes[i]].getQuotationPosition(),
-					tasks[solutionIndexes[i]].getCoreferencePosition());
+		for (int i = 0; i < solutionSize; ++i) {
+			int task = sortedTasks[solution[i]];
+			predictedOutput.setAuthor(quotations[task], coreferences[task]);
+		}
 	}
 
-	public Task[] generateWISCandidates(PQModel2 model, PQInput2 input,
+	/**
+	 * Fill the task buffers with the candidates of the given input and sort
+	 * them by end.
+	 * 
+	 * Each quotation is associated to a number of coreferences, which are the
+	 * candidates to quotation author. We transform this problem into the
+	 * Weighted Interval Scheduling problem. The interval is:
+	 * [quotationStartToken, quotationEndToken]. The prize is given by the sum
+	 * of the feature weights that appears in the coreference.
+	 * 
+	 * @param model
+	 * @param input
+	 * @param correctOutput
+	 * @param lossWeight
+	 * @return the number of tasks.
+	 */
+	private int generateWISCandidates(PQModel2 model, PQInput2 input,
 			PQOutput2 correctOutput, double lossWeight) {
-		// Implementation of a method for comparison between two tasks.
-		// It is used to find out in which position we have to insert the
-		// new task in the list of tasks. Ordered by task end.
-		Comparator<Task> comparator = new Comparator<Task>() {
-			public int compare(Task t1, Task t2) {
-				return Integer.valueOf(t1.getEnd()).compareTo(
-						Integer.valueOf(t2.getEnd()));
-			}
-		};
-
-		// Each quotation is associated to a number of coreferences, which are
-		// the candidates to quotation author. We transform this problem into
-		// the Weighted Interval Scheduling problem. The interval is:
-		// [quotationStartToken, quotationEndToken]. The prize is given by the
-		// sum of the feature weights that appears in the coreference.
-		LinkedList<Task> tasks = new LinkedList<Task>();
 		Quotation[] quotationIndexes = input.getQuotationIndexes();
 
+		// Guarantee that the buffers fit all candidates.
+		int numTasks = 0;
+		for (int i = 0; i < quotationIndexes.length; ++i)
+			numTasks += quotationIndexes[i].getNumberOfCoreferences();
+		ensureCapacity(numTasks);
+
+		int task = 0;
 		for (int i = 0; i < quotationIndexes.length; ++i) {
 			int[] quotationIndex = quotationIndexes[i].getQuotationIndex();
+			int start = quotationIndex[0];
+			int end = quotationIndex[1];
 
 			int correctAuthor = 0;
 			if (correctOutput != null)
@@ -102,49 +136,60 @@ public class PQInference2WIS implements Inference {
 			int numberOfCoreferences = quotationIndexes[i]
 					.getNumberOfCoreferences();
 			for (int j = 0; j < numberOfCoreferences; ++j) {
-				int[] coreferenceIndex = quotationIndexes[i]
-						.getCoreferenceIndex(j);
-
-				int start = quotationIndex[0];
-				int end = quotationIndex[1];
-
 				double currentLoss = 0d;
 				if (correctOutput != null)
 					currentLoss = (j != correctAuthor ? lossWeight : 0d);
 
 				double prize = 0d;
-				int featureIndex;
-				Iterator<Integer> it = input.getFeatureCodes(i, j).iterator();
-				while (it.hasNext()) {
-					featureIndex = it.next();
-					prize += currentLoss + model.getFeatureWeight(featureIndex);
-				}
-
-				Task task = new Task(start, end, prize, i, j, quotationIndex,
-						coreferenceIndex);
-
-				// We search for a position to insert the new task in
-				// the task list (O(n)). Then we insert the task in
-				// specified position.
-				int insertionIndex = Collections.binarySearch(tasks, task,
-						comparator);
-				if (insertionIndex < 0)
-					tasks.add(-insertionIndex - 1, task);
-				else
-					tasks.add(insertionIndex + 1, task);
+				int[] ftrs = input.getFeatures(i, j);
+				for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr)
+					prize += currentLoss + model.getFeatureWeight(ftrs[idxFtr]);
+
+				starts[task] = start;
+				ends[task] = end;
+				prizes[task] = prize;
+				quotations[task] = i;
+				coreferences[task] = j;
+				sortKeys[task] = (((long) end) << 32) | task;
+				++task;
 			}
 		}
 
-		// Convert the LinkedList ''tasks'' in the array of
-		// tasks ''tasksArray''.
-		int tasksSize = tasks.size();
-		Task[] tasksArray = new Task[tasksSize];
-		for (int i = 0; i < tasksSize; ++i) {
-			Task task = new Task(tasks.get(i));
-			tasksArray[i] = task;
+		// Sort tasks by end (ties are kept in generation order).
+		Arrays.sort(sortKeys, 0, numTasks);
+		for (int idx = 0; idx < numTasks; ++idx) {
+			int t = (int) sortKeys[idx];
+			sortedTasks[idx] = t;
+			sortedStarts[idx] = starts[t];
+			sortedEnds[idx] = ends[t];
+			sortedPrizes[idx] = prizes[t];
 		}
 
-		return tasksArray;
+		return numTasks;
+	}
+
+	/**
+	 * Guarantee that the task buffers can store the given number of tasks.
+	 * 
+	 * @param numTasks
+	 */
+	private void ensureCapacity(int numTasks) {
+		if (starts.length >= numTasks)
+			return;
+		numTasks = Math.max(numTasks, 2 * starts.length);
+		starts = new int[numTasks];
+		ends = new int[numTasks];
+		prizes = new double[numTasks];
+		quotations = new int[numTasks];
+		coreferences = new int[numTasks];
+		sortKeys = new long[numTasks];
+		sortedStarts = new int[numTasks];
+		sortedEnds = new int[numTasks];
+		sortedPrizes = new double[numTasks];
+		sortedTasks = new int[numTasks];
+		predecessors = new int[numTasks];
+		optimal = new double[numTasks];
+		solution = new int[numTasks];
 	}
 
 	@Override
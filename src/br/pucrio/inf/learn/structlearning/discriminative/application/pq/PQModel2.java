@@ -1,7 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.pq;
 
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
@@ -76,20 +75,18 @@ public class PQModel2 implements Model {
 				// continue;
 
 				if (labelCorrect >= 0) {
-					Iterator<Integer> it = input.getFeatureCodes(i,
-							labelCorrect).iterator();
-					while (it.hasNext()) {
-						featureIndex = it.next();
+					int[] ftrs = input.getFeatures(i, labelCorrect);
+					for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr) {
+						featureIndex = ftrs[idxFtr];
 						this.featureWeights[featureIndex].update(learningRate);
 						updatedParameters.add(featureWeights[featureIndex]);
 					}
 				}
 
 				if (labelPredicted >= 0) {
-					Iterator<Integer> it = input.getFeatureCodes(i,
-							labelPredicted).iterator();
-					while (it.hasNext()) {
-						featureIndex = it.next();
+					int[] ftrs = input.getFeatures(i, labelPredicted);
+					for (int idxFtr = 0; idxFtr < ftrs.length; ++idxFtr) {
+						featureIndex = ftrs[idxFtr];
 						this.featureWeights[featureIndex].update(-learningRate);
 						updatedParameters.add(featureWeights[featureIndex]);
 					}
@@ -1,101 +1,128 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.pq;
 
-import java.util.ArrayList;
-
+/**
+ * Weighted interval scheduling: find the set of non-overlapping tasks
+ * (intervals) with the greatest total prize.
+ * 
+ * Tasks must be sorted by their end. The predecessor of each task (the last
+ * task that ends before it starts) is found by binary search and the optimal
+ * prizes are computed bottom-up, thus the algorithm takes O(n log n) time and
+ * no recursion.
+ */
 public class WeightedIntervalScheduling {
 
 	public static int[] weightedIntervalScheduling(Task[] tasks) {
 		/*
 		 * Find the tasks set that provides the greatest prize.
 		 * 
-		 * @param tasks: an array of tasks with start, end and prize.
+		 * @param tasks: an array of tasks with start, end and prize, sorted by
+		 * end.
 		 * 
-		 * @return: an array of integers which correspond to the
-		 * 			task index in tasks array.
+		 * @return: an array of integers which correspond to the task index in
+		 * tasks array.
 		 */
-		
-		// Calculate the predecessors of each task.
-		calculatePredecessors(tasks);
-
-		// Store each subproblem in a cache. The boolean array
-		// indicates if the indexed position is still empty.
-		double[] cache = new double[tasks.length];
-		boolean[] cacheEmpty = new boolean[tasks.length];
-
-		for (int i = 0; i < cacheEmpty.length; ++i) {
-			cacheEmpty[i] = true;
+		int numTasks = tasks.length;
+		int[] starts = new int[numTasks];
+		int[] ends = new int[numTasks];
+		double[] prizes = new double[numTasks];
+		for (int i = 0; i < numTasks; ++i) {
+			starts[i] = tasks[i].getStart();
+			ends[i] = tasks[i].getEnd();
+			prizes[i] = tasks[i].getPrize();
 		}
 
-		// Compute the optimal solution.
-		computeOptimal(tasks, tasks.length - 1, cache, cacheEmpty);
+		int[] predecessors = new int[numTasks];
+		double[] optimal = new double[numTasks];
+		int[] solution = new int[numTasks];
+		int solutionSize = weightedIntervalScheduling(numTasks, starts, ends,
+				prizes, predecessors, optimal, solution);
 
-		// Find the tasks that constitute the solution for the problem.
-		ArrayList<Integer> solutionIndexes = new ArrayList<Integer>();
-		findSolution(tasks, tasks.length - 1, cache, solutionIndexes);
-
-		// Convert the ArrayList ''solutionIndexes'' in the array of
-		// integers ''solutionIndexesArray''.
-		int solutionIndexesSize = solutionIndexes.size();
-		int[] solutionIndexesArray = new int[solutionIndexesSize];
-
-		for (int i = 0; i < solutionIndexesSize; ++i)
-			solutionIndexesArray[i] = solutionIndexes.get(i);
+		for (int i = 0; i < numTasks; ++i)
+			tasks[i].setPredecessorIndex(predecessors[i]);
 
+		int[] solutionIndexesArray = new int[solutionSize];
+		System.arraycopy(solution, 0, solutionIndexesArray, 0, solutionSize);
 		return solutionIndexesArray;
 	}
 
-	public static void findSolution(Task[] tasks, int index, double[] cache,
-			ArrayList<Integer> solutionIndexes) {
-		if (index >= 0) {
-			double prize1 = tasks[index].getPrize();
-			int predecessorIndex = tasks[index].getPredecessorIndex();
-			if (predecessorIndex >= 0)
-				prize1 += cache[predecessorIndex];
-
-			double prize2 = (index > 0 ? cache[index - 1] : 0d);
+	/**
+	 * Find the set of tasks that provides the greatest prize. Tasks are given
+	 * by parallel arrays and must be sorted by end. The remaining arrays are
+	 * work buffers with at least <code>numTasks</code> positions, so that they
+	 * can be reused across calls.
+	 * 
+	 * @param numTasks
+	 * @param starts
+	 * @param ends
+	 * @param prizes
+	 * @param predecessors
+	 *            filled with the predecessor of each task (-1 if none).
+	 * @param optimal
+	 *            filled with the optimal prize of each prefix of tasks.
+	 * @param solution
+	 *            filled with the indexes of the selected tasks (in decreasing
+	 *            order).
+	 * @return the number of selected tasks.
+	 */
+	public static int weightedIntervalScheduling(int numTasks, int[] starts,
+			int[] ends, double[] prizes, int[] predecessors, double[] optimal,
+			int[] solution) {
+		// Calculate the predecessors of each task.
+		calculatePredecessors(numTasks, starts, ends, predecessors);
+
+		// Compute the optimal solution of each prefix.
+		for (int i = 0; i < numTasks; ++i) {
+			double prize1 = prizes[i];
+			if (predecessors[i] >= 0)
+				prize1 += optimal[predecessors[i]];
+			double prize2 = (i > 0 ? optimal[i - 1] : 0d);
+			optimal[i] = (prize1 > prize2 ? prize1 : prize2);
+		}
 
+		// Find the tasks that constitute the solution for the problem.
+		int solutionSize = 0;
+		int i = numTasks - 1;
+		while (i >= 0) {
+			double prize1 = prizes[i];
+			if (predecessors[i] >= 0)
+				prize1 += optimal[predecessors[i]];
+			double prize2 = (i > 0 ? optimal[i - 1] : 0d);
 			if (prize1 > prize2) {
-				solutionIndexes.add(index);
-				findSolution(tasks, tasks[index].getPredecessorIndex(), cache,
-						solutionIndexes);
+				solution[solutionSize++] = i;
+				i = predecessors[i];
 			} else
-				findSolution(tasks, index - 1, cache, solutionIndexes);
+				--i;
 		}
-	}
-
-	public static double computeOptimal(Task[] tasks, int index, double[] cache,
-			boolean[] cacheEmpty) {
-		if (index == -1)
-			return 0d;
-
-		if (cacheEmpty[index]) {
-			double prize1 = tasks[index].getPrize()
-					+ computeOptimal(tasks, tasks[index].getPredecessorIndex(),
-							cache, cacheEmpty);
-			double prize2 = computeOptimal(tasks, index - 1, cache, cacheEmpty);
 
-			cacheEmpty[index] = false;
-			if (prize1 > prize2)
-				cache[index] = prize1;
-			else
-				cache[index] = prize2;
-		}
-
-		return cache[index];
+		return solutionSize;
 	}
 
-	public static void calculatePredecessors(Task[] tasks) {
-		for (int i = 0; i < tasks.length; ++i) {
-			Task task = tasks[i];
-
-			for (int j = i; j >= 0; --j) {
-				Task predecessorTask = tasks[j];
-
-				if (task.getStart() > predecessorTask.getEnd()) {
-					task.setPredecessorIndex(j);
-					break;
-				}
+	/**
+	 * Compute the predecessor of each task, i.e., the last task (not after
+	 * itself) that ends before the task starts. Tasks must be sorted by end.
+	 * 
+	 * @param numTasks
+	 * @param starts
+	 * @param ends
+	 * @param predecessors
+	 */
+	public static void calculatePredecessors(int numTasks, int[] starts,
+			int[] ends, int[] predecessors) {
+		for (int i = 0; i < numTasks; ++i) {
+			// Binary search for the last j in [0, i] with ends[j] < starts[i].
+			int start = starts[i];
+			int lo = 0;
+			int hi = i;
+			int predecessor = -1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (ends[mid] < start) {
+					predecessor = mid;
+					lo = mid + 1;
+				} else
+					hi = mid - 1;
 			}
+			predecessors[i] = predecessor;
 		}
 	}
 }
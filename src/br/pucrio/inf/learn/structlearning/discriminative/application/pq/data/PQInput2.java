@@ -123,6 +123,18 @@ public class PQInput2 implements ExampleInput {
 		return quotationIndexes;
 	}
 
+	/**
+	 * Return the array of feature codes of the given (quotation, coreference)
+	 * pair. The returned array must not be modified.
+	 * 
+	 * @param quotationIndex
+	 * @param coreferenceIndex
+	 * @return
+	 */
+	public int[] getFeatures(int quotationIndex, int coreferenceIndex) {
+		return features[quotationIndex][coreferenceIndex];
+	}
+
 	public Iterable<Integer> getFeatureCodes(int quotationIndex,
 			int coreferenceIndex) {
 		return new FeatureCodeIterator(quotationIndex, coreferenceIndex);
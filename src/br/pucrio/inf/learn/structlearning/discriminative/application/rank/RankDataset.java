@@ -20,6 +20,7 @@ import org.apache.commons.logging.LogFactory;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.Feature;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.FeatureTemplate;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.Dataset;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
@@ -246,6 +247,19 @@ public class RankDataset implements Dataset {
 	public void generateFeatures() {
 		LinkedList<Integer> ftrs = new LinkedList<Integer>();
 		FeatureTemplate[] tpls = templates;
+
+		/*
+		 * A fingerprint-based encoding allows encoding features directly from
+		 * the basic features, with no temporary feature object.
+		 */
+		HashedFeatureEncoding hashedEncoding = null;
+		if (explicitEncoding instanceof HashedFeatureEncoding) {
+			hashedEncoding = (HashedFeatureEncoding) explicitEncoding;
+			for (FeatureTemplate tpl : tpls)
+				if (!(tpl instanceof RankTemplate))
+					hashedEncoding = null;
+		}
+
 		int numExs = inputExamples.length;
 		for (int idxEx = 0; idxEx < numExs; ++idxEx) {
 			// Current input structure.
@@ -259,6 +273,18 @@ public class RankDataset implements Dataset {
 
 			for (int item = 0; item < size; ++item) {
 
+				if (hashedEncoding != null) {
+					int[] basicFtrs = input.getBasicFeatures(item);
+					int[] codes = new int[tpls.length];
+					for (int idxTpl = 0; idxTpl < tpls.length; ++idxTpl) {
+						FeatureTemplate tpl = tpls[idxTpl];
+						codes[idxTpl] = hashedEncoding.put(tpl.getIndex(),
+								tpl.getFeatures(), basicFtrs);
+					}
+					input.setFeatures(item, codes);
+					continue;
+				}
+
 				// Clear previous used list of features.
 				ftrs.clear();
 
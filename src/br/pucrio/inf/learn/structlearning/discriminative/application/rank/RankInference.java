@@ -1,6 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.application.rank;
 
-import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankOutput.WeightedItem;
@@ -8,17 +8,122 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleInput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.ExampleOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
+import br.pucrio.inf.learn.util.ParallelLoop;
 
 /**
  * Prediction algorithm for ranking functions. The ranking model gives one
  * weight for each item within a query. Thus, the prediction consists only in
  * sorting the items according to the given weights.
  * 
+ * Item scores are stored in a primitive array and the items are ranked through
+ * a bounded heap of item indexes. If a top-K limit is given, only the K best
+ * items are ranked (in O(n log K) time) and the remaining items follow them in
+ * increasing order of index. Otherwise, all items are ranked. In both cases, items
+ * with the same score are ranked by their indexes, so that the top-K items are
+ * exactly the first K items of a full ranking.
+ * 
+ * The items of large candidate sets can be scored in parallel, since scoring
+ * only reads the model.
+ * 
  * @author eraldo
  * 
  */
 public class RankInference implements Inference {
 
+	/**
+	 * Minimum number of items to score them in parallel.
+	 */
+	private static final int MIN_PARALLEL_SIZE = 1024;
+
+	/**
+	 * Maximum number of ranked items (zero or a negative value means all).
+	 */
+	private int topK;
+
+	/**
+	 * Executor and number of tasks used to score large candidate sets.
+	 */
+	private ExecutorService executor;
+
+	private int numberOfTasks;
+
+	/**
+	 * Score of each item (indexed by item).
+	 */
+	private double[] scores;
+
+	/**
+	 * Bounded heap of item indexes whose root is the worst ranked item.
+	 */
+	private int[] heap;
+
+	/**
+	 * Items within the heap.
+	 */
+	private boolean[] ranked;
+
+	/**
+	 * Current scoring arguments (used by the parallel loop).
+	 */
+	private RankModel curModel;
+
+	private RankInput curInput;
+
+	/**
+	 * Parallel loop that scores each item.
+	 */
+	private final ParallelLoop scoreLoop = new ParallelLoop() {
+		@Override
+		protected void iterate(int idxTask, int item) {
+			scores[item] = score(curModel, curInput, item);
+		}
+	};
+
+	public RankInference() {
+		this(0);
+	}
+
+	/**
+	 * Create an inference algorithm that ranks only the given number of best
+	 * items.
+	 * 
+	 * @param topK
+	 *            zero or a negative value ranks all items.
+	 */
+	public RankInference(int topK) {
+		this.topK = topK;
+		this.scores = new double[0];
+		this.heap = new int[0];
+		this.ranked = new boolean[0];
+	}
+
+	/**
+	 * Set the maximum number of ranked items. Zero or a negative value ranks
+	 * all items.
+	 * 
+	 * @param topK
+	 */
+	public void setTopK(int topK) {
+		this.topK = topK;
+	}
+
+	public int getTopK() {
+		return topK;
+	}
+
+	/**
+	 * Score the items of large candidate sets in parallel, using the given
+	 * number of tasks in the given executor. If <code>executor</code> is
+	 * <code>null</code>, items are scored in the calling thread.
+	 * 
+	 * @param executor
+	 * @param numberOfTasks
+	 */
+	public void setExecutor(ExecutorService executor, int numberOfTasks) {
+		this.executor = executor;
+		this.numberOfTasks = numberOfTasks;
+	}
+
 	@Override
 	public void inference(Model model, ExampleInput input, ExampleOutput output) {
 		inference((RankModel) model, (RankInput) input, (RankOutput) output);
@@ -36,56 +141,191 @@ public class RankInference implements Inference {
 	/**
 	 * The inference for ranking models is very simple. Each item is given a
 	 * weight according to its features weights (given by the model). Then, we
-	 * just sort the items based on their weights.
+	 * just rank the items based on their weights.
 	 * 
 	 * @param model
 	 * @param input
 	 * @param output
 	 */
 	public void inference(RankModel model, RankInput input, RankOutput output) {
-		fillWeights(model, input, output, null, 0d);
-		Arrays.sort(output.weightedItems);
+		fillWeights(model, input, null, 0d);
+		rank(input.size(), output);
+	}
+
+	public void lossAugmentedInference(RankModel model, RankInput input,
+			RankOutput referenceOutput, RankOutput predictedOutput,
+			double lossWeight) {
+		fillWeights(model, input, referenceOutput, lossWeight);
+		rank(input.size(), predictedOutput);
 	}
 
 	/**
-	 * Fill the weight array in the given output according to the corresponding
-	 * input features and their weights in the given model.
+	 * Fill the score array according to the item features in the given input
+	 * and their weights in the given model. If <code>correct</code> is not
+	 * <code>null</code>, the loss weight is added to the score of every item
+	 * that is not relevant.
 	 * 
 	 * @param model
 	 * @param input
-	 * @param output
+	 * @param correct
+	 * @param lossWeight
 	 */
 	private void fillWeights(RankModel model, RankInput input,
-			RankOutput output, RankOutput correct, double lossWeight) {
+			RankOutput correct, double lossWeight) {
 		// Number of items for this query.
 		int size = input.size();
-		for (int idxItem = 0; idxItem < size; ++idxItem) {
-			// Get the weighted item at the current index.
-			WeightedItem wItem = output.weightedItems[idxItem];
-			// Initialize the current item weight.
-			wItem.weight = 0;
-			// Compute sum of item features weights.
-			int[] ftrs = input.getFeatures(wItem.item);
-			for (int ftr : ftrs)
-				wItem.weight += model.getFeatureWeight(ftr);
+		if (scores.length < size) {
+			scores = new double[size];
+			heap = new int[size];
+			ranked = new boolean[size];
+		}
+
+		if (executor != null && size >= MIN_PARALLEL_SIZE) {
+			curModel = model;
+			curInput = input;
+			try {
+				scoreLoop.run(executor, numberOfTasks, size);
+			} finally {
+				curModel = null;
+				curInput = null;
+			}
+		} else {
+			for (int item = 0; item < size; ++item)
+				scores[item] = score(model, input, item);
 		}
 
 		if (correct != null && lossWeight != 0d) {
-			for (int idxItem = 0; idxItem < size; ++idxItem) {
-				// Get the weighted item at the current index.
-				WeightedItem wItem = output.weightedItems[idxItem];
-				if (!correct.isRelevant(wItem.item))
+			for (int item = 0; item < size; ++item) {
+				if (!correct.isRelevant(item))
 					// Increase weight.
-					wItem.weight += lossWeight;
+					scores[item] += lossWeight;
 			}
 		}
 	}
 
-	public void lossAugmentedInference(RankModel model, RankInput input,
-			RankOutput referenceOutput, RankOutput predictedOutput,
-			double lossWeight) {
-		fillWeights(model, input, predictedOutput, referenceOutput, lossWeight);
-		Arrays.sort(predictedOutput.weightedItems);
+	/**
+	 * Return the sum of the weights of the features of the given item.
+	 * 
+	 * @param model
+	 * @param input
+	 * @param item
+	 * @return
+	 */
+	private static double score(RankModel model, RankInput input, int item) {
+		double score = 0d;
+		int[] ftrs = input.getFeatures(item);
+		for (int ftr : ftrs)
+			score += model.getFeatureWeight(ftr);
+		return score;
+	}
+
+	/**
+	 * Rank the best items according to the score array and store them in the
+	 * given output. The first <code>min(topK, size)</code> positions of the
+	 * output are ranked and the remaining items follow them in increasing
+	 * order of index.
+	 * 
+	 * @param size
+	 * @param output
+	 */
+	private void rank(int size, RankOutput output) {
+		int k = (topK > 0 && topK < size ? topK : size);
+
+		// Keep the best k items in a heap whose root is the worst of them.
+		int heapSize = 0;
+		for (int item = 0; item < size; ++item) {
+			if (heapSize < k) {
+				heap[heapSize] = item;
+				siftUp(heapSize);
+				++heapSize;
+			} else if (before(item, heap[0])) {
+				heap[0] = item;
+				siftDown(0, heapSize);
+			}
+		}
+
+		// Extract the heap from the worst to the best item.
+		WeightedItem[] weightedItems = output.weightedItems;
+		for (int pos = k - 1; pos >= 0; --pos) {
+			int item = heap[0];
+			--heapSize;
+			if (heapSize > 0) {
+				heap[0] = heap[heapSize];
+				siftDown(0, heapSize);
+			}
+			weightedItems[pos].item = item;
+			weightedItems[pos].weight = scores[item];
+			ranked[item] = true;
+		}
+
+		// Unranked items.
+		int pos = k;
+		for (int item = 0; item < size; ++item) {
+			if (ranked[item]) {
+				ranked[item] = false;
+				continue;
+			}
+			weightedItems[pos].item = item;
+			weightedItems[pos].weight = scores[item];
+			++pos;
+		}
+
+		output.setNumberOfRankedItems(k);
+	}
+
+	/**
+	 * Return whether item <code>i1</code> is ranked before item
+	 * <code>i2</code>.
+	 * 
+	 * @param i1
+	 * @param i2
+	 * @return
+	 */
+	private boolean before(int i1, int i2) {
+		if (scores[i1] != scores[i2])
+			return scores[i1] > scores[i2];
+		return i1 < i2;
+	}
+
+	/**
+	 * Move up the item at the given heap position (the worst item is the
+	 * root).
+	 * 
+	 * @param pos
+	 */
+	private void siftUp(int pos) {
+		int item = heap[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) / 2;
+			if (!before(heap[parent], item))
+				break;
+			heap[pos] = heap[parent];
+			pos = parent;
+		}
+		heap[pos] = item;
+	}
+
+	/**
+	 * Move down the item at the given heap position (the worst item is the
+	 * root).
+	 * 
+	 * @param pos
+	 * @param heapSize
+	 */
+	private void siftDown(int pos, int heapSize) {
+		int item = heap[pos];
+		int half = heapSize / 2;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < heapSize && before(heap[child], heap[right]))
+				child = right;
+			if (!before(item, heap[child]))
+				break;
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = item;
 	}
 
 	@Override
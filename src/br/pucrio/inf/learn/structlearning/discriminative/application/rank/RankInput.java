@@ -124,6 +124,17 @@ public class RankInput implements ExampleInput {
 			features[item][idxFtr] = it.next().intValue();
 	}
 
+	/**
+	 * Set the derived features of the given item. The given array is used
+	 * directly (not copied).
+	 * 
+	 * @param item
+	 * @param features
+	 */
+	public void setFeatures(int item, int[] features) {
+		this.features[item] = features;
+	}
+
 	/**
 	 * Return the derived features array of the given item.
 	 * 
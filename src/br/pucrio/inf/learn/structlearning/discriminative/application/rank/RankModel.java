@@ -78,8 +78,11 @@ public class RankModel implements Model {
 		int numIrrelevant = 0;
 		// Total number of relevant items.
 		int numTotalRelevant = outputCorrect.getNumberOfRelevantItems();
+		// Only the ranked items (top-K) of the prediction are considered.
+		int numRanked = Math.min(size,
+				outputPredicted.getNumberOfRankedItems());
 		// Iterate over the ordered items of the predicted output.
-		for (int idxItem = 0; idxItem < size; ++idxItem) {
+		for (int idxItem = 0; idxItem < numRanked; ++idxItem) {
 			// k to calculate prec@k.
 			int k = idxItem + 1;
 			// That is the item identifier (index in the input array).
@@ -113,7 +116,8 @@ public class RankModel implements Model {
 			}
 		}
 		// Average precision.
-		avgPrec = avgPrec / (size - numIrrelevant);
+		avgPrec = averagePrecision(avgPrec, size, numRanked, numIrrelevant,
+				numTotalRelevant);
 		// The loss is equal to what misses to an average precision of 1.
 		return avgPrec;
 	}
@@ -135,8 +139,11 @@ public class RankModel implements Model {
 		double avgPrec = 0;
 		// Number of irrelevant items @ k.
 		int numIrrelevant = 0;
+		// Only the ranked items (top-K) of the prediction are considered.
+		int numRanked = Math.min(size,
+				outputPredicted.getNumberOfRankedItems());
 		// Iterate over the ordered items of the predicted output.
-		for (int idxItem = 0; idxItem < size; ++idxItem) {
+		for (int idxItem = 0; idxItem < numRanked; ++idxItem) {
 			// k to calculate prec@k.
 			int k = idxItem + 1;
 			// That is the item identifier (index in the input array).
@@ -156,11 +163,35 @@ public class RankModel implements Model {
 		}
 
 		// Average precision.
-		avgPrec = avgPrec / (size - numIrrelevant);
+		avgPrec = averagePrecision(avgPrec, size, numRanked, numIrrelevant,
+				outputCorrect.getNumberOfRelevantItems());
 		// The loss is equal to what misses to an average precision of 1.
 		return 1 - avgPrec;
 	}
 
+	/**
+	 * Normalize the given sum of precisions. For complete rankings, the sum is
+	 * divided by the number of relevant items in the ranking. For top-K
+	 * rankings, it is divided by the maximum number of relevant items within
+	 * the top K (AP@K).
+	 * 
+	 * @param sumPrec
+	 * @param size
+	 * @param numRanked
+	 * @param numIrrelevant
+	 * @param numTotalRelevant
+	 * @return
+	 */
+	private static double averagePrecision(double sumPrec, int size,
+			int numRanked, int numIrrelevant, int numTotalRelevant) {
+		if (numRanked == size)
+			return sumPrec / (size - numIrrelevant);
+		int norm = Math.min(numRanked, numTotalRelevant);
+		if (norm == 0)
+			return 1d;
+		return sumPrec / norm;
+	}
+
 	@Override
 	public double update(ExampleInput input, ExampleOutput outputCorrect,
 			ExampleOutput outputPredicted, double learningRate) {
@@ -45,6 +45,13 @@ public class RankOutput implements ExampleOutput {
 	 */
 	private int numRelevantItems;
 
+	/**
+	 * Number of ranked items in the prediction (the first positions of
+	 * <code>weightedItems</code>). The remaining items are not ordered. This
+	 * is smaller than the size only for top-K predictions.
+	 */
+	private int numRankedItems;
+
 	/**
 	 * Create an output structure with the given size (number of items). This
 	 * structure is based on strict ordering, i.e., it is used for prediction.
@@ -53,6 +60,7 @@ public class RankOutput implements ExampleOutput {
 	 */
 	public RankOutput(int size) {
 		this.size = size;
+		this.numRankedItems = size;
 		this.weightedItems = new WeightedItem[size];
 		for (int item = 0; item < size; ++item)
 			weightedItems[item] = new WeightedItem(item, 0);
@@ -145,6 +153,21 @@ public class RankOutput implements ExampleOutput {
 		return weightedItems[index].item;
 	}
 
+	/**
+	 * Return the number of ranked items, i.e., the length of the ordered
+	 * prefix of the list of items. This must be used only for predicted
+	 * outputs.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfRankedItems() {
+		return numRankedItems;
+	}
+
+	public void setNumberOfRankedItems(int numRankedItems) {
+		this.numRankedItems = numRankedItems;
+	}
+
 	/**
 	 * Return the number of relevant items. This method can be called only for
 	 * golden structures.
@@ -14,6 +14,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
 
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefCandidateFilter;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CoreferenceMaxBranchInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CoreferenceMaxBranchInference.InferenceStrategy;
@@ -49,7 +50,9 @@ public class ApplyCoreferenceModel implements Command {
 		Options options = new Options();
 		options.addOption(OptionBuilder.withLongOpt("model")
 				.withArgName("filename").hasArg().isRequired()
-				.withDescription("File name with the model.").create());
+				.withDescription(
+						"File name with the model (binary or JSON format).")
+				.create());
 		options.addOption(OptionBuilder
 				.withLongOpt("hashsize")
 				.withArgName("size")
@@ -121,6 +124,7 @@ public class ApplyCoreferenceModel implements Command {
 								+ "clusters. The underlying trees are assumed "
 								+ "to be latent and are predicted using Kruskal "
 								+ "algorithm.").create());
+		TrainCoreference.addCandidateFilterOptions(options);
 
 		System.out.println();
 
@@ -175,6 +179,19 @@ public class ApplyCoreferenceModel implements Command {
 			System.exit(1);
 		}
 
+		/*
+		 * Candidate generation: the edges rejected by the filter are not
+		 * loaded and, thus, are not considered by the inference.
+		 */
+		CorefCandidateFilter candidateFilter = null;
+		try {
+			candidateFilter = TrainCoreference.createCandidateFilter(cmdLine,
+					false);
+		} catch (IllegalArgumentException e) {
+			LOG.error(e.getMessage());
+			System.exit(1);
+		}
+
 		// CoNLL scripts base path.
 		File conllBasePath = null;
 		if (scriptBasePathStr != null)
@@ -214,7 +231,9 @@ public class ApplyCoreferenceModel implements Command {
 			testDataset = new CorefColumnDataset(featureEncoding,
 					(Collection<String>) null);
 			testDataset.setCheckMultipleTrueEdges(false);
+			testDataset.setCandidateFilter(candidateFilter);
 			testDataset.load(testDatasetFileName);
+			TrainCoreference.logCandidateFilter("test", testDataset);
 
 		} catch (Exception e) {
 			LOG.error("Parsing command-line options", e);
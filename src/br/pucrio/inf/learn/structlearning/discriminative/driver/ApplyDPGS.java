@@ -0,0 +1,228 @@
+package br.pucrio.inf.learn.structlearning.discriminative.driver;
+
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSDualInference;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSFixedModel;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSInput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
+import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
+import br.pucrio.inf.learn.util.ParallelLoop;
+
+/**
+ * Driver to parse a dataset with a grandparent/siblings dependency parser
+ * saved by <code>TrainDPGS</code> (option --model) and, optionally, evaluate
+ * the result.
+ * 
+ * Sentences are parsed in parallel. Each thread uses its own inference object,
+ * while the model (whose weights are fixed) is shared by all threads.
+ * 
+ * @author eraldo
+ * 
+ */
+public class ApplyDPGS implements Command {
+
+	/**
+	 * Logging object.
+	 */
+	private static final Log LOG = LogFactory.getLog(ApplyDPGS.class);
+
+	@SuppressWarnings("static-access")
+	@Override
+	public void run(String[] args) {
+		Options options = new Options();
+		options.addOption(OptionBuilder.withLongOpt("model").isRequired()
+				.withArgName("filename").hasArg()
+				.withDescription("File name with the model.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("test")
+				.isRequired()
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Filename prefix with the factor files of the dataset "
+								+ "to be parsed (.edges, .grandparent, "
+								+ ".siblings.left and .siblings.right).")
+				.create());
+		options.addOption(OptionBuilder.withLongOpt("testconll").isRequired()
+				.withArgName("filename").hasArg()
+				.withDescription("Dataset to be parsed on CoNLL format.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("outputconll")
+				.isRequired()
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Output file (CoNLL format) with the predicted heads.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("script")
+				.withArgName("path")
+				.hasArg()
+				.withDescription(
+						"CoNLL evaluation script. If given, the predicted "
+								+ "heads are evaluated against the ones in "
+								+ "the --testconll file.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("maxsteps")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Maximum number of subgradient steps in the dual "
+								+ "decomposition (default: 500).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("beta")
+				.withArgName("double")
+				.hasArg()
+				.withDescription(
+						"Fraction of the edge factor weights that is "
+								+ "considered by the maximum branching "
+								+ "algorithm (default: 0.001).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("threads")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to generate features and to "
+								+ "parse sentences (default: 1).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("datacache")
+				.withDescription(
+						"Keep a binary cache of the parsed factors "
+								+ "(<prefix>.cache) and load it instead of "
+								+ "the factor files when it is newer than "
+								+ "them.").create());
+
+		// Parse the command-line arguments.
+		CommandLine cmdLine = null;
+		PosixParser parser = new PosixParser();
+		try {
+			cmdLine = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.err.println(e.getMessage());
+			CommandLineOptionsUtil.usage(getClass().getSimpleName(), options);
+		}
+
+		// Print the list of options along the values provided by the user.
+		CommandLineOptionsUtil.printOptionValues(cmdLine, options);
+
+		String modelFileName = cmdLine.getOptionValue("model");
+		String testPrefix = cmdLine.getOptionValue("test");
+		String testConllFileName = cmdLine.getOptionValue("testconll");
+		String outputConllFileName = cmdLine.getOptionValue("outputconll");
+		String script = cmdLine.getOptionValue("script");
+		int maxSubgradientSteps = Integer.parseInt(cmdLine.getOptionValue(
+				"maxsteps", "500"));
+		double beta = Double.parseDouble(cmdLine.getOptionValue("beta",
+				"0.001"));
+		int numThreads = Math.max(1,
+				Integer.parseInt(cmdLine.getOptionValue("threads", "1")));
+		boolean dataCache = cmdLine.hasOption("datacache");
+
+		try {
+			LOG.info(String.format("Loading model (%s)...", modelFileName));
+			DPGSFixedModel model = new DPGSFixedModel(modelFileName);
+			LOG.info(String.format("# non-zero parameters: %d",
+					model.getNumberOfNonZeroParameters()));
+
+			LOG.info(String.format("Loading dataset (%s)...", testPrefix));
+			DPGSDataset testset = TrainDPGS.createDataset(model
+					.getBasicFeatureEncoding());
+			TrainDPGS.loadFactors(testset, testPrefix, dataCache);
+
+			LOG.info("Generating features...");
+			model.loadTemplates(testset);
+			model.generateFeatures(testset, numThreads);
+
+			LOG.info("Parsing...");
+			DPGSOutput[] predicteds = parse(model, testset,
+					maxSubgradientSteps, beta, numThreads);
+
+			LOG.info(String.format("Saving output file (%s)...",
+					outputConllFileName));
+			testset.save(testConllFileName, outputConllFileName, predicteds);
+
+			if (script != null) {
+				LOG.info("Evaluating...");
+				TrainDPGS.evaluateWithConllScripts(script, testConllFileName,
+						outputConllFileName, true);
+			}
+		} catch (Exception e) {
+			LOG.error("Applying model", e);
+			System.exit(1);
+		}
+
+		LOG.info("Done!");
+	}
+
+	/**
+	 * Parse all sentences of the given dataset using the given number of
+	 * threads and return the predicted outputs.
+	 * 
+	 * @param model
+	 * @param dataset
+	 * @param maxSubgradientSteps
+	 * @param beta
+	 * @param numThreads
+	 * @return
+	 */
+	private static DPGSOutput[] parse(final DPGSFixedModel model,
+			DPGSDataset dataset, int maxSubgradientSteps, double beta,
+			int numThreads) {
+		final DPGSInput[] inputs = dataset.getInputs();
+		final DPGSOutput[] predicteds = new DPGSOutput[inputs.length];
+		for (int idx = 0; idx < inputs.length; ++idx)
+			predicteds[idx] = inputs[idx].createOutput();
+		final int[] numSteps = new int[inputs.length];
+
+		// One inference object per task.
+		final DPGSDualInference[] inferences = new DPGSDualInference[numThreads];
+		for (int idxTask = 0; idxTask < numThreads; ++idxTask) {
+			inferences[idxTask] = new DPGSDualInference(
+					dataset.getMaxNumberOfTokens());
+			inferences[idxTask]
+					.setMaxNumberOfSubgradientSteps(maxSubgradientSteps);
+			inferences[idxTask].setBeta(beta);
+		}
+
+		ExecutorService executor = null;
+		if (numThreads > 1)
+			executor = ParallelLoop.newDaemonExecutor(numThreads);
+		try {
+			new ParallelLoop() {
+				@Override
+				protected void iterate(int idxTask, int idxEx) {
+					inferences[idxTask].inference(model, inputs[idxEx],
+							predicteds[idxEx]);
+					numSteps[idxEx] = inferences[idxTask]
+							.getLastNumberOfSteps();
+				}
+			}.run(executor, numThreads, inputs.length);
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
+
+		// Statistics of the dual decomposition.
+		long totalSteps = 0;
+		for (int steps : numSteps)
+			totalSteps += steps;
+		if (inputs.length > 0)
+			LOG.info(String.format(
+					"Dual decomposition: %.2f steps per sentence",
+					((double) totalSteps) / inputs.length));
+
+		return predicteds;
+	}
+}
@@ -1,6 +1,6 @@
 package br.pucrio.inf.learn.structlearning.discriminative.driver;
 
-import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -9,17 +9,19 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.json.JSONException;
 
-import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefColumnDataset;
-import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateEvolutionModel;
-import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.PackedModel;
 import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
 import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
+import br.pucrio.inf.learn.util.ParallelLoop;
 
 /**
  * Driver to build a committee of coreference models. The committee model is
- * just the mean of the given models.
+ * the weighted sum of the given models.
+ * 
+ * Member models (JSON or binary format) are loaded in parallel as
+ * {@link PackedModel} objects, whose parameters are sorted primitive arrays.
+ * Then, the committee is built by a k-way merge of the member parameters.
  * 
  * @author eraldo
  * 
@@ -42,13 +44,25 @@ public class BuildCoreferenceCommittee implements Command {
 				.hasArg()
 				.isRequired()
 				.withDescription(
-						"File name with the model."
+						"File name with the model (JSON or binary format)."
 								+ " One can provide as many --model arguments as necessary."
 								+ " Each model filename can include its corresponding weight.")
 				.create());
 		options.addOption(OptionBuilder.withLongOpt("output")
 				.withArgName("filename").hasArg().isRequired()
 				.withDescription("Output model file name.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("binaryoutput")
+				.withDescription(
+						"Save the committee model in binary format instead "
+								+ "of JSON.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("threads")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to load the member models "
+								+ "(default: number of processors).").create());
 
 		// Parse the command-line arguments.
 		CommandLine cmdLine = null;
@@ -69,34 +83,70 @@ public class BuildCoreferenceCommittee implements Command {
 		 */
 		String[] modelFileNames = cmdLine.getOptionValues("model");
 		String outputFileName = cmdLine.getOptionValue("output");
+		boolean binaryOutput = cmdLine.hasOption("binaryoutput");
+		int numThreads = Math.max(1, Integer.parseInt(cmdLine.getOptionValue(
+				"threads", ""
+						+ Runtime.getRuntime().availableProcessors())));
 
-		CorefColumnDataset emptyDataset = new CorefColumnDataset();
-		DPTemplateEvolutionModel finalModel = new DPTemplateEvolutionModel(0);
-		try {
+		// Model filenames and optional weights.
+		final String[] fileNames = new String[modelFileNames.length];
+		double[] weights = new double[modelFileNames.length];
+		for (int idx = 0; idx < modelFileNames.length; ++idx) {
+			String[] fileAndWeight = modelFileNames[idx].split(",");
+			fileNames[idx] = fileAndWeight[0];
+			weights[idx] = 1d;
+			if (fileAndWeight.length > 1)
+				weights[idx] = Double.parseDouble(fileAndWeight[1]);
+			LOG.info(String.format("Member model '%s' with weight %f",
+					fileNames[idx], weights[idx]));
+		}
 
-			for (String modelFileName : modelFileNames) {
-				// Model filename and optional weight.
-				String[] fileAndWeight = modelFileName.split(",");
-				// Optional model weight.
-				double weight = 1d;
-				if (fileAndWeight.length > 1)
-					weight = Double.parseDouble(fileAndWeight[1]);
-				LOG.info(String.format("Loading model '%s' with weight %f...",
-						fileAndWeight[0], weight));
-				DPTemplateEvolutionModel memberModel = new DPTemplateEvolutionModel(
-						fileAndWeight[0], emptyDataset, false);
-				// Include model in the committee.
-				finalModel.sumModel(memberModel, weight);
+		try {
+			// Load the member models in parallel.
+			LOG.info("Loading member models...");
+			final PackedModel[] members = new PackedModel[fileNames.length];
+			final Exception[] errors = new Exception[fileNames.length];
+			numThreads = Math.min(numThreads, fileNames.length);
+			ExecutorService executor = null;
+			if (numThreads > 1)
+				executor = ParallelLoop.newDaemonExecutor(numThreads);
+			try {
+				new ParallelLoop() {
+					@Override
+					protected void iterate(int idxTask, int idxModel) {
+						try {
+							members[idxModel] = PackedModel
+									.load(fileNames[idxModel]);
+						} catch (Exception e) {
+							errors[idxModel] = e;
+						}
+					}
+				}.run(executor, numThreads, fileNames.length);
+			} finally {
+				if (executor != null)
+					executor.shutdown();
+			}
+			for (int idx = 0; idx < fileNames.length; ++idx) {
+				if (errors[idx] != null)
+					throw new Exception(String.format(
+							"Loading model '%s'", fileNames[idx]), errors[idx]);
+				LOG.info(String.format("Model '%s': %d parameters",
+						fileNames[idx], members[idx].getNumberOfParameters()));
 			}
 
-		} catch (JSONException e) {
-			LOG.error("Loading model", e);
-			System.exit(1);
-		} catch (IOException e) {
-			LOG.error("Loading model", e);
-			System.exit(1);
-		} catch (DatasetException e) {
-			LOG.error("Loading model", e);
+			// Merge the members.
+			LOG.info("Merging member models...");
+			PackedModel committee = PackedModel.merge(members, weights);
+			LOG.info(String.format("Committee model: %d parameters",
+					committee.getNumberOfParameters()));
+
+			// Save the committee model.
+			if (binaryOutput)
+				committee.write(outputFileName);
+			else
+				committee.writeJSON(outputFileName);
+		} catch (Exception e) {
+			LOG.error("Building committee", e);
 			System.exit(1);
 		}
 
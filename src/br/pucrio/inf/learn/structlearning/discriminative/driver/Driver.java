@@ -66,6 +66,11 @@ public class Driver {
 				"Train a dependency parser with "
 						+ "grandparent/siblings features."));
 
+		// Apply a dependency parser with grandparent/siblings features.
+		descriptions.add(new CommandDescription(new ApplyDPGS(), "ApplyDPGS",
+				"Parse a dataset with a grandparent/siblings dependency "
+						+ "parser saved by TrainDPGS."));
+
 		// Train a ranking model.
 		descriptions.add(new CommandDescription(new TrainRank(), "TrainRank",
 				"Train a ranking model."));
@@ -1,5 +1,7 @@
 package br.pucrio.inf.learn.structlearning.discriminative.driver;
 
+import java.util.Collection;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
@@ -8,7 +10,9 @@ import org.apache.commons.cli.PosixParser;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPBasicDataset;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.HybridStringEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.JavaHashCodeEncoding;
@@ -122,6 +126,32 @@ public class SerializeDPDataset implements Command {
 								+ " the proper size of the hash table will be"
 								+ " 2^n, where n is the specified number of"
 								+ " bits.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("column")
+				.withDescription(
+						"Input is a column-format (template-based) dataset.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("coref")
+				.withDescription(
+						"Input is a column-format coreference dataset "
+								+ "(latent output structures).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("templates")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Feature templates file name. If given, features are "
+								+ "generated and included in the serialized "
+								+ "dataset. Requires --column or --coref.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("punc")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Punctuation file name. Requires --column or --coref.")
+				.create());
 		options.addOption(OptionBuilder
 				.withLongOpt("javahash")
 				.withArgName("hash table size")
@@ -157,6 +187,15 @@ public class SerializeDPDataset implements Command {
 		String murmur2 = cmdLine.getOptionValue("murmur2");
 		String lookup3 = cmdLine.getOptionValue("lookup3");
 		String javaHashSizeStr = cmdLine.getOptionValue("javahash");
+		boolean column = cmdLine.hasOption("column");
+		boolean coref = cmdLine.hasOption("coref");
+		String templatesFileName = cmdLine.getOptionValue("templates");
+		String puncFileName = cmdLine.getOptionValue("punc");
+		if (!column && !coref
+				&& (templatesFileName != null || puncFileName != null)) {
+			LOG.error("--templates and --punc require --column or --coref");
+			System.exit(1);
+		}
 
 		DPBasicDataset inDataset = null;
 		FeatureEncoding<String> featureEncoding = null;
@@ -268,9 +307,34 @@ public class SerializeDPDataset implements Command {
 			LOG.info("Feature encoding: "
 					+ featureEncoding.getClass().getSimpleName());
 
-			LOG.info("Loading and serializing input dataset...");
-			inDataset = new DPBasicDataset(featureEncoding);
-			inDataset.serialize(inputFilename, outputFilename);
+			if (column || coref) {
+				DPColumnDataset colDataset;
+				if (coref) {
+					colDataset = new CorefColumnDataset(featureEncoding,
+							(Collection<String>) null);
+					((CorefColumnDataset) colDataset)
+							.setCheckMultipleTrueEdges(false);
+				} else
+					colDataset = new DPColumnDataset(featureEncoding,
+							(Collection<String>) null);
+				if (puncFileName != null)
+					colDataset.setFileNamePunc(puncFileName);
+
+				LOG.info("Loading input dataset...");
+				colDataset.load(inputFilename);
+
+				if (templatesFileName != null) {
+					LOG.info("Loading templates and generating features...");
+					colDataset.loadTemplates(templatesFileName, true);
+				}
+
+				LOG.info("Serializing dataset...");
+				colDataset.serialize(outputFilename);
+			} else {
+				LOG.info("Loading and serializing input dataset...");
+				inDataset = new DPBasicDataset(featureEncoding);
+				inDataset.serialize(inputFilename, outputFilename);
+			}
 
 			LOG.info("Feature encoding size: " + featureEncoding.size());
 
@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Collection;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -19,6 +20,7 @@ import org.apache.commons.logging.LogFactory;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.OnlineStructuredAlgorithm.LearnRateUpdateStrategy;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.TrainingListener;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron.LossAugmentedPerceptron;
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefCandidateFilter;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefInput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefModel;
@@ -29,6 +31,10 @@ import br.pucrio.inf.learn.structlearning.discriminative.application.coreference
 import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CoreferenceMaxBranchInference.InferenceStrategy;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateEvolutionModel;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.EdgePruner;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.EdgeScoreCache;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.FeatureTemplate;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.MaximumBranchingInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPInput;
@@ -38,9 +44,13 @@ import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEn
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.Murmur3Encoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
+import br.pucrio.inf.learn.structlearning.discriminative.evaluation.CoreferenceEvaluation;
+import br.pucrio.inf.learn.structlearning.discriminative.evaluation.CoreferenceEvaluation.Metric;
+import br.pucrio.inf.learn.structlearning.discriminative.evaluation.CoreferenceEvaluation.Score;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Inference;
 import br.pucrio.inf.learn.structlearning.discriminative.task.Model;
 import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
+import br.pucrio.inf.learn.util.ParallelLoop;
 
 /**
  * Driver to discriminatively train a coreference resolution model using
@@ -63,6 +73,12 @@ public class TrainCoreference implements Command {
 		options.addOption(OptionBuilder.withLongOpt("train").isRequired()
 				.withArgName("filename").hasArg()
 				.withDescription("Training dataset file name.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("serial")
+				.withDescription(
+						"Load the training dataset from a serialized (binary) "
+								+ "file, which can include generated features."
+								+ " See SerializeDPDataset.").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("inference")
 				.withArgName("inference strategy")
@@ -140,6 +156,12 @@ public class TrainCoreference implements Command {
 		options.addOption(OptionBuilder.withLongOpt("model")
 				.withArgName("filename").hasArg()
 				.withDescription("File name to save final model.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("jsonmodel")
+				.withDescription(
+						"Save the final model in JSON format instead of "
+								+ "the (faster to load) binary format.")
+				.create());
 		options.addOption(OptionBuilder.withLongOpt("test")
 				.withArgName("filename").hasArg()
 				.withDescription("Test dataset file name.").create());
@@ -147,9 +169,23 @@ public class TrainCoreference implements Command {
 				.withArgName("path").hasArg()
 				.withDescription("Base path for CoNLL and Python scripts.")
 				.create());
-		options.addOption(OptionBuilder.withLongOpt("conlltest")
-				.withArgName("filename").hasArg()
-				.withDescription("Test dataset on CoNLL format.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("conlltest")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Test dataset on CoNLL format. If given, the test "
+								+ "set is evaluated by the external CoNLL "
+								+ "scripts (see --scriptpath). Otherwise, "
+								+ "the built-in scorer is used.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("threads")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to score the test documents "
+								+ "with the built-in scorer (default: number "
+								+ "of available processors).").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("conllmetric")
 				.withArgName("")
@@ -196,6 +232,52 @@ public class TrainCoreference implements Command {
 		options.addOption(OptionBuilder.withLongOpt("nosingletons")
 				.withDescription("Remove singleton metions before evaluation.")
 				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prunek")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Prune the candidate edges before inference, "
+								+ "keeping only the given number of best "
+								+ "scored left mentions for each mention.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("pruneratio")
+				.withArgName("double")
+				.hasArg()
+				.withDescription(
+						"Prune candidate edges whose score ratio, "
+								+ "exp(score - best score), is lower than the "
+								+ "given value. Requires --prunek.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prunemodel")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Model used to score the edges for pruning. It must "
+								+ "have been trained with the same templates. "
+								+ "If not given, the current model is used. "
+								+ "Requires --prunek.").create());
+		addCandidateFilterOptions(options);
+		options.addOption(OptionBuilder
+				.withLongOpt("ftrhash")
+				.withArgName("size")
+				.hasOptionalArg()
+				.withDescription(
+						"Encode template features by 64-bit fingerprints "
+								+ "stored in a primitive map, which avoids "
+								+ "allocating feature objects. If a size is "
+								+ "given, fingerprints are hashed into this "
+								+ "number of codes (suffix 'b' for bits) and "
+								+ "the model cannot be saved.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("scorecache")
+				.withArgName("MB")
+				.hasArg()
+				.withDescription(
+						"Cache edge scores across epochs using at most the "
+								+ "given amount of memory (in megabytes).")
+				.create());
 
 		// Parse the command-line arguments.
 		CommandLine cmdLine = null;
@@ -219,6 +301,7 @@ public class TrainCoreference implements Command {
 		int numEpochs = Integer.parseInt(cmdLine.getOptionValue("numepochs",
 				"10"));
 		String modelFileName = cmdLine.getOptionValue("model");
+		boolean jsonModel = cmdLine.hasOption("jsonmodel");
 		String hashSizeStr = cmdLine.getOptionValue("hashsize");
 		String hashSeedStr = cmdLine.getOptionValue("hashseed");
 		String testDatasetFileName = cmdLine.getOptionValue("test");
@@ -252,15 +335,49 @@ public class TrainCoreference implements Command {
 		double rootLossFactor = Double.valueOf(cmdLine.getOptionValue(
 				"rootlossfactor", "-1"));
 		boolean considerSingletons = !cmdLine.hasOption("nosingletons");
+		boolean serialDataset = cmdLine.hasOption("serial");
+		String pruneKStr = cmdLine.getOptionValue("prunek");
+		double pruneRatio = Double.parseDouble(cmdLine.getOptionValue(
+				"pruneratio", "0"));
+		String pruneModelFileName = cmdLine.getOptionValue("prunemodel");
+		if (pruneKStr == null
+				&& (pruneModelFileName != null || pruneRatio != 0d)) {
+			LOG.error("--pruneratio and --prunemodel require --prunek");
+			System.exit(1);
+		}
+		String scoreCacheStr = cmdLine.getOptionValue("scorecache");
+		int numThreads = Math.max(1, Integer.parseInt(cmdLine.getOptionValue(
+				"threads", "" + Runtime.getRuntime().availableProcessors())));
+		boolean hashExplicitFeatures = cmdLine.hasOption("ftrhash");
+		// Validate the candidate generation options (one filter per dataset).
+		try {
+			createCandidateFilter(cmdLine, false);
+		} catch (IllegalArgumentException e) {
+			LOG.error(e.getMessage());
+			System.exit(1);
+		}
+		String explicitHashSizeStr = cmdLine.getOptionValue("ftrhash");
+
+		// --conlltest is only meaningful along with --test.
+		if (testDatasetFileName == null && conllTestFileName != null) {
+			LOG.error("--conlltest requires --test");
+			System.exit(1);
+		}
 
 		/*
-		 * If --test is provided, then --conlltest must be provided (and
-		 * vice-versa).
+		 * Without the CoNLL version of the test set, the built-in scorer is
+		 * used, which works directly on the output structures.
 		 */
-		if ((testDatasetFileName == null) != (conllTestFileName == null)) {
-			LOG.error("if --test is provided, then --conlltest"
-					+ " must be provided (and vice-versa)");
-			System.exit(1);
+		CoreferenceEvaluation evaluation = null;
+		Metric[] metrics = null;
+		if (testDatasetFileName != null && conllTestFileName == null) {
+			try {
+				metrics = Metric.parse(metric);
+			} catch (IllegalArgumentException e) {
+				LOG.error(e.getMessage());
+				System.exit(1);
+			}
+			evaluation = new CoreferenceEvaluation(0, considerSingletons);
 		}
 
 		DPColumnDataset inDataset = null;
@@ -306,10 +423,32 @@ public class TrainCoreference implements Command {
 						(Collection<String>) null);
 			}
 
-			inDataset.load(inputCorpusFileNames[0]);
+			if (hashExplicitFeatures) {
+				// Fingerprint-based encoding of template features.
+				HashedFeatureEncoding explicitEncoding;
+				if (explicitHashSizeStr == null)
+					explicitEncoding = new HashedFeatureEncoding();
+				else
+					explicitEncoding = new HashedFeatureEncoding(
+							TrainDP.parseValueDirectOrBits(explicitHashSizeStr));
+				inDataset.setExplicitEncoding(explicitEncoding);
+			}
+
+			if (serialDataset) {
+				inDataset.deserialize(inputCorpusFileNames[0]);
+			} else {
+				inDataset.setCandidateFilter(createCandidateFilter(
+						cmdLine, true));
+				inDataset.load(inputCorpusFileNames[0]);
+				logCandidateFilter("training", inDataset);
+			}
 
-			LOG.info("Loading templates and generating features...");
-			inDataset.loadTemplates(templatesFileName, true);
+			if (inDataset.getTemplates() == null) {
+				LOG.info("Loading templates and generating features...");
+				inDataset.loadTemplates(templatesFileName, true);
+			} else
+				LOG.info("Using templates and features from the serialized "
+						+ "dataset...");
 
 			// Generate explicit features from templates.
 			// inDataset.generateFeatures();
@@ -430,6 +569,51 @@ public class TrainCoreference implements Command {
 			return;
 		}
 
+		// Edge score cache.
+		EdgeScoreCache scoreCache = null;
+		if (scoreCacheStr != null) {
+			scoreCache = new EdgeScoreCache(
+					Long.parseLong(scoreCacheStr) * 1024 * 1024);
+			((DPTemplateEvolutionModel) model).setScoreCache(scoreCache);
+		}
+
+		// Edge pruning.
+		EdgePruner pruner = null;
+		if (pruneKStr != null) {
+			pruner = new EdgePruner(Integer.parseInt(pruneKStr), pruneRatio);
+			if (pruneModelFileName != null) {
+				if (!(inDataset instanceof CorefColumnDataset)) {
+					LOG.error("--prunemodel requires a latent inference strategy");
+					System.exit(1);
+				}
+				try {
+					LOG.info("Loading pruning model...");
+					/*
+					 * Loading a model resets the dataset templates, thus they
+					 * are restored afterwards.
+					 */
+					FeatureTemplate[][] templates = inDataset.getTemplates();
+					pruner.setPruningModel(new DPTemplateEvolutionModel(
+							pruneModelFileName, (CorefColumnDataset) inDataset,
+							true));
+					inDataset.setTemplates(templates);
+				} catch (Exception e) {
+					LOG.error("Loading pruning model " + pruneModelFileName, e);
+					System.exit(1);
+				}
+			}
+			if (inference instanceof MaximumBranchingInference)
+				((MaximumBranchingInference) inference).setEdgePruner(pruner);
+			else
+				((CoreferenceMaxBranchInference) inference)
+						.setEdgePruner(pruner);
+			if (pruner.getPruningModel() != null)
+				LOG.info(String.format(
+						"Pruning oracle recall on training set: %.4f",
+						reportPruningOracleRecall(pruner, model, inference,
+								inDataset)));
+		}
+
 		LOG.info("Setting learning algorithm...");
 
 		// Learning algorithm.
@@ -467,7 +651,10 @@ public class TrainCoreference implements Command {
 				} else {
 					testset = new DPColumnDataset(inDataset);
 				}
+				testset.setCandidateFilter(createCandidateFilter(
+						cmdLine, false));
 				testset.load(testDatasetFileName);
+				logCandidateFilter("test", testset);
 				LOG.info("Generating features from templates...");
 				testset.generateFeatures();
 				// Predicted test set filename.
@@ -475,9 +662,12 @@ public class TrainCoreference implements Command {
 				String testPredictedFileName = f.getAbsolutePath() + "."
 						+ new Random().nextInt() + ".pred";
 				// Set listener that perform evaluation after each epoch.
-				alg.setListener(new EvaluateModelListener(conllBasePath,
-						testPredictedFileName, conllTestFileName, metric,
-						testset, averageWeights, considerSingletons));
+				EvaluateModelListener listener = new EvaluateModelListener(
+						conllBasePath, testPredictedFileName,
+						conllTestFileName, metric, testset, averageWeights,
+						considerSingletons);
+				listener.setEvaluation(evaluation, metrics, numThreads);
+				alg.setListener(listener);
 			} catch (Exception e) {
 				LOG.error("Loading testset " + testDatasetFileName, e);
 				System.exit(1);
@@ -492,7 +682,11 @@ public class TrainCoreference implements Command {
 			try {
 				LOG.info(String.format("Saving model on file %s...",
 						modelFileName));
-				model.save(modelFileName, inDataset);
+				if (!jsonModel && model instanceof DPTemplateEvolutionModel)
+					((DPTemplateEvolutionModel) model).saveBinary(
+							modelFileName, inDataset);
+				else
+					model.save(modelFileName, inDataset);
 			} catch (FileNotFoundException e) {
 				LOG.error(e);
 			} catch (IOException e) {
@@ -514,7 +708,10 @@ public class TrainCoreference implements Command {
 				} else {
 					testset = new DPColumnDataset(inDataset);
 				}
+				testset.setCandidateFilter(createCandidateFilter(
+						cmdLine, false));
 				testset.load(testDatasetFileName);
+				logCandidateFilter("test", testset);
 				LOG.info("Generating features from templates...");
 				testset.generateFeatures();
 
@@ -534,39 +731,258 @@ public class TrainCoreference implements Command {
 				// Predict (tag the output sequence).
 				inference.inference(model, inputs[idx], predicteds[idx]);
 
-			// Predicted test set filename.
-			File f = new File(new File(testDatasetFileName).getName());
-			String testPredictedFileName = f.getAbsolutePath() + "."
-					+ new Random().nextInt() + ".pred";
-
-			try {
-				LOG.info("Saving test file (" + testPredictedFileName
-						+ ") with predicted column...");
-				testset.save(testPredictedFileName, predicteds);
-			} catch (Exception e) {
-				LOG.error("Saving predicted file " + testPredictedFileName, e);
-				System.exit(1);
-			}
-
-			try {
+			if (evaluation != null) {
+				// Built-in scorer: no temporary files.
 				LOG.info("Final evaluation:");
-				evaluateWithConllScripts(conllBasePath, testPredictedFileName,
-						conllTestFileName, metric, null, considerSingletons);
-			} catch (Exception e) {
-				LOG.error("Running evaluation scripts", e);
-				System.exit(1);
+				evaluate(evaluation, metrics, testset.getOutputs(),
+						predicteds, numThreads);
+			} else {
+				evaluateFinalModelWithConllScripts(conllBasePath,
+						testDatasetFileName, conllTestFileName, metric,
+						testset, predicteds, considerSingletons);
 			}
+		}
 
-			// Remove temporary predicted file with mention pairs.
-			new File(testPredictedFileName).delete();
+		if (pruner != null) {
+			LOG.info(String.format(
+					"Pruning oracle recall on training set: %.4f",
+					reportPruningOracleRecall(pruner, model, inference,
+							inDataset)));
+			if (testset != null)
+				LOG.info(String.format(
+						"Pruning oracle recall on test set: %.4f",
+						reportPruningOracleRecall(pruner, model, inference,
+								testset)));
 		}
 
 		LOG.info(String.format("# updated parameters: %d",
 				model.getNumberOfUpdatedParameters()));
 
+		if (scoreCache != null)
+			LOG.info(String.format("Edge score cache hit rate: %.4f",
+					scoreCache.getHitRate()));
+
 		LOG.info("Training done!");
 	}
 
+	/**
+	 * Add the candidate generation options (<code>--cand*</code>) to the given
+	 * options. They are shared by the drivers that load coreference datasets.
+	 * 
+	 * @param options
+	 */
+	@SuppressWarnings("static-access")
+	static void addCandidateFilterOptions(Options options) {
+		options.addOption(OptionBuilder
+				.withLongOpt("candmentions")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Candidate generation: keep only edges between "
+								+ "mentions whose indexes differ by at most "
+								+ "the given value (besides the ones kept by "
+								+ "--candsentences and --candkeep). Correct "
+								+ "edges are always kept in the training "
+								+ "set.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("candsentences")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Candidate generation: keep only edges between "
+								+ "mentions whose segments differ by at most "
+								+ "the given value (besides the ones kept by "
+								+ "--candmentions and --candkeep). Requires "
+								+ "--candsegments.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("candsegments")
+				.withArgName("left,right")
+				.hasArg()
+				.withDescription(
+						"Candidate generation: labels of the edge features "
+								+ "that give the segment of the left and of "
+								+ "the right mention (used by "
+								+ "--candsentences).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("candkeep")
+				.withArgName("label=value,...")
+				.hasArg()
+				.withDescription(
+						"Candidate generation: always keep edges whose "
+								+ "feature with the given label has the given "
+								+ "value (e.g., an exact string match "
+								+ "feature). Requires --candmentions or "
+								+ "--candsentences.").create());
+	}
+
+	/**
+	 * Create a candidate filter from the candidate generation options in the
+	 * given command line, or return <code>null</code> if no window is given.
+	 * Each dataset needs its own filter, since filters keep statistics.
+	 * 
+	 * @param cmdLine
+	 * @param keepCorrectEdges
+	 *            whether correct edges must always be kept (training sets).
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the options are inconsistent.
+	 */
+	static CorefCandidateFilter createCandidateFilter(CommandLine cmdLine,
+			boolean keepCorrectEdges) {
+		int candMentions = Integer.parseInt(cmdLine.getOptionValue(
+				"candmentions", "0"));
+		int candSentences = Integer.parseInt(cmdLine.getOptionValue(
+				"candsentences", "-1"));
+		String candSegments = cmdLine.getOptionValue("candsegments");
+		String candKeep = cmdLine.getOptionValue("candkeep");
+		if (candKeep != null && candMentions <= 0 && candSentences < 0)
+			throw new IllegalArgumentException(
+					"--candkeep requires --candmentions or --candsentences");
+		if (candSentences >= 0 && candSegments == null)
+			throw new IllegalArgumentException(
+					"--candsentences requires --candsegments");
+		if (candMentions <= 0 && candSentences < 0)
+			return null;
+
+		CorefCandidateFilter filter = new CorefCandidateFilter(candMentions,
+				candSentences);
+		if (candSegments != null) {
+			String[] labels = candSegments.split(",");
+			if (labels.length != 2)
+				throw new IllegalArgumentException(
+						"--candsegments must be given as left,right");
+			filter.setSegmentFeatures(labels[0].trim(), labels[1].trim());
+		}
+		if (candKeep != null)
+			filter.setKeepRules(candKeep);
+		filter.setKeepCorrectEdges(keepCorrectEdges);
+		return filter;
+	}
+
+	/**
+	 * Log the statistics of the candidate filter of the given dataset, if
+	 * any.
+	 * 
+	 * @param name
+	 * @param dataset
+	 */
+	static void logCandidateFilter(String name, DPColumnDataset dataset) {
+		CorefCandidateFilter filter = dataset.getCandidateFilter();
+		if (filter == null)
+			return;
+		LOG.info(String.format("Candidate generation on %s set: "
+				+ "%.4f of the edges kept, candidate recall %.4f", name,
+				filter.getEdgeRatio(), filter.getCandidateRecall()));
+	}
+
+	/**
+	 * Compute the oracle recall of the given pruner on the given dataset,
+	 * i.e., the fraction of mentions whose correct incoming edge survives the
+	 * pruning.
+	 * 
+	 * @param pruner
+	 * @param model
+	 * @param inference
+	 * @param dataset
+	 * @return
+	 */
+	private static double reportPruningOracleRecall(EdgePruner pruner,
+			DPModel model, Inference inference, DPColumnDataset dataset) {
+		int keepHead = -1;
+		if (inference instanceof CoreferenceMaxBranchInference)
+			keepHead = ((CoreferenceMaxBranchInference) inference)
+					.getUnprunedHead();
+		return pruner.computeOracleRecall(model, dataset.getInputs(),
+				dataset.getOutputs(), 0, keepHead);
+	}
+
+	/**
+	 * Save the predicted outputs of the final model to a temporary file and
+	 * evaluate them with the CoNLL scripts.
+	 * 
+	 * @param conllBasePath
+	 * @param testDatasetFileName
+	 * @param conllTestFileName
+	 * @param metric
+	 * @param testset
+	 * @param predicteds
+	 * @param considerSingletons
+	 */
+	private static void evaluateFinalModelWithConllScripts(File conllBasePath,
+			String testDatasetFileName, String conllTestFileName,
+			String metric, DPColumnDataset testset, DPOutput[] predicteds,
+			boolean considerSingletons) {
+		// Predicted test set filename.
+		File f = new File(new File(testDatasetFileName).getName());
+		String testPredictedFileName = f.getAbsolutePath() + "."
+				+ new Random().nextInt() + ".pred";
+
+		try {
+			LOG.info("Saving test file (" + testPredictedFileName
+					+ ") with predicted column...");
+			testset.save(testPredictedFileName, predicteds);
+		} catch (Exception e) {
+			LOG.error("Saving predicted file " + testPredictedFileName, e);
+			System.exit(1);
+		}
+
+		try {
+			LOG.info("Final evaluation:");
+			evaluateWithConllScripts(conllBasePath, testPredictedFileName,
+					conllTestFileName, metric, null, considerSingletons);
+		} catch (Exception e) {
+			LOG.error("Running evaluation scripts", e);
+			System.exit(1);
+		}
+
+		// Remove temporary predicted file with mention pairs.
+		new File(testPredictedFileName).delete();
+	}
+
+	/**
+	 * Evaluate the given predicted outputs with the built-in coreference
+	 * scorer and print the results in the format of the CoNLL scorer.
+	 * Documents are scored in parallel.
+	 * 
+	 * @param evaluation
+	 * @param metrics
+	 * @param corrects
+	 * @param predicteds
+	 * @param numThreads
+	 */
+	private static void evaluate(CoreferenceEvaluation evaluation,
+			Metric[] metrics, DPOutput[] corrects, DPOutput[] predicteds,
+			int numThreads) {
+		ExecutorService executor = null;
+		if (numThreads > 1)
+			executor = ParallelLoop.newDaemonExecutor(numThreads);
+		Score[] scores;
+		try {
+			scores = evaluation.evaluate(metrics, corrects, predicteds,
+					executor, numThreads);
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
+
+		for (int idxMetric = 0; idxMetric < metrics.length; ++idxMetric) {
+			Score score = scores[idxMetric];
+			LOG.info(String.format("*** Results for %s ***",
+					metrics[idxMetric].getName()));
+			if (score.getNonCoreferenceScore() == null) {
+				System.out.println("Coreference: " + score);
+			} else {
+				System.out.println("Coreference links: " + score);
+				System.out.println("Non-coreference links: "
+						+ score.getNonCoreferenceScore());
+				System.out.println(String.format(
+						"BLANC: Recall: %.2f%%\tPrecision: %.2f%%\t"
+								+ "F1: %.2f%%", 100 * score.getRecall(),
+						100 * score.getPrecision(), 100 * score.getF1()));
+			}
+		}
+	}
+
 	/**
 	 * Execute CoNLL evaluation scripts and print results.
 	 * 
@@ -684,6 +1100,16 @@ public class TrainCoreference implements Command {
 
 		private boolean considerSingletons;
 
+		/**
+		 * Built-in scorer. If it is <code>null</code>, the CoNLL scripts are
+		 * used.
+		 */
+		private CoreferenceEvaluation evaluation;
+
+		private Metric[] metrics;
+
+		private int numThreads;
+
 		public EvaluateModelListener(File conllBasePath,
 				String testPredictedFileName, String conllTestFileName,
 				String metric, DPColumnDataset testset, boolean averageWeights,
@@ -703,6 +1129,21 @@ public class TrainCoreference implements Command {
 				predicteds[idx] = (DPOutput) inputs[idx].createOutput();
 		}
 
+		/**
+		 * Use the given built-in scorer instead of the CoNLL scripts. If
+		 * <code>evaluation</code> is <code>null</code>, the scripts are used.
+		 * 
+		 * @param evaluation
+		 * @param metrics
+		 * @param numThreads
+		 */
+		public void setEvaluation(CoreferenceEvaluation evaluation,
+				Metric[] metrics, int numThreads) {
+			this.evaluation = evaluation;
+			this.metrics = metrics;
+			this.numThreads = numThreads;
+		}
+
 		@Override
 		public boolean beforeTraining(Inference impl, Model curModel) {
 			return true;
@@ -749,6 +1190,14 @@ public class TrainCoreference implements Command {
 				// Predict (tag the output sequence).
 				inferenceImpl.inference(model, inputs[idx], predicteds[idx]);
 
+			if (evaluation != null) {
+				// Built-in scorer: no temporary files.
+				LOG.info("Evaluation after epoch " + epoch + ":");
+				evaluate(evaluation, metrics, testset.getOutputs(), predicteds,
+						numThreads);
+				return true;
+			}
+
 			try {
 				String testPredictedOnEpochFileName = testPredictedFileName
 						+ ".epoch" + epoch;
@@ -1,6 +1,7 @@
 package br.pucrio.inf.learn.structlearning.discriminative.driver;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.Map;
@@ -24,6 +25,9 @@ import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPBasicM
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateEvolutionModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.DPTemplateModel;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.EdgePruner;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.EdgeScoreCache;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.MaximumBranchingInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPBasicDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPColumnDataset;
@@ -125,8 +129,15 @@ public class TrainDP implements Command {
 						"Feature templates file name. Implies that train and "
 								+ "test must be column-format datasets.")
 				.create());
-		options.addOption(OptionBuilder.withLongOpt("index")
-				.withDescription("Activate inverted index.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("index")
+				.withArgName("filename")
+				.hasOptionalArg()
+				.withDescription(
+						"Activate inverted index. If a file name is given, "
+								+ "the index is loaded from this file when it "
+								+ "exists, otherwise it is created and saved "
+								+ "there.").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("testexplicit")
 				.withDescription(
@@ -296,6 +307,41 @@ public class TrainDP implements Command {
 								+ " examples).").create());
 		options.addOption(OptionBuilder.withLongOpt("debug")
 				.withDescription("Print debug information.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prunek")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Prune the candidate edges before inference, "
+								+ "keeping only the given number of best "
+								+ "scored heads for each token.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("pruneratio")
+				.withArgName("double")
+				.hasArg()
+				.withDescription(
+						"Prune candidate edges whose score ratio, "
+								+ "exp(score - best score), is lower than the "
+								+ "given value. Requires --prunek.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("ftrhash")
+				.withArgName("size")
+				.hasOptionalArg()
+				.withDescription(
+						"Encode template features by 64-bit fingerprints "
+								+ "stored in a primitive map, which avoids "
+								+ "allocating feature objects. If a size is "
+								+ "given, fingerprints are hashed into this "
+								+ "number of codes (suffix 'b' for bits) and "
+								+ "the model cannot be saved.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("scorecache")
+				.withArgName("MB")
+				.hasArg()
+				.withDescription(
+						"Cache edge scores across epochs using at most the "
+								+ "given amount of memory (in megabytes). "
+								+ "Only for template-based models.").create());
 
 		// Parse the command-line arguments.
 		CommandLine cmdLine = null;
@@ -319,6 +365,7 @@ public class TrainDP implements Command {
 		String puncFileNameTest = cmdLine.getOptionValue("testpunc");
 		String templatesFileName = cmdLine.getOptionValue("templates");
 		boolean hasInvertedIndex = cmdLine.hasOption("index");
+		String indexFileName = cmdLine.getOptionValue("index");
 		String modelFileName = cmdLine.getOptionValue("model");
 		int numEpochs = Integer.parseInt(cmdLine.getOptionValue("numepochs",
 				"10"));
@@ -345,6 +392,16 @@ public class TrainDP implements Command {
 		String lrUpdateStrategy = cmdLine.getOptionValue("lrupdate");
 		boolean debug = cmdLine.hasOption("debug");
 		boolean serialDatasets = cmdLine.hasOption("serial");
+		String pruneKStr = cmdLine.getOptionValue("prunek");
+		double pruneRatio = Double.parseDouble(cmdLine.getOptionValue(
+				"pruneratio", "0"));
+		if (pruneKStr == null && pruneRatio != 0d) {
+			LOG.error("--pruneratio requires --prunek");
+			System.exit(1);
+		}
+		String scoreCacheStr = cmdLine.getOptionValue("scorecache");
+		boolean hashExplicitFeatures = cmdLine.hasOption("ftrhash");
+		String explicitHashSizeStr = cmdLine.getOptionValue("ftrhash");
 
 		DPDataset trainset = null;
 		int sizeEncoding = -1;
@@ -491,10 +548,28 @@ public class TrainDP implements Command {
 				if (puncFileNameTrain != null)
 					((DPColumnDataset) trainset)
 							.setFileNamePunc(puncFileNameTrain);
-				trainset.load(inputCorpusFileNames[0]);
-				LOG.info("Loading templates and generating features...");
-				((DPColumnDataset) trainset).loadTemplates(templatesFileName,
-						true);
+				if (hashExplicitFeatures) {
+					// Fingerprint-based encoding of template features.
+					HashedFeatureEncoding explicitEncoding;
+					if (explicitHashSizeStr == null)
+						explicitEncoding = new HashedFeatureEncoding();
+					else
+						explicitEncoding = new HashedFeatureEncoding(
+								parseValueDirectOrBits(explicitHashSizeStr));
+					((DPColumnDataset) trainset)
+							.setExplicitEncoding(explicitEncoding);
+				}
+				if (serialDatasets)
+					trainset.deserialize(inputCorpusFileNames[0]);
+				else
+					trainset.load(inputCorpusFileNames[0]);
+				if (((DPColumnDataset) trainset).getTemplates() == null) {
+					LOG.info("Loading templates and generating features...");
+					((DPColumnDataset) trainset).loadTemplates(
+							templatesFileName, true);
+				} else
+					LOG.info("Using templates and features from the "
+							+ "serialized dataset...");
 			}
 
 		} catch (Exception e) {
@@ -542,8 +617,19 @@ public class TrainDP implements Command {
 			LOG.info("Allocating initial model...");
 			model = new DPTemplateModel();
 			// Template-based model with inverted index.
-			LOG.info("Creating inverted index...");
-			((DPColumnDataset) trainset).createInvertedIndex();
+			if (indexFileName == null) {
+				LOG.info("Creating inverted index...");
+				((DPColumnDataset) trainset).createInvertedIndex();
+			} else {
+				LOG.info("Loading or creating inverted index...");
+				try {
+					((DPColumnDataset) trainset)
+							.createInvertedIndex(indexFileName);
+				} catch (IOException e) {
+					LOG.error("Inverted index file " + indexFileName, e);
+					System.exit(1);
+				}
+			}
 			// ((DPTemplateModel) model).init((DPColumnDataset) inDataset);
 		} else {
 			// Template-based model.
@@ -553,12 +639,31 @@ public class TrainDP implements Command {
 			model = new DPTemplateEvolutionModel(0);
 		}
 
+		// Edge score cache.
+		EdgeScoreCache scoreCache = null;
+		if (scoreCacheStr != null) {
+			if (!(model instanceof DPTemplateEvolutionModel)) {
+				LOG.error("--scorecache requires a template-based model");
+				System.exit(1);
+			}
+			scoreCache = new EdgeScoreCache(
+					Long.parseLong(scoreCacheStr) * 1024 * 1024);
+			((DPTemplateEvolutionModel) model).setScoreCache(scoreCache);
+		}
+
 		// Inference algorithm.
 		inference = new MaximumBranchingInference(
 				trainset.getMaxNumberOfTokens());
 		// TODO test
 		((MaximumBranchingInference) inference).setCheckUniqueRoot(false);
 
+		// Edge pruning.
+		EdgePruner pruner = null;
+		if (pruneKStr != null) {
+			pruner = new EdgePruner(Integer.parseInt(pruneKStr), pruneRatio);
+			((MaximumBranchingInference) inference).setEdgePruner(pruner);
+		}
+
 		// Learning rate update strategy.
 		LearnRateUpdateStrategy learningRateUpdateStrategy = LearnRateUpdateStrategy.NONE;
 		if (lrUpdateStrategy == null)
@@ -757,6 +862,12 @@ public class TrainDP implements Command {
 				// Write results (precision, recall and F-1) per class.
 				printAccuracyResults("Final performance:", results);
 
+				if (pruner != null)
+					LOG.info(String.format(
+							"Pruning oracle recall on test set: %.4f",
+							pruner.computeOracleRecall((DPModel) model,
+									inputs, outputs, 0, -1)));
+
 			} catch (Exception e) {
 				LOG.error("Loading testset " + testCorpusFileName, e);
 				System.exit(1);
@@ -778,9 +889,19 @@ public class TrainDP implements Command {
 			}
 		}
 
+		if (pruner != null)
+			LOG.info(String.format(
+					"Pruning oracle recall on training set: %.4f",
+					pruner.computeOracleRecall((DPModel) model,
+							trainset.getInputs(), trainset.getOutputs(), 0, -1)));
+
 		LOG.info(String.format("# updated parameters: %d",
 				((DPModel) model).getNumberOfUpdatedParameters()));
 
+		if (scoreCache != null)
+			LOG.info(String.format("Edge score cache hit rate: %.4f",
+					scoreCache.getHitRate()));
+
 		LOG.info("Training done!");
 	}
 
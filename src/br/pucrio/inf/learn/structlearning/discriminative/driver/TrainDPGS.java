@@ -16,12 +16,18 @@ import org.apache.commons.logging.LogFactory;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.OnlineStructuredAlgorithm.LearnRateUpdateStrategy;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.TrainingListener;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron.Perceptron;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.EdgeScoreCache;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSDualInference;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSEdgeInference;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSEdgeModel;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSException;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSInput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dpgs.DPGSPruner;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.FeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
@@ -97,6 +103,28 @@ public class TrainDPGS implements Command {
 				.withDescription(
 						"Maximum number of steps in the subgradient method.")
 				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("dualstep")
+				.withArgName("rule")
+				.hasArg()
+				.withDescription(
+						"Step size rule of the subgradient method: "
+								+ "DECREASING (default) or POLYAK.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("dualgap")
+				.withArgName("real number")
+				.hasArg()
+				.withDescription(
+						"Stop the subgradient method when the relative "
+								+ "primal-dual gap is below this value "
+								+ "(default: 0, i.e., only when it is closed).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("warmstart")
+				.withDescription(
+						"Start the dual variables of each test example from "
+								+ "the values reached in its previous "
+								+ "decoding.").create());
 		options.addOption(OptionBuilder
 				.withLongOpt("beta")
 				.withArgName("real number")
@@ -124,6 +152,77 @@ public class TrainDPGS implements Command {
 								+ " the algorithm returns only the final weight "
 								+ "vector instead of the average of each step "
 								+ "vectors.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("ftrhash")
+				.withArgName("size")
+				.hasOptionalArg()
+				.withDescription(
+						"Encode derived features by 64-bit fingerprints "
+								+ "stored in a primitive map, which avoids "
+								+ "allocating feature objects. If a size is "
+								+ "given, fingerprints are hashed into this "
+								+ "number of codes (suffix 'b' for bits).")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("threads")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Number of threads used to generate derived "
+								+ "features and to decode the per-head "
+								+ "subproblems of the grandparent/siblings "
+								+ "algorithm (default: 1).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("datacache")
+				.withDescription(
+						"Keep a binary cache of the parsed factors of each "
+								+ "dataset (<prefix>.cache) and load it "
+								+ "instead of the factor files when it is "
+								+ "newer than them.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("model")
+				.withArgName("filename")
+				.hasArg()
+				.withDescription(
+						"Save the trained model to the given (binary) file. "
+								+ "It can be used by the ApplyDPGS command.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("prunek")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Prune the grandparent/siblings factors, keeping only "
+								+ "factors whose edges are among the given "
+								+ "number of best scored heads of each "
+								+ "modifier (first-order scores).").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("pruneratio")
+				.withArgName("double")
+				.hasArg()
+				.withDescription(
+						"Prune edges whose score ratio, exp(score - best "
+								+ "score), is lower than the given value. "
+								+ "Requires --prunek.").create());
+		options.addOption(OptionBuilder
+				.withLongOpt("pruneepochs")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Train a dedicated first-order pruning model for the "
+								+ "given number of epochs before training the "
+								+ "grandparent/siblings model. If not given, "
+								+ "the edge factors of the current model are "
+								+ "used for pruning. Requires --prunek.")
+				.create());
+		options.addOption(OptionBuilder
+				.withLongOpt("scorecache")
+				.withArgName("MB")
+				.hasArg()
+				.withDescription(
+						"Cache factor scores across epochs using at most the "
+								+ "given amount of memory (in megabytes).")
+				.create());
 
 		// Parse the command-line arguments.
 		CommandLine cmdLine = null;
@@ -140,10 +239,6 @@ public class TrainDPGS implements Command {
 
 		// Training options.
 		String trainPrefix = cmdLine.getOptionValue("train");
-		String trainEdgeDatasetFileName = trainPrefix + ".edges";
-		String trainGPDatasetFileName = trainPrefix + ".grandparent";
-		String trainLSDatasetFileName = trainPrefix + ".siblings.left";
-		String trainRSDatasetFileName = trainPrefix + ".siblings.right";
 		String templatesPrefix = cmdLine.getOptionValue("templates");
 		String templatesEdgeFileName = templatesPrefix + ".edges";
 		String templatesGPFileName = templatesPrefix + ".grandparent";
@@ -154,19 +249,36 @@ public class TrainDPGS implements Command {
 		int maxSubgradientSteps = Integer.valueOf(cmdLine.getOptionValue(
 				"maxsteps", "500"));
 		double beta = Double.valueOf(cmdLine.getOptionValue("beta", "0.001"));
+		DPGSDualInference.StepSizeRule stepSizeRule = DPGSDualInference.StepSizeRule
+				.valueOf(cmdLine.getOptionValue("dualstep", "DECREASING")
+						.toUpperCase());
+		double gapTolerance = Double.parseDouble(cmdLine.getOptionValue(
+				"dualgap", "0"));
+		boolean warmStart = cmdLine.hasOption("warmstart");
 		// double lossWeight =
 		// Double.parseDouble(cmdLine.getOptionValue("lossweight", "0d"));
 		boolean averaged = !cmdLine.hasOption("noavg");
 		String seedStr = cmdLine.getOptionValue("seed");
+		String scoreCacheStr = cmdLine.getOptionValue("scorecache");
+		boolean dataCache = cmdLine.hasOption("datacache");
+		int numThreads = Integer.parseInt(cmdLine.getOptionValue("threads",
+				"1"));
+		boolean hashExplicitFeatures = cmdLine.hasOption("ftrhash");
+		String explicitHashSizeStr = cmdLine.getOptionValue("ftrhash");
+		String modelFileName = cmdLine.getOptionValue("model");
+		String pruneKStr = cmdLine.getOptionValue("prunek");
+		double pruneRatio = Double.parseDouble(cmdLine.getOptionValue(
+				"pruneratio", "0"));
+		String pruneEpochsStr = cmdLine.getOptionValue("pruneepochs");
+		if (pruneKStr == null && (pruneEpochsStr != null || pruneRatio != 0d)) {
+			LOG.error("--pruneratio and --pruneepochs require --prunek");
+			System.exit(1);
+		}
 
 		// Test options.
 		String testConllFileName = cmdLine.getOptionValue("testconll");
 		String outputConllFilename = cmdLine.getOptionValue("outputconll");
 		String testPrefix = cmdLine.getOptionValue("test");
-		String testEdgeDatasetFilename = testPrefix + ".edges";
-		String testGPDatasetFilename = testPrefix + ".grandparent";
-		String testLSDatasetFilename = testPrefix + ".siblings.left";
-		String testRSDatasetFilename = testPrefix + ".siblings.right";
 		String script = cmdLine.getOptionValue("script");
 		boolean evalPerEpoch = cmdLine.hasOption("perepoch");
 
@@ -193,45 +305,27 @@ public class TrainDPGS implements Command {
 			 */
 			featureEncoding = new StringMapEncoding();
 
-			trainDataset = new DPGSDataset(new String[] { "bet-postag",
-					"add-head-feats", "add-mod-feats" }, new String[] {
-					"bet-hm-postag", "bet-hg-postag", "add-head-feats",
-					"add-mod-feats", "add-gp-feats" }, new String[] {
-					"bet-hm-postag", "bet-ms-postag", "add-head-feats",
-					"add-mod-feats", "add-sib-feats" }, "|", featureEncoding);
-
-			LOG.info(String.format("Loading training edge dataset (%s)...",
-					trainEdgeDatasetFileName));
-			trainDataset.loadEdgeFactors(trainEdgeDatasetFileName);
-
-			LOG.info(String.format(
-					"Loading training left siblings dataset (%s)...",
-					trainLSDatasetFileName));
-			trainDataset.loadSiblingsFactors(trainLSDatasetFileName);
+			trainDataset = createDataset(featureEncoding);
 
-			LOG.info(String.format(
-					"Loading training right siblings dataset (%s)...",
-					trainRSDatasetFileName));
-			trainDataset.loadSiblingsFactors(trainRSDatasetFileName);
-
-			/*
-			 * Grandparent factors shall be the last ones to avoid problems with
-			 * short sentences (1 ordinary token), since grandparent factors do
-			 * not exist for such short sentences.
-			 */
-			LOG.info(String.format(
-					"Loading training grandparent dataset (%s)...",
-					trainGPDatasetFileName));
-			trainDataset.loadGrandparentFactors(trainGPDatasetFileName);
-
-			// Set modifier variables in all output structures.
-			trainDataset.setModifierVariables();
+			LOG.info(String.format("Loading training dataset (%s)...",
+					trainPrefix));
+			loadFactors(trainDataset, trainPrefix, dataCache);
 
 			// Template-based model.
 			LOG.info("Allocating initial model...");
 
 			// Model.
 			DPGSModel model = new DPGSModel(0);
+			if (hashExplicitFeatures) {
+				// Fingerprint-based encoding of derived features.
+				HashedFeatureEncoding explicitEncoding;
+				if (explicitHashSizeStr == null)
+					explicitEncoding = new HashedFeatureEncoding();
+				else
+					explicitEncoding = new HashedFeatureEncoding(
+							TrainDP.parseValueDirectOrBits(explicitHashSizeStr));
+				model.setExplicitFeatureEncoding(explicitEncoding);
+			}
 
 			// Templates.
 			model.loadEdgeTemplates(templatesEdgeFileName, trainDataset);
@@ -240,11 +334,42 @@ public class TrainDPGS implements Command {
 			model.loadRightSiblingsTemplates(templatesRSFileName, trainDataset);
 
 			// Generate derived features from templates.
-			model.generateFeatures(trainDataset);
+			model.generateFeatures(trainDataset, numThreads);
+
+			// Factor score cache.
+			EdgeScoreCache scoreCache = null;
+			if (scoreCacheStr != null) {
+				scoreCache = new EdgeScoreCache(
+						Long.parseLong(scoreCacheStr) * 1024 * 1024);
+				model.setScoreCache(scoreCache);
+			}
+
+			// Coarse-to-fine pruner (shared by training and test inference).
+			DPGSPruner pruner = null;
+			if (pruneKStr != null) {
+				pruner = new DPGSPruner(Integer.parseInt(pruneKStr), pruneRatio);
+				if (pruneEpochsStr != null) {
+					LOG.info("Training first-order pruning model...");
+					DPGSEdgeModel pruningModel = new DPGSEdgeModel(0);
+					Perceptron pruningAlg = new Perceptron(
+							new DPGSEdgeInference(
+									trainDataset.getMaxNumberOfTokens()),
+							pruningModel, Integer.parseInt(pruneEpochsStr),
+							1d, true, averaged, LearnRateUpdateStrategy.NONE);
+					if (seedStr != null)
+						pruningAlg.setSeed(Long.parseLong(seedStr));
+					pruningAlg.train(trainDataset.getInputs(),
+							trainDataset.getOutputs());
+					pruner.setPruningModel(pruningModel);
+					logPruningOracle("training", pruner, model, trainDataset);
+				}
+			}
 
 			// Inference algorithm for training.
 			DPGSInference inference = new DPGSInference(
 					trainDataset.getMaxNumberOfTokens());
+			inference.setNumberOfThreads(numThreads);
+			inference.setPruner(pruner);
 
 			// Learning algorithm.
 			Perceptron alg = new Perceptron(inference, model, numEpochs, 1d,
@@ -257,12 +382,10 @@ public class TrainDPGS implements Command {
 			if (testConllFileName != null && evalPerEpoch) {
 				LOG.info("Loading test factors...");
 				DPGSDataset testset = new DPGSDataset(trainDataset);
-				testset.loadEdgeFactors(testEdgeDatasetFilename);
-				testset.loadSiblingsFactors(testLSDatasetFilename);
-				testset.loadSiblingsFactors(testRSDatasetFilename);
-				testset.loadGrandparentFactors(testGPDatasetFilename);
-				testset.setModifierVariables();
-				model.generateFeatures(testset);
+				loadFactors(testset, testPrefix, dataCache);
+				model.generateFeatures(testset, numThreads);
+				if (pruner != null)
+					logPruningOracle("test", pruner, model, testset);
 
 				LOG.info("Evaluating...");
 
@@ -272,6 +395,11 @@ public class TrainDPGS implements Command {
 				inferenceDual
 						.setMaxNumberOfSubgradientSteps(maxSubgradientSteps);
 				inferenceDual.setBeta(beta);
+				inferenceDual.setNumberOfThreads(numThreads);
+				inferenceDual.setStepSizeRule(stepSizeRule);
+				inferenceDual.setGapTolerance(gapTolerance);
+				inferenceDual.setWarmStart(warmStart);
+				inferenceDual.setPruner(pruner);
 
 				// // TODO test
 				// DPGSInference inferenceDual = new DPGSInference(
@@ -292,15 +420,25 @@ public class TrainDPGS implements Command {
 			LOG.info(String.format("# updated parameters: %d",
 					model.getNumberOfUpdatedParameters()));
 
+			if (scoreCache != null)
+				LOG.info(String.format("Factor score cache hit rate: %.4f",
+						scoreCache.getHitRate()));
+
+			if (pruner != null && pruner.getPruningModel() == null)
+				logPruningOracle("training", pruner, model, trainDataset);
+
+			if (modelFileName != null) {
+				LOG.info(String.format("Saving model (%s)...", modelFileName));
+				model.save(modelFileName, trainDataset);
+			}
+
 			if (testConllFileName != null && !evalPerEpoch) {
 				LOG.info("Loading test factors...");
 				DPGSDataset testset = new DPGSDataset(trainDataset);
-				testset.loadEdgeFactors(testEdgeDatasetFilename);
-				testset.loadSiblingsFactors(testLSDatasetFilename);
-				testset.loadSiblingsFactors(testRSDatasetFilename);
-				testset.loadGrandparentFactors(testGPDatasetFilename);
-				testset.setModifierVariables();
-				model.generateFeatures(testset);
+				loadFactors(testset, testPrefix, dataCache);
+				model.generateFeatures(testset, numThreads);
+				if (pruner != null)
+					logPruningOracle("test", pruner, model, testset);
 
 				LOG.info("Evaluating...");
 
@@ -310,6 +448,11 @@ public class TrainDPGS implements Command {
 				inferenceDual
 						.setMaxNumberOfSubgradientSteps(maxSubgradientSteps);
 				inferenceDual.setBeta(beta);
+				inferenceDual.setNumberOfThreads(numThreads);
+				inferenceDual.setStepSizeRule(stepSizeRule);
+				inferenceDual.setGapTolerance(gapTolerance);
+				inferenceDual.setWarmStart(warmStart);
+				inferenceDual.setPruner(pruner);
 
 				// // TODO test
 				// DPGSInference inferenceDual = new DPGSInference(
@@ -321,6 +464,13 @@ public class TrainDPGS implements Command {
 						inferenceDual);
 				eval.setQuiet(true);
 				eval.afterEpoch(inferenceDual, model, -1, -1d, -1);
+
+				LOG.info(String.format(
+						"Dual decomposition: %.2f steps per sentence, "
+								+ "%.4f certified, average gap %f",
+						inferenceDual.getAverageSubGradStepsPerPrediction(),
+						inferenceDual.getCertificateRate(),
+						inferenceDual.getAverageGap()));
 			}
 
 			LOG.info("Training done!");
@@ -331,6 +481,99 @@ public class TrainDPGS implements Command {
 		}
 	}
 
+	/**
+	 * Load the edge, siblings (left and right) and grandparent factors of the
+	 * dataset with the given prefix. If <code>useCache</code> is
+	 * <code>true</code> and the binary cache <code>prefix.cache</code> is
+	 * newer than the factor files, load the cache instead. Otherwise, parse
+	 * the factor files and, if <code>useCache</code> is <code>true</code>,
+	 * save the cache for later runs.
+	 * 
+	 * @param dataset
+	 * @param prefix
+	 * @param useCache
+	 * @throws IOException
+	 * @throws DatasetException
+	 * @throws DPGSException
+	 */
+	static void loadFactors(DPGSDataset dataset, String prefix,
+			boolean useCache) throws IOException, DatasetException,
+			DPGSException {
+		String edgeFileName = prefix + ".edges";
+		String gpFileName = prefix + ".grandparent";
+		String lsFileName = prefix + ".siblings.left";
+		String rsFileName = prefix + ".siblings.right";
+		File cacheFile = new File(prefix + ".cache");
+
+		if (useCache && cacheFile.exists()) {
+			long lastModified = Math.max(
+					Math.max(new File(edgeFileName).lastModified(),
+							new File(gpFileName).lastModified()),
+					Math.max(new File(lsFileName).lastModified(), new File(
+							rsFileName).lastModified()));
+			if (cacheFile.lastModified() >= lastModified) {
+				LOG.info(String.format("Loading cached factors (%s)...",
+						cacheFile.getPath()));
+				dataset.loadCache(cacheFile.getPath());
+				return;
+			}
+			LOG.info(String.format("Cached factors (%s) are out of date",
+					cacheFile.getPath()));
+		}
+
+		/*
+		 * Factor files are parsed in parallel. Grandparent factors are
+		 * included at last to avoid problems with short sentences (1 ordinary
+		 * token), since grandparent factors do not exist for such short
+		 * sentences.
+		 */
+		dataset.loadFactors(edgeFileName, new String[] { lsFileName,
+				rsFileName }, gpFileName);
+
+		// Set modifier variables in all output structures.
+		dataset.setModifierVariables();
+
+		if (useCache) {
+			LOG.info(String.format("Saving cached factors (%s)...",
+					cacheFile.getPath()));
+			dataset.saveCache(cacheFile.getPath());
+		}
+	}
+
+	/**
+	 * Create an empty dataset with the multi-valued features of the
+	 * grandparent/siblings factor files and the given basic feature encoding.
+	 * 
+	 * @param featureEncoding
+	 * @return
+	 */
+	static DPGSDataset createDataset(FeatureEncoding<String> featureEncoding) {
+		return new DPGSDataset(new String[] { "bet-postag", "add-head-feats",
+				"add-mod-feats" }, new String[] { "bet-hm-postag",
+				"bet-hg-postag", "add-head-feats", "add-mod-feats",
+				"add-gp-feats" }, new String[] { "bet-hm-postag",
+				"bet-ms-postag", "add-head-feats", "add-mod-feats",
+				"add-sib-feats" }, "|", featureEncoding);
+	}
+
+	/**
+	 * Log the oracle accuracy of the given pruner on the given dataset, along
+	 * with the fraction of edges and factors that survive the pruning.
+	 * 
+	 * @param name
+	 * @param pruner
+	 * @param model
+	 * @param dataset
+	 */
+	private static void logPruningOracle(String name, DPGSPruner pruner,
+			DPGSModel model, DPGSDataset dataset) {
+		double oracle = pruner.computeOracleAccuracy(model,
+				dataset.getInputs(), dataset.getOutputs());
+		LOG.info(String.format("Pruning oracle accuracy on %s set: %.4f "
+				+ "(%.4f of the edges and %.4f of the factors kept)", name,
+				oracle, pruner.getLastEdgeRatio(), pruner.getLastFactorRatio()));
+	}
+
 	public static void evaluateWithConllScripts(String script,
 			String conllGolden, String conllPredicted, boolean quiet)
 			throws IOException, CommandException, InterruptedException {
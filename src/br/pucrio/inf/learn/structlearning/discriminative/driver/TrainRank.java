@@ -2,6 +2,7 @@ package br.pucrio.inf.learn.structlearning.discriminative.driver;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -13,14 +14,17 @@ import org.apache.commons.logging.LogFactory;
 
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.OnlineStructuredAlgorithm.LearnRateUpdateStrategy;
 import br.pucrio.inf.learn.structlearning.discriminative.algorithm.perceptron.LossAugmentedPerceptron;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.HashedFeatureEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankDataset;
 import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankInference;
 import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankInput;
 import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankModel;
 import br.pucrio.inf.learn.structlearning.discriminative.application.rank.RankOutput;
 import br.pucrio.inf.learn.structlearning.discriminative.data.DatasetException;
+import br.pucrio.inf.learn.structlearning.discriminative.data.encoding.StringMapEncoding;
 import br.pucrio.inf.learn.structlearning.discriminative.driver.Driver.Command;
 import br.pucrio.inf.learn.util.CommandLineOptionsUtil;
+import br.pucrio.inf.learn.util.ParallelLoop;
 
 /**
  * Driver to discriminatively train a ranking model.
@@ -112,6 +116,36 @@ public class TrainRank implements Command {
 								+ "vector instead of the average of each step "
 								+ "vectors.").create());
 
+		options.addOption(OptionBuilder
+				.withLongOpt("ftrhash")
+				.withArgName("size")
+				.hasOptionalArg()
+				.withDescription(
+						"Encode template features by 64-bit fingerprints "
+								+ "stored in a primitive map, which avoids "
+								+ "allocating feature objects. If a size is "
+								+ "given, fingerprints are hashed into this "
+								+ "number of codes (suffix 'b' for bits).")
+				.create());
+
+		options.addOption(OptionBuilder
+				.withLongOpt("topk")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Rank only the given number of best items of each "
+								+ "query (default: rank all items). Training "
+								+ "and evaluation consider only these items.")
+				.create());
+
+		options.addOption(OptionBuilder
+				.withLongOpt("threads")
+				.withArgName("integer")
+				.hasArg()
+				.withDescription(
+						"Number of threads to score the items of large "
+								+ "queries (default: 1).").create());
+
 		// Parse the command-line arguments.
 		CommandLine cmdLine = null;
 		PosixParser parser = new PosixParser();
@@ -146,12 +180,28 @@ public class TrainRank implements Command {
 		double lossWeight = Double.parseDouble(cmdLine.getOptionValue(
 				"lossweight", "0d"));
 		boolean averageWeights = !cmdLine.hasOption("noavg");
+		boolean hashExplicitFeatures = cmdLine.hasOption("ftrhash");
+		String explicitHashSizeStr = cmdLine.getOptionValue("ftrhash");
+		int topK = Integer.parseInt(cmdLine.getOptionValue("topk", "0"));
+		int numThreads = Integer.parseInt(cmdLine.getOptionValue("threads",
+				"1"));
 
 		RankDataset inDataset = null;
 
 		try {
 			LOG.info("Loading train dataset...");
-			inDataset = new RankDataset(inputCorpusFileName);
+			if (hashExplicitFeatures) {
+				// Fingerprint-based encoding of template features.
+				HashedFeatureEncoding explicitEncoding;
+				if (explicitHashSizeStr == null)
+					explicitEncoding = new HashedFeatureEncoding();
+				else
+					explicitEncoding = new HashedFeatureEncoding(
+							TrainDP.parseValueDirectOrBits(explicitHashSizeStr));
+				inDataset = new RankDataset(inputCorpusFileName,
+						new StringMapEncoding(), explicitEncoding);
+			} else
+				inDataset = new RankDataset(inputCorpusFileName);
 		} catch (IOException e) {
 			LOG.error("Loading train dataset", e);
 			System.exit(1);
@@ -169,7 +219,12 @@ public class TrainRank implements Command {
 		}
 
 		// Inference (prediction) algorithm.
-		RankInference inference = new RankInference();
+		RankInference inference = new RankInference(topK);
+		ExecutorService executor = null;
+		if (numThreads > 1) {
+			executor = ParallelLoop.newDaemonExecutor(numThreads);
+			inference.setExecutor(executor, numThreads);
+		}
 
 		// Template-based model.
 		LOG.info("Allocating initial model...");
@@ -247,6 +302,9 @@ public class TrainRank implements Command {
 					.format("Test dataset predicted with MAP = %f.", map));
 
 		}
+
+		if (executor != null)
+			executor.shutdown();
 	}
 
 }
@@ -0,0 +1,600 @@
+package br.pucrio.inf.learn.structlearning.discriminative.evaluation;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import br.pucrio.inf.learn.structlearning.discriminative.application.coreference.CorefOutput;
+import br.pucrio.inf.learn.structlearning.discriminative.application.dp.data.DPOutput;
+import br.pucrio.inf.learn.util.HungarianAlgorithm;
+import br.pucrio.inf.learn.util.ParallelLoop;
+import br.pucrio.inf.learn.util.maxbranching.DisjointSets;
+
+/**
+ * Coreference resolution metrics computed in memory, directly on the output
+ * structures. The implemented metrics follow the definitions of the CoNLL
+ * scorer (version 4): MUC (Vilain et al, 1995), B-Cubed (Bagga and Baldwin,
+ * 1998), CEAF (Luo et al, 2005) with mention-based and entity-based
+ * similarities, and BLANC (Recasens and Hovy).
+ * 
+ * Each example is a document whose mentions are the tokens of the output
+ * structure. The mention <code>root</code> is artificial and does not belong
+ * to any entity. The key (correct) clustering is given by the cluster ids of
+ * <code>CorefOutput</code> objects or, for ordinary <code>DPOutput</code>
+ * objects, by the connected components of the correct trees. The response
+ * (predicted) clustering is always given by the connected components of the
+ * predicted trees, ignoring edges from the artificial root.
+ * 
+ * As in the CoNLL scorer, numerators and denominators are summed over
+ * documents before computing the final values (micro average). Documents are
+ * scored in parallel when an executor is given.
+ * 
+ * @author eraldo
+ * 
+ */
+public class CoreferenceEvaluation {
+
+	/**
+	 * Available metrics.
+	 */
+	public static enum Metric {
+		/**
+		 * Link-based metric (Vilain et al, 1995).
+		 */
+		MUC("muc"),
+
+		/**
+		 * Mention-based metric (Bagga and Baldwin, 1998).
+		 */
+		BCUB("bcub"),
+
+		/**
+		 * CEAF (Luo et al, 2005) with mention-based similarity.
+		 */
+		CEAFM("ceafm"),
+
+		/**
+		 * CEAF (Luo et al, 2005) with entity-based similarity.
+		 */
+		CEAFE("ceafe"),
+
+		/**
+		 * Rand index for coreference (Recasens and Hovy).
+		 */
+		BLANC("blanc");
+
+		/**
+		 * Name used by the CoNLL scorer.
+		 */
+		private final String name;
+
+		private Metric(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Parse a comma-separated list of metric names as accepted by the CoNLL
+		 * scorer. The name <code>all</code> stands for all metrics.
+		 * 
+		 * @param names
+		 * @return
+		 */
+		public static Metric[] parse(String names) {
+			String[] vals = names.split(",");
+			Metric[] metrics = new Metric[vals.length];
+			for (int idx = 0; idx < vals.length; ++idx) {
+				String val = vals[idx].trim();
+				if (val.equals("all"))
+					return values();
+				metrics[idx] = null;
+				for (Metric metric : values()) {
+					if (metric.name.equals(val)) {
+						metrics[idx] = metric;
+						break;
+					}
+				}
+				if (metrics[idx] == null)
+					throw new IllegalArgumentException(
+							"Unknown coreference metric " + val);
+			}
+			return metrics;
+		}
+	}
+
+	/**
+	 * Recall and precision as fractions whose numerators and denominators can
+	 * be summed over documents. For BLANC, this object represents the
+	 * coreference links and <code>getNonCoreferenceScore()</code> returns the
+	 * non-coreference links. The final values are then the average of both.
+	 * 
+	 * @author eraldo
+	 * 
+	 */
+	public static class Score {
+
+		private double recallNumerator;
+
+		private double recallDenominator;
+
+		private double precisionNumerator;
+
+		private double precisionDenominator;
+
+		/**
+		 * Non-coreference links (only for BLANC).
+		 */
+		private Score nonCoreference;
+
+		public Score() {
+		}
+
+		public Score(double recallNumerator, double recallDenominator,
+				double precisionNumerator, double precisionDenominator) {
+			this.recallNumerator = recallNumerator;
+			this.recallDenominator = recallDenominator;
+			this.precisionNumerator = precisionNumerator;
+			this.precisionDenominator = precisionDenominator;
+		}
+
+		/**
+		 * Sum the numerators and denominators of the given score to this one.
+		 * 
+		 * @param score
+		 */
+		public void add(Score score) {
+			recallNumerator += score.recallNumerator;
+			recallDenominator += score.recallDenominator;
+			precisionNumerator += score.precisionNumerator;
+			precisionDenominator += score.precisionDenominator;
+			if (score.nonCoreference != null) {
+				if (nonCoreference == null)
+					nonCoreference = new Score();
+				nonCoreference.add(score.nonCoreference);
+			}
+		}
+
+		public double getRecallNumerator() {
+			return recallNumerator;
+		}
+
+		public double getRecallDenominator() {
+			return recallDenominator;
+		}
+
+		public double getPrecisionNumerator() {
+			return precisionNumerator;
+		}
+
+		public double getPrecisionDenominator() {
+			return precisionDenominator;
+		}
+
+		public Score getNonCoreferenceScore() {
+			return nonCoreference;
+		}
+
+		public double getRecall() {
+			double r = ratio(recallNumerator, recallDenominator);
+			if (nonCoreference == null)
+				return r;
+			return (r + nonCoreference.getRecall()) / 2;
+		}
+
+		public double getPrecision() {
+			double p = ratio(precisionNumerator, precisionDenominator);
+			if (nonCoreference == null)
+				return p;
+			return (p + nonCoreference.getPrecision()) / 2;
+		}
+
+		public double getF1() {
+			double f = f1(ratio(recallNumerator, recallDenominator),
+					ratio(precisionNumerator, precisionDenominator));
+			if (nonCoreference == null)
+				return f;
+			return (f + nonCoreference.getF1()) / 2;
+		}
+
+		/**
+		 * Return a line in the format of the CoNLL scorer output.
+		 */
+		@Override
+		public String toString() {
+			return String.format("Recall: (%.2f / %.2f) %.2f%%\t"
+					+ "Precision: (%.2f / %.2f) %.2f%%\tF1: %.2f%%",
+					recallNumerator, recallDenominator,
+					100 * ratio(recallNumerator, recallDenominator),
+					precisionNumerator, precisionDenominator,
+					100 * ratio(precisionNumerator, precisionDenominator),
+					100 * f1(ratio(recallNumerator, recallDenominator),
+							ratio(precisionNumerator, precisionDenominator)));
+		}
+
+		private static double ratio(double numerator, double denominator) {
+			if (denominator == 0d)
+				return 0d;
+			return numerator / denominator;
+		}
+
+		private static double f1(double recall, double precision) {
+			if (recall + precision == 0d)
+				return 0d;
+			return 2 * recall * precision / (recall + precision);
+		}
+	}
+
+	/**
+	 * Index of the artificial mention (negative if there is none).
+	 */
+	private int root;
+
+	/**
+	 * Whether singleton entities are considered.
+	 */
+	private boolean considerSingletons;
+
+	/**
+	 * Create an evaluation object.
+	 * 
+	 * @param root
+	 *            index of the artificial mention (negative if there is none).
+	 * @param considerSingletons
+	 *            if <code>false</code>, singleton entities are removed from
+	 *            the key and the response before evaluation.
+	 */
+	public CoreferenceEvaluation(int root, boolean considerSingletons) {
+		this.root = root;
+		this.considerSingletons = considerSingletons;
+	}
+
+	/**
+	 * Evaluate the given predicted outputs against the correct ones using the
+	 * given metrics. Documents are scored in parallel by
+	 * <code>numberOfThreads</code> tasks in the given executor (which can be
+	 * <code>null</code>). The returned array contains one score for each
+	 * metric in the same order.
+	 * 
+	 * @param metrics
+	 * @param corrects
+	 * @param predicteds
+	 * @param executor
+	 * @param numberOfThreads
+	 * @return
+	 */
+	public Score[] evaluate(final Metric[] metrics, final DPOutput[] corrects,
+			final DPOutput[] predicteds, ExecutorService executor,
+			int numberOfThreads) {
+		final Score[][] docScores = new Score[corrects.length][];
+		new ParallelLoop() {
+			@Override
+			protected void iterate(int idxTask, int idxDoc) {
+				docScores[idxDoc] = evaluate(metrics, corrects[idxDoc],
+						predicteds[idxDoc]);
+			}
+		}.run(executor, numberOfThreads, corrects.length);
+
+		// Sum up documents in a fixed order.
+		Score[] scores = new Score[metrics.length];
+		for (int idxMetric = 0; idxMetric < metrics.length; ++idxMetric)
+			scores[idxMetric] = new Score();
+		for (Score[] doc : docScores)
+			for (int idxMetric = 0; idxMetric < metrics.length; ++idxMetric)
+				scores[idxMetric].add(doc[idxMetric]);
+		return scores;
+	}
+
+	/**
+	 * Evaluate one document using the given metrics.
+	 * 
+	 * @param metrics
+	 * @param correct
+	 * @param predicted
+	 * @return
+	 */
+	public Score[] evaluate(Metric[] metrics, DPOutput correct,
+			DPOutput predicted) {
+		int[] keySizes = new int[correct.size()];
+		int[] key = getEntities(correct, true, keySizes);
+		int[] responseSizes = new int[predicted.size()];
+		int[] response = getEntities(predicted, false, responseSizes);
+		int numKey = countEntities(keySizes);
+		int numResponse = countEntities(responseSizes);
+		keySizes = Arrays.copyOf(keySizes, numKey);
+		responseSizes = Arrays.copyOf(responseSizes, numResponse);
+
+		// Number of common mentions for each pair of entities.
+		int[][] overlap = new int[numKey][numResponse];
+		int numMentions = Math.min(key.length, response.length);
+		for (int mention = 0; mention < numMentions; ++mention)
+			if (key[mention] >= 0 && response[mention] >= 0)
+				++overlap[key[mention]][response[mention]];
+
+		Score[] scores = new Score[metrics.length];
+		for (int idxMetric = 0; idxMetric < metrics.length; ++idxMetric) {
+			switch (metrics[idxMetric]) {
+			case MUC:
+				scores[idxMetric] = muc(overlap, keySizes, responseSizes);
+				break;
+			case BCUB:
+				scores[idxMetric] = bcub(overlap, keySizes, responseSizes);
+				break;
+			case CEAFM:
+				scores[idxMetric] = ceaf(overlap, keySizes, responseSizes,
+						false);
+				break;
+			case CEAFE:
+				scores[idxMetric] = ceaf(overlap, keySizes, responseSizes,
+						true);
+				break;
+			case BLANC:
+				scores[idxMetric] = blanc(overlap, keySizes, responseSizes);
+				break;
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Compute the entity (cluster index) of each mention of the given output
+	 * and the size of each entity. Entity indexes are consecutive, starting at
+	 * zero, in the order of their first mentions. The artificial mention and
+	 * mentions in removed singleton entities get the entity index
+	 * <code>-1</code>.
+	 * 
+	 * @param output
+	 * @param correct
+	 *            whether the output is a correct one, in which case the cluster
+	 *            ids of <code>CorefOutput</code> objects are used.
+	 * @param sizes
+	 *            array to be filled with the size of each entity.
+	 * @return
+	 */
+	private int[] getEntities(DPOutput output, boolean correct, int[] sizes) {
+		int numMentions = output.size();
+		int[] clusterIds = new int[numMentions];
+		if (correct && output instanceof CorefOutput) {
+			CorefOutput corefOutput = (CorefOutput) output;
+			for (int mention = 0; mention < numMentions; ++mention)
+				clusterIds[mention] = corefOutput.getClusterId(mention);
+		} else {
+			DisjointSets clustering = new DisjointSets(numMentions);
+			for (int mention = 0; mention < numMentions; ++mention) {
+				int head = output.getHead(mention);
+				if (mention != root && head != root && head >= 0
+						&& head != mention)
+					clustering.unionElements(head, mention);
+			}
+			for (int mention = 0; mention < numMentions; ++mention)
+				clusterIds[mention] = clustering.find(mention);
+		}
+
+		// Cluster sizes (indexed by cluster id).
+		int[] clusterSizes = new int[numMentions];
+		for (int mention = 0; mention < numMentions; ++mention)
+			if (mention != root)
+				++clusterSizes[clusterIds[mention]];
+
+		// Consecutive entity indexes.
+		int[] entityOfCluster = new int[numMentions];
+		Arrays.fill(entityOfCluster, -1);
+		int[] entities = new int[numMentions];
+		int numEntities = 0;
+		for (int mention = 0; mention < numMentions; ++mention) {
+			int clusterId = clusterIds[mention];
+			if (mention == root
+					|| (!considerSingletons && clusterSizes[clusterId] < 2)) {
+				entities[mention] = -1;
+				continue;
+			}
+			if (entityOfCluster[clusterId] < 0)
+				entityOfCluster[clusterId] = numEntities++;
+			entities[mention] = entityOfCluster[clusterId];
+			++sizes[entities[mention]];
+		}
+		return entities;
+	}
+
+	/**
+	 * Return the number of non-empty entities in the given array of sizes,
+	 * which are always the first ones.
+	 * 
+	 * @param sizes
+	 * @return
+	 */
+	private static int countEntities(int[] sizes) {
+		int num = 0;
+		while (num < sizes.length && sizes[num] > 0)
+			++num;
+		return num;
+	}
+
+	/**
+	 * MUC metric. The recall of a key entity K is given by
+	 * <code>|K| - |p(K)|</code> over <code>|K| - 1</code>, where
+	 * <code>p(K)</code> is the partition of K by the response entities
+	 * (mentions not in the response are singleton parts). The precision is
+	 * symmetric.
+	 * 
+	 * @param overlap
+	 * @param keySizes
+	 * @param responseSizes
+	 * @return
+	 */
+	public static Score muc(int[][] overlap, int[] keySizes,
+			int[] responseSizes) {
+		int numKey = keySizes.length;
+		int numResponse = responseSizes.length;
+		int[] numPartsOfResponse = new int[numResponse];
+		int[] coveredOfResponse = new int[numResponse];
+		double recallNum = 0d;
+		double recallDen = 0d;
+		for (int k = 0; k < numKey; ++k) {
+			int numParts = 0;
+			int covered = 0;
+			for (int r = 0; r < numResponse; ++r) {
+				int c = overlap[k][r];
+				if (c > 0) {
+					++numParts;
+					covered += c;
+					++numPartsOfResponse[r];
+					coveredOfResponse[r] += c;
+				}
+			}
+			// Mentions not in any response entity.
+			numParts += keySizes[k] - covered;
+			recallNum += keySizes[k] - numParts;
+			recallDen += keySizes[k] - 1;
+		}
+		double precisionNum = 0d;
+		double precisionDen = 0d;
+		for (int r = 0; r < numResponse; ++r) {
+			int numParts = numPartsOfResponse[r] + responseSizes[r]
+					- coveredOfResponse[r];
+			precisionNum += responseSizes[r] - numParts;
+			precisionDen += responseSizes[r] - 1;
+		}
+		return new Score(recallNum, recallDen, precisionNum, precisionDen);
+	}
+
+	/**
+	 * B-Cubed metric. The recall of each key mention m is
+	 * <code>|K(m) & R(m)| / |K(m)|</code>, where K(m) and R(m) are the key and
+	 * the response entities of m. The precision is symmetric.
+	 * 
+	 * @param overlap
+	 * @param keySizes
+	 * @param responseSizes
+	 * @return
+	 */
+	public static Score bcub(int[][] overlap, int[] keySizes,
+			int[] responseSizes) {
+		int numKey = keySizes.length;
+		int numResponse = responseSizes.length;
+		double recallNum = 0d;
+		double precisionNum = 0d;
+		for (int k = 0; k < numKey; ++k) {
+			for (int r = 0; r < numResponse; ++r) {
+				double c = overlap[k][r];
+				if (c > 0) {
+					recallNum += c * c / keySizes[k];
+					precisionNum += c * c / responseSizes[r];
+				}
+			}
+		}
+		return new Score(recallNum, sum(keySizes), precisionNum,
+				sum(responseSizes));
+	}
+
+	/**
+	 * CEAF metric. Key and response entities are aligned one-to-one by a
+	 * maximum weight matching on their similarities. With mention-based
+	 * similarity (<code>entityBased</code> equal to <code>false</code>), the
+	 * similarity is the number of common mentions and the matching weight is
+	 * divided by the number of key (recall) and response (precision)
+	 * mentions. With entity-based similarity, the similarity of two entities
+	 * is <code>2 * |K & R| / (|K| + |R|)</code> and the weight is divided by
+	 * the number of key and response entities.
+	 * 
+	 * @param overlap
+	 * @param keySizes
+	 * @param responseSizes
+	 * @param entityBased
+	 * @return
+	 */
+	public static Score ceaf(int[][] overlap, int[] keySizes,
+			int[] responseSizes, boolean entityBased) {
+		int numKey = keySizes.length;
+		int numResponse = responseSizes.length;
+		double[][] similarity = new double[numKey][numResponse];
+		for (int k = 0; k < numKey; ++k) {
+			for (int r = 0; r < numResponse; ++r) {
+				int c = overlap[k][r];
+				if (c > 0) {
+					if (entityBased)
+						similarity[k][r] = 2d * c
+								/ (keySizes[k] + responseSizes[r]);
+					else
+						similarity[k][r] = c;
+				}
+			}
+		}
+		HungarianAlgorithm matching = new HungarianAlgorithm(Math.max(numKey,
+				numResponse));
+		double best = matching.maxWeightAssignment(similarity, numKey,
+				numResponse, null);
+		if (entityBased)
+			return new Score(best, numKey, best, numResponse);
+		return new Score(best, sum(keySizes), best, sum(responseSizes));
+	}
+
+	/**
+	 * BLANC metric. Mention pairs within the same entity are coreference
+	 * links and pairs across entities are non-coreference links. Recall and
+	 * precision are computed for both kinds of links and averaged. Only
+	 * mentions present in both the key and the response are considered for
+	 * non-coreference links.
+	 * 
+	 * @param overlap
+	 * @param keySizes
+	 * @param responseSizes
+	 * @return
+	 */
+	public static Score blanc(int[][] overlap, int[] keySizes,
+			int[] responseSizes) {
+		int numKey = keySizes.length;
+		int numResponse = responseSizes.length;
+
+		// Coreference links in the key, in the response and in both.
+		double keyLinks = 0d;
+		for (int size : keySizes)
+			keyLinks += pairs(size);
+		double responseLinks = 0d;
+		for (int size : responseSizes)
+			responseLinks += pairs(size);
+		double rightCoref = 0d;
+
+		// Coreference links among common mentions.
+		double common = 0d;
+		double keyCommonLinks = 0d;
+		double[] responseCommon = new double[numResponse];
+		for (int k = 0; k < numKey; ++k) {
+			double keyCommon = 0d;
+			for (int r = 0; r < numResponse; ++r) {
+				int c = overlap[k][r];
+				rightCoref += pairs(c);
+				keyCommon += c;
+				responseCommon[r] += c;
+			}
+			common += keyCommon;
+			keyCommonLinks += pairs(keyCommon);
+		}
+		double responseCommonLinks = 0d;
+		for (int r = 0; r < numResponse; ++r)
+			responseCommonLinks += pairs(responseCommon[r]);
+
+		double wrongCoref = responseLinks - rightCoref;
+		double wrongNonCoref = keyLinks - rightCoref;
+		double rightNonCoref = pairs(common) - keyCommonLinks
+				- responseCommonLinks + rightCoref;
+
+		Score score = new Score(rightCoref, rightCoref + wrongNonCoref,
+				rightCoref, rightCoref + wrongCoref);
+		score.nonCoreference = new Score(rightNonCoref, rightNonCoref
+				+ wrongCoref, rightNonCoref, rightNonCoref + wrongNonCoref);
+		return score;
+	}
+
+	private static double sum(int[] vals) {
+		double sum = 0d;
+		for (int val : vals)
+			sum += val;
+		return sum;
+	}
+
+	private static double pairs(double n) {
+		return n * (n - 1) / 2;
+	}
+}
@@ -0,0 +1,290 @@
+package br.pucrio.inf.learn.structlearning.generative.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import br.pucrio.inf.learn.util.LongIntHashMap;
+
+/**
+ * Compact read-only store of HMM emission probabilities. The table is
+ * symbol-major: each symbol (feature code) is mapped to a row, through a
+ * primitive open-addressing map, and the row holds the probabilities of all
+ * states that emit this symbol. Rows of frequent symbols (emitted by most
+ * states) are stored in a dense block with one value per state. Rows of rare
+ * symbols are stored in compressed sparse rows (state indexes and values).
+ * Only positive probabilities are stored and their logs are precomputed.
+ * 
+ * Thus, the Viterbi algorithm fetches the emission log-probabilities of all
+ * states for a token with one hash lookup and without boxing. Concurrent reads
+ * are safe.
+ * 
+ * @author eraldo
+ * 
+ */
+public class EmissionTable {
+
+	/**
+	 * Number of states.
+	 */
+	private int numStates;
+
+	/**
+	 * Map from symbol (feature code) to row index.
+	 */
+	private LongIntHashMap symbolToRow;
+
+	/**
+	 * Whether each row is dense.
+	 */
+	private boolean[] rowDense;
+
+	/**
+	 * Offset of each row within the dense block (dense rows) or within the
+	 * sparse arrays (sparse rows).
+	 */
+	private int[] rowStart;
+
+	/**
+	 * Number of entries of each sparse row.
+	 */
+	private int[] rowLength;
+
+	/**
+	 * Dense block of probabilities and log-probabilities (index
+	 * <code>rowStart[row] + state</code>).
+	 */
+	private double[] denseProb;
+
+	private double[] denseLnProb;
+
+	/**
+	 * Sparse entries: state, probability and log-probability.
+	 */
+	private int[] sparseState;
+
+	private double[] sparseProb;
+
+	private double[] sparseLnProb;
+
+	/**
+	 * Number of positive probabilities in this table.
+	 */
+	private int numEntries;
+
+	/**
+	 * Build a table from the given emission probabilities. The map of state
+	 * <code>s</code> is <code>probEmission.get(s)</code> and it maps symbols to
+	 * probabilities. Null maps are considered empty and non-positive values are
+	 * ignored.
+	 * 
+	 * @param numStates
+	 * @param probEmission
+	 */
+	public EmissionTable(int numStates,
+			List<? extends Map<Integer, Double>> probEmission) {
+		this.numStates = numStates;
+		symbolToRow = new LongIntHashMap(-1);
+
+		// Assign a row to each symbol and count its entries.
+		int numRows = 0;
+		int[] counts = new int[16];
+		for (int state = 0; state < numStates; ++state) {
+			Map<Integer, Double> emissionMap = probEmission.get(state);
+			if (emissionMap == null)
+				continue;
+			for (Entry<Integer, Double> emission : emissionMap.entrySet()) {
+				if (emission.getValue() <= 0d)
+					continue;
+				int symbol = emission.getKey();
+				int row = symbolToRow.get(symbol);
+				if (row < 0) {
+					row = numRows++;
+					symbolToRow.put(symbol, row);
+					if (row == counts.length)
+						counts = Arrays.copyOf(counts, 2 * counts.length);
+				}
+				++counts[row];
+				++numEntries;
+			}
+		}
+
+		/*
+		 * A dense row takes 16 bytes per state and a sparse row takes 20 bytes
+		 * per entry. Use the smallest layout for each row.
+		 */
+		rowDense = new boolean[numRows];
+		rowStart = new int[numRows];
+		rowLength = new int[numRows];
+		int denseSize = 0;
+		int sparseSize = 0;
+		for (int row = 0; row < numRows; ++row) {
+			if (5 * counts[row] >= 4 * numStates) {
+				rowDense[row] = true;
+				rowStart[row] = denseSize;
+				denseSize += numStates;
+			} else {
+				rowStart[row] = sparseSize;
+				sparseSize += counts[row];
+			}
+		}
+		denseProb = new double[denseSize];
+		denseLnProb = new double[denseSize];
+		Arrays.fill(denseLnProb, Double.NEGATIVE_INFINITY);
+		sparseState = new int[sparseSize];
+		sparseProb = new double[sparseSize];
+		sparseLnProb = new double[sparseSize];
+
+		// Fill the values (sparse rows are sorted by state).
+		for (int state = 0; state < numStates; ++state) {
+			Map<Integer, Double> emissionMap = probEmission.get(state);
+			if (emissionMap == null)
+				continue;
+			for (Entry<Integer, Double> emission : emissionMap.entrySet()) {
+				double prob = emission.getValue();
+				if (prob <= 0d)
+					continue;
+				int row = symbolToRow.get(emission.getKey());
+				int idx;
+				if (rowDense[row]) {
+					idx = rowStart[row] + state;
+					denseProb[idx] = prob;
+					denseLnProb[idx] = Math.log(prob);
+				} else {
+					idx = rowStart[row] + rowLength[row]++;
+					sparseState[idx] = state;
+					sparseProb[idx] = prob;
+					sparseLnProb[idx] = Math.log(prob);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the number of states.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfStates() {
+		return numStates;
+	}
+
+	/**
+	 * Return the number of distinct symbols with some positive probability.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfSymbols() {
+		return rowDense.length;
+	}
+
+	/**
+	 * Return the number of positive probabilities in this table.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfEntries() {
+		return numEntries;
+	}
+
+	/**
+	 * Return the probability of emitting the given symbol in the given state.
+	 * 
+	 * @param symbol
+	 * @param state
+	 * @return
+	 */
+	public double getProbability(int symbol, int state) {
+		int row = symbolToRow.get(symbol);
+		if (row < 0)
+			return 0d;
+		if (rowDense[row])
+			return denseProb[rowStart[row] + state];
+		int idx = findSparse(row, state);
+		return (idx < 0 ? 0d : sparseProb[idx]);
+	}
+
+	/**
+	 * Return the log-probability of emitting the given symbol in the given
+	 * state.
+	 * 
+	 * @param symbol
+	 * @param state
+	 * @return
+	 */
+	public double getLogProbability(int symbol, int state) {
+		int row = symbolToRow.get(symbol);
+		if (row < 0)
+			return Double.NEGATIVE_INFINITY;
+		if (rowDense[row])
+			return denseLnProb[rowStart[row] + state];
+		int idx = findSparse(row, state);
+		return (idx < 0 ? Double.NEGATIVE_INFINITY : sparseLnProb[idx]);
+	}
+
+	/**
+	 * Fill the positions <code>offset</code> to
+	 * <code>offset + numStates - 1</code> of the given array with the
+	 * probability of emitting the given symbol in each state.
+	 * 
+	 * @param symbol
+	 * @param probs
+	 * @param offset
+	 * @return <code>false</code> if the symbol has zero probability in every
+	 *         state.
+	 */
+	public boolean fillProbabilities(int symbol, double[] probs, int offset) {
+		return fill(symbol, probs, offset, 0d, denseProb, sparseProb);
+	}
+
+	/**
+	 * Fill the positions <code>offset</code> to
+	 * <code>offset + numStates - 1</code> of the given array with the
+	 * log-probability of emitting the given symbol in each state.
+	 * 
+	 * @param symbol
+	 * @param lnProbs
+	 * @param offset
+	 * @return <code>false</code> if the symbol has zero probability in every
+	 *         state.
+	 */
+	public boolean fillLogProbabilities(int symbol, double[] lnProbs,
+			int offset) {
+		return fill(symbol, lnProbs, offset, Double.NEGATIVE_INFINITY,
+				denseLnProb, sparseLnProb);
+	}
+
+	private boolean fill(int symbol, double[] values, int offset,
+			double zero, double[] dense, double[] sparse) {
+		int row = symbolToRow.get(symbol);
+		if (row < 0) {
+			Arrays.fill(values, offset, offset + numStates, zero);
+			return false;
+		}
+		int start = rowStart[row];
+		if (rowDense[row]) {
+			System.arraycopy(dense, start, values, offset, numStates);
+		} else {
+			Arrays.fill(values, offset, offset + numStates, zero);
+			int end = start + rowLength[row];
+			for (int idx = start; idx < end; ++idx)
+				values[offset + sparseState[idx]] = sparse[idx];
+		}
+		return true;
+	}
+
+	/**
+	 * Return the index of the given state within the given sparse row or -1 if
+	 * it is not present.
+	 * 
+	 * @param row
+	 * @param state
+	 * @return
+	 */
+	private int findSparse(int row, int state) {
+		int idx = Arrays.binarySearch(sparseState, rowStart[row],
+				rowStart[row] + rowLength[row], state);
+		return (idx < 0 ? -1 : idx);
+	}
+}
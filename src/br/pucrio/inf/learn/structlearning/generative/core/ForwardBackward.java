@@ -0,0 +1,277 @@
+package br.pucrio.inf.learn.structlearning.generative.core;
+
+/**
+ * Scaled forward-backward algorithm (E-step of Baum-Welch) over primitive
+ * arrays. The forward variables of each token are normalized to sum one and
+ * the backward variables are scaled by the same factors, so that long
+ * sequences do not underflow. The log-probability of a sequence is the sum of
+ * the logs of the scaling factors.
+ * 
+ * The model parameters are given as primitive arrays shared by all threads
+ * (read-only). Each thread must use its own object, since the forward and
+ * backward tables are grow-only work buffers.
+ * 
+ * Tokens can be tagged with a state. In this case, only state sequences that
+ * go through the tagged states are considered (semi-supervised training).
+ * 
+ * @author eraldo
+ * 
+ */
+public class ForwardBackward {
+
+	/**
+	 * Number of states.
+	 */
+	private int numStates;
+
+	/**
+	 * Initial state probabilities.
+	 */
+	private double[] initial;
+
+	/**
+	 * Transition probabilities (index <code>stateFrom * numStates +
+	 * stateTo</code>).
+	 */
+	private double[] transition;
+
+	/**
+	 * Emission probabilities (index <code>symbol * numStates + state</code>).
+	 */
+	private double[] emission;
+
+	/**
+	 * Scaled forward variables (index <code>token * numStates + state</code>).
+	 */
+	private double[] alpha;
+
+	/**
+	 * Scaled backward variables (index <code>token * numStates + state</code>).
+	 */
+	private double[] beta;
+
+	/**
+	 * Scaling factor of each token.
+	 */
+	private double[] scale;
+
+	/**
+	 * Emission times backward variable of the next token for each state.
+	 */
+	private double[] next;
+
+	/**
+	 * Create a work space for the given number of states.
+	 * 
+	 * @param numStates
+	 */
+	public ForwardBackward(int numStates) {
+		this.numStates = numStates;
+		alpha = new double[0];
+		beta = new double[0];
+		scale = new double[0];
+		next = new double[numStates];
+	}
+
+	/**
+	 * Set the model parameters.
+	 * 
+	 * @param initial
+	 *            initial state probabilities.
+	 * @param transition
+	 *            transition probabilities (index
+	 *            <code>stateFrom * numStates + stateTo</code>).
+	 * @param emission
+	 *            emission probabilities (index
+	 *            <code>symbol * numStates + state</code>).
+	 */
+	public void setParameters(double[] initial, double[] transition,
+			double[] emission) {
+		this.initial = initial;
+		this.transition = transition;
+		this.emission = emission;
+	}
+
+	/**
+	 * Account the expected counts of the given sequence in the given
+	 * statistics. The expected counts of each token are multiplied by the
+	 * token weight. Sequences with zero probability are not accounted, but
+	 * counted as impossible examples.
+	 * 
+	 * @param size
+	 *            sequence length.
+	 * @param symbols
+	 *            dense symbol of each token.
+	 * @param taggedStates
+	 *            tagged state of each token (-1 for untagged tokens).
+	 * @param weights
+	 *            weight of each token.
+	 * @param stats
+	 * @return the log-probability of the given sequence.
+	 */
+	public double accountSequence(int size, int[] symbols, int[] taggedStates,
+			double[] weights, HmmStatistics stats) {
+		if (size <= 0)
+			return 0d;
+
+		if (scale.length < size) {
+			alpha = new double[size * numStates];
+			beta = new double[size * numStates];
+			scale = new double[size];
+		}
+
+		double logProb = forward(size, symbols, taggedStates);
+		if (logProb == Double.NEGATIVE_INFINITY) {
+			++stats.numImpossibleExamples;
+			return logProb;
+		}
+		backward(size, symbols, taggedStates);
+
+		double[] statsInitial = stats.initial;
+		double[] statsTransition = stats.transition;
+		double[] statsEmission = stats.emission;
+		for (int token = 0; token < size; ++token) {
+			double weight = weights[token];
+			int base = token * numStates;
+
+			// Gamma values: emission and initial state counts.
+			int emissionBase = symbols[token] * numStates;
+			for (int state = 0; state < numStates; ++state) {
+				double gamma = alpha[base + state] * beta[base + state]
+						* weight;
+				if (gamma == 0d)
+					continue;
+				statsEmission[emissionBase + state] += gamma;
+				if (token == 0)
+					statsInitial[state] += gamma;
+			}
+
+			if (token == size - 1)
+				break;
+
+			// Xi values: transition counts.
+			int nextBase = base + numStates;
+			int nextEmissionBase = symbols[token + 1] * numStates;
+			double nextScale = scale[token + 1];
+			for (int stateTo = 0; stateTo < numStates; ++stateTo)
+				next[stateTo] = emission[nextEmissionBase + stateTo]
+						* beta[nextBase + stateTo] / nextScale * weight;
+			for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
+				double alphaVal = alpha[base + stateFrom];
+				if (alphaVal == 0d)
+					continue;
+				int transitionBase = stateFrom * numStates;
+				for (int stateTo = 0; stateTo < numStates; ++stateTo)
+					statsTransition[transitionBase + stateTo] += alphaVal
+							* transition[transitionBase + stateTo]
+							* next[stateTo];
+			}
+		}
+
+		stats.logLikelihood += logProb;
+		return logProb;
+	}
+
+	/**
+	 * Fill the scaled forward variables and the scaling factors.
+	 * 
+	 * @param size
+	 * @param symbols
+	 * @param taggedStates
+	 * @return the log-probability of the sequence (negative infinity if it is
+	 *         impossible).
+	 */
+	private double forward(int size, int[] symbols, int[] taggedStates) {
+		double logProb = 0d;
+
+		// First token.
+		int emissionBase = symbols[0] * numStates;
+		int tagged = taggedStates[0];
+		double sum = 0d;
+		for (int state = 0; state < numStates; ++state) {
+			double val = 0d;
+			if (tagged < 0 || tagged == state)
+				val = initial[state] * emission[emissionBase + state];
+			alpha[state] = val;
+			sum += val;
+		}
+		if (sum <= 0d)
+			return Double.NEGATIVE_INFINITY;
+		scale[0] = sum;
+		logProb += Math.log(sum);
+		for (int state = 0; state < numStates; ++state)
+			alpha[state] /= sum;
+
+		// Remaining tokens.
+		for (int token = 1; token < size; ++token) {
+			int base = token * numStates;
+			int prevBase = base - numStates;
+			emissionBase = symbols[token] * numStates;
+			tagged = taggedStates[token];
+			sum = 0d;
+			for (int stateTo = 0; stateTo < numStates; ++stateTo) {
+				double val = 0d;
+				if (tagged < 0 || tagged == stateTo) {
+					double emisProb = emission[emissionBase + stateTo];
+					if (emisProb != 0d) {
+						// Probability of arriving at this state.
+						for (int stateFrom = 0; stateFrom < numStates; ++stateFrom)
+							val += alpha[prevBase + stateFrom]
+									* transition[stateFrom * numStates
+											+ stateTo];
+						val *= emisProb;
+					}
+				}
+				alpha[base + stateTo] = val;
+				sum += val;
+			}
+			if (sum <= 0d)
+				return Double.NEGATIVE_INFINITY;
+			scale[token] = sum;
+			logProb += Math.log(sum);
+			for (int state = 0; state < numStates; ++state)
+				alpha[base + state] /= sum;
+		}
+
+		return logProb;
+	}
+
+	/**
+	 * Fill the scaled backward variables. The forward algorithm must be
+	 * executed before, since the scaling factors are computed by it.
+	 * 
+	 * @param size
+	 * @param symbols
+	 * @param taggedStates
+	 */
+	private void backward(int size, int[] symbols, int[] taggedStates) {
+		// Last token.
+		int base = (size - 1) * numStates;
+		int tagged = taggedStates[size - 1];
+		for (int state = 0; state < numStates; ++state)
+			beta[base + state] = (tagged < 0 || tagged == state ? 1d : 0d);
+
+		// Remaining tokens.
+		for (int token = size - 2; token >= 0; --token) {
+			base = token * numStates;
+			int nextBase = base + numStates;
+			int nextEmissionBase = symbols[token + 1] * numStates;
+			double nextScale = scale[token + 1];
+			for (int stateTo = 0; stateTo < numStates; ++stateTo)
+				next[stateTo] = emission[nextEmissionBase + stateTo]
+						* beta[nextBase + stateTo];
+			tagged = taggedStates[token];
+			for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
+				double val = 0d;
+				if (tagged < 0 || tagged == stateFrom) {
+					int transitionBase = stateFrom * numStates;
+					for (int stateTo = 0; stateTo < numStates; ++stateTo)
+						val += transition[transitionBase + stateTo]
+								* next[stateTo];
+					val /= nextScale;
+				}
+				beta[base + stateFrom] = val;
+			}
+		}
+	}
+}
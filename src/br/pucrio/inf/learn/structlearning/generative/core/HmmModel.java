@@ -25,6 +25,7 @@ import br.pucrio.inf.learn.structlearning.generative.data.DatasetExample;
 import br.pucrio.inf.learn.structlearning.generative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.generative.data.FeatureValueEncoding;
 import br.pucrio.inf.learn.structlearning.generative.data.HmmModelStrings;
+import br.pucrio.inf.learn.util.LongIntHashMap;
 import br.pucrio.inf.learn.util.RandomGenerator;
 
 /**
@@ -73,8 +74,10 @@ public class HmmModel {
 	 * associated with the training dataset. Later, in this class, the integer
 	 * feature values that represent states are converted to a bounded integer
 	 * value (from 0 to numStates - 1) to ease its use as array index.
+	 * 
+	 * Feature values that are not states are mapped to -1.
 	 */
-	protected HashMap<Integer, Integer> featureToState;
+	protected LongIntHashMap featureToState;
 
 	/**
 	 * Map from state codes (that varies from 0 to NUM_STATES - 1) to feature
@@ -129,7 +132,31 @@ public class HmmModel {
 	 * the observation <code>f</code> when in state <code>i</code>.
 	 */
 	protected Vector<HashMap<Integer, Double>> probEmission;
-	protected Vector<HashMap<Integer, Double>> lnProbEmission;
+
+	/**
+	 * Compact copy of the emission probabilities (and their logs) used for
+	 * tagging. It is built from <code>probEmission</code> by
+	 * <code>applyLog()</code>.
+	 */
+	protected EmissionTable emissionTable;
+
+	/**
+	 * Viterbi work buffers (index <code>token * numStates + state</code>). They
+	 * only grow and are reused across examples.
+	 */
+	private double[] delta;
+	private int[] psi;
+	private double[] lnEmission;
+
+	/**
+	 * Emission distribution of each state used to generate examples. The
+	 * symbols of state <code>s</code> and their cumulative probabilities are
+	 * stored from <code>samplerStart[s]</code> to
+	 * <code>samplerStart[s + 1] - 1</code>.
+	 */
+	private int[] samplerStart;
+	private int[] samplerSymbols;
+	private double[] samplerCumulative;
 
 	/**
 	 * The index of the feature, within the dataset passed to the
@@ -271,7 +298,7 @@ public class HmmModel {
 			Collection<Integer> featureValuesThatAreStates) {
 		numStates = featureValuesThatAreStates.size();
 		stateToFeature = new int[numStates];
-		featureToState = new HashMap<Integer, Integer>();
+		featureToState = new LongIntHashMap(numStates, -1);
 
 		// Map feature values within the given encoding to state indexes (from 0
 		// to numStates - 1).
@@ -410,6 +437,9 @@ public class HmmModel {
 			baseToken.set(idx,
 					dataset.getFeatureValueEncoding().putString("-X-X-X-"));
 
+		// Cumulative emission distributions.
+		buildEmissionSampler();
+
 		for (int i = 0; i < numberOfExamples; ++i) {
 			// Probabilistically adjust the example length according to the
 			// given.
@@ -462,7 +492,7 @@ public class HmmModel {
 		// Fill the next states/observations.
 		for (int idxTkn = 0; idxTkn < length; ++idxTkn) {
 			// Randomly choose the emission given the current state.
-			int emission = probChoose(probEmission.get(state));
+			int emission = sampleEmission(state);
 
 			// Create a new token from the base token and add it to the example.
 			@SuppressWarnings("unchecked")
@@ -593,53 +623,63 @@ public class HmmModel {
 	 */
 	protected void viterbi(DatasetExample example) {
 		int lenExample = example.size();
+		if (lenExample == 0)
+			return;
 
-		double[][] delta = new double[lenExample][numStates];
-		int[][] psi = new int[lenExample][numStates];
+		// Grow the work buffers, if necessary.
+		int size = lenExample * numStates;
+		if (delta == null || delta.length < size) {
+			delta = new double[size];
+			psi = new int[size];
+		}
+		if (lnEmission == null || lnEmission.length != numStates)
+			lnEmission = new double[numStates];
 
 		// The log probabilities for the first token.
+		emissionTable.fillLogProbabilities(
+				example.getFeatureValue(0, observationFeature), lnEmission, 0);
 		boolean impossibleSymbol = true;
 		for (int state = 0; state < numStates; ++state) {
-			double emissionWeight = getEmissionParameter(
-					example.getFeatureValue(0, observationFeature), state);
+			psi[state] = -1;
+			delta[state] = lnEmission[state] + lnProbInitialState[state];
 
-			psi[0][state] = -1;
-			delta[0][state] = emissionWeight + getInitialStateParameter(state);
-
-			if (delta[0][state] > Double.NEGATIVE_INFINITY)
+			if (delta[state] > Double.NEGATIVE_INFINITY)
 				impossibleSymbol = false;
 		}
 
 		// Avoid impossible symbols (never seen) to degenerate the whole
 		// prediction procedure.
 		if (impossibleSymbol)
-			delta[0][defaultState] = 0d;
+			delta[defaultState] = 0d;
 
 		// Apply each step of the Viterb's algorithm.
 		for (int tkn = 1; tkn < lenExample; ++tkn) {
-			impossibleSymbol = true;
-			for (int state = 0; state < numStates; ++state) {
-				viterbi(delta, psi, example, tkn, state);
+			viterbi(example, tkn);
 
-				if (delta[tkn][state] > Double.NEGATIVE_INFINITY)
+			impossibleSymbol = true;
+			int base = tkn * numStates;
+			for (int state = 0; state < numStates; ++state)
+				if (delta[base + state] > Double.NEGATIVE_INFINITY) {
 					impossibleSymbol = false;
-			}
+					break;
+				}
 
 			// Avoid impossible symbols (never seen) to degenerate the whole
 			// prediction procedure.
 			if (impossibleSymbol)
-				delta[tkn][defaultState] = 0d;
+				delta[base + defaultState] = 0d;
 		}
 
 		// The default state is always the fisrt option.
+		int lastBase = (lenExample - 1) * numStates;
 		int bestState = defaultState;
-		double maxLogProb = delta[lenExample - 1][defaultState];
+		double maxLogProb = delta[lastBase + defaultState];
 		if (useFinalProbabilities)
 			maxLogProb += getFinalStateParameter(bestState);
 
 		// Find the best last state.
 		for (int state = 0; state < numStates; ++state) {
-			double logProb = delta[lenExample - 1][state];
+			double logProb = delta[lastBase + state];
 			if (useFinalProbabilities)
 				logProb += getFinalStateParameter(state);
 
@@ -651,51 +691,67 @@ public class HmmModel {
 
 		// Reconstruct the best path from the best final state, and tag the
 		// example.
-		tagExample(example, psi, bestState);
+		tagExample(example, lenExample, bestState);
 	}
 
-	protected void viterbi(double[][] delta, int[][] psi,
-			DatasetExample example, int token, int state) {
+	/**
+	 * Fill the Viterbi values of all states at the given token. Ties between
+	 * previous states are broken in favour of the default state and then of
+	 * the lowest state index.
+	 * 
+	 * @param example
+	 * @param token
+	 */
+	protected void viterbi(DatasetExample example, int token) {
+		int base = token * numStates;
+		int prevBase = base - numStates;
+
+		// Start with the default state as the best previous state.
+		double deltaDefault = delta[prevBase + defaultState];
+		double[] lnTransitionDefault = lnProbTransition[defaultState];
+		for (int state = 0; state < numStates; ++state) {
+			psi[base + state] = defaultState;
+			delta[base + state] = deltaDefault + lnTransitionDefault[state];
+		}
 
-		// Choose the best previous state.
-		int maxState = defaultState;
-		double maxLogProb = delta[token - 1][defaultState]
-				+ getTransitionParameter(defaultState, state);
+		// Choose the best previous state of each state.
 		for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
-			double logProb = delta[token - 1][stateFrom]
-					+ getTransitionParameter(stateFrom, state);
-			if (logProb > maxLogProb) {
-				maxLogProb = logProb;
-				maxState = stateFrom;
+			double deltaFrom = delta[prevBase + stateFrom];
+			if (deltaFrom == Double.NEGATIVE_INFINITY)
+				continue;
+			double[] lnTransition = lnProbTransition[stateFrom];
+			for (int state = 0; state < numStates; ++state) {
+				double logProb = deltaFrom + lnTransition[state];
+				if (logProb > delta[base + state]) {
+					delta[base + state] = logProb;
+					psi[base + state] = stateFrom;
+				}
 			}
 		}
 
-		double emissionLogProb = getEmissionParameter(
-				example.getFeatureValue(token, observationFeature), state);
-
-		psi[token][state] = maxState;
-		delta[token][state] = maxLogProb + emissionLogProb;
+		// Emission log probabilities.
+		emissionTable.fillLogProbabilities(
+				example.getFeatureValue(token, observationFeature), lnEmission,
+				0);
+		for (int state = 0; state < numStates; ++state)
+			delta[base + state] += lnEmission[state];
 	}
 
 	/**
-	 * Tag the given example using the given psi table.
+	 * Tag the given example using the psi table.
 	 * 
 	 * @param example
-	 * @param delta
-	 * @param psi
+	 * @param len
 	 * @param bestFinalState
 	 */
-	protected void tagExample(DatasetExample example, int[][] psi,
+	protected void tagExample(DatasetExample example, int len,
 			int bestFinalState) {
-		// Example length.
-		int len = psi.length;
-
 		example.setFeatureValue(len - 1, stateFeature,
 				stateToFeature[bestFinalState]);
 		for (int token = len - 1; token > 0; --token) {
-			int stateFeatureVal = stateToFeature[psi[token][bestFinalState]];
-			example.setFeatureValue(token - 1, stateFeature, stateFeatureVal);
-			bestFinalState = psi[token][bestFinalState];
+			bestFinalState = psi[token * numStates + bestFinalState];
+			example.setFeatureValue(token - 1, stateFeature,
+					stateToFeature[bestFinalState]);
 		}
 	}
 
@@ -722,27 +778,60 @@ public class HmmModel {
 	}
 
 	/**
-	 * Probabilistically choose an item of the given map using the values in the
-	 * map as probability weights.
+	 * Build the cumulative emission distribution of each state from the
+	 * emission probabilities. Symbols are kept in the iteration order of the
+	 * emission maps.
+	 */
+	private void buildEmissionSampler() {
+		int size = 0;
+		for (int state = 0; state < numStates; ++state)
+			if (probEmission.get(state) != null)
+				size += probEmission.get(state).size();
+
+		samplerStart = new int[numStates + 1];
+		samplerSymbols = new int[size];
+		samplerCumulative = new double[size];
+		int idx = 0;
+		for (int state = 0; state < numStates; ++state) {
+			samplerStart[state] = idx;
+			if (probEmission.get(state) == null)
+				continue;
+			double accum = 0.0;
+			for (Entry<Integer, Double> emission : probEmission.get(state)
+					.entrySet()) {
+				accum += emission.getValue();
+				samplerSymbols[idx] = emission.getKey();
+				samplerCumulative[idx] = accum;
+				++idx;
+			}
+		}
+		samplerStart[numStates] = idx;
+	}
+
+	/**
+	 * Probabilistically choose a symbol using the emission distribution of the
+	 * given state. The first symbol whose cumulative probability exceeds a
+	 * uniform random value is found by binary search.
 	 * 
-	 * @param weights
-	 *            a map whose item values are proportional to the probability of
-	 *            choose an element.
+	 * @param state
 	 * 
-	 * @return the key of the choosen item.
+	 * @return the code of the choosen symbol.
 	 */
-	private int probChoose(Map<Integer, Double> weights) {
-		Entry<Integer, Double> choosen = null;
-		double accum = 0.0;
+	private int sampleEmission(int state) {
 		double val = RandomGenerator.gen.nextDouble();
-		for (Entry<Integer, Double> current : weights.entrySet()) {
-			choosen = current;
-			accum += current.getValue();
-			if (accum > val)
-				break;
+		int lo = samplerStart[state];
+		int hi = samplerStart[state + 1] - 1;
+		if (hi < lo)
+			throw new IllegalStateException("State " + getStateLabel(state)
+					+ " does not emit any symbol");
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (samplerCumulative[mid] > val)
+				hi = mid;
+			else
+				lo = mid + 1;
 		}
-
-		return choosen.getKey();
+		return samplerSymbols[lo];
 	}
 
 	/**
@@ -839,15 +928,7 @@ public class HmmModel {
 	 *         (state,wordFeatures).
 	 */
 	public double getEmissionParameter(int symbol, int state) {
-		HashMap<Integer, Double> lnEmissionMap = lnProbEmission.get(state);
-		if (lnEmissionMap == null)
-			return Double.NEGATIVE_INFINITY;
-
-		Double lnProb = lnEmissionMap.get(symbol);
-		if (lnProb == null)
-			return Double.NEGATIVE_INFINITY;
-
-		return lnProb;
+		return emissionTable.getLogProbability(symbol, state);
 	}
 
 	/**
@@ -1089,8 +1170,6 @@ public class HmmModel {
 		lnProbInitialState = new double[numStates];
 		lnProbFinalState = new double[numStates];
 		lnProbTransition = new double[numStates][numStates];
-		lnProbEmission = new Vector<HashMap<Integer, Double>>(numStates);
-		lnProbEmission.setSize(numStates);
 
 		// Initial state probabilities.
 		applyLog(probInitialState, lnProbInitialState);
@@ -1098,27 +1177,22 @@ public class HmmModel {
 		// Final state probabilities.
 		applyLog(probFinalState, lnProbFinalState);
 
-		// Clear emission log-probability maps.
-		lnProbEmission.clear();
-		lnProbEmission.setSize(numStates);
-
-		for (int state = 0; state < numStates; ++state) {
-			// Transition probabilities.
+		// Transition probabilities.
+		for (int state = 0; state < numStates; ++state)
 			applyLog(probTransition[state], lnProbTransition[state]);
 
-			// Skip unseen states.
-			HashMap<Integer, Double> emissionMap = probEmission.get(state);
-			if (emissionMap == null)
-				continue;
-
-			// Emission probabilities.
-			HashMap<Integer, Double> lnEmissionMap = new HashMap<Integer, Double>();
-			lnProbEmission.set(state, lnEmissionMap);
+		// Emission probabilities (and their logs) in a compact table.
+		emissionTable = new EmissionTable(numStates, probEmission);
+	}
 
-			// Apply the log for all values within the map.
-			for (Entry<Integer, Double> emission : emissionMap.entrySet())
-				lnEmissionMap.put(emission.getKey(), log(emission.getValue()));
-		}
+	/**
+	 * Return the compact emission table built by the last call to
+	 * <code>applyLog()</code>.
+	 * 
+	 * @return
+	 */
+	public EmissionTable getEmissionTable() {
+		return emissionTable;
 	}
 
 	/**
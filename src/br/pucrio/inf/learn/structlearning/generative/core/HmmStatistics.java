@@ -0,0 +1,184 @@
+package br.pucrio.inf.learn.structlearning.generative.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import br.pucrio.inf.learn.structlearning.generative.data.Corpus;
+import br.pucrio.inf.learn.structlearning.generative.data.DatasetExample;
+
+/**
+ * Sufficient statistics (expected or observed counts) to estimate the
+ * parameters of an HMM. The counts are stored in primitive arrays: emissions
+ * are indexed by dense symbol indexes (see
+ * {@link #indexSymbols(Corpus, int, int[][])}) instead of feature codes.
+ * 
+ * Each thread of a trainer accumulates its own statistics over a shard of the
+ * corpus and the statistics of all threads are summed (by
+ * {@link #add(HmmStatistics)}) before updating the model.
+ * 
+ * @author eraldo
+ * 
+ */
+public class HmmStatistics {
+
+	/**
+	 * Number of states.
+	 */
+	protected int numStates;
+
+	/**
+	 * Number of (dense) symbols.
+	 */
+	protected int numSymbols;
+
+	/**
+	 * Initial state counts.
+	 */
+	protected double[] initial;
+
+	/**
+	 * Final state counts.
+	 */
+	protected double[] finalState;
+
+	/**
+	 * Transition counts (index <code>stateFrom * numStates + stateTo</code>).
+	 */
+	protected double[] transition;
+
+	/**
+	 * Emission counts (index <code>symbol * numStates + state</code>).
+	 */
+	protected double[] emission;
+
+	/**
+	 * Log-likelihood of the accounted examples (only for expected counts).
+	 */
+	protected double logLikelihood;
+
+	/**
+	 * Number of examples with zero probability (only for expected counts).
+	 */
+	protected int numImpossibleExamples;
+
+	/**
+	 * Create empty statistics for the given number of states and symbols.
+	 * 
+	 * @param numStates
+	 * @param numSymbols
+	 */
+	public HmmStatistics(int numStates, int numSymbols) {
+		this.numStates = numStates;
+		this.numSymbols = numSymbols;
+		initial = new double[numStates];
+		finalState = new double[numStates];
+		transition = new double[numStates * numStates];
+		emission = new double[numSymbols * numStates];
+	}
+
+	/**
+	 * Reset all counts to zero.
+	 */
+	public void clear() {
+		Arrays.fill(initial, 0d);
+		Arrays.fill(finalState, 0d);
+		Arrays.fill(transition, 0d);
+		Arrays.fill(emission, 0d);
+		logLikelihood = 0d;
+		numImpossibleExamples = 0;
+	}
+
+	/**
+	 * Sum the given statistics to this one.
+	 * 
+	 * @param other
+	 */
+	public void add(HmmStatistics other) {
+		sum(initial, other.initial);
+		sum(finalState, other.finalState);
+		sum(transition, other.transition);
+		sum(emission, other.emission);
+		logLikelihood += other.logLikelihood;
+		numImpossibleExamples += other.numImpossibleExamples;
+	}
+
+	private static void sum(double[] to, double[] from) {
+		for (int idx = 0; idx < to.length; ++idx)
+			to[idx] += from[idx];
+	}
+
+	/**
+	 * Account the observed counts of a completely tagged sequence. The weight
+	 * of each token is applied to its emission and to the initial or final
+	 * state, when it is the first or the last token. Transitions use the
+	 * average weight of the two tokens.
+	 * 
+	 * @param size
+	 *            sequence length.
+	 * @param states
+	 *            state of each token.
+	 * @param symbols
+	 *            dense symbol of each token.
+	 * @param weights
+	 *            weight of each token.
+	 */
+	public void accountTaggedSequence(int size, int[] states, int[] symbols,
+			double[] weights) {
+		if (size <= 0)
+			return;
+		initial[states[0]] += weights[0];
+		emission[symbols[0] * numStates + states[0]] += weights[0];
+		for (int token = 1; token < size; ++token) {
+			int stateFrom = states[token - 1];
+			int stateTo = states[token];
+			double weight = (weights[token - 1] + weights[token]) / 2;
+			transition[stateFrom * numStates + stateTo] += weight;
+			emission[symbols[token] * numStates + stateTo] += weights[token];
+		}
+		finalState[states[size - 1]] += weights[size - 1];
+	}
+
+	public double getLogLikelihood() {
+		return logLikelihood;
+	}
+
+	public int getNumberOfImpossibleExamples() {
+		return numImpossibleExamples;
+	}
+
+	/**
+	 * Encode the values of the given feature in every example of the given
+	 * corpus by dense symbol indexes (in order of first occurrence). The
+	 * symbols of each example are stored in <code>symbols</code> (indexed by
+	 * example index), which must have one position for each example.
+	 * 
+	 * @param corpus
+	 * @param feature
+	 * @param symbols
+	 * @return the feature code of each symbol.
+	 */
+	public static int[] indexSymbols(Corpus corpus, int feature,
+			int[][] symbols) {
+		HashMap<Integer, Integer> codeToSymbol = new HashMap<Integer, Integer>();
+		int[] symbolCodes = new int[16];
+		for (DatasetExample example : corpus) {
+			int size = example.size();
+			int[] exSymbols = new int[size];
+			for (int token = 0; token < size; ++token) {
+				int code = example.getFeatureValue(token, feature);
+				Integer symbol = codeToSymbol.get(code);
+				if (symbol == null) {
+					symbol = codeToSymbol.size();
+					codeToSymbol.put(code, symbol);
+					if (symbol == symbolCodes.length)
+						symbolCodes = Arrays.copyOf(symbolCodes,
+								2 * symbolCodes.length);
+					symbolCodes[symbol] = code;
+				}
+				exSymbols[token] = symbol;
+			}
+			symbols[example.getIndex()] = exSymbols;
+		}
+		return Arrays.copyOf(symbolCodes, codeToSymbol.size());
+	}
+}
@@ -1,5 +1,6 @@
 package br.pucrio.inf.learn.structlearning.generative.core;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Vector;
 
@@ -20,7 +21,8 @@ import br.pucrio.inf.learn.structlearning.generative.evaluation.Performance;
  * Basically, the modified forward and backward algorithms prune some paths
  * among all possible state sequences. For instance, if the t-th token is tagged
  * as i, then the algorithms will only consider the state sequences that with
- * the state i in the t-th token.
+ * the state i in the t-th token. The pruning is done by the forward-backward
+ * engine of the base class, given the tagged state of each token.
  * 
  * @author eraldof
  * 
@@ -40,11 +42,6 @@ public class SemiSupervisedHmmTrainer extends UnsupervisedHmmTrainer {
 	 */
 	protected int stateFeature;
 
-	/**
-	 * Flags of the current example to faster access.
-	 */
-	protected boolean[] tagged;
-
 	private Corpus testset;
 
 	/**
@@ -160,194 +157,43 @@ public class SemiSupervisedHmmTrainer extends UnsupervisedHmmTrainer {
 	}
 
 	/**
-	 * Modified forward algorithm. For all tagged tokens, it does not consider
-	 * any other state possibility but the correct tagged state.
+	 * Fill the tagged state of each token of the given example according to
+	 * the tagged flags. For tagged tokens, the forward and backward algorithms
+	 * do not consider any other state possibility but the correct tagged
+	 * state.
 	 */
-	protected void forward(DatasetExample example) {
-		int size = example.size();
-
-		// Initialize the alpha[0] values.
-		Vector<Double> first = alpha.get(0);
-		if (tagged[0]) {
-			// Set all state probabilities to zero.
-			for (int state = 0; state < numStates; ++state)
-				first.set(state, 0.0);
-
-			// Get the correct state.
-			int taggedState = example.getFeatureValue(0, stateFeature);
-			taggedState = model.featureToState.get(taggedState);
-
-			// Set its probability.
-			int emission = example.getFeatureValue(0, observationFeature);
-			double emisProb = model.getEmissionProbability(emission,
-					taggedState)
-					* model.getInitialStateProbability(taggedState);
-
-			first.set(taggedState, emisProb);
-		} else {
-			int emission = example.getFeatureValue(0, observationFeature);
-			for (int state = 0; state < numStates; ++state) {
-				double startProb = model
-						.getEmissionProbability(emission, state)
-						* model.getInitialStateProbability(state);
-				first.set(state, startProb);
-			}
-		}
-
-		for (int token = 1; token < size; ++token) {
-			// Get the emission symbol in this token.
-			int emission = example.getFeatureValue(token, observationFeature);
-
-			if (tagged[token]) {
-				// Set the probabilities of every state to zero.
-				for (int stateTo = 0; stateTo < numStates; ++stateTo)
-					alpha.get(token).set(stateTo, 0.0);
-
-				// Get the correct state.
-				int taggedState = example.getFeatureValue(token, stateFeature);
-				taggedState = model.featureToState.get(taggedState);
-
-				// Probability of arriving at this state (without emission).
-				double prevTokenProb = 0.0;
-				for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
-					double transProb = model.getTransitionProbability(
-							stateFrom, taggedState);
-					prevTokenProb += transProb
-							* alpha.get(token - 1).get(stateFrom);
-				}
-
-				// Complete probability of arriving in this state and emits
-				// the current symbol.
-				double emisProb = model.getEmissionProbability(emission,
-						taggedState);
-				alpha.get(token).set(taggedState, emisProb * prevTokenProb);
-			} else {
-				for (int stateTo = 0; stateTo < numStates; ++stateTo) {
-					// Probability of arriving at this state (without emission).
-					double prevTokenProb = 0.0;
-					for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
-						double transProb = model.getTransitionProbability(
-								stateFrom, stateTo);
-						prevTokenProb += transProb
-								* alpha.get(token - 1).get(stateFrom);
-					}
-
-					// Complete probability of arriving in this state and emits
-					// the current symbol.
-					double emisProb = model.getEmissionProbability(emission,
-							stateTo);
-					alpha.get(token).set(stateTo, emisProb * prevTokenProb);
-				}
-			}
-		}
-	}
-
-	/**
-	 * Modified backward algorithm. As in the forward algorithm for all tagged
-	 * tokens, it does not consider any other state possibility but the correct
-	 * tagged state.
-	 */
-	protected void backward(DatasetExample example) {
+	@Override
+	protected void fillTaggedStates(DatasetExample example, int[] taggedStates) {
+		// Organize the tagged flags for the given example so that we have an
+		// array with the tagged state of each token.
 		int size = example.size();
-
-		// Initialize the beta[size-1] values.
-		Vector<Double> last = beta.get(size - 1);
-		if (tagged[size - 1]) {
-			// Zero to every state.
-			for (int state = 0; state < numStates; ++state)
-				last.set(state, 0.0);
-
-			// Get the correct state.
-			int taggedState = example.getFeatureValue(size - 1, stateFeature);
-			taggedState = model.featureToState.get(taggedState);
-
-			// Set the correct state probability to one.
-			last.set(taggedState, 1.0);
-		} else {
-			for (int state = 0; state < numStates; ++state)
-				last.set(state, 1.0);
-		}
-
-		for (int token = size - 2; token >= 0; --token) {
-			if (tagged[token]) {
-				// Set the probability of every state to zero.
-				for (int stateFrom = 0; stateFrom < numStates; ++stateFrom)
-					beta.get(token).set(stateFrom, 0.0);
-
-				// Get the correct state.
-				int taggedState = example.getFeatureValue(token, stateFeature);
-				taggedState = model.featureToState.get(taggedState);
-
-				double betaVal = 0.0;
-				int emission = example.getFeatureValue(token + 1,
-						observationFeature);
-
-				for (int stateTo = 0; stateTo < numStates; ++stateTo) {
-					// Probability of emiting the next symbol.
-					double emisProb = model.getEmissionProbability(emission,
-							stateTo);
-
-					// Probability of transition.
-					double transProb = model.getTransitionProbability(
-							taggedState, stateTo);
-
-					betaVal += beta.get(token + 1).get(stateTo) * emisProb
-							* transProb;
-				}
-
-				// Set the value for the correct state.
-				beta.get(token).set(taggedState, betaVal);
-			} else {
-				for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
-					double betaVal = 0.0;
-					int emission = example.getFeatureValue(token + 1,
-							observationFeature);
-
-					for (int stateTo = 0; stateTo < numStates; ++stateTo) {
-						// Probability of emiting the next symbol.
-						double emisProb = model.getEmissionProbability(
-								emission, stateTo);
-
-						// Probability of transition.
-						double transProb = model.getTransitionProbability(
-								stateFrom, stateTo);
-
-						betaVal += beta.get(token + 1).get(stateTo) * emisProb
-								* transProb;
-					}
-
-					beta.get(token).set(stateFrom, betaVal);
-				}
-			}
+		Arrays.fill(taggedStates, 0, size, -1);
+		if (taggedExampleFlags == null)
+			return;
+		Object obj = taggedExampleFlags.get(example.getIndex());
+		if (obj instanceof Boolean) {
+			if (!(Boolean) obj)
+				return;
+			for (int tkn = 0; tkn < size; ++tkn)
+				taggedStates[tkn] = getTaggedState(example, tkn);
+		} else if (obj instanceof Vector<?>) {
+			@SuppressWarnings("unchecked")
+			Vector<? extends Boolean> flags = (Vector<? extends Boolean>) obj;
+			for (int tkn = 0; tkn < size; ++tkn)
+				if (flags.get(tkn))
+					taggedStates[tkn] = getTaggedState(example, tkn);
 		}
 	}
 
 	/**
-	 * Besides the ordinary temporary variables, also allocate an array of
-	 * booleans to store the tagged-flags for the given example.
+	 * Return the state tagged in the given token of the given example.
+	 * 
+	 * @param example
+	 * @param token
+	 * @return
 	 */
-	protected void adjustTempVariablesSizes(DatasetExample example) {
-		// Do all the ordinary job.
-		super.adjustTempVariablesSizes(example);
-
-		// Organize the tagged flags for the given example so that we have a
-		// boolean array with a flag to each token.
-		int size = example.size();
-		if (tagged == null || tagged.length < size)
-			tagged = new boolean[size];
-		if (taggedExampleFlags != null) {
-			Object obj = taggedExampleFlags.get(example.getIndex());
-			if (obj instanceof Boolean) {
-				boolean flag = (Boolean) obj;
-				for (int tkn = 0; tkn < size; ++tkn)
-					tagged[tkn] = flag;
-			} else if (obj instanceof Vector<?>) {
-				@SuppressWarnings("unchecked")
-				Vector<? extends Boolean> flags = (Vector<? extends Boolean>) taggedExampleFlags
-						.get(example.getIndex());
-				for (int tkn = 0; tkn < size; ++tkn)
-					tagged[tkn] = flags.get(tkn);
-			}
-		}
+	private int getTaggedState(DatasetExample example, int token) {
+		return model.featureToState.get(example.getFeatureValue(token,
+				stateFeature));
 	}
 }
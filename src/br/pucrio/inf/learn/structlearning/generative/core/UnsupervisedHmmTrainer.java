@@ -1,21 +1,27 @@
 package br.pucrio.inf.learn.structlearning.generative.core;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 
 import br.pucrio.inf.learn.structlearning.generative.data.Corpus;
 import br.pucrio.inf.learn.structlearning.generative.data.DatasetExample;
 import br.pucrio.inf.learn.structlearning.generative.data.DatasetException;
 import br.pucrio.inf.learn.structlearning.generative.data.FeatureValueEncoding;
+import br.pucrio.inf.learn.util.ParallelLoop;
 import br.pucrio.inf.learn.util.RandomGenerator;
 
 /**
  * Generative-unsupervised HMM trainer.
  * 
  * The training algorithm is based on Baum-Welch algorithm (forward-backward).
+ * The expected counts are computed by the scaled forward-backward algorithm
+ * ({@link ForwardBackward}) in parallel: each thread accounts a shard of the
+ * trainset in its own statistics ({@link HmmStatistics}) and the statistics of
+ * all threads are summed before updating the model.
  * 
  * @author eraldof
  * 
@@ -42,47 +48,35 @@ public class UnsupervisedHmmTrainer {
 	protected int numStates;
 
 	/**
-	 * Numerator values of the new initial state probability distribution.
+	 * Number of threads used to compute the expected counts.
 	 */
-	protected Vector<Double> probInitialStateNew;
+	protected int numThreads;
 
 	/**
-	 * Normalization factor (denominator) of the new initial state probability
-	 * distribution.
+	 * Dense symbol (observation) of each token of each example in the
+	 * trainset.
 	 */
-	protected double normFactorInitialState;
+	protected int[][] symbols;
 
 	/**
-	 * Numerator values of the new transition probability distributions.
+	 * Feature code of each dense symbol.
 	 */
-	protected Vector<Vector<Double>> probTransitionNew;
+	protected int[] symbolCodes;
 
 	/**
-	 * Normalization factor (denominator) of the new transition probability
-	 * distributions.
+	 * Expected counts of the current iteration (summed over all threads).
 	 */
-	protected double[] normFactorTransition;
+	protected HmmStatistics statistics;
 
 	/**
-	 * Numerator of the new emission probability distributions.
+	 * Model parameters of the current iteration in primitive arrays (see
+	 * {@link ForwardBackward#setParameters(double[], double[], double[])}).
 	 */
-	protected Vector<HashMap<Integer, Double>> probEmissionNew;
+	protected double[] initialTable;
 
-	/**
-	 * Normalization factor (denominator) for the emission probability
-	 * distributions.
-	 */
-	protected double[] normFactorEmission;
+	protected double[] transitionTable;
 
-	/**
-	 * Temporary variables: alpha[t][i] = p(o_1, ..., o_t, y_t=i | model).
-	 */
-	protected Vector<Vector<Double>> alpha;
-
-	/**
-	 * Temporary variables: beta[t][i] = p(o_t+1, ..., o_T | y_t=i, model).
-	 */
-	protected Vector<Vector<Double>> beta;
+	protected double[] emissionTable;
 
 	/**
 	 * Weight for each example. Each weight may be either just a
@@ -92,14 +86,25 @@ public class UnsupervisedHmmTrainer {
 	protected Vector<Object> weights;
 
 	/**
-	 * Weight array for the current example to faster access.
+	 * Default constructor.
 	 */
-	protected double[] curExampleWeights;
+	public UnsupervisedHmmTrainer() {
+		numThreads = Runtime.getRuntime().availableProcessors();
+	}
 
 	/**
-	 * Default constructor.
+	 * Set the number of threads used to compute the expected counts. Each
+	 * thread processes a shard of the trainset with its own statistics, which
+	 * are summed at the end of each iteration.
+	 * 
+	 * @param numThreads
 	 */
-	public UnsupervisedHmmTrainer() {
+	public void setNumberOfThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumberOfThreads() {
+		return numThreads;
 	}
 
 	/**
@@ -177,77 +182,108 @@ public class UnsupervisedHmmTrainer {
 			throw new DatasetException(
 					"The initial model has a different feature-value encoding than the given trainset.");
 
-		// Allocate and initialize the normalization factor variables.
-		normFactorEmission = new double[numStates];
-		normFactorTransition = new double[numStates];
-
-		// Allocate and initialize the probability accumulators.
-		probTransitionNew = new Vector<Vector<Double>>(numStates);
-		probTransitionNew.setSize(numStates);
-		probInitialStateNew = new Vector<Double>(numStates);
-		probInitialStateNew.setSize(numStates);
-		probEmissionNew = new Vector<HashMap<Integer, Double>>(numStates);
-		probEmissionNew.setSize(numStates);
-		for (int state = 0; state < numStates; ++state) {
-			Vector<Double> vd = new Vector<Double>(numStates);
-			vd.setSize(numStates);
-			probTransitionNew.set(state, vd);
+		// Dense symbols of the trainset.
+		int numExamples = trainset.getNumberOfExamples();
+		symbols = new int[numExamples][];
+		symbolCodes = HmmStatistics.indexSymbols(trainset, observationFeature,
+				symbols);
+		int numSymbols = symbolCodes.length;
+
+		// Statistics and work space of each thread.
+		int numTasks = Math.max(1, Math.min(numThreads, numExamples));
+		final HmmStatistics[] taskStatistics = new HmmStatistics[numTasks];
+		final ForwardBackward[] taskEngines = new ForwardBackward[numTasks];
+		final int[][] taskTaggedStates = new int[numTasks][];
+		final double[][] taskWeights = new double[numTasks][];
+		for (int idxTask = 0; idxTask < numTasks; ++idxTask) {
+			taskStatistics[idxTask] = new HmmStatistics(numStates, numSymbols);
+			taskEngines[idxTask] = new ForwardBackward(numStates);
+			taskTaggedStates[idxTask] = new int[0];
+			taskWeights[idxTask] = new double[0];
 		}
+		statistics = taskStatistics[0];
+
+		// Parameter tables.
+		initialTable = new double[numStates];
+		transitionTable = new double[numStates * numStates];
+		emissionTable = new double[numSymbols * numStates];
+
+		// E-step: expected counts of each example.
+		ParallelLoop eStep = new ParallelLoop() {
+			@Override
+			protected void iterate(int idxTask, int idxExample) {
+				DatasetExample example = UnsupervisedHmmTrainer.this.trainset
+						.getExample(idxExample);
+				int size = example.size();
+				if (taskWeights[idxTask].length < size) {
+					taskWeights[idxTask] = new double[size];
+					taskTaggedStates[idxTask] = new int[size];
+				}
+				fillTokenWeights(example, taskWeights[idxTask]);
+				fillTaggedStates(example, taskTaggedStates[idxTask]);
+				taskEngines[idxTask].accountSequence(size,
+						symbols[idxExample], taskTaggedStates[idxTask],
+						taskWeights[idxTask], taskStatistics[idxTask]);
+			}
+		};
 
 		double prevLogProbObservations = Double.NEGATIVE_INFINITY;
 
-		// Baum-Welch iterations.
-		for (int iter = 0; iter < numIterations; ++iter) {
-			// Stub.
-			preIteration(iter);
-
-			// Initialize the accumulators for the probability estimation.
-			initIteration();
-
-			int impossibleExamples = 0;
-			double logProbObservations = 0.0;
-
-			// Train over each observation sequence in the training set.
-			for (DatasetExample example : trainset) {
-				// Adjust the length of the temporary variables.
-				adjustTempVariablesSizes(example);
-
-				// Forward and backward algorithm.
-				forward(example);
-				backward(example);
-
-				// Estimate the counters of transitions and emission for this
-				// example.
-				double probObservation = accountExampleOnProbabilityEstimates(example);
-				if (probObservation <= 0.0)
-					++impossibleExamples;
-				else
-					logProbObservations += Math.log(probObservation);
-			}
+		ExecutorService executor = null;
+		if (numTasks > 1)
+			executor = ParallelLoop.newDaemonExecutor(numTasks);
+		try {
+			// Baum-Welch iterations.
+			for (int iter = 0; iter < numIterations; ++iter) {
+				// Stub.
+				preIteration(iter);
+
+				// Initialize the accumulators and the parameter tables.
+				initIteration();
+				for (int idxTask = 0; idxTask < numTasks; ++idxTask) {
+					taskStatistics[idxTask].clear();
+					taskEngines[idxTask].setParameters(initialTable,
+							transitionTable, emissionTable);
+				}
+
+				// Train over each observation sequence in the training set.
+				eStep.run(executor, numTasks, numExamples);
+
+				// Sum the statistics of all threads.
+				for (int idxTask = 1; idxTask < numTasks; ++idxTask)
+					statistics.add(taskStatistics[idxTask]);
 
-			// Info...
-			System.out
-					.println("Log-likelihood on iteration "
-							+ iter
-							+ " is "
-							+ logProbObservations
-							+ " ("
-							+ impossibleExamples
-							+ (prevLogProbObservations != Double.NEGATIVE_INFINITY ? ", "
-									+ (logProbObservations - prevLogProbObservations)
-									+ ")"
-									: ")"));
-
-			if (logProbObservations < prevLogProbObservations)
-				System.err.println("WARNING! Log-likelihood decreased!");
-
-			prevLogProbObservations = logProbObservations;
-
-			// Estimate the new model probabilities from the accumulators.
-			normalizeProbabiltiesAndUpdateModel();
-
-			// Stub to some process in the derived classes.
-			postIteration(iter);
+				int impossibleExamples = statistics
+						.getNumberOfImpossibleExamples();
+				double logProbObservations = statistics.getLogLikelihood();
+
+				// Info...
+				System.out
+						.println("Log-likelihood on iteration "
+								+ iter
+								+ " is "
+								+ logProbObservations
+								+ " ("
+								+ impossibleExamples
+								+ (prevLogProbObservations != Double.NEGATIVE_INFINITY ? ", "
+										+ (logProbObservations - prevLogProbObservations)
+										+ ")"
+										: ")"));
+
+				if (logProbObservations < prevLogProbObservations)
+					System.err.println("WARNING! Log-likelihood decreased!");
+
+				prevLogProbObservations = logProbObservations;
+
+				// Estimate the new model probabilities from the accumulators.
+				normalizeProbabiltiesAndUpdateModel();
+
+				// Stub to some process in the derived classes.
+				postIteration(iter);
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdown();
 		}
 
 		// Apply log to the probability values.
@@ -289,333 +325,123 @@ public class UnsupervisedHmmTrainer {
 	}
 
 	/**
-	 * Initialize the variables used to accumulated the values relative to a
-	 * complete iteration. These values are counter over the training examples.
+	 * Fill the parameter tables with the current model probabilities. The
+	 * tables are read by the forward-backward algorithm within the iteration.
 	 */
 	protected void initIteration() {
-		// Initial state normalization factor.
-		normFactorInitialState = 0.0;
-
-		for (int state = 0; state < numStates; ++state) {
-			// Initial state accumulators.
-			probInitialStateNew.set(state, 0.0);
-
-			// Transition accumulators.
-			normFactorTransition[state] = 0.0;
+		int numSymbols = symbolCodes.length;
+		for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
+			initialTable[stateFrom] = model
+					.getInitialStateProbability(stateFrom);
 			for (int stateTo = 0; stateTo < numStates; ++stateTo)
-				probTransitionNew.get(state).set(stateTo, 0.0);
-
-			// On every iteration, create a new emission map, instead of
-			// iniatilizing it. This new emission map will be used by the model
-			// at the end of the iteration.
-			probEmissionNew.set(state, new HashMap<Integer, Double>());
-			normFactorEmission[state] = 0.0;
+				transitionTable[stateFrom * numStates + stateTo] = model
+						.getTransitionProbability(stateFrom, stateTo);
 		}
+		EmissionTable emissions = new EmissionTable(numStates,
+				model.probEmission);
+		for (int symbol = 0; symbol < numSymbols; ++symbol)
+			emissions.fillProbabilities(symbolCodes[symbol], emissionTable,
+					symbol * numStates);
 	}
 
 	/**
-	 * Adjust the sizes of the alpha, beta, gamma and xi variables to
-	 * accommodate the calculation for the given example. Also allocated and
-	 * fill the weight array for the current example sequence.
+	 * Fill the weight of each token of the given example. This method is
+	 * called concurrently by several threads.
 	 * 
 	 * @param example
-	 *            an example that will be considered in the next iteration.
+	 * @param tokenWeights
 	 */
-	protected void adjustTempVariablesSizes(DatasetExample example) {
+	protected void fillTokenWeights(DatasetExample example,
+			double[] tokenWeights) {
 		int exSize = example.size();
 
 		// Organize the weights for the given example so that we have a double
 		// array with a weight for each token of the currect example.
-		if (curExampleWeights == null || curExampleWeights.length < exSize)
-			curExampleWeights = new double[exSize];
-
 		if (weights == null)
 			for (int tkn = 0; tkn < exSize; ++tkn)
-				curExampleWeights[tkn] = 1.0;
+				tokenWeights[tkn] = 1.0;
 		else {
 			Object obj = weights.get(example.getIndex());
 			if (obj instanceof Double) {
 				double fixedWeight = (Double) obj;
 				for (int tkn = 0; tkn < exSize; ++tkn)
-					curExampleWeights[tkn] = fixedWeight;
+					tokenWeights[tkn] = fixedWeight;
 			} else if (obj instanceof Vector<?>) {
 				@SuppressWarnings("unchecked")
-				Vector<? extends Double> curExampleWeightsV = (Vector<? extends Double>) weights
-						.get(example.getIndex());
+				Vector<? extends Double> curExampleWeightsV = (Vector<? extends Double>) obj;
 				for (int tkn = 0; tkn < exSize; ++tkn)
-					curExampleWeights[tkn] = curExampleWeightsV.get(tkn);
+					tokenWeights[tkn] = curExampleWeightsV.get(tkn);
 			}
 		}
-
-		if (alpha == null) {
-			alpha = new Vector<Vector<Double>>(exSize);
-			beta = new Vector<Vector<Double>>(exSize);
-		}
-
-		int prevSize = alpha.size();
-		if (prevSize >= exSize)
-			return;
-
-		// Expand vectors.
-		alpha.setSize(exSize);
-		beta.setSize(exSize);
-
-		// Create new elements for the extra tokens in the current example.
-		for (int token = prevSize; token < exSize; ++token) {
-			Vector<Double> vd;
-
-			vd = new Vector<Double>(numStates);
-			vd.setSize(numStates);
-			alpha.set(token, vd);
-
-			vd = new Vector<Double>(numStates);
-			vd.setSize(numStates);
-			beta.set(token, vd);
-		}
 	}
 
 	/**
-	 * Forward algorithm that fills the alpha variables.
+	 * Fill the tagged state of each token of the given example (-1 for
+	 * untagged tokens). In unsupervised training, no token is tagged. This
+	 * method is called concurrently by several threads.
 	 * 
 	 * @param example
-	 *            sequence for what the alpha variables are calculated.
+	 * @param taggedStates
 	 */
-	protected void forward(DatasetExample example) {
-		int size = example.size();
-
-		// Initialize the alpha[0] values.
-		Vector<Double> first = alpha.get(0);
-		for (int state = 0; state < numStates; ++state) {
-			int emission = example.getFeatureValue(0, observationFeature);
-			double emisProb = model.getEmissionProbability(emission, state)
-					* model.getInitialStateProbability(state);
-			first.set(state, emisProb);
-		}
-
-		for (int token = 1; token < size; ++token) {
-			for (int stateTo = 0; stateTo < numStates; ++stateTo) {
-				// Probability of arriving at this state (without emission).
-				double prevTokenProb = 0.0;
-				for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
-					double transProb = model.getTransitionProbability(
-							stateFrom, stateTo);
-					prevTokenProb += transProb
-							* alpha.get(token - 1).get(stateFrom);
-				}
-
-				// Complete probability of arriving in this state and emits the
-				// current symbol.
-				int emission = example.getFeatureValue(token,
-						observationFeature);
-				double emisProb = model.getEmissionProbability(emission,
-						stateTo);
-				alpha.get(token).set(stateTo, emisProb * prevTokenProb);
-			}
-		}
-	}
-
-	/**
-	 * Backward algorithm that fills the beta variables.
-	 * 
-	 * @param example
-	 *            sequence used to fill the beta variables.
-	 */
-	protected void backward(DatasetExample example) {
-		int size = example.size();
-
-		// Initialize the beta[size-1] values.
-		Vector<Double> last = beta.get(size - 1);
-		for (int state = 0; state < numStates; ++state)
-			last.set(state, 1.0);
-
-		for (int token = size - 2; token >= 0; --token) {
-			for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
-				double betaVal = 0.0;
-				int emission = example.getFeatureValue(token + 1,
-						observationFeature);
-
-				for (int stateTo = 0; stateTo < numStates; ++stateTo) {
-					// Probability of emiting the next symbol.
-					double emisProb = model.getEmissionProbability(emission,
-							stateTo);
-
-					// Probability of transition.
-					double transProb = model.getTransitionProbability(
-							stateFrom, stateTo);
-
-					betaVal += beta.get(token + 1).get(stateTo) * emisProb
-							* transProb;
-				}
-
-				beta.get(token).set(stateFrom, betaVal);
-			}
-		}
-	}
-
-	/**
-	 * Account the given example in the estimation of the new model
-	 * probabilities.
-	 * 
-	 * @param example
-	 * 
-	 * @return the probability of the given example be generated by the current
-	 *         model.
-	 * @throws HmmException
-	 */
-	protected double accountExampleOnProbabilityEstimates(DatasetExample example)
-			throws HmmException {
-		int size = example.size();
-
-		// Calculate the probability of the current observation sequence given
-		// the model: p(Y | model). This is the denominator necessary to
-		// normalize all the gamma's and xi's values.
-		double probExample = 0.0;
-		for (int state = 0; state < numStates; ++state)
-			probExample += alpha.get(size - 1).get(state);
-
-		// If the example has zero probability, just skip it.
-		if (probExample <= 0.0)
-			return probExample;
-
-		for (int token = 0; token < size; ++token) {
-			// Emission symbol in the current token.
-			int curSymbol = example.getFeatureValue(token, observationFeature);
-
-			// Emission symbol in the next token.
-			int nextSymbol = -1;
-			if (token < size - 1)
-				nextSymbol = example.getFeatureValue(token + 1,
-						observationFeature);
-
-			for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
-
-				// Gamma numerator value.
-				double gammaVal = alpha.get(token).get(stateFrom)
-						* beta.get(token).get(stateFrom);
-
-				// Normalize by the probability of the current observation
-				// sequence.
-				gammaVal /= probExample;
-
-				// Scale the gamma value with the weight of the current example
-				// before accounting it in the parameter reestimation.
-				if (curExampleWeights[token] != 1.0)
-					gammaVal *= curExampleWeights[token];
-
-				// Update the emission probability (numerator).
-				incProbabilityEmissionNew(stateFrom, curSymbol, gammaVal);
-
-				// Update the normalization factor for the emission
-				// probabilities from the current state.
-				normFactorEmission[stateFrom] += gammaVal;
-
-				// Update the initial state probability for the current state.
-				if (token == 0) {
-					// Normalization factor.
-					normFactorInitialState += gammaVal;
-					// Probability numerator.
-					double prevProb = probInitialStateNew.get(stateFrom);
-					probInitialStateNew.set(stateFrom, gammaVal + prevProb);
-				}
-
-				// Xi values: transition probability distributions. Only
-				// calculate them if this is not the last token.
-				if (token < size - 1) {
-					for (int stateTo = 0; stateTo < numStates; ++stateTo) {
-						// Xi numerator value.
-						double xiVal = alpha.get(token).get(stateFrom)
-								* model.getTransitionProbability(stateFrom,
-										stateTo)
-								* model.getEmissionProbability(nextSymbol,
-										stateTo)
-								* beta.get(token + 1).get(stateTo);
-
-						// Normalize by the probability of the current
-						// observation sequence.
-						xiVal /= probExample;
-
-						// Scale the Xi value with the weight of the current
-						// example before accounting it in the parameter
-						// reestimation.
-						if (curExampleWeights[token] != 1.0)
-							xiVal *= curExampleWeights[token];
-
-						// Update the normalization factor for the transition
-						// probabilities from the current state.
-						normFactorTransition[stateFrom] += xiVal;
-
-						// Update the transition probability accumulator
-						// (numerator) for this (token, stateFrom and stateTo)
-						// tuple.
-						double prevProb = probTransitionNew.get(stateFrom).get(
-								stateTo);
-						probTransitionNew.get(stateFrom).set(stateTo,
-								prevProb + xiVal);
-					}
-				}
-			}
-		}
-
-		return probExample;
+	protected void fillTaggedStates(DatasetExample example, int[] taggedStates) {
+		Arrays.fill(taggedStates, 0, example.size(), -1);
 	}
 
 	/**
 	 * Normalize the accumulated counters and update the current model.
 	 */
 	protected void normalizeProbabiltiesAndUpdateModel() {
+		int numSymbols = symbolCodes.length;
+		double[] initial = statistics.initial;
+		double[] transition = statistics.transition;
+		double[] emission = statistics.emission;
+
+		// Normalization factors.
+		double normFactorInitialState = 0d;
+		double[] normFactorTransition = new double[numStates];
+		double[] normFactorEmission = new double[numStates];
+		for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
+			normFactorInitialState += initial[stateFrom];
+			for (int stateTo = 0; stateTo < numStates; ++stateTo)
+				normFactorTransition[stateFrom] += transition[stateFrom
+						* numStates + stateTo];
+		}
+		for (int symbol = 0; symbol < numSymbols; ++symbol)
+			for (int state = 0; state < numStates; ++state)
+				normFactorEmission[state] += emission[symbol * numStates
+						+ state];
+
 		for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
 			// Initial state probabilities.
 			if (normFactorInitialState > 0.0)
-				model.probInitialState[stateFrom] = probInitialStateNew
-						.get(stateFrom) / normFactorInitialState;
+				model.probInitialState[stateFrom] = initial[stateFrom]
+						/ normFactorInitialState;
 			else
 				model.probInitialState[stateFrom] = 0.0;
 
 			// Transition probabilities.
 			if (normFactorTransition[stateFrom] > 0.0)
 				for (int stateTo = 0; stateTo < numStates; ++stateTo)
-					model.probTransition[stateFrom][stateTo] = probTransitionNew
-							.get(stateFrom).get(stateTo)
+					model.probTransition[stateFrom][stateTo] = transition[stateFrom
+							* numStates + stateTo]
 							/ normFactorTransition[stateFrom];
 			else
 				for (int stateTo = 0; stateTo < numStates; ++stateTo)
 					model.probTransition[stateFrom][stateTo] = 0.0;
 
-			// Emission probabilities.
-			HashMap<Integer, Double> emissionMapNew = probEmissionNew
-					.get(stateFrom);
-			if (normFactorEmission[stateFrom] > 0.0)
-				for (Entry<Integer, Double> emission : emissionMapNew
-						.entrySet())
-					emission.setValue(emission.getValue()
-							/ normFactorEmission[stateFrom]);
-			else
-				for (Entry<Integer, Double> emission : emissionMapNew
-						.entrySet())
-					emission.setValue(0.0);
+			// Emission probabilities: a new emission map with the symbols
+			// emitted by this state.
+			HashMap<Integer, Double> emissionMapNew = new HashMap<Integer, Double>();
+			double norm = normFactorEmission[stateFrom];
+			for (int symbol = 0; symbol < numSymbols; ++symbol) {
+				double count = emission[symbol * numStates + stateFrom];
+				if (count > 0d)
+					emissionMapNew.put(symbolCodes[symbol],
+							(norm > 0.0 ? count / norm : 0.0));
+			}
 
 			// Change the model emission map by the new emission map.
 			model.probEmission.set(stateFrom, emissionMapNew);
 		}
 	}
-
-	/**
-	 * Increment the value of the probability of emission.
-	 * 
-	 * Deal with the case in which the symbol yet does not exist in the emission
-	 * map of the state.
-	 * 
-	 * @param state
-	 * @param symbol
-	 * @param value
-	 */
-	protected void incProbabilityEmissionNew(int state, int symbol, double value) {
-		HashMap<Integer, Double> emissionMap = probEmissionNew.get(state);
-		Double prevValue = emissionMap.get(symbol);
-		double newValue = ((prevValue == null) ? value : prevValue + value);
-		if (newValue > 0d)
-			emissionMap.put(symbol, newValue);
-		else
-			emissionMap.remove(symbol);
-	}
 }
@@ -2,6 +2,7 @@ package br.pucrio.inf.learn.structlearning.generative.core;
 
 import java.util.Collection;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -9,10 +10,15 @@ import org.apache.commons.logging.LogFactory;
 import br.pucrio.inf.learn.structlearning.generative.data.Corpus;
 import br.pucrio.inf.learn.structlearning.generative.data.DatasetExample;
 import br.pucrio.inf.learn.structlearning.generative.data.DatasetException;
+import br.pucrio.inf.learn.util.ParallelLoop;
 
 /**
  * Generative HMM trainer with different weights for the examples.
  * 
+ * The weighted counters are accumulated in parallel: each thread accounts a
+ * shard of the trainset in its own primitive counters ({@link HmmStatistics})
+ * and the counters of all threads are summed before being stored in the model.
+ * 
  * @author eraldof
  * 
  */
@@ -30,10 +36,27 @@ public class WeightedHmmTrainer extends HmmTrainer {
 	 */
 	protected Vector<Object> weights;
 
+	/**
+	 * Number of threads used to accumulate the counters.
+	 */
+	protected int numThreads;
+
 	/**
 	 * Default constructor.
 	 */
 	public WeightedHmmTrainer() {
+		numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Set the number of threads used to accumulate the counters. Each thread
+	 * processes a shard of the trainset with its own counters, which are
+	 * summed at the end.
+	 * 
+	 * @param numThreads
+	 */
+	public void setNumberOfThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
 	}
 
 	/**
@@ -85,60 +108,106 @@ public class WeightedHmmTrainer extends HmmTrainer {
 		HmmModel model = new HmmModel(trainset.getFeatureValueEncoding(),
 				stateFeatures);
 
-		// Accumulate counters.
-		int idxExample = 0;
-		for (DatasetExample example : trainset) {
-			// Array of toekn weights.
-			double[] weight = new double[example.size()];
-
-			// Weight of the current example.
-			Object objW = weights.get(idxExample++);
-
-			if (objW instanceof Double) {
-				double wForAllTkns = (Double) objW;
-				for (int tkn = 0; tkn < weight.length; ++tkn)
-					weight[tkn] = (Double) wForAllTkns;
-			} else if (objW instanceof Vector<?>) {
-				@SuppressWarnings("unchecked")
-				Vector<Object> ws = (Vector<Object>) objW;
-				for (int tkn = 0; tkn < weight.length; ++tkn)
-					weight[tkn] = (Double) ws.get(tkn);
-			} else
+		// Check the example weights.
+		final int numExamples = trainset.getNumberOfExamples();
+		for (int idxExample = 0; idxExample < numExamples; ++idxExample) {
+			Object objW = weights.get(idxExample);
+			if (!(objW instanceof Double) && !(objW instanceof Vector<?>))
 				throw new HmmException(
 						"Example weights must be Double or Vector<Double>.");
+		}
 
-			// Example length.
-			int lenEx = example.size();
-			if (lenEx <= 0) {
-				logger.warn("Empty example within training set. Id: "
-						+ example.getID());
-				continue;
-			}
+		// Dense symbols of the trainset.
+		final int[][] symbols = new int[numExamples][];
+		int[] symbolCodes = HmmStatistics.indexSymbols(trainset,
+				observationFeature, symbols);
+		int numSymbols = symbolCodes.length;
+		final int numStates = model.getNumberOfStates();
+
+		// Counters and buffers of each thread.
+		int numTasks = Math.max(1, Math.min(numThreads, numExamples));
+		final HmmStatistics[] taskStatistics = new HmmStatistics[numTasks];
+		final int[][] taskStates = new int[numTasks][];
+		final double[][] taskWeights = new double[numTasks][];
+		for (int idxTask = 0; idxTask < numTasks; ++idxTask) {
+			taskStatistics[idxTask] = new HmmStatistics(numStates, numSymbols);
+			taskStates[idxTask] = new int[0];
+			taskWeights[idxTask] = new double[0];
+		}
 
-			// First state probability.
-			int ftrState = example.getFeatureValue(0, stateFeature);
-			model.incProbInitialByFeature(ftrState, weight[0]);
-
-			// Emission probability.
-			int ftrObservation = example.getFeatureValue(0, observationFeature);
-			model.incProbEmissionByFeature(ftrState, ftrObservation, weight[0]);
-
-			// Remaining states.
-			for (int token = 1; token < lenEx; ++token) {
-				int stateFrom = example
-						.getFeatureValue(token - 1, stateFeature);
-				int stateTo = example.getFeatureValue(token, stateFeature);
-				ftrObservation = example.getFeatureValue(token,
-						observationFeature);
-				model.incProbTransitionByFeature(stateFrom, stateTo,
-						(weight[token - 1] + weight[token]) / 2);
-				model.incProbEmissionByFeature(stateTo, ftrObservation,
-						weight[token]);
+		// Accumulate counters.
+		final Corpus corpus = trainset;
+		final HmmModel countModel = model;
+		ParallelLoop count = new ParallelLoop() {
+			@Override
+			protected void iterate(int idxTask, int idxExample) {
+				DatasetExample example = corpus.getExample(idxExample);
+
+				// Example length.
+				int lenEx = example.size();
+				if (lenEx <= 0) {
+					logger.warn("Empty example within training set. Id: "
+							+ example.getID());
+					return;
+				}
+
+				if (taskWeights[idxTask].length < lenEx) {
+					taskWeights[idxTask] = new double[lenEx];
+					taskStates[idxTask] = new int[lenEx];
+				}
+
+				// Array of token weights.
+				double[] weight = taskWeights[idxTask];
+				Object objW = weights.get(idxExample);
+				if (objW instanceof Double) {
+					double wForAllTkns = (Double) objW;
+					for (int tkn = 0; tkn < lenEx; ++tkn)
+						weight[tkn] = wForAllTkns;
+				} else {
+					@SuppressWarnings("unchecked")
+					Vector<Object> ws = (Vector<Object>) objW;
+					for (int tkn = 0; tkn < lenEx; ++tkn)
+						weight[tkn] = (Double) ws.get(tkn);
+				}
+
+				// State of each token.
+				int[] states = taskStates[idxTask];
+				for (int tkn = 0; tkn < lenEx; ++tkn)
+					states[tkn] = countModel.featureToState.get(example
+							.getFeatureValue(tkn, stateFeature));
+
+				taskStatistics[idxTask].accountTaggedSequence(lenEx, states,
+						symbols[idxExample], weight);
 			}
+		};
+
+		ExecutorService executor = null;
+		if (numTasks > 1)
+			executor = ParallelLoop.newDaemonExecutor(numTasks);
+		try {
+			count.run(executor, numTasks, numExamples);
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
 
-			// Terminal state.
-			ftrState = example.getFeatureValue(lenEx - 1, stateFeature);
-			model.incProbFinalByFeature(ftrState, weight[lenEx - 1]);
+		// Sum the counters of all threads and store them in the model.
+		HmmStatistics statistics = taskStatistics[0];
+		for (int idxTask = 1; idxTask < numTasks; ++idxTask)
+			statistics.add(taskStatistics[idxTask]);
+		for (int stateFrom = 0; stateFrom < numStates; ++stateFrom) {
+			model.probInitialState[stateFrom] += statistics.initial[stateFrom];
+			model.probFinalState[stateFrom] += statistics.finalState[stateFrom];
+			for (int stateTo = 0; stateTo < numStates; ++stateTo)
+				model.probTransition[stateFrom][stateTo] += statistics.transition[stateFrom
+						* numStates + stateTo];
+		}
+		for (int symbol = 0; symbol < numSymbols; ++symbol) {
+			for (int state = 0; state < numStates; ++state) {
+				double value = statistics.emission[symbol * numStates + state];
+				if (value != 0d)
+					model.setProbEmission(state, symbolCodes[symbol], value);
+			}
 		}
 
 		// Calculate probabilities by normalizing counters and apply the log.
@@ -1,15 +1,22 @@
 package br.pucrio.inf.learn.structlearning.generative.data;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Vector;
 
+import br.pucrio.inf.learn.util.BinaryFileReader;
+import br.pucrio.inf.learn.util.BinaryFileWriter;
+
 /**
  * Represent a text dataset, i.e., a corpus in column format. The corpus
  * comprises a list of text segments (e.g., sentences) which in turn comprise a
@@ -23,6 +30,15 @@ import java.util.Vector;
  * The feature values are stored as integer. We use a feature-value mapping to
  * encode the string values.
  * 
+ * The data is stored by columns: there is one primitive array per feature with
+ * the values of all tokens of the corpus, one example after another, and an
+ * array with the offset of the first token of each example. Thus, a token
+ * feature value takes four bytes and adding or removing a feature only adds or
+ * removes a column.
+ * 
+ * A corpus can also be saved in a binary file (see {@link #saveBinary(String)}
+ * ), which is much faster to load than the text format.
+ * 
  */
 public class Corpus implements Iterable<DatasetExample> {
 
@@ -43,21 +59,46 @@ public class Corpus implements Iterable<DatasetExample> {
 	protected Vector<String> exampleIDs;
 
 	/**
-	 * The encoded data, i.e., integer values of the features.
+	 * The encoded data, i.e., integer values of the features. The value of
+	 * feature <code>f</code> in the token <code>t</code> of example
+	 * <code>e</code> is <code>columns[f][exampleOffsets[e] + t]</code>.
+	 */
+	protected int[][] columns;
+
+	/**
+	 * Offset of the first token of each example within the columns. The
+	 * position <code>numExamples</code> holds the total number of tokens.
+	 */
+	protected int[] exampleOffsets;
+
+	/**
+	 * Number of examples.
+	 */
+	protected int numExamples;
+
+	/**
+	 * Number of allocated tokens in each column.
+	 */
+	protected int tokenCapacity;
+
+	/**
+	 * Value of features that were created but not filled yet.
+	 */
+	public static final int MISSING_VALUE = -1;
+
+	/**
+	 * Magic number and version of the binary format.
 	 */
-	protected Vector<Vector<Vector<Integer>>> examples;
+	private static final int SERIAL_MAGIC = 0xFE434F52;
 
-	// TODO this prevents the access of different examples at the same time.
-	protected Example tempExample = new Example(0);
+	private static final int SERIAL_VERSION = 1;
 
 	/**
 	 * Default constructor.
 	 */
 	public Corpus() {
 		featureValueEncoding = new FeatureValueEncoding();
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		allocData();
 	}
 
 	/**
@@ -67,9 +108,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	 */
 	public Corpus(FeatureValueEncoding featureValueEncoding) {
 		this.featureValueEncoding = featureValueEncoding;
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		allocData();
 	}
 
 	/**
@@ -83,17 +122,13 @@ public class Corpus implements Iterable<DatasetExample> {
 	 */
 	public Corpus(String fileName) throws IOException, DatasetException {
 		featureValueEncoding = new FeatureValueEncoding();
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		allocData();
 		load(fileName);
 	}
 
 	public Corpus(InputStream is) throws IOException, DatasetException {
 		featureValueEncoding = new FeatureValueEncoding();
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		allocData();
 		load(is);
 	}
 
@@ -114,18 +149,14 @@ public class Corpus implements Iterable<DatasetExample> {
 	public Corpus(String fileName, FeatureValueEncoding featureValueEncoding)
 			throws IOException, DatasetException {
 		this.featureValueEncoding = featureValueEncoding;
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		allocData();
 		load(fileName);
 	}
 
 	public Corpus(String fileName, FeatureValueEncoding featureValueEncoding,
 			boolean skipHeader) throws IOException, DatasetException {
 		this.featureValueEncoding = featureValueEncoding;
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>();
-		exampleIDs = new Vector<String>();
+		allocData();
 		if (skipHeader)
 			loadWithoutHeader(fileName);
 		else
@@ -133,7 +164,79 @@ public class Corpus implements Iterable<DatasetExample> {
 	}
 
 	/**
-	 * Return a stub for the example at the given index.
+	 * Allocate empty data structures.
+	 */
+	private void allocData() {
+		featureLabels = new Vector<String>();
+		exampleIDs = new Vector<String>();
+		columns = new int[0][];
+		exampleOffsets = new int[16];
+		numExamples = 0;
+		tokenCapacity = 0;
+	}
+
+	/**
+	 * Remove all examples (keep the features).
+	 */
+	public void clear() {
+		exampleIDs.clear();
+		numExamples = 0;
+	}
+
+	/**
+	 * Return the total number of tokens within this corpus.
+	 * 
+	 * @return
+	 */
+	public int getNumberOfTokens() {
+		return exampleOffsets[numExamples];
+	}
+
+	/**
+	 * Guarantee that the columns can store the given number of tokens and that
+	 * there is room for one more example.
+	 * 
+	 * @param numTokens
+	 */
+	protected void ensureCapacity(int numTokens) {
+		if (numExamples + 1 >= exampleOffsets.length)
+			exampleOffsets = Arrays.copyOf(exampleOffsets,
+					exampleOffsets.length + (exampleOffsets.length >> 1) + 1);
+		if (numTokens <= tokenCapacity)
+			return;
+		// Grow by 50% to limit the peak memory of large corpora.
+		long newCapacity = tokenCapacity + (tokenCapacity >> 1) + 16;
+		if (newCapacity < numTokens)
+			newCapacity = numTokens;
+		if (newCapacity > Integer.MAX_VALUE - 8)
+			newCapacity = Integer.MAX_VALUE - 8;
+		tokenCapacity = (int) newCapacity;
+		for (int ftr = 0; ftr < columns.length; ++ftr)
+			columns[ftr] = Arrays.copyOf(columns[ftr], tokenCapacity);
+	}
+
+	/**
+	 * Append an empty example with the given number of tokens to the end of
+	 * this corpus and return the offset of its first token. The caller must
+	 * fill the feature values of the new tokens.
+	 * 
+	 * @param id
+	 * @param size
+	 * @return
+	 */
+	protected int appendExample(String id, int size) {
+		int offset = exampleOffsets[numExamples];
+		ensureCapacity(offset + size);
+		exampleIDs.add(id);
+		++numExamples;
+		exampleOffsets[numExamples] = offset + size;
+		return offset;
+	}
+
+	/**
+	 * Return a stub for the example at the given index. Each call returns a new
+	 * stub, so that different examples can be accessed at the same time (and
+	 * by different threads).
 	 * 
 	 * @param index
 	 *            the index of the wanted example.
@@ -141,8 +244,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @return the example stub.
 	 */
 	public DatasetExample getExample(int index) {
-		tempExample.idxExample = index;
-		return tempExample;
+		return new Example(index);
 	}
 
 	/**
@@ -166,20 +268,32 @@ public class Corpus implements Iterable<DatasetExample> {
 	 *            a <code>Dataset</code> to be joined to this dataset.
 	 * 
 	 * @throws DatasetException
-	 *             if the given dataset has a different shape or a different
-	 *             feature-value encoding.
+	 *             if the given dataset has different features (labels or
+	 *             order) or a different feature-value encoding.
 	 */
 	public void add(Corpus dataset) throws DatasetException {
 		if (dataset.getNumberOfFeatures() != getNumberOfFeatures())
 			throw new DatasetException(
 					"Both datasets need to have the same number of features.");
 
+		if (!dataset.featureLabels.equals(featureLabels))
+			throw new DatasetException(
+					"Both datasets need to have the same features in the same order.");
+
 		if (dataset.featureValueEncoding != featureValueEncoding)
 			throw new DatasetException(
 					"Both datasets need to have the same feature-value encoding.");
 
-		examples.addAll(dataset.examples);
-		exampleIDs.addAll(dataset.exampleIDs);
+		int numFtrs = getNumberOfFeatures();
+		int numExs = dataset.numExamples;
+		for (int idxEx = 0; idxEx < numExs; ++idxEx) {
+			int from = dataset.exampleOffsets[idxEx];
+			int size = dataset.exampleOffsets[idxEx + 1] - from;
+			int to = appendExample(dataset.exampleIDs.get(idxEx), size);
+			for (int ftr = 0; ftr < numFtrs; ++ftr)
+				System.arraycopy(dataset.columns[ftr], from, columns[ftr], to,
+						size);
+		}
 	}
 
 	/**
@@ -188,7 +302,7 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @return the number of examples within this dataset
 	 */
 	public int getNumberOfExamples() {
-		return examples.size();
+		return numExamples;
 	}
 
 	/**
@@ -202,8 +316,8 @@ public class Corpus implements Iterable<DatasetExample> {
 
 	/**
 	 * Create a new feature in this dataset and adapt its shape to the new
-	 * feature (filling the new feature value with <code>null</code> in all
-	 * examples).
+	 * feature (filling the new feature value with <code>MISSING_VALUE</code> in
+	 * all examples).
 	 * 
 	 * @param label
 	 *            the label of the new feature.
@@ -245,16 +359,18 @@ public class Corpus implements Iterable<DatasetExample> {
 		// Remove the feature from the label vector.
 		featureLabels.remove(feature);
 
-		// Remove the feature from every token.
-		for (Vector<Vector<Integer>> example : examples)
-			for (Vector<Integer> token : example)
-				token.remove(feature);
+		// Remove the feature column.
+		int[][] newColumns = new int[columns.length - 1][];
+		System.arraycopy(columns, 0, newColumns, 0, feature);
+		System.arraycopy(columns, feature + 1, newColumns, feature,
+				newColumns.length - feature);
+		columns = newColumns;
 	}
 
 	/**
 	 * Create new features with the given labels and adjust the dataset shape to
-	 * accommodate them (filling with <code>null</code> the new-features values
-	 * in all the examples).
+	 * accommodate them (filling with <code>MISSING_VALUE</code> the
+	 * new-features values in all the examples).
 	 * 
 	 * @param labels
 	 *            the labels of the new features.
@@ -287,15 +403,18 @@ public class Corpus implements Iterable<DatasetExample> {
 	}
 
 	/**
-	 * Create new elements in all token vectors to accomodate new features.
+	 * Create new columns to accomodate new features.
 	 * 
 	 * @param numberOfExtraFeatures
 	 *            the number of new features to be created.
 	 */
 	private void adjustDataShape(int numberOfExtraFeatures) {
-		for (Vector<Vector<Integer>> example : examples)
-			for (Vector<Integer> token : example)
-				token.setSize(token.size() + numberOfExtraFeatures);
+		int numFtrs = columns.length;
+		columns = Arrays.copyOf(columns, numFtrs + numberOfExtraFeatures);
+		for (int ftr = numFtrs; ftr < columns.length; ++ftr) {
+			columns[ftr] = new int[tokenCapacity];
+			Arrays.fill(columns[ftr], MISSING_VALUE);
+		}
 	}
 
 	/**
@@ -320,28 +439,20 @@ public class Corpus implements Iterable<DatasetExample> {
 			Collection<? extends Collection<Integer>> exampleFeatures)
 			throws DatasetException {
 
-		Vector<Vector<Integer>> example = new Vector<Vector<Integer>>(
-				exampleFeatures.size());
-
-		for (Collection<Integer> token : exampleFeatures) {
+		for (Collection<Integer> token : exampleFeatures)
 			if (token.size() != getNumberOfFeatures())
 				throw new DatasetException(
 						"The given example has a different number of features than this dataset.");
 
-			// Create a new vector representing a token and add it to the
-			// example.
-			Vector<Integer> tokenV = new Vector<Integer>(getNumberOfFeatures());
-			example.add(tokenV);
-
-			// Fill the token feature values.
-			for (int ftr : token)
-				tokenV.add(ftr);
+		// Add the example to the dataset and fill the token feature values.
+		int offset = appendExample(id, exampleFeatures.size());
+		for (Collection<Integer> token : exampleFeatures) {
+			int ftr = 0;
+			for (int val : token)
+				columns[ftr++][offset] = val;
+			++offset;
 		}
 
-		// Add the example to the dataset.
-		examples.add(example);
-		exampleIDs.add(id);
-
 		return new Example(getNumberOfExamples() - 1);
 	}
 
@@ -367,30 +478,21 @@ public class Corpus implements Iterable<DatasetExample> {
 			Collection<? extends Collection<String>> exampleFeatureLabels)
 			throws DatasetException {
 
-		Vector<Vector<Integer>> example = new Vector<Vector<Integer>>(
-				exampleFeatureLabels.size());
-
-		for (Collection<String> token : exampleFeatureLabels) {
+		for (Collection<String> token : exampleFeatureLabels)
 			if (token.size() != getNumberOfFeatures())
 				throw new DatasetException(
 						"The given example has a different number of features than this dataset.");
 
-			// Create a new vector representing a token and add it to the
-			// example.
-			Vector<Integer> tokenV = new Vector<Integer>(getNumberOfFeatures());
-			example.add(tokenV);
-
-			// Fill the token feature values.
-			for (String ftrLabel : token) {
-				int ftr = featureValueEncoding.putString(ftrLabel);
-				tokenV.add(ftr);
-			}
+		// Add the example to the dataset and fill the token feature values.
+		int offset = appendExample(id, exampleFeatureLabels.size());
+		for (Collection<String> token : exampleFeatureLabels) {
+			int ftr = 0;
+			for (String ftrLabel : token)
+				columns[ftr++][offset] = featureValueEncoding
+						.putString(ftrLabel);
+			++offset;
 		}
 
-		// Add the example to the dataset.
-		examples.add(example);
-		exampleIDs.add(id);
-
 		return new Example(getNumberOfExamples() - 1);
 	}
 
@@ -429,7 +531,9 @@ public class Corpus implements Iterable<DatasetExample> {
 	}
 
 	/**
-	 * Load a dataset from the given stream.
+	 * Load a dataset from the given file. Binary files (written by
+	 * {@link #saveBinary(String)}) are detected and loaded by
+	 * {@link #loadBinary(String)}.
 	 * 
 	 * @param fileName
 	 *            the name of a file where to read from the dataset.
@@ -438,6 +542,10 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @throws DatasetException
 	 */
 	public void load(String fileName) throws IOException, DatasetException {
+		if (isBinaryFile(fileName)) {
+			loadBinary(fileName);
+			return;
+		}
 		BufferedReader reader = new BufferedReader(new FileReader(fileName));
 		load(reader);
 		reader.close();
@@ -487,15 +595,26 @@ public class Corpus implements Iterable<DatasetExample> {
 
 	private void loadWithoutHeader(BufferedReader reader)
 			throws DatasetException, IOException {
-		String buff;
+		String buff = skipBlanksAndComments(reader);
+		if (buff == null)
+			return;
+
+		// Without a header, name the features by the first token.
+		if (getNumberOfFeatures() == 0) {
+			String[] tokens = buff.split("[\t]");
+			if (tokens.length > 1) {
+				int numFeatures = tokens[1].split("[ ]").length;
+				String[] labels = new String[numFeatures];
+				for (int i = 0; i < numFeatures; ++i)
+					labels[i] = "ftr" + i;
+				createNewFeatures(labels);
+			}
+		}
+
 		// Parse each example.
-		while ((buff = skipBlanksAndComments(reader)) != null)
+		do {
 			parseExample(buff);
-
-		featureLabels = new Vector<String>();
-		int numFeatures = examples.get(0).get(0).size();
-		for (int i = 0; i < numFeatures; ++i)
-			featureLabels.add("ftr" + i);
+		} while ((buff = skipBlanksAndComments(reader)) != null);
 	}
 
 	protected String skipBlanksAndComments(BufferedReader reader)
@@ -562,27 +681,25 @@ public class Corpus implements Iterable<DatasetExample> {
 		if (id.trim().length() == 0)
 			return false;
 
-		Vector<Vector<Integer>> exampleData = new Vector<Vector<Integer>>(
-				tokens.length - 1);
-
+		// Check the number of features of each token.
+		int numFtrs = getNumberOfFeatures();
+		String[][] features = new String[tokens.length - 1][];
 		for (int idxTkn = 1; idxTkn < tokens.length; ++idxTkn) {
-			String token = tokens[idxTkn];
-
-			// Split the token into its features.
-			String[] features = token.split("[ ]");
-
-			// Encode the feature values.
-			Vector<Integer> featuresAsVector = new Vector<Integer>(
-					features.length);
-			for (String ftr : features)
-				featuresAsVector.add(featureValueEncoding.putString(ftr));
-
-			exampleData.add(featuresAsVector);
+			features[idxTkn - 1] = tokens[idxTkn].split("[ ]");
+			if (features[idxTkn - 1].length != numFtrs)
+				throw new DatasetException(
+						"Incorrect number of features on the following example:\n"
+								+ buff);
 		}
 
-		// Store the loaded example.
-		exampleIDs.add(id);
-		examples.add(exampleData);
+		// Store the loaded example and encode the feature values.
+		int offset = appendExample(id, features.length);
+		for (String[] token : features) {
+			for (int ftr = 0; ftr < numFtrs; ++ftr)
+				columns[ftr][offset] = featureValueEncoding
+						.putString(token[ftr]);
+			++offset;
+		}
 
 		return true;
 	}
@@ -687,7 +804,183 @@ public class Corpus implements Iterable<DatasetExample> {
 	 * @return the number of tokens within the given example index.
 	 */
 	public int getNumberOfTokens(int idxExample) {
-		return examples.get(idxExample).size();
+		return exampleOffsets[idxExample + 1] - exampleOffsets[idxExample];
+	}
+
+	/**
+	 * Return whether the given file is a binary corpus file.
+	 * 
+	 * @param fileName
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBinaryFile(String fileName) throws IOException {
+		DataInputStream is = new DataInputStream(new FileInputStream(fileName));
+		try {
+			return is.readInt() == SERIAL_MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Save this dataset in a binary file. The file includes the feature labels,
+	 * the labels of the feature-value codes, the example IDs and offsets and
+	 * the feature columns.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public void saveBinary(String fileName) throws IOException {
+		BinaryFileWriter out = new BinaryFileWriter(fileName);
+		try {
+			out.writeInt(SERIAL_MAGIC);
+			out.writeInt(SERIAL_VERSION);
+
+			// Feature labels.
+			int numFtrs = getNumberOfFeatures();
+			out.writeInt(numFtrs);
+			for (String label : featureLabels)
+				out.writeString(label);
+
+			// Feature-value encoding.
+			int size = featureValueEncoding.size();
+			out.writeInt(size);
+			for (int code = 0; code < size; ++code)
+				out.writeString(featureValueEncoding.getLabelByCode(code));
+
+			// Examples.
+			out.writeInt(numExamples);
+			for (int idxEx = 0; idxEx < numExamples; ++idxEx)
+				out.writeString(exampleIDs.get(idxEx));
+			out.writeInts(exampleOffsets, 0, numExamples + 1);
+			int numTokens = getNumberOfTokens();
+			for (int ftr = 0; ftr < numFtrs; ++ftr)
+				out.writeInts(columns[ftr], 0, numTokens);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load the examples in a binary file written by
+	 * {@link #saveBinary(String)} and append them to this dataset. If this
+	 * dataset has no feature, the features in the file are created. Otherwise,
+	 * the file must have the same features.
+	 * 
+	 * The labels in the file are included in the feature-value encoding of this
+	 * dataset, which can be non-empty (e.g., an encoding shared with a training
+	 * dataset). If the resulting codes differ from the stored ones, the feature
+	 * values are translated.
+	 * 
+	 * The examples are appended only if the whole file is valid. Otherwise,
+	 * this dataset is left unchanged, except for the labels that were already
+	 * included in its encoding.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 * @throws DatasetException
+	 */
+	public void loadBinary(String fileName) throws IOException,
+			DatasetException {
+		BinaryFileReader in = new BinaryFileReader(fileName);
+		boolean createdFeatures = false;
+		boolean loaded = false;
+		try {
+			if (in.readInt() != SERIAL_MAGIC)
+				throw new IOException(fileName + " is not a binary corpus");
+			int version = in.readInt();
+			if (version != SERIAL_VERSION)
+				throw new IOException("Unsupported version " + version
+						+ " of binary corpus " + fileName);
+
+			// Feature labels.
+			int numFtrs = in.readInt();
+			if (numFtrs < 0)
+				throw new DatasetException("Binary corpus " + fileName
+						+ " is corrupted (number of features).");
+			String[] labels = new String[numFtrs];
+			for (int ftr = 0; ftr < numFtrs; ++ftr)
+				labels[ftr] = in.readString();
+			if (getNumberOfFeatures() == 0) {
+				createNewFeatures(labels);
+				createdFeatures = true;
+			} else if (!featureLabels.equals(Arrays.asList(labels)))
+				throw new DatasetException("Binary corpus " + fileName
+						+ " has different features than this dataset.");
+
+			// Feature-value encoding.
+			int size = in.readInt();
+			if (size < 0)
+				throw new DatasetException("Binary corpus " + fileName
+						+ " is corrupted (encoding size).");
+			int[] codeMap = new int[size];
+			for (int code = 0; code < size; ++code)
+				codeMap[code] = featureValueEncoding.putString(in.readString());
+
+			// Example ids and offsets.
+			int numExs = in.readInt();
+			if (numExs < 0)
+				throw new DatasetException("Binary corpus " + fileName
+						+ " is corrupted (number of examples).");
+			String[] ids = new String[numExs];
+			for (int idxEx = 0; idxEx < numExs; ++idxEx)
+				ids[idxEx] = in.readString();
+			int[] offsets = new int[numExs + 1];
+			in.readInts(offsets, 0, numExs + 1);
+			if (offsets[0] != 0)
+				throw new DatasetException("Binary corpus " + fileName
+						+ " is corrupted (example offsets).");
+			for (int idxEx = 0; idxEx < numExs; ++idxEx)
+				if (offsets[idxEx + 1] < offsets[idxEx])
+					throw new DatasetException("Binary corpus " + fileName
+							+ " is corrupted (example offsets).");
+
+			/*
+			 * Feature values are read after the current last token, which is
+			 * not visible until the examples are committed below.
+			 */
+			int numTokens = offsets[numExs];
+			int firstToken = getNumberOfTokens();
+			ensureCapacity(firstToken + numTokens);
+			for (int ftr = 0; ftr < numFtrs; ++ftr) {
+				int[] column = columns[ftr];
+				in.readInts(column, firstToken, numTokens);
+				int end = firstToken + numTokens;
+				for (int idx = firstToken; idx < end; ++idx) {
+					int code = column[idx];
+					if (code == MISSING_VALUE)
+						continue;
+					if (code < 0 || code >= size)
+						throw new DatasetException("Binary corpus " + fileName
+								+ " has an invalid feature value code: "
+								+ code);
+					column[idx] = codeMap[code];
+				}
+			}
+
+			// Commit the examples.
+			int firstExample = numExamples;
+			while (exampleOffsets.length <= firstExample + numExs)
+				exampleOffsets = Arrays.copyOf(exampleOffsets,
+						exampleOffsets.length + (exampleOffsets.length >> 1)
+								+ 1);
+			for (int idxEx = 1; idxEx <= numExs; ++idxEx)
+				exampleOffsets[firstExample + idxEx] = firstToken
+						+ offsets[idxEx];
+			exampleIDs.addAll(Arrays.asList(ids));
+			numExamples += numExs;
+			loaded = true;
+		} finally {
+			in.close();
+			if (!loaded && createdFeatures) {
+				// Undo the features created from the file header.
+				featureLabels.clear();
+				columns = new int[0][];
+			}
+		}
 	}
 
 	/**
@@ -728,7 +1021,7 @@ public class Corpus implements Iterable<DatasetExample> {
 
 		@Override
 		public int size() {
-			return examples.get(idxExample).size();
+			return exampleOffsets[idxExample + 1] - exampleOffsets[idxExample];
 		}
 
 		@Override
@@ -743,30 +1036,28 @@ public class Corpus implements Iterable<DatasetExample> {
 
 		@Override
 		public void setFeatureValue(int token, int feature, int value) {
-			examples.get(idxExample).get(token).set(feature, value);
+			assert (token < size());
+			columns[feature][exampleOffsets[idxExample] + token] = value;
 		}
 
 		@Override
 		public void setFeatureValue(int token, String feature, String value)
 				throws DatasetException {
-			examples.get(idxExample)
-					.get(token)
-					.set(getFeatureIndex(feature),
-							featureValueEncoding.putString(value));
+			setFeatureValue(token, getFeatureIndex(feature),
+					featureValueEncoding.putString(value));
 		}
 
 		@Override
 		public void setFeatureValue(int token, int feature, String value)
 				throws DatasetException {
-			examples.get(idxExample).get(token)
-					.set(feature, featureValueEncoding.putString(value));
+			setFeatureValue(token, feature,
+					featureValueEncoding.putString(value));
 		}
 
 		@Override
 		public int getFeatureValue(int token, int feature) {
-			Integer val = examples.get(idxExample).get(token).get(feature);
-			assert (val != null);
-			return val;
+			assert (token < size());
+			return columns[feature][exampleOffsets[idxExample] + token];
 		}
 
 		@Override
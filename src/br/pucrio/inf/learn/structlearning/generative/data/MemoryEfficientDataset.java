@@ -8,7 +8,6 @@ import java.io.PrintStream;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,8 +24,6 @@ public class MemoryEfficientDataset extends Corpus {
 
 	private static Log LOG = LogFactory.getLog(MemoryEfficientDataset.class);
 
-	protected int lastExampleSize;
-
 	/**
 	 * List of file names to be loaded.
 	 */
@@ -43,23 +40,12 @@ public class MemoryEfficientDataset extends Corpus {
 	public MemoryEfficientDataset(String fileName) throws IOException,
 			DatasetException {
 		super();
-		featureValueEncoding = new FeatureValueEncoding();
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>(1);
-		examples.add(new Vector<Vector<Integer>>());
-		exampleIDs = new Vector<String>(1);
-		exampleIDs.add(new String());
 		inputFileNames = new String[1];
 		inputFileNames[0] = fileName;
 	}
 
 	public MemoryEfficientDataset(String[] fileNames) {
-		featureValueEncoding = new FeatureValueEncoding();
-		featureLabels = new Vector<String>();
-		examples = new Vector<Vector<Vector<Integer>>>(1);
-		examples.add(new Vector<Vector<Integer>>());
-		exampleIDs = new Vector<String>(1);
-		exampleIDs.add(new String());
+		super();
 		inputFileNames = fileNames.clone();
 	}
 
@@ -79,56 +65,14 @@ public class MemoryEfficientDataset extends Corpus {
 		}
 	}
 
+	/**
+	 * Parse the given string and store it as the only example in memory
+	 * (replacing the previous one).
+	 */
+	@Override
 	public boolean parseExample(String buff) throws DatasetException {
-		// Split tokens.
-		String tokens[] = buff.split("[\t]");
-
-		if (tokens.length == 0)
-			return false;
-
-		// The first field is the sentence id.
-		String id = tokens[0];
-
-		if (id.trim().length() == 0)
-			return false;
-
-		Vector<Vector<Integer>> exampleData = examples.get(0);
-
-		// Adjust the vector to the size of the current example (if it is
-		// needed).
-		int prevSize = exampleData.size();
-		if (prevSize < tokens.length - 1) {
-			exampleData.setSize(tokens.length - 1);
-			for (int idx = prevSize; idx < exampleData.size(); ++idx) {
-				exampleData
-						.set(idx, new Vector<Integer>(getNumberOfFeatures()));
-				exampleData.get(idx).setSize(getNumberOfFeatures());
-			}
-		}
-
-		lastExampleSize = exampleData.size();
-
-		for (int idxTkn = 1; idxTkn < tokens.length; ++idxTkn) {
-			String token = tokens[idxTkn];
-
-			// Split the token into its features.
-			String[] features = token.split("[ ]");
-			if (features.length != getNumberOfFeatures())
-				throw new DatasetException(
-						"Incorrect number of features on the following example:\n"
-								+ buff);
-
-			// Encode the feature values.
-			Vector<Integer> featuresAsVector = exampleData.get(idxTkn - 1);
-			for (int idxFtr = 0; idxFtr < getNumberOfFeatures(); ++idxFtr)
-				featuresAsVector.set(idxFtr,
-						featureValueEncoding.putString(features[idxFtr]));
-		}
-
-		// Store the loaded example.
-		exampleIDs.set(0, id);
-
-		return true;
+		clear();
+		return super.parseExample(buff);
 	}
 
 	@Override
@@ -201,23 +145,6 @@ public class MemoryEfficientDataset extends Corpus {
 		throw new UnsupportedOperationException();
 	}
 
-	private class Example extends Corpus.Example {
-
-		protected int size;
-
-		protected Example(int idxExample) {
-			super(idxExample);
-		}
-
-		protected void setSize(int newSize) {
-			size = newSize;
-		}
-
-		public int size() {
-			return size;
-		}
-	}
-
 	/**
 	 * Iterate over the file list of the dataset.
 	 * 
@@ -308,8 +235,6 @@ public class MemoryEfficientDataset extends Corpus {
 				// Read the next line.
 				lastLine = skipBlanksAndComments(curFileReader);
 
-				curExample.setSize(lastExampleSize);
-
 				// Return the stub for the parsed example.
 				return curExample;
 
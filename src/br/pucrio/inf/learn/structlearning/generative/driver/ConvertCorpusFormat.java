@@ -0,0 +1,46 @@
+package br.pucrio.inf.learn.structlearning.generative.driver;
+
+import java.io.IOException;
+
+import br.pucrio.inf.learn.structlearning.generative.data.Corpus;
+import br.pucrio.inf.learn.structlearning.generative.data.DatasetException;
+
+/**
+ * Convert a corpus from the text format to the binary format or vice-versa.
+ * The format of the input file is detected. Binary corpora can be given to any
+ * driver that loads a corpus from a file name.
+ * 
+ * @author eraldo
+ * 
+ */
+public class ConvertCorpusFormat {
+
+	public static void main(String[] args) throws IOException, DatasetException {
+
+		if ((args.length != 2 && args.length != 3)
+				|| (args.length == 3 && !args[2].equals("-text"))) {
+			System.err
+					.print("Syntax error: incorrect arguments. Correct syntax:\n"
+							+ "	<input_dataset> <output_dataset> [-text]\n"
+							+ "The output is binary unless -text is given.\n");
+			System.exit(1);
+		}
+
+		int arg = 0;
+		String inFileName = args[arg++];
+		String outFileName = args[arg++];
+		boolean text = (arg < args.length);
+
+		System.out.println("Loading " + inFileName + "...");
+		Corpus dataset = new Corpus(inFileName);
+
+		System.out.println(String.format(
+				"Saving %d sentences (%d tokens) in %s format to %s...",
+				dataset.getNumberOfExamples(), dataset.getNumberOfTokens(),
+				text ? "text" : "binary", outFileName));
+		if (text)
+			dataset.save(outFileName);
+		else
+			dataset.saveBinary(outFileName);
+	}
+}
@@ -1,7 +1,5 @@
 package br.pucrio.inf.learn.structlearning.generative.driver;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.Collection;
 
@@ -53,17 +51,12 @@ public class ConvertDatasetIobStyle {
 					stateFeatureLabel, iobStyle);
 		}
 
-		InputStream is = null;
+		// Load the dataset (text or binary file).
+		Corpus dataset;
 		if (inFileName.equals("-stdin"))
-			is = System.in;
+			dataset = new Corpus(System.in);
 		else
-			is = new FileInputStream(inFileName);
-
-		// Load the dataset.
-		Corpus dataset = new Corpus(is);
-
-		if (!inFileName.equals("-stdin"))
-			is.close();
+			dataset = new Corpus(inFileName);
 
 		// Extract the entities and re-tag them using the required style.
 		Evaluation ev = new Evaluation("0");
@@ -1,8 +1,6 @@
 package br.pucrio.inf.learn.structlearning.generative.driver;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintStream;
 
 import br.pucrio.inf.learn.structlearning.generative.data.Corpus;
@@ -36,16 +34,12 @@ public class RemoveFeature {
 					featureLabel));
 		}
 
-		InputStream is = null;
+		// Load the dataset (text or binary file).
+		Corpus dataset;
 		if (inFileName.equals("-stdin"))
-			is = System.in;
+			dataset = new Corpus(System.in);
 		else
-			is = new FileInputStream(inFileName);
-
-		// Load the dataset.
-		Corpus dataset = new Corpus(is);
-		if (!inFileName.equals("-stdin"))
-			is.close();
+			dataset = new Corpus(inFileName);
 
 		// Remove the feature.
 		dataset.removeFeature(featureLabel);
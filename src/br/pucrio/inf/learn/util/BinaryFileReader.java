@@ -0,0 +1,194 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read primitive values and arrays of primitive values written by
+ * {@link BinaryFileWriter}. The file is read through a NIO channel and arrays
+ * are transfered in bulk from a direct buffer.
+ * 
+ * @author eraldo
+ * 
+ */
+public class BinaryFileReader {
+
+	/**
+	 * Default buffer size (in bytes).
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Input file.
+	 */
+	private FileInputStream file;
+
+	/**
+	 * Input channel.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Read buffer. Between calls, it is in read mode (flipped).
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Open the given file for reading.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public BinaryFileReader(String fileName) throws IOException {
+		file = new FileInputStream(fileName);
+		channel = file.getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.flip();
+	}
+
+	/**
+	 * Guarantee that the buffer has at least the given number of bytes
+	 * available for reading.
+	 * 
+	 * @param numBytes
+	 * @throws IOException
+	 */
+	private void ensureAvailable(int numBytes) throws IOException {
+		if (buffer.remaining() >= numBytes)
+			return;
+		buffer.compact();
+		while (buffer.position() < numBytes) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+	}
+
+	public boolean readBoolean() throws IOException {
+		ensureAvailable(1);
+		return buffer.get() != 0;
+	}
+
+	public byte readByte() throws IOException {
+		ensureAvailable(1);
+		return buffer.get();
+	}
+
+	public int readInt() throws IOException {
+		ensureAvailable(4);
+		return buffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		ensureAvailable(8);
+		return buffer.getLong();
+	}
+
+	public double readDouble() throws IOException {
+		ensureAvailable(8);
+		return buffer.getDouble();
+	}
+
+	/**
+	 * Read a string written by {@link BinaryFileWriter#writeString(String)}.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		int len = readInt();
+		if (len < 0)
+			return null;
+		byte[] bytes = new byte[len];
+		readBytes(bytes, 0, len);
+		return new String(bytes, BinaryFileWriter.UTF8);
+	}
+
+	/**
+	 * Fill the given segment of a byte array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readBytes(byte[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			ensureAvailable(1);
+			int len = Math.min(length, buffer.remaining());
+			buffer.get(vals, offset, len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Fill the given segment of an int array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readInts(int[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			ensureAvailable(4);
+			int len = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(vals, offset, len);
+			buffer.position(buffer.position() + 4 * len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Fill the given segment of a double array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readDoubles(double[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			ensureAvailable(8);
+			int len = Math.min(length, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().get(vals, offset, len);
+			buffer.position(buffer.position() + 8 * len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Read an array written by {@link BinaryFileWriter#writeIntArray(int[])}.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public int[] readIntArray() throws IOException {
+		int len = readInt();
+		if (len < 0)
+			return null;
+		int[] vals = new int[len];
+		readInts(vals, 0, len);
+		return vals;
+	}
+
+	/**
+	 * Close the file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
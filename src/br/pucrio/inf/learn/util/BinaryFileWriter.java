@@ -0,0 +1,212 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Write primitive values and arrays of primitive values to a file through a
+ * NIO channel. Arrays are transfered in bulk through a direct buffer. All
+ * values are written in big-endian order, as in
+ * <code>DataOutputStream</code>.
+ * 
+ * @author eraldo
+ * 
+ */
+public class BinaryFileWriter {
+
+	/**
+	 * Charset used to write strings.
+	 */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Default buffer size (in bytes).
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Output file.
+	 */
+	private FileOutputStream file;
+
+	/**
+	 * Output channel.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Write buffer.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Open the given file for writing.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public BinaryFileWriter(String fileName) throws IOException {
+		file = new FileOutputStream(fileName);
+		channel = file.getChannel();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	}
+
+	/**
+	 * Write the content of the buffer to the channel.
+	 * 
+	 * @throws IOException
+	 */
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Guarantee that the buffer has at least the given number of free bytes.
+	 * 
+	 * @param numBytes
+	 * @throws IOException
+	 */
+	private void ensureRemaining(int numBytes) throws IOException {
+		if (buffer.remaining() < numBytes)
+			flushBuffer();
+	}
+
+	public void writeBoolean(boolean val) throws IOException {
+		ensureRemaining(1);
+		buffer.put((byte) (val ? 1 : 0));
+	}
+
+	public void writeByte(byte val) throws IOException {
+		ensureRemaining(1);
+		buffer.put(val);
+	}
+
+	public void writeInt(int val) throws IOException {
+		ensureRemaining(4);
+		buffer.putInt(val);
+	}
+
+	public void writeLong(long val) throws IOException {
+		ensureRemaining(8);
+		buffer.putLong(val);
+	}
+
+	public void writeDouble(double val) throws IOException {
+		ensureRemaining(8);
+		buffer.putDouble(val);
+	}
+
+	/**
+	 * Write a string as its length (number of UTF-8 bytes) followed by its
+	 * UTF-8 bytes. A <code>null</code> string is written as length -1.
+	 * 
+	 * @param str
+	 * @throws IOException
+	 */
+	public void writeString(String str) throws IOException {
+		if (str == null) {
+			writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes(UTF8);
+		writeInt(bytes.length);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Write the given segment of a byte array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void writeBytes(byte[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			if (!buffer.hasRemaining())
+				flushBuffer();
+			int len = Math.min(length, buffer.remaining());
+			buffer.put(vals, offset, len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Write the given segment of an int array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void writeInts(int[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			if (buffer.remaining() < 4)
+				flushBuffer();
+			int len = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(vals, offset, len);
+			buffer.position(buffer.position() + 4 * len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Write the given segment of a double array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void writeDoubles(double[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			if (buffer.remaining() < 8)
+				flushBuffer();
+			int len = Math.min(length, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().put(vals, offset, len);
+			buffer.position(buffer.position() + 8 * len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Write the length of the given array followed by its values. A
+	 * <code>null</code> array is written as length -1.
+	 * 
+	 * @param vals
+	 * @throws IOException
+	 */
+	public void writeIntArray(int[] vals) throws IOException {
+		if (vals == null) {
+			writeInt(-1);
+			return;
+		}
+		writeInt(vals.length);
+		writeInts(vals, 0, vals.length);
+	}
+
+	/**
+	 * Flush pending data and close the file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package br.pucrio.inf.learn.util;
+
+import java.util.Arrays;
+
+/**
+ * Dense assignment solver (Hungarian algorithm with shortest augmenting paths,
+ * as in Jonker-Volgenant). Given a weight matrix with <code>n</code> rows and
+ * <code>m</code> columns, it finds a maximum weight assignment of each row of
+ * the smallest dimension to a distinct element of the other dimension in
+ * <code>O(n^2 m)</code> time (<code>n <= m</code>).
+ * 
+ * The work buffers are allocated once and reused across calls. Thus, one
+ * object must not be used by several threads at the same time.
+ * 
+ * @author eraldo
+ * 
+ */
+public class HungarianAlgorithm {
+
+	/**
+	 * Potentials of the rows and columns (1-based; index 0 is a sentinel).
+	 */
+	private double[] rowPotential;
+
+	private double[] columnPotential;
+
+	/**
+	 * Row assigned to each column (0 if none).
+	 */
+	private int[] rowOfColumn;
+
+	/**
+	 * Previous column in the shortest augmenting path.
+	 */
+	private int[] way;
+
+	/**
+	 * Shortest path distance of each column.
+	 */
+	private double[] minDistance;
+
+	/**
+	 * Columns in the current shortest path tree.
+	 */
+	private boolean[] used;
+
+	/**
+	 * Create a solver whose buffers fit matrices with up to the given number
+	 * of rows and columns. Larger matrices are also accepted (buffers grow).
+	 * 
+	 * @param maxSize
+	 */
+	public HungarianAlgorithm(int maxSize) {
+		realloc(maxSize);
+	}
+
+	/**
+	 * Guarantee that the buffers fit matrices with up to the given number of
+	 * rows and columns.
+	 * 
+	 * @param maxSize
+	 */
+	public void realloc(int maxSize) {
+		if (rowPotential != null && rowPotential.length > maxSize)
+			return;
+		rowPotential = new double[maxSize + 1];
+		columnPotential = new double[maxSize + 1];
+		rowOfColumn = new int[maxSize + 1];
+		way = new int[maxSize + 1];
+		minDistance = new double[maxSize + 1];
+		used = new boolean[maxSize + 1];
+	}
+
+	/**
+	 * Find a maximum weight assignment in the given weight matrix.
+	 * 
+	 * @param weights
+	 *            weight matrix (at least <code>numRows</code> x
+	 *            <code>numColumns</code>).
+	 * @param numRows
+	 * @param numColumns
+	 * @param columnOfRow
+	 *            if not <code>null</code>, filled with the column assigned to
+	 *            each row (-1 if the row is not assigned, which only happens
+	 *            when there are more rows than columns).
+	 * @return the total weight of the assignment.
+	 */
+	public double maxWeightAssignment(double[][] weights, int numRows,
+			int numColumns, int[] columnOfRow) {
+		if (columnOfRow != null)
+			Arrays.fill(columnOfRow, 0, numRows, -1);
+		if (numRows == 0 || numColumns == 0)
+			return 0d;
+
+		// The smallest dimension is assigned to the largest one.
+		boolean transpose = numRows > numColumns;
+		int n = (transpose ? numColumns : numRows);
+		int m = (transpose ? numRows : numColumns);
+		realloc(m);
+
+		double[] u = rowPotential;
+		double[] v = columnPotential;
+		double[] minv = minDistance;
+		Arrays.fill(u, 0, n + 1, 0d);
+		Arrays.fill(v, 0, m + 1, 0d);
+		Arrays.fill(rowOfColumn, 0, m + 1, 0);
+
+		for (int row = 1; row <= n; ++row) {
+			// Find a shortest augmenting path from the given row.
+			rowOfColumn[0] = row;
+			int col0 = 0;
+			Arrays.fill(minv, 0, m + 1, Double.POSITIVE_INFINITY);
+			Arrays.fill(used, 0, m + 1, false);
+			do {
+				used[col0] = true;
+				int row0 = rowOfColumn[col0];
+				double delta = Double.POSITIVE_INFINITY;
+				int col1 = 0;
+				for (int col = 1; col <= m; ++col) {
+					if (used[col])
+						continue;
+					// Costs are negated weights.
+					double w = (transpose ? weights[col - 1][row0 - 1]
+							: weights[row0 - 1][col - 1]);
+					double cur = -w - u[row0] - v[col];
+					if (cur < minv[col]) {
+						minv[col] = cur;
+						way[col] = col0;
+					}
+					if (minv[col] < delta) {
+						delta = minv[col];
+						col1 = col;
+					}
+				}
+				// Update the potentials.
+				for (int col = 0; col <= m; ++col) {
+					if (used[col]) {
+						u[rowOfColumn[col]] += delta;
+						v[col] -= delta;
+					} else
+						minv[col] -= delta;
+				}
+				col0 = col1;
+			} while (rowOfColumn[col0] != 0);
+
+			// Augment the assignment along the path.
+			do {
+				int col1 = way[col0];
+				rowOfColumn[col0] = rowOfColumn[col1];
+				col0 = col1;
+			} while (col0 != 0);
+		}
+
+		// Total weight and assignment.
+		double total = 0d;
+		for (int col = 1; col <= m; ++col) {
+			int row = rowOfColumn[col];
+			if (row == 0)
+				continue;
+			if (transpose) {
+				total += weights[col - 1][row - 1];
+				if (columnOfRow != null)
+					columnOfRow[col - 1] = row - 1;
+			} else {
+				total += weights[row - 1][col - 1];
+				if (columnOfRow != null)
+					columnOfRow[row - 1] = col - 1;
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,204 @@
+package br.pucrio.inf.learn.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive <code>long</code> keys to primitive
+ * <code>int</code> values. It uses open addressing with linear probing over
+ * two parallel arrays, thus neither keys nor values are boxed and lookups do
+ * not allocate any object.
+ * 
+ * Concurrent lookups are safe as long as no thread modifies the map.
+ * 
+ * @author eraldo
+ * 
+ */
+public class LongIntHashMap {
+
+	/**
+	 * Maximum fraction of used slots before the table is enlarged.
+	 */
+	private static final double MAX_LOAD = 0.6;
+
+	/**
+	 * Keys of each slot.
+	 */
+	private long[] keys;
+
+	/**
+	 * Values of each slot. Slots holding the missing value are free.
+	 */
+	private int[] values;
+
+	/**
+	 * Number of entries in this map.
+	 */
+	private int size;
+
+	/**
+	 * Number of entries that triggers the next resize.
+	 */
+	private int threshold;
+
+	/**
+	 * Value used to mark free slots. This value cannot be stored in the map
+	 * and is returned by <code>get</code> for absent keys.
+	 */
+	private final int missingValue;
+
+	/**
+	 * Create an empty map with the given initial capacity. The value
+	 * <code>missingValue</code> is returned for absent keys and cannot be
+	 * stored in the map.
+	 * 
+	 * @param initialCapacity
+	 * @param missingValue
+	 */
+	public LongIntHashMap(int initialCapacity, int missingValue) {
+		this.missingValue = missingValue;
+		int capacity = 16;
+		while (capacity * MAX_LOAD < initialCapacity)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Create an empty map with a default initial capacity. The value
+	 * <code>missingValue</code> is returned for absent keys and cannot be
+	 * stored in the map.
+	 * 
+	 * @param missingValue
+	 */
+	public LongIntHashMap(int missingValue) {
+		this(16, missingValue);
+	}
+
+	/**
+	 * Allocate empty tables with the given capacity (a power of two).
+	 * 
+	 * @param capacity
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		if (missingValue != 0)
+			Arrays.fill(values, missingValue);
+		threshold = (int) (capacity * MAX_LOAD);
+	}
+
+	/**
+	 * Return the first slot to probe for the given key.
+	 * 
+	 * @param key
+	 * @param mask
+	 * @return
+	 */
+	private static int slot(long key, int mask) {
+		// Keys are usually hash values already, but mix them anyway.
+		long h = key * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * Return the value associated with the given key or the missing value if
+	 * the key is not present.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public int get(long key) {
+		long[] keys = this.keys;
+		int[] values = this.values;
+		int mask = keys.length - 1;
+		int idx = slot(key, mask);
+		while (true) {
+			int val = values[idx];
+			if (val == missingValue)
+				return missingValue;
+			if (keys[idx] == key)
+				return val;
+			idx = (idx + 1) & mask;
+		}
+	}
+
+	/**
+	 * Return <code>true</code> if the given key is present in this map.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(long key) {
+		return get(key) != missingValue;
+	}
+
+	/**
+	 * Associate the given value with the given key and return the previous
+	 * value (or the missing value if the key was not present).
+	 * 
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	public int put(long key, int value) {
+		if (value == missingValue)
+			throw new IllegalArgumentException(
+					"The missing value cannot be stored");
+		int mask = keys.length - 1;
+		int idx = slot(key, mask);
+		while (true) {
+			int val = values[idx];
+			if (val == missingValue)
+				break;
+			if (keys[idx] == key) {
+				values[idx] = value;
+				return val;
+			}
+			idx = (idx + 1) & mask;
+		}
+		keys[idx] = key;
+		values[idx] = value;
+		if (++size > threshold)
+			rehash(keys.length << 1);
+		return missingValue;
+	}
+
+	/**
+	 * Enlarge the tables to the given capacity.
+	 * 
+	 * @param capacity
+	 */
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int idxOld = 0; idxOld < oldKeys.length; ++idxOld) {
+			int val = oldValues[idxOld];
+			if (val == missingValue)
+				continue;
+			long key = oldKeys[idxOld];
+			int idx = slot(key, mask);
+			while (values[idx] != missingValue)
+				idx = (idx + 1) & mask;
+			keys[idx] = key;
+			values[idx] = val;
+		}
+	}
+
+	/**
+	 * Return the number of entries in this map.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		Arrays.fill(values, missingValue);
+		size = 0;
+	}
+}
@@ -0,0 +1,216 @@
+package br.pucrio.inf.learn.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Read primitive values and arrays of primitive values written by
+ * {@link BinaryFileWriter} from a memory-mapped file. Instead of copying the
+ * file through a read buffer, the file is mapped in windows of at most
+ * <code>WINDOW_SIZE</code> bytes, which also allows files larger than 2GB. A
+ * new window is mapped whenever a value crosses the end of the current one.
+ * 
+ * @author eraldo
+ * 
+ */
+public class MappedFileReader {
+
+	/**
+	 * Maximum size (in bytes) of a mapped window.
+	 */
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	/**
+	 * Input file.
+	 */
+	private RandomAccessFile file;
+
+	/**
+	 * Input channel.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * File size (in bytes).
+	 */
+	private long size;
+
+	/**
+	 * File position of the current window.
+	 */
+	private long windowBegin;
+
+	/**
+	 * Current window.
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * Map the given file for reading.
+	 * 
+	 * @param fileName
+	 * @throws IOException
+	 */
+	public MappedFileReader(String fileName) throws IOException {
+		file = new RandomAccessFile(fileName, "r");
+		channel = file.getChannel();
+		size = channel.size();
+		map(0);
+	}
+
+	/**
+	 * Map a new window starting at the given file position.
+	 * 
+	 * @param position
+	 * @throws IOException
+	 */
+	private void map(long position) throws IOException {
+		windowBegin = position;
+		buffer = channel.map(MapMode.READ_ONLY, position,
+				Math.min(WINDOW_SIZE, size - position));
+	}
+
+	/**
+	 * Guarantee that the current window has at least the given number of bytes
+	 * available for reading.
+	 * 
+	 * @param numBytes
+	 * @throws IOException
+	 */
+	private void ensureAvailable(int numBytes) throws IOException {
+		if (buffer.remaining() >= numBytes)
+			return;
+		long position = windowBegin + buffer.position();
+		if (position + numBytes > size)
+			throw new EOFException();
+		map(position);
+	}
+
+	public boolean readBoolean() throws IOException {
+		ensureAvailable(1);
+		return buffer.get() != 0;
+	}
+
+	public byte readByte() throws IOException {
+		ensureAvailable(1);
+		return buffer.get();
+	}
+
+	public int readInt() throws IOException {
+		ensureAvailable(4);
+		return buffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		ensureAvailable(8);
+		return buffer.getLong();
+	}
+
+	public double readDouble() throws IOException {
+		ensureAvailable(8);
+		return buffer.getDouble();
+	}
+
+	/**
+	 * Read a string written by {@link BinaryFileWriter#writeString(String)}.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		int len = readInt();
+		if (len < 0)
+			return null;
+		byte[] bytes = new byte[len];
+		readBytes(bytes, 0, len);
+		return new String(bytes, BinaryFileWriter.UTF8);
+	}
+
+	/**
+	 * Fill the given segment of a byte array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readBytes(byte[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			ensureAvailable(1);
+			int len = Math.min(length, buffer.remaining());
+			buffer.get(vals, offset, len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Fill the given segment of an int array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readInts(int[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			ensureAvailable(4);
+			int len = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(vals, offset, len);
+			buffer.position(buffer.position() + 4 * len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Fill the given segment of a double array.
+	 * 
+	 * @param vals
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 */
+	public void readDoubles(double[] vals, int offset, int length)
+			throws IOException {
+		while (length > 0) {
+			ensureAvailable(8);
+			int len = Math.min(length, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().get(vals, offset, len);
+			buffer.position(buffer.position() + 8 * len);
+			offset += len;
+			length -= len;
+		}
+	}
+
+	/**
+	 * Read an array written by {@link BinaryFileWriter#writeIntArray(int[])}.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public int[] readIntArray() throws IOException {
+		int len = readInt();
+		if (len < 0)
+			return null;
+		int[] vals = new int[len];
+		readInts(vals, 0, len);
+		return vals;
+	}
+
+	/**
+	 * Unmap the current window and close the file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		buffer = null;
+		file.close();
+	}
+}
@@ -87,6 +87,50 @@ public class Murmur3Hash {
 		return h1;
 	}
 
+	/**
+	 * Mix one 32-bit block into the given 64-bit hash state. A 64-bit hash of
+	 * a sequence of integers is given by starting with a seed, calling this
+	 * method for each integer and, finally, calling
+	 * <code>finish64(state, length)</code>. This avoids copying the integers
+	 * to a byte array.
+	 *
+	 * @param h
+	 *            current hash state.
+	 * @param block
+	 *            the next integer of the sequence.
+	 * @return the new hash state.
+	 */
+	public static long mix64(long h, int block) {
+		long k = block & 0xffffffffL;
+		k *= 0x87c37b91114253d5L;
+		k = (k << 31) | (k >>> (64 - 31)); // ROTL64(k,31);
+		k *= 0x4cf5ad432745937fL;
+		h ^= k;
+		h = (h << 27) | (h >>> (64 - 27)); // ROTL64(h,27);
+		return h * 5 + 0x52dce729;
+	}
+
+	/**
+	 * Finalize a 64-bit hash state built by <code>mix64</code>.
+	 *
+	 * @param h
+	 *            current hash state.
+	 * @param length
+	 *            number of integers mixed into the state.
+	 * @return the 64-bit hash value.
+	 */
+	public static long finish64(long h, int length) {
+		h ^= length;
+		// BEGIN: h = fmix64(h);
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		// END: h = fmix64(h);
+		return h;
+	}
+
 	/**
 	 * Test the output of the Murmur3 hash function.
 	 * 
@@ -0,0 +1,99 @@
+package br.pucrio.inf.learn.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loop over the indexes <code>0, ..., size-1</code> whose iterations are
+ * independent and can be executed in parallel. The indexes are interleaved
+ * among a fixed number of tasks: task <code>t</code> processes the indexes
+ * <code>t, t + numberOfTasks, t + 2 * numberOfTasks, ...</code>. Interleaving
+ * balances the load when the cost of an iteration grows (or shrinks) with its
+ * index, as is the case for per-token subproblems.
+ * 
+ * The task index is given to each iteration, so that the loop body can use
+ * per-task scratch buffers.
+ * 
+ * @author eraldo
+ * 
+ */
+public abstract class ParallelLoop {
+
+	/**
+	 * Execute the iteration <code>index</code> within the task
+	 * <code>idxTask</code>.
+	 * 
+	 * @param idxTask
+	 * @param index
+	 */
+	protected abstract void iterate(int idxTask, int index);
+
+	/**
+	 * Execute all iterations from <code>0</code> to <code>size-1</code> using
+	 * the given number of tasks in the given executor and wait for their
+	 * completion. If <code>executor</code> is <code>null</code> or there is
+	 * only one task, the iterations are executed in the calling thread (all
+	 * within task 0).
+	 * 
+	 * @param executor
+	 * @param numberOfTasks
+	 * @param size
+	 */
+	public void run(ExecutorService executor, int numberOfTasks, final int size) {
+		if (executor == null || numberOfTasks <= 1 || size <= 1) {
+			for (int index = 0; index < size; ++index)
+				iterate(0, index);
+			return;
+		}
+
+		final int numTasks = Math.min(numberOfTasks, size);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(
+				numTasks);
+		for (int idxTask = 0; idxTask < numTasks; ++idxTask) {
+			final int task = idxTask;
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					for (int index = task; index < size; index += numTasks)
+						iterate(task, index);
+					return null;
+				}
+			});
+		}
+
+		try {
+			for (Future<Object> result : executor.invokeAll(tasks))
+				result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Parallel loop interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Executing parallel loop", e.getCause());
+		}
+	}
+
+	/**
+	 * Create a fixed-size pool of daemon threads, which does not prevent the
+	 * JVM from exiting when it is not explicitly shut down.
+	 * 
+	 * @param numberOfThreads
+	 * @return
+	 */
+	public static ExecutorService newDaemonExecutor(int numberOfThreads) {
+		return Executors.newFixedThreadPool(numberOfThreads,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+}
@@ -1,6 +1,9 @@
 package br.pucrio.inf.learn.util.gsmaxbranching;
 
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import br.pucrio.inf.learn.util.ParallelLoop;
 
 /**
  * Implement a maximum grandparent and siblings algorithm as proposed in Koo et
@@ -22,37 +25,36 @@ import java.util.Arrays;
 public class MaximumGrandparentSiblingsAlgorithm {
 
 	/**
-	 * Dynamic programming table that stores the back pointers with the best
-	 * previous modifier for each modifier of the current considered head.
-	 * 
-	 * For each head, this array and the siblings factor weight arrays
-	 * (siblingsWeights) are split in two slices exactly in the current head
-	 * index (idxHead). The idxHead index does not contain any valid node, since
-	 * it is impossible to connect a node to itself (there is no self-loop arc).
-	 * On the other hand, the siblings model considers two special nodes, START
-	 * and END, that represent the fixed, and artificial, first and last nodes
-	 * of any sequence of modifiers. Thus, for left modifiers, we use the
-	 * idxHead index to represent the START and END symbols for left modifiers
-	 * (modifiers that lie on the left side of the current head). Additionally,
-	 * we use the numberOfNodes index to represent the START and END symbols for
-	 * RIGHT modifiers. Therefore, the arrays sinblingsWeights and
-	 * previousModifiers must contain (numberOfNodes + 1) positions.
+	 * Scratch buffers of the sequential algorithm.
+	 */
+	private Workspace workspace;
+
+	/**
+	 * Scratch buffers of each parallel task.
+	 */
+	private Workspace[] taskWorkspaces;
+
+	/**
+	 * Weight of the solution of each head in the last call to
+	 * <code>findMaximumGrandparentSiblings</code>.
+	 */
+	private double[] headWeights;
+
+	/**
+	 * Maximum number of nodes supported by the internal data structures.
 	 */
-	private int[] previousModifiers;
+	private int maxNumberOfNodes;
 
 	/**
-	 * Dynamic programming table that stores the accumulated weight up to each
-	 * modifier for the best solution that includes the corresponding modifier.
-	 * The indexes idxHead and numberOfNodes are used to store the weight of the
-	 * two final solutions, for left and right modifiers, respectively.
+	 * Executor used to solve the per-head subproblems in parallel. If it is
+	 * <code>null</code>, the subproblems are solved sequentially.
 	 */
-	private double[] accumWeights;
+	private ExecutorService executor;
 
 	/**
-	 * Store the best solution of modifiers (in the same format as in
-	 * <code>previousModifiers</code>) among all grandparents.
+	 * Number of parallel tasks.
 	 */
-	private int[] bestPreviousModifiers;
+	private int numberOfTasks;
 
 	/**
 	 * Fraction of the edge factor weights to be used in the maximum branching
@@ -71,6 +73,7 @@ public class MaximumGrandparentSiblingsAlgorithm {
 	 */
 	public MaximumGrandparentSiblingsAlgorithm(int maxNumberOfNodes) {
 		this.beta = 0d;
+		this.numberOfTasks = 1;
 		realloc(maxNumberOfNodes);
 	}
 
@@ -83,9 +86,37 @@ public class MaximumGrandparentSiblingsAlgorithm {
 	 *            structures.
 	 */
 	public void realloc(int maxNumberOfNodes) {
-		accumWeights = new double[maxNumberOfNodes + 1];
-		previousModifiers = new int[maxNumberOfNodes + 1];
-		bestPreviousModifiers = new int[maxNumberOfNodes + 1];
+		this.maxNumberOfNodes = maxNumberOfNodes;
+		workspace = new Workspace(maxNumberOfNodes);
+		headWeights = new double[maxNumberOfNodes];
+		allocTaskWorkspaces();
+	}
+
+	/**
+	 * Allocate one workspace for each parallel task.
+	 */
+	private void allocTaskWorkspaces() {
+		taskWorkspaces = new Workspace[numberOfTasks];
+		taskWorkspaces[0] = workspace;
+		for (int idxTask = 1; idxTask < numberOfTasks; ++idxTask)
+			taskWorkspaces[idxTask] = new Workspace(maxNumberOfNodes);
+	}
+
+	/**
+	 * Solve the per-head subproblems in parallel, by splitting them among the
+	 * given number of tasks in the given executor. Each task uses its own
+	 * scratch buffers. If <code>executor</code> is <code>null</code>, the
+	 * subproblems are solved sequentially. The executor is not shut down by
+	 * this object.
+	 * 
+	 * @param executor
+	 * @param numberOfTasks
+	 */
+	public void setExecutor(ExecutorService executor, int numberOfTasks) {
+		this.executor = executor;
+		this.numberOfTasks = (executor == null ? 1 : Math.max(1,
+				numberOfTasks));
+		allocTaskWorkspaces();
 	}
 
 	/**
@@ -133,16 +164,61 @@ public class MaximumGrandparentSiblingsAlgorithm {
 			double[][][] siblingsFactorWeights, double[][] dualGrandparentVars,
 			double[][] dualModifierVars, int[] grandparents,
 			boolean[][] modifiers) {
+		findMaximumGrandparentSiblingsForHeads(numberOfNodes, null,
+				edgeFactorWeights, grandparentFactorWeights,
+				siblingsFactorWeights, dualGrandparentVars, dualModifierVars,
+				grandparents, modifiers, headWeights);
 		double weight = 0d;
 		for (int idxHead = 0; idxHead < numberOfNodes; ++idxHead)
-			weight += findMaximumGrandparentSiblingsForHead(numberOfNodes,
-					idxHead, edgeFactorWeights,
-					grandparentFactorWeights[idxHead],
-					siblingsFactorWeights[idxHead], dualGrandparentVars,
-					dualModifierVars, grandparents, modifiers);
+			weight += headWeights[idxHead];
 		return weight;
 	}
 
+	/**
+	 * Find the maximum scoring grandparent and sequence of modifiers for each
+	 * head node <code>idxHead</code> such that <code>heads[idxHead]</code> is
+	 * <code>true</code> (or for every head if <code>heads</code> is
+	 * <code>null</code>). The weight of the solution of each solved head is
+	 * stored in <code>weights[idxHead]</code>.
+	 * 
+	 * The subproblems are solved in parallel, if an executor has been given
+	 * through <code>setExecutor</code>. Since each head writes only its own
+	 * positions in the output arrays, the result does not depend on the number
+	 * of tasks.
+	 * 
+	 * @param numberOfNodes
+	 * @param heads
+	 * @param edgeFactorWeights
+	 * @param grandparentFactorWeights
+	 * @param siblingsFactorWeights
+	 * @param dualGrandparentVars
+	 * @param dualModifierVars
+	 * @param grandparents
+	 * @param modifiers
+	 * @param weights
+	 */
+	public void findMaximumGrandparentSiblingsForHeads(
+			final int numberOfNodes, final boolean[] heads,
+			final double[][] edgeFactorWeights,
+			final double[][][] grandparentFactorWeights,
+			final double[][][] siblingsFactorWeights,
+			final double[][] dualGrandparentVars,
+			final double[][] dualModifierVars, final int[] grandparents,
+			final boolean[][] modifiers, final double[] weights) {
+		new ParallelLoop() {
+			@Override
+			protected void iterate(int idxTask, int idxHead) {
+				if (heads != null && !heads[idxHead])
+					return;
+				weights[idxHead] = findMaximumGrandparentSiblingsForHead(
+						taskWorkspaces[idxTask], numberOfNodes, idxHead,
+						edgeFactorWeights, grandparentFactorWeights[idxHead],
+						siblingsFactorWeights[idxHead], dualGrandparentVars,
+						dualModifierVars, grandparents, modifiers);
+			}
+		}.run(executor, numberOfTasks, numberOfNodes);
+	}
+
 	/**
 	 * Find the maximum scoring grandparent and sequence of modifiers for the
 	 * head node <code>idxHead</code>.
@@ -187,6 +263,39 @@ public class MaximumGrandparentSiblingsAlgorithm {
 			double[][] siblingsFactorWeightsForHead,
 			double[][] dualGrandparentVars, double[][] dualModifierVars,
 			int[] grandparents, boolean[][] modifiers) {
+		return findMaximumGrandparentSiblingsForHead(workspace, numberOfNodes,
+				idxHead, edgeFactorWeights, grandparentFactorWeightsForHead,
+				siblingsFactorWeightsForHead, dualGrandparentVars,
+				dualModifierVars, grandparents, modifiers);
+	}
+
+	/**
+	 * Find the maximum scoring grandparent and sequence of modifiers for the
+	 * head node <code>idxHead</code> using the given scratch buffers.
+	 * 
+	 * @param ws
+	 * @param numberOfNodes
+	 * @param idxHead
+	 * @param edgeFactorWeights
+	 * @param grandparentFactorWeightsForHead
+	 * @param siblingsFactorWeightsForHead
+	 * @param dualGrandparentVars
+	 * @param dualModifierVars
+	 * @param grandparents
+	 * @param modifiers
+	 * @return the weight of the included factors for the given head node.
+	 */
+	protected double findMaximumGrandparentSiblingsForHead(Workspace ws,
+			int numberOfNodes, int idxHead, double[][] edgeFactorWeights,
+			double[][] grandparentFactorWeightsForHead,
+			double[][] siblingsFactorWeightsForHead,
+			double[][] dualGrandparentVars, double[][] dualModifierVars,
+			int[] grandparents, boolean[][] modifiers) {
+		// Scratch buffers.
+		int[] previousModifiers = ws.previousModifiers;
+		double[] accumWeights = ws.accumWeights;
+		int[] bestPreviousModifiers = ws.bestPreviousModifiers;
+
 		/*
 		 * Initialize the best left and right modifier sequence to an empty.
 		 * Just in case, if no sequence (or even no grandparent) is feasible
@@ -258,7 +367,7 @@ public class MaximumGrandparentSiblingsAlgorithm {
 				 * previousModifiers and accumWeights arrays with the found
 				 * values.
 				 */
-				findBestPreviousModifier(0, idxHead, idxModifier,
+				findBestPreviousModifier(ws, 0, idxHead, idxModifier,
 						siblingsFactorWeightsForHead[idxModifier]);
 
 				/*
@@ -300,7 +409,7 @@ public class MaximumGrandparentSiblingsAlgorithm {
 			 * modifiers) by the special index 'idxHead' that is used for the
 			 * START and END special symbols.
 			 */
-			findBestPreviousModifier(0, idxHead, idxHead,
+			findBestPreviousModifier(ws, 0, idxHead, idxHead,
 					siblingsFactorWeightsForHead[idxHead]);
 
 			// Add the weight of the best left sequence of modifiers.
@@ -333,7 +442,7 @@ public class MaximumGrandparentSiblingsAlgorithm {
 				 * previousModifiers and accumWeights arrays with the found
 				 * values.
 				 */
-				findBestPreviousModifier(idxHead + 1, numberOfNodes,
+				findBestPreviousModifier(ws, idxHead + 1, numberOfNodes,
 						idxModifier, siblingsFactorWeightsForHead[idxModifier]);
 
 				/*
@@ -375,8 +484,8 @@ public class MaximumGrandparentSiblingsAlgorithm {
 			 * modifiers) by the special index 'numberOfTokens' that is used for
 			 * the START and END special symbols.
 			 */
-			findBestPreviousModifier(idxHead + 1, numberOfNodes, numberOfNodes,
-					siblingsFactorWeightsForHead[numberOfNodes]);
+			findBestPreviousModifier(ws, idxHead + 1, numberOfNodes,
+					numberOfNodes, siblingsFactorWeightsForHead[numberOfNodes]);
 
 			// Add weight of the best sequence of right modifiers.
 			weight += accumWeights[numberOfNodes];
@@ -421,6 +530,8 @@ public class MaximumGrandparentSiblingsAlgorithm {
 	 * <code>idxModifier</code>. These modifiers can lie on the left or on the
 	 * right side of the head node.
 	 * 
+	 * @param ws
+	 *            scratch buffers of the current subproblem.
 	 * @param firstIndex
 	 *            indicates the first index to be considered within the factors
 	 *            weights given in <code>siblingsWeights</code>. This parameter
@@ -438,8 +549,10 @@ public class MaximumGrandparentSiblingsAlgorithm {
 	 *            weights of the sinblings factors for the current head and the
 	 *            given modifier (<code>idxModifier</code>).
 	 */
-	protected void findBestPreviousModifier(int firstIndex, int startEndIndex,
-			int idxModifier, double[] siblingsWeights) {
+	protected void findBestPreviousModifier(Workspace ws, int firstIndex,
+			int startEndIndex, int idxModifier, double[] siblingsWeights) {
+		double[] accumWeights = ws.accumWeights;
+
 		// Start with the START symbol as the best previous modifier.
 		int bestPreviousModifier = startEndIndex;
 		double bestAccumWeight = siblingsWeights[startEndIndex];
@@ -479,7 +592,7 @@ public class MaximumGrandparentSiblingsAlgorithm {
 		 * Store the best previous modifier for the current pair given by
 		 * (idxHead, idxModifier).
 		 */
-		previousModifiers[idxModifier] = bestPreviousModifier;
+		ws.previousModifiers[idxModifier] = bestPreviousModifier;
 		// if (Double.isNaN(bestAccumWeight))
 		// bestAccumWeight = 0d;
 		accumWeights[idxModifier] = bestAccumWeight;
@@ -619,4 +732,63 @@ public class MaximumGrandparentSiblingsAlgorithm {
 	public void setBeta(double val) {
 		beta = val;
 	}
+
+	/**
+	 * Scratch buffers used to solve the subproblem of one head. The
+	 * subproblems of different heads are independent, thus they can be solved
+	 * concurrently as long as each one uses its own workspace.
+	 * 
+	 * @author eraldo
+	 * 
+	 */
+	protected static class Workspace {
+
+		/**
+		 * Dynamic programming table that stores the back pointers with the
+		 * best previous modifier for each modifier of the current considered
+		 * head.
+		 * 
+		 * For each head, this array and the siblings factor weight arrays
+		 * (siblingsWeights) are split in two slices exactly in the current
+		 * head index (idxHead). The idxHead index does not contain any valid
+		 * node, since it is impossible to connect a node to itself (there is
+		 * no self-loop arc). On the other hand, the siblings model considers
+		 * two special nodes, START and END, that represent the fixed, and
+		 * artificial, first and last nodes of any sequence of modifiers. Thus,
+		 * for left modifiers, we use the idxHead index to represent the START
+		 * and END symbols for left modifiers (modifiers that lie on the left
+		 * side of the current head). Additionally, we use the numberOfNodes
+		 * index to represent the START and END symbols for RIGHT modifiers.
+		 * Therefore, the arrays sinblingsWeights and previousModifiers must
+		 * contain (numberOfNodes + 1) positions.
+		 */
+		private int[] previousModifiers;
+
+		/**
+		 * Dynamic programming table that stores the accumulated weight up to
+		 * each modifier for the best solution that includes the corresponding
+		 * modifier. The indexes idxHead and numberOfNodes are used to store the
+		 * weight of the two final solutions, for left and right modifiers,
+		 * respectively.
+		 */
+		private double[] accumWeights;
+
+		/**
+		 * Store the best solution of modifiers (in the same format as in
+		 * <code>previousModifiers</code>) among all grandparents.
+		 */
+		private int[] bestPreviousModifiers;
+
+		/**
+		 * Allocate buffers for instances with up to
+		 * <code>maxNumberOfNodes</code> nodes.
+		 * 
+		 * @param maxNumberOfNodes
+		 */
+		public Workspace(int maxNumberOfNodes) {
+			accumWeights = new double[maxNumberOfNodes + 1];
+			previousModifiers = new int[maxNumberOfNodes + 1];
+			bestPreviousModifiers = new int[maxNumberOfNodes + 1];
+		}
+	}
 }
@@ -0,0 +1,194 @@
+package br.pucrio.inf.learn.util.maxbranching;
+
+import java.util.Arrays;
+
+/**
+ * List of weighted edges stored in parallel primitive arrays (from, to and
+ * weight) that can be visited in decreasing order of weight. Instead of sorting
+ * all edges, a binary max-heap of edge indexes is built in linear time and the
+ * edges are extracted lazily. Thus, algorithms that stop early (like Kruskal,
+ * which only needs to accept <code>n-1</code> edges) do not pay for a full
+ * sort.
+ * 
+ * Edges with the same weight are extracted in the order they were added, which
+ * is the order given by a stable sort.
+ * 
+ * @author eraldo
+ * 
+ */
+public class EdgeHeap {
+
+	/**
+	 * Source node of each edge.
+	 */
+	private int[] from;
+
+	/**
+	 * Target node of each edge.
+	 */
+	private int[] to;
+
+	/**
+	 * Weight of each edge.
+	 */
+	private double[] weight;
+
+	/**
+	 * Number of edges.
+	 */
+	private int size;
+
+	/**
+	 * Heap of edge indexes.
+	 */
+	private int[] heap;
+
+	/**
+	 * Number of edges in the heap.
+	 */
+	private int heapSize;
+
+	/**
+	 * Create an empty list with the given initial capacity.
+	 * 
+	 * @param capacity
+	 */
+	public EdgeHeap(int capacity) {
+		capacity = Math.max(capacity, 16);
+		from = new int[capacity];
+		to = new int[capacity];
+		weight = new double[capacity];
+		heap = new int[capacity];
+	}
+
+	/**
+	 * Remove all edges.
+	 */
+	public void clear() {
+		size = 0;
+		heapSize = 0;
+	}
+
+	/**
+	 * Guarantee that the arrays can store the given number of edges.
+	 * 
+	 * @param capacity
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity <= from.length)
+			return;
+		capacity = Math.max(capacity, 2 * from.length);
+		from = Arrays.copyOf(from, capacity);
+		to = Arrays.copyOf(to, capacity);
+		weight = Arrays.copyOf(weight, capacity);
+		heap = new int[capacity];
+	}
+
+	/**
+	 * Add an edge to the list. Edges cannot be added after the heap is built.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param weight
+	 */
+	public void add(int from, int to, double weight) {
+		if (size == this.from.length)
+			ensureCapacity(size + 1);
+		this.from[size] = from;
+		this.to[size] = to;
+		this.weight[size] = weight;
+		++size;
+	}
+
+	/**
+	 * Return the number of edges.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getFrom(int edge) {
+		return from[edge];
+	}
+
+	public int getTo(int edge) {
+		return to[edge];
+	}
+
+	public double getWeight(int edge) {
+		return weight[edge];
+	}
+
+	/**
+	 * Build the heap with all the edges in the list (linear time).
+	 */
+	public void buildHeap() {
+		for (int edge = 0; edge < size; ++edge)
+			heap[edge] = edge;
+		heapSize = size;
+		for (int pos = heapSize / 2 - 1; pos >= 0; --pos)
+			siftDown(pos);
+	}
+
+	/**
+	 * Return whether there is some edge left in the heap.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return heapSize == 0;
+	}
+
+	/**
+	 * Remove the edge with the largest weight from the heap and return its
+	 * index.
+	 * 
+	 * @return
+	 */
+	public int poll() {
+		int top = heap[0];
+		--heapSize;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			siftDown(0);
+		}
+		return top;
+	}
+
+	/**
+	 * Return whether edge <code>e1</code> must be extracted before edge
+	 * <code>e2</code>.
+	 * 
+	 * @param e1
+	 * @param e2
+	 * @return
+	 */
+	private boolean before(int e1, int e2) {
+		if (weight[e1] != weight[e2])
+			return weight[e1] > weight[e2];
+		return e1 < e2;
+	}
+
+	/**
+	 * Move down the edge at the given heap position.
+	 * 
+	 * @param pos
+	 */
+	private void siftDown(int pos) {
+		int edge = heap[pos];
+		int half = heapSize / 2;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < heapSize && before(heap[right], heap[child]))
+				child = right;
+			if (!before(heap[child], edge))
+				break;
+			heap[pos] = heap[child];
+			pos = child;
+		}
+		heap[pos] = edge;
+	}
+}
@@ -1,8 +1,6 @@
 package br.pucrio.inf.learn.util.maxbranching;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
 
@@ -13,6 +11,10 @@ import java.util.LinkedList;
  * tries first the edge (i,j). If this edge doest not exist, it uses the (j,i)
  * edge
  * 
+ * Edges are stored in primitive arrays and visited in decreasing order of
+ * weight through a lazy heap ({@link EdgeHeap}). Only the selected edges are
+ * allocated as objects.
+ * 
  * @author eraldo
  * 
  */
@@ -21,7 +23,7 @@ public class KruskalAlgorithm {
 	/**
 	 * List of all edges.
 	 */
-	private ArrayList<SimpleWeightedEdge> edges;
+	private EdgeHeap edges;
 
 	/**
 	 * Whether to avoid negative-weight edges.
@@ -76,27 +78,63 @@ public class KruskalAlgorithm {
 			Collection<SimpleWeightedEdge> mst, DisjointSets partition) {
 		// Clear the list of all edges.
 		edges.clear();
+		// Add feasible edges with their weights to the list.
+		for (int from = 0; from < numberOfNodes; ++from)
+			for (int to = 0; to < numberOfNodes; ++to)
+				addEdge(from, to, graph[from][to]);
+		return findMaxBranching(numberOfNodes, mst, partition);
+	}
+
+	/**
+	 * Remove all edges from the edge list used by
+	 * {@link #findMaxBranching(int, Collection, DisjointSets)}.
+	 */
+	public void clearEdges() {
+		edges.clear();
+	}
+
+	/**
+	 * Add the given edge to the edge list used by
+	 * {@link #findMaxBranching(int, Collection, DisjointSets)}. Auto-cycle
+	 * arcs, inexistent edges (<code>NaN</code> weight) and, when required so,
+	 * negative edges are skipped. Edges with the same weight are selected in
+	 * the order they are added.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param weight
+	 */
+	public void addEdge(int from, int to, double weight) {
+		if (from == to)
+			// Skip auto-cycle arcs.
+			return;
+		if (Double.isNaN(weight))
+			// Skip inexistent edges.
+			return;
+		if (onlyPositiveEdges && weight < 0d)
+			// Skip negative edges, when required so.
+			return;
+		// Feasible edge.
+		edges.add(from, to, weight);
+	}
+
+	/**
+	 * Find the maximum spanning tree over the edges previously given to
+	 * {@link #addEdge(int, int, double)}. This is useful for sparse graphs,
+	 * whose edges can be enumerated without visiting every pair of nodes.
+	 * 
+	 * @param numberOfNodes
+	 * @param mst
+	 * @param partition
+	 * @return the weight of the built tree.
+	 */
+	public double findMaxBranching(int numberOfNodes,
+			Collection<SimpleWeightedEdge> mst, DisjointSets partition) {
 		// Clear MST.
 		mst.clear();
-		// Add feasible edges with their weights to the list.
-		for (int from = 0; from < numberOfNodes; ++from) {
-			for (int to = 0; to < numberOfNodes; ++to) {
-				if (from == to)
-					// Skip auto-cycle arcs.
-					continue;
-				if (Double.isNaN(graph[from][to]))
-					// Skip inexistent edges.
-					continue;
-				if (onlyPositiveEdges && graph[from][to] < 0d)
-					// Skip negative edges, when required so.
-					continue;
-				// Feasible edge.
-				edges.add(new SimpleWeightedEdge(from, to, graph[from][to]));
-			}
-		}
 
-		// Sort edges in the inverse order of their weights.
-		Collections.sort(edges, comp);
+		// Visit edges in the inverse order of their weights.
+		edges.buildHeap();
 
 		// Initialize the disjoint sets (one component for each node).
 		partition.clear(numberOfNodes);
@@ -104,16 +142,20 @@ public class KruskalAlgorithm {
 		// Greedily select edges while avoiding cycles.
 		double totalWeight = 0d;
 		int numComponents = numberOfNodes;
-		for (SimpleWeightedEdge edge : edges) {
+		while (numComponents > minComponents && !edges.isEmpty()) {
+			int edge = edges.poll();
+			int from = edges.getFrom(edge);
+			int to = edges.getTo(edge);
 			/*
 			 * If edge connects two components, merge them and add this edge to
 			 * the MST.
 			 */
-			if (partition.unionElements(edge.from, edge.to)) {
+			if (partition.unionElements(from, to)) {
+				double weight = edges.getWeight(edge);
 				// Add edge to the tree.
-				mst.add(edge);
+				mst.add(new SimpleWeightedEdge(from, to, weight));
 				// Account for its weight.
-				totalWeight += edge.weight;
+				totalWeight += weight;
 				// Decrement number of components.
 				--numComponents;
 				// Stop, if achieved the required number of components.
@@ -133,10 +175,9 @@ public class KruskalAlgorithm {
 	 */
 	public void realloc(int maxNumberOfNodes) {
 		if (edges != null)
-			edges.ensureCapacity(maxNumberOfNodes);
+			edges.ensureCapacity(maxNumberOfNodes * (maxNumberOfNodes - 1));
 		else
-			edges = new ArrayList<SimpleWeightedEdge>(maxNumberOfNodes
-					* (maxNumberOfNodes - 1));
+			edges = new EdgeHeap(maxNumberOfNodes * (maxNumberOfNodes - 1));
 	}
 
 	public void setOnlyPositiveEdges(boolean val) {
@@ -40,6 +40,13 @@ public class SparseGraph {
 		outEdges.add(to);
 	}
 
+	/**
+	 * Remove all edges from this graph.
+	 */
+	public void clear() {
+		edges.clear();
+	}
+
 	/**
 	 * Return a linked list (possibly null) with the outgoing edges of node
 	 * <code>from</code>.
@@ -0,0 +1,470 @@
+package br.pucrio.inf.learn.util.maxbranching;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Chu-Liu-Edmonds' algorithm for finding a maximum branching in a directed
+ * graph whose edges have been sparsified, e.g., by a pruning step that keeps
+ * only a few candidate heads per node.
+ *
+ * This implementation follows the same steps of
+ * {@link DirectedMaxBranchAlgorithm}, but each SCC keeps an explicit list of
+ * the start nodes of its incoming edges. Thus, the loops that, in the dense
+ * implementation, walk through all nodes in the graph only walk through the
+ * existing incoming edges of the involved SCCs. The weight matrix is still
+ * given as a dense matrix, but only the entries corresponding to existing
+ * edges are accessed.
+ *
+ * @author eraldo
+ *
+ */
+public class SparseMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
+	/**
+	 * Logging object.
+	 */
+	private final static Log LOG = LogFactory
+			.getLog(SparseMaxBranchAlgorithm.class);
+
+	/**
+	 * Union-find data structure to store the partition of the strongly
+	 * connected components (SCCs).
+	 */
+	private DisjointSets sPartition;
+
+	/**
+	 * Union-find data structure to store the partition of the weakly connected
+	 * components (WCCs).
+	 */
+	private DisjointSets wPartition;
+
+	/**
+	 * Priority queue of incoming edges for each SCC (see
+	 * {@link DirectedMaxBranchAlgorithm}). Between two calls, every entry in
+	 * this matrix is equal to -1. During a call, only the entries listed in
+	 * <code>inFromNodes</code> are different from -1.
+	 */
+	private int[][] incomingEdges;
+
+	/**
+	 * For each SCC, list of start nodes <code>from</code> such that
+	 * <code>incomingEdges[scc][from]</code> is not -1.
+	 */
+	private int[][] inFromNodes;
+
+	/**
+	 * Number of elements in each list of <code>inFromNodes</code>.
+	 */
+	private int[] numInFromNodes;
+
+	/**
+	 * Origin node of the unique incoming edge for each SCC.
+	 */
+	private int[] enterFromNode;
+
+	/**
+	 * Destin node of the unique incoming edge for each SCC.
+	 */
+	private int[] enterToNode;
+
+	/**
+	 * For each SCC, store the destin node whose incoming edge has the minimum
+	 * weight within the current branching.
+	 */
+	private int[] min;
+
+	/**
+	 * Edges in the maximum branching, represented by lists of outgoing nodes.
+	 * As in the dense implementation, it may include additional edges that
+	 * form cycles.
+	 */
+	private int[][] maxBranching;
+
+	/**
+	 * Number of elements in each list of <code>maxBranching</code>.
+	 */
+	private int[] numMaxBranching;
+
+	/**
+	 * Auxiliar array to graph search.
+	 */
+	private boolean[] visited;
+
+	/**
+	 * Auxiliar stacks of nodes and positions within their outgoing lists to
+	 * walk through the branching without recursion.
+	 */
+	private int[] stackNodes;
+
+	private int[] stackPositions;
+
+	/**
+	 * If <code>true</code>, then emit a warn whenever the predicted branching
+	 * comprises more than one root node.
+	 */
+	private boolean checkUniqueRoot;
+
+	/**
+	 * Specify whether negative edges are included when no other option exists.
+	 */
+	private boolean onlyPositiveEdges;
+
+	/**
+	 * Allocate data structures to deal with the given maximum number of nodes.
+	 *
+	 * @param maxNumberOfNodes
+	 */
+	public SparseMaxBranchAlgorithm(int maxNumberOfNodes) {
+		realloc(maxNumberOfNodes);
+		checkUniqueRoot = true;
+	}
+
+	@Override
+	public void realloc(int maxNumberOfNodes) {
+		sPartition = new DisjointSets(maxNumberOfNodes);
+		wPartition = new DisjointSets(maxNumberOfNodes);
+		incomingEdges = new int[maxNumberOfNodes][maxNumberOfNodes];
+		for (int scc = 0; scc < maxNumberOfNodes; ++scc)
+			Arrays.fill(incomingEdges[scc], -1);
+		inFromNodes = new int[maxNumberOfNodes][];
+		numInFromNodes = new int[maxNumberOfNodes];
+		enterFromNode = new int[maxNumberOfNodes];
+		enterToNode = new int[maxNumberOfNodes];
+		min = new int[maxNumberOfNodes];
+		maxBranching = new int[maxNumberOfNodes][];
+		numMaxBranching = new int[maxNumberOfNodes];
+		visited = new boolean[maxNumberOfNodes];
+		stackNodes = new int[maxNumberOfNodes];
+		stackPositions = new int[maxNumberOfNodes];
+	}
+
+	/**
+	 * Find a maximum branching considering every non-NaN edge in the given
+	 * graph.
+	 */
+	@Override
+	public double findMaxBranching(int numberOfNodes, double[][] graph,
+			int[] invertedMaxBranching) {
+		for (int to = 0; to < numberOfNodes; ++to) {
+			numInFromNodes[to] = 0;
+			for (int from = 0; from < numberOfNodes; ++from)
+				if (from != to && !Double.isNaN(graph[from][to]))
+					addInFromNode(to, from);
+		}
+		return findMaxBranchingFromLists(numberOfNodes, graph,
+				invertedMaxBranching);
+	}
+
+	/**
+	 * Find a maximum branching considering only the edges in the given sparse
+	 * graph. The weights of these edges are given by <code>graph</code>. Edges
+	 * whose weight is NaN are ignored.
+	 *
+	 * @param numberOfNodes
+	 * @param graph
+	 * @param edges
+	 * @param invertedMaxBranching
+	 * @return the weight of the built solution.
+	 */
+	public double findMaxBranching(int numberOfNodes, double[][] graph,
+			SparseGraph edges, int[] invertedMaxBranching) {
+		Arrays.fill(numInFromNodes, 0, numberOfNodes, 0);
+		for (Entry<Integer, Set<Integer>> adj : edges.getAdjacencySet()) {
+			int from = adj.getKey();
+			if (from >= numberOfNodes)
+				continue;
+			for (int to : adj.getValue())
+				if (to < numberOfNodes && from != to
+						&& !Double.isNaN(graph[from][to]))
+					addInFromNode(to, from);
+		}
+		return findMaxBranchingFromLists(numberOfNodes, graph,
+				invertedMaxBranching);
+	}
+
+	/**
+	 * Include the edge <code>from</code>-><code>scc</code> in the priority
+	 * queue of the given SCC.
+	 *
+	 * @param scc
+	 * @param from
+	 */
+	private void addInFromNode(int scc, int from) {
+		int[] nodes = inFromNodes[scc];
+		int size = numInFromNodes[scc];
+		if (nodes == null || size == nodes.length) {
+			nodes = Arrays.copyOf(nodes == null ? new int[0] : nodes,
+					Math.max(4, 2 * size));
+			inFromNodes[scc] = nodes;
+		}
+		nodes[size] = from;
+		numInFromNodes[scc] = size + 1;
+		if (incomingEdges[scc][from] == -1)
+			incomingEdges[scc][from] = scc;
+	}
+
+	/**
+	 * Include the given edge in the current branching.
+	 *
+	 * @param from
+	 * @param to
+	 */
+	private void addBranchingEdge(int from, int to) {
+		int[] nodes = maxBranching[from];
+		int size = numMaxBranching[from];
+		if (nodes == null || size == nodes.length) {
+			nodes = Arrays.copyOf(nodes == null ? new int[0] : nodes,
+					Math.max(4, 2 * size));
+			maxBranching[from] = nodes;
+		}
+		nodes[size] = to;
+		numMaxBranching[from] = size + 1;
+	}
+
+	/**
+	 * Find the maximum branching using the priority queues previously filled
+	 * in <code>inFromNodes</code> and <code>incomingEdges</code>.
+	 *
+	 * @param numberOfNodes
+	 * @param graph
+	 * @param invertedMaxBranching
+	 * @return
+	 */
+	private double findMaxBranchingFromLists(int numberOfNodes,
+			double[][] graph, int[] invertedMaxBranching) {
+		// Maximum branching is initially empty.
+		Arrays.fill(numMaxBranching, 0, numberOfNodes, 0);
+
+		// Partitions initially comprise isolated nodes.
+		sPartition.clear(numberOfNodes);
+		wPartition.clear(numberOfNodes);
+
+		// In the beginning, every SCC is a root component.
+		LinkedList<Integer> rootComponents = new LinkedList<Integer>();
+		for (int scc = 0; scc < numberOfNodes; ++scc) {
+			rootComponents.add(scc);
+			min[scc] = scc;
+			enterFromNode[scc] = -1;
+			enterToNode[scc] = -1;
+		}
+
+		// Root components with no available incoming edges.
+		LinkedList<Integer> doneRootComponents = new LinkedList<Integer>();
+
+		while (!rootComponents.isEmpty()) {
+			// Get some arbitrary root component.
+			int sccTo = rootComponents.pop();
+
+			// Find the maximum edge entering the component 'sccTo'.
+			int[] froms = inFromNodes[sccTo];
+			int maxInEdgePos = -1;
+			int maxInEdgeFromNode = -1;
+			double maxInEdgeWeight = Double.NEGATIVE_INFINITY;
+			for (int pos = 0; pos < numInFromNodes[sccTo]; ++pos) {
+				int from = froms[pos];
+				double w = graph[from][incomingEdges[sccTo][from]];
+				if (w > maxInEdgeWeight && (!onlyPositiveEdges || w >= 0d)) {
+					maxInEdgePos = pos;
+					maxInEdgeFromNode = from;
+					maxInEdgeWeight = w;
+				}
+			}
+
+			if (maxInEdgeFromNode == -1) {
+				// No edge left to consider in this component. So, it is done.
+				doneRootComponents.add(sccTo);
+				continue;
+			}
+
+			/*
+			 * Get the end node of the selected edge and remove the edge from
+			 * the SCC priority queue (swap with the last element).
+			 */
+			int maxInEdgeToNode = incomingEdges[sccTo][maxInEdgeFromNode];
+			incomingEdges[sccTo][maxInEdgeFromNode] = -1;
+			froms[maxInEdgePos] = froms[--numInFromNodes[sccTo]];
+
+			// SCC component of the start node of the maximum edge.
+			int sccFrom = sPartition.find(maxInEdgeFromNode);
+
+			if (sccFrom == sccTo) {
+				// Intern edge. Consider its component again later.
+				rootComponents.add(sccTo);
+				continue;
+			}
+
+			// Include the selected edge in the current branching.
+			addBranchingEdge(maxInEdgeFromNode, maxInEdgeToNode);
+
+			// WCC components of the start and end nodes.
+			int wssFrom = wPartition.find(maxInEdgeFromNode);
+			int wssTo = wPartition.find(maxInEdgeToNode);
+
+			// Edge connects two different WCCs.
+			if (wssFrom != wssTo) {
+				wPartition.union(wssFrom, wssTo);
+				enterFromNode[sccTo] = maxInEdgeFromNode;
+				enterToNode[sccTo] = maxInEdgeToNode;
+				continue;
+			}
+
+			/*
+			 * Edge is within the same WCC, thus its inclusion creates a new SCC.
+			 * First, find the minimum edge to be removed among all SCCs that
+			 * will be united.
+			 */
+			double minEdgeWeight = Double.POSITIVE_INFINITY;
+			int minScc = -1;
+			int tmpEdgeFromNode = maxInEdgeFromNode;
+			int tmpEdgeToNode = maxInEdgeToNode;
+			while (tmpEdgeFromNode != -1) {
+				double tmpEdgeWeight = graph[tmpEdgeFromNode][tmpEdgeToNode];
+				if (tmpEdgeWeight < minEdgeWeight) {
+					minEdgeWeight = tmpEdgeWeight;
+					minScc = sPartition.find(tmpEdgeToNode);
+				}
+
+				// Next edge.
+				int tmpScc = sPartition.find(tmpEdgeFromNode);
+				tmpEdgeFromNode = enterFromNode[tmpScc];
+				tmpEdgeToNode = enterToNode[tmpScc];
+			}
+
+			// Set the head of the current SCC.
+			min[sccTo] = min[minScc];
+
+			// Increment incoming edges weights.
+			double inc = minEdgeWeight - maxInEdgeWeight;
+			for (int pos = 0; pos < numInFromNodes[sccTo]; ++pos) {
+				int from = froms[pos];
+				graph[from][incomingEdges[sccTo][from]] += inc;
+			}
+
+			// Include all used SCCs in the current SCC 'sccTo'.
+			tmpEdgeFromNode = enterFromNode[sccFrom];
+			tmpEdgeToNode = enterToNode[sccFrom];
+			while (tmpEdgeFromNode != -1) {
+				/*
+				 * Increment incoming edges weight and include them in the
+				 * current SCC priority queue.
+				 */
+				int tmpSccTo = sPartition.find(tmpEdgeToNode);
+				double tmpEdgeWeight = graph[tmpEdgeFromNode][tmpEdgeToNode];
+				inc = minEdgeWeight - tmpEdgeWeight;
+				int[] tmpFroms = inFromNodes[tmpSccTo];
+				for (int pos = 0; pos < numInFromNodes[tmpSccTo]; ++pos) {
+					int from = tmpFroms[pos];
+					int tmpTo = incomingEdges[tmpSccTo][from];
+					graph[from][tmpTo] += inc;
+					int to = incomingEdges[sccTo][from];
+					if (to == -1) {
+						addInFromNode(sccTo, from);
+						incomingEdges[sccTo][from] = tmpTo;
+					} else if (graph[from][tmpTo] > graph[from][to])
+						incomingEdges[sccTo][from] = tmpTo;
+				}
+
+				// Unite the two SCCs.
+				sPartition.union(sccTo, tmpSccTo);
+
+				// Next edge.
+				int tmpScc = sPartition.find(tmpEdgeFromNode);
+				tmpEdgeFromNode = enterFromNode[tmpScc];
+				tmpEdgeToNode = enterToNode[tmpScc];
+			}
+
+			// Include the new SCC to be considered in the future.
+			rootComponents.add(sccTo);
+		}
+
+		if (checkUniqueRoot && !onlyPositiveEdges
+				&& doneRootComponents.size() > 1)
+			LOG.warn("Final root components list contains more than one element");
+
+		// Restore the priority queues to their empty state.
+		for (int scc = 0; scc < numberOfNodes; ++scc) {
+			int[] froms = inFromNodes[scc];
+			for (int pos = 0; pos < numInFromNodes[scc]; ++pos)
+				incomingEdges[scc][froms[pos]] = -1;
+			numInFromNodes[scc] = 0;
+		}
+
+		// Invert the maximum branching and compute its weight.
+		double weight = 0d;
+		Arrays.fill(visited, 0, numberOfNodes, false);
+		Arrays.fill(invertedMaxBranching, 0, numberOfNodes, -1);
+		for (int scc : doneRootComponents)
+			weight += invertBranching(graph, min[scc], invertedMaxBranching);
+
+		// Return the weight of the built solution.
+		return weight;
+	}
+
+	/**
+	 * Walk through the current branching from <code>node</code> and store the
+	 * inverted branching in <code>invertedMaxBranching</code>. The walk
+	 * follows the same (depth-first, increasing node) order used by the dense
+	 * implementation, but uses an explicit stack instead of recursion.
+	 *
+	 * @param graph
+	 * @param node
+	 * @param invertedBranching
+	 * @return the weight of the subtree under <code>node</code>.
+	 */
+	private double invertBranching(final double[][] graph, int node,
+			int[] invertedBranching) {
+		double weight = 0d;
+		visited[node] = true;
+		if (maxBranching[node] != null)
+			Arrays.sort(maxBranching[node], 0, numMaxBranching[node]);
+		int top = 0;
+		stackNodes[0] = node;
+		stackPositions[0] = 0;
+		while (top >= 0) {
+			int from = stackNodes[top];
+			int pos = stackPositions[top];
+			if (pos == numMaxBranching[from]) {
+				--top;
+				continue;
+			}
+			stackPositions[top] = pos + 1;
+			int to = maxBranching[from][pos];
+			if (visited[to])
+				continue;
+			visited[to] = true;
+			invertedBranching[to] = from;
+			weight += graph[from][to];
+			if (maxBranching[to] != null)
+				Arrays.sort(maxBranching[to], 0, numMaxBranching[to]);
+			++top;
+			stackNodes[top] = to;
+			stackPositions[top] = 0;
+		}
+		return weight;
+	}
+
+	@Override
+	public void setCheckUniqueRoot(boolean check) {
+		checkUniqueRoot = check;
+	}
+
+	@Override
+	public boolean isCheckUniqueRoot() {
+		return checkUniqueRoot;
+	}
+
+	@Override
+	public void setOnlyPositiveEdges(boolean val) {
+		onlyPositiveEdges = val;
+	}
+
+	@Override
+	public boolean isOnlyPositiveEdges() {
+		return onlyPositiveEdges;
+	}
+}
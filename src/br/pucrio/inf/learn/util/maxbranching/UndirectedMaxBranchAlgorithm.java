@@ -1,9 +1,6 @@
 package br.pucrio.inf.learn.util.maxbranching;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 
 /**
  * Implement a maximum branching algorithm for undirected graphs. A directed
@@ -12,6 +9,10 @@ import java.util.Comparator;
  * tries first the edge (i,j). If this edge doest not exist, it uses the (j,i)
  * edge
  * 
+ * Edges are stored in primitive arrays and visited in decreasing order of
+ * weight through a lazy heap ({@link EdgeHeap}), so that the algorithm stops as
+ * soon as the spanning tree is complete. The tree is oriented iteratively.
+ * 
  * @author eraldo
  * 
  */
@@ -20,7 +21,7 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 	/**
 	 * List of all edges.
 	 */
-	private ArrayList<SimpleWeightedEdge> edges;
+	private EdgeHeap edges;
 
 	/**
 	 * Used to walk through the spanning tree.
@@ -28,10 +29,20 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 	private boolean[] visited;
 
 	/**
-	 * Incidence matrix that represents the maximum spanning tree. Only the
-	 * superior diagonal matrix is used.
+	 * Adjacency lists of the maximum spanning tree: the first adjacency of
+	 * each node, the next adjacency of each adjacency and the neighbor node of
+	 * each adjacency.
+	 */
+	private int[] firstAdjacency;
+
+	private int[] nextAdjacency;
+
+	private int[] adjacentNode;
+
+	/**
+	 * Stack of nodes used to orient the tree.
 	 */
-	private boolean[][] incidence;
+	private int[] stack;
 
 	/**
 	 * Connected components.
@@ -43,20 +54,6 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 	 */
 	private boolean onlyPositiveEdges;
 
-	/**
-	 * Simple edge comparator.
-	 */
-	private final static Comparator<SimpleWeightedEdge> comp = new Comparator<SimpleWeightedEdge>() {
-		@Override
-		public int compare(SimpleWeightedEdge o1, SimpleWeightedEdge o2) {
-			if (o1.weight > o2.weight)
-				return -1;
-			if (o1.weight < o2.weight)
-				return 1;
-			return 0;
-		}
-	};
-
 	/**
 	 * Create a undirected maximum branching algorithm (Kruskal) that is able to
 	 * handle graphs with up to the given <code>maxNumberOfNodes</code> nodes.
@@ -74,39 +71,45 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 		edges.clear();
 		// Add edges with their weights to the list.
 		for (int from = 0; from < numberOfNodes; ++from) {
+			double[] weights = graph[from];
 			for (int to = 0; to < numberOfNodes; ++to) {
 				if (from == to)
 					// Skip auto-cycle arcs.
 					continue;
-				if (!Double.isNaN(graph[from][to])
-						&& (!onlyPositiveEdges || graph[from][to] >= 0d))
-					edges.add(new SimpleWeightedEdge(from, to, graph[from][to]));
+				double w = weights[to];
+				if (!Double.isNaN(w) && (!onlyPositiveEdges || w >= 0d))
+					edges.add(from, to, w);
 			}
 		}
-		// Sort edges by weight.
-		Collections.sort(edges, comp);
+		// Visit edges by decreasing weight.
+		edges.buildHeap();
 
 		// Initialize the disjoint sets (one component for each node).
 		partition.clear(numberOfNodes);
 
-		for (int from = 0; from < numberOfNodes; ++from)
-			Arrays.fill(incidence[from], from + 1, numberOfNodes, false);
+		// Empty tree.
+		Arrays.fill(firstAdjacency, 0, numberOfNodes, -1);
+		int numAdjacencies = 0;
 
 		// Greedily select edges while avoiding cycles.
 		double weight = 0d;
-		for (SimpleWeightedEdge edge : edges) {
-			// Component id of the source node.
-			int pFrom = partition.find(edge.from);
-			// Component id of the target node.
-			int pTo = partition.find(edge.to);
+		int numTreeEdges = 0;
+		while (numTreeEdges < numberOfNodes - 1 && !edges.isEmpty()) {
+			int edge = edges.poll();
+			int from = edges.getFrom(edge);
+			int to = edges.getTo(edge);
 			// Add edge if it does not create a cycle.
-			if (pFrom != pTo) {
-				// Connect the two components.
-				partition.union(pFrom, pTo);
-				// Add edge to the tree.
-				incidence[edge.from][edge.to] = true;
+			if (partition.unionElements(from, to)) {
+				// Add edge to the tree (in both directions).
+				adjacentNode[numAdjacencies] = to;
+				nextAdjacency[numAdjacencies] = firstAdjacency[from];
+				firstAdjacency[from] = numAdjacencies++;
+				adjacentNode[numAdjacencies] = from;
+				nextAdjacency[numAdjacencies] = firstAdjacency[to];
+				firstAdjacency[to] = numAdjacencies++;
 				// Account for its weight.
-				weight += edge.weight;
+				weight += edges.getWeight(edge);
+				++numTreeEdges;
 			}
 		}
 
@@ -115,13 +118,13 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 
 		/*
 		 * Orient edges to allow its representation in the incoming edges array.
-		 * This process may include inexistent edges (as of the used
-		 * orientation).
+		 * Each component is rooted at its smallest node. This process may
+		 * include inexistent edges (as of the used orientation).
 		 */
 		Arrays.fill(visited, 0, numberOfNodes, false);
-		for (int from = 0; from < numberOfNodes; ++from)
-			if (!visited[from])
-				orient(from, numberOfNodes, invertedMaxBranching);
+		for (int root = 0; root < numberOfNodes; ++root)
+			if (!visited[root])
+				orient(root, invertedMaxBranching);
 
 		// Return the weight of the created tree.
 		return weight;
@@ -129,37 +132,25 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 
 	/**
 	 * Fill the inverted branching array (incoming edges array) by performing an
-	 * orientation in the tree given by the <code>incidence</code> matrix.
+	 * orientation of the component of the spanning tree that includes the
+	 * given root node. A depth-first traversal with an explicit stack is used.
 	 * 
-	 * @param node
-	 * @param numberOfNodes
+	 * @param root
 	 * @param invertedBranching
 	 */
-	private void orient(int node, int numberOfNodes, int[] invertedBranching) {
-		// Flag this node as visited.
-		visited[node] = true;
-
-		// Consider arcs leaving the given node (node).
-		for (int to = 0; to < numberOfNodes; ++to) {
-			if (node == to)
-				// Skip auto-cycle arcs.
-				continue;
-
-			if (!visited[to] && incidence[node][to]) {
-				invertedBranching[to] = node;
-				orient(to, numberOfNodes, invertedBranching);
-			}
-		}
-
-		// Consider arcs arriving at the given node (node).
-		for (int from = 0; from < numberOfNodes; ++from) {
-			if (node == from)
-				// Skip auto-cycle arcs.
-				continue;
-
-			if (!visited[from] && incidence[from][node]) {
-				invertedBranching[from] = node;
-				orient(from, numberOfNodes, invertedBranching);
+	private void orient(int root, int[] invertedBranching) {
+		visited[root] = true;
+		int top = 0;
+		stack[top++] = root;
+		while (top > 0) {
+			int node = stack[--top];
+			for (int adj = firstAdjacency[node]; adj >= 0; adj = nextAdjacency[adj]) {
+				int neighbor = adjacentNode[adj];
+				if (!visited[neighbor]) {
+					visited[neighbor] = true;
+					invertedBranching[neighbor] = node;
+					stack[top++] = neighbor;
+				}
 			}
 		}
 	}
@@ -169,10 +160,12 @@ public class UndirectedMaxBranchAlgorithm implements MaximumBranchingAlgorithm {
 		if (visited != null && visited.length >= maxNumberOfNodes)
 			return;
 		partition = new DisjointSets(maxNumberOfNodes);
-		edges = new ArrayList<SimpleWeightedEdge>(maxNumberOfNodes
-				* (maxNumberOfNodes - 1));
+		edges = new EdgeHeap(maxNumberOfNodes * (maxNumberOfNodes - 1));
 		visited = new boolean[maxNumberOfNodes];
-		incidence = new boolean[maxNumberOfNodes][maxNumberOfNodes];
+		firstAdjacency = new int[maxNumberOfNodes];
+		nextAdjacency = new int[2 * maxNumberOfNodes];
+		adjacentNode = new int[2 * maxNumberOfNodes];
+		stack = new int[maxNumberOfNodes];
 	}
 
 	@Override